@@ -0,0 +1,47 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.model.Message;
+import server.controller.MessageController;
+import server.model.Frame;
+
+/**
+ * Broadcasts a new group message to every user, each user's frame is written on the broadcasting thread to a sink
+ * writer, so the result covers the fan-out loop, the shared encoding and the per-recipient write
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({ "10", "100", "1000" })
+    private int recipientCount;
+    private MessageController messageController;
+
+    @Setup
+    public void setUp() {
+        messageController = new MessageController(Users.createUserManager(recipientCount));
+        messageController.start();
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        Message message = Message.sendMessage("User1", "Group", "See you all in five minutes.");
+        messageController.broadcastFrame(Frame.of(message));
+    }
+}
@@ -0,0 +1,82 @@
+package benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.model.Message;
+import common.util.MessageFormatter;
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Formats and parses one typical message of each type with the text protocol, user lists carry ten users
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageFormatterBenchmark {
+    @Param
+    private Message.Type type; // Every type when no value is given
+    private Message message;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        UserManager userManager = Users.createUserManager(10);
+        Map<String, Map<String, String>> users = userManager.getAllUserDetails();
+        Map<String, String> details = userManager.getUserDetails("User1", true);
+
+        message = switch (type) {
+            case USER_JOIN -> Message.requestJoin("User1", Map.of("protocol", "text"));
+            case ACCEPT_USER_JOIN -> Message.acceptJoin("User1",
+                    Map.of(Message.TOKEN_OPTION, "bDk1c2VjcmV0dG9rZW4", Message.EPOCH_OPTION, "1700000000000"));
+            case REJECT_USER_JOIN -> Message.rejectJoin("User1");
+            case OPEN_PRIVATE_CHAT -> Message.openPrivateChat("User1", "User2");
+            case CLOSE_PRIVATE_CHAT -> Message.closePrivateChat("User1");
+            case USER_DETAILS_REQUEST -> Message.requestUserDetails("User1", "User2");
+            case USER_DETAILS_RESPONSE -> Message.respondUserDetails("User1", details);
+            case MESSAGE -> Message.sendMessage("User1", "Group", "Is everyone ready for the meeting at three?", 42);
+            case USER_LIST -> Message.sendUserList(users, 7);
+            case USER_ADDED -> Message.sendUserAdded(details, 8);
+            case USER_REMOVED -> Message.sendUserRemoved("User2", 9);
+            case USER_UPDATED -> Message.sendUserUpdated(details, 10);
+            case USER_LIST_UPDATE -> Message.sendUserListUpdate(Map.of("User2", users.get("User2")), 11);
+            case USER_LIST_REQUEST -> Message.requestUserList("User1");
+            case STATUS_UPDATE -> Message.updateStatus("User1");
+            case NODE_HELLO -> Message.nodeHello("node1", "secret", users);
+            case REPLICA_HELLO -> Message.replicaHello("1700000000000", "User1", users);
+            case CREATE_ROOM -> Message.createRoom("User1", "#team");
+            case JOIN_ROOM -> Message.joinRoom("User1", "#team");
+            case LEAVE_ROOM -> Message.leaveRoom("User1", "#team");
+            case PING -> Message.ping("User1");
+            case PONG -> Message.pong("User1");
+            case SET_STATUS -> Message.setStatus("User1", User.Status.INACTIVE.name());
+        };
+        text = MessageFormatter.format(message);
+    }
+
+    @Benchmark
+    public String format() {
+        return MessageFormatter.format(message);
+    }
+
+    @Benchmark
+    public Message parse() {
+        return MessageFormatter.parse(text);
+    }
+}
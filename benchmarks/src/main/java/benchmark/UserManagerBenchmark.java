@@ -0,0 +1,55 @@
+package benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Reads the details of every user, from an unchanged roster snapshot and right after a status change (which
+ * replaces the snapshot, so the details are built again)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserManagerBenchmark {
+    @Param({ "10", "100", "1000", "10000" })
+    private int userCount;
+    private UserManager userManager;
+    private String lastUserId;
+    private boolean active = true;
+
+    @Setup
+    public void setUp() {
+        userManager = Users.createUserManager(userCount);
+        lastUserId = "User" + userCount;
+    }
+
+    @Benchmark
+    public Map<String, Map<String, String>> getAllUserDetails() {
+        return userManager.getAllUserDetails();
+    }
+
+    @Benchmark
+    public Map<String, Map<String, String>> getAllUserDetailsAfterStatusChange() {
+        active = !active;
+        userManager.setUserStatus(lastUserId, active ? User.Status.ACTIVE : User.Status.INACTIVE);
+        return userManager.getAllUserDetails();
+    }
+}
@@ -0,0 +1,27 @@
+package benchmark;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Users for the benchmarks, each writing what it is sent to a sink
+ */
+final class Users {
+    private Users() {
+    }
+
+    /**
+     * @param userCount Users to be added, User1 to UserN (User1 is the coordinator)
+     * @return User manager with the users
+     */
+    static UserManager createUserManager(int userCount) {
+        UserManager userManager = new UserManager();
+        for (int i = 1; i <= userCount; i++) {
+            userManager.addUser(new User("User" + i, "127.0.0.1:" + (20000 + i), new PrintWriter(Writer.nullWriter())));
+        }
+        return userManager;
+    }
+}
@@ -13,6 +13,8 @@ import common.model.Message;
 public class MessageController implements MessageListener {
     private final ConnectionManager model;
     private final ChatWindowView view;
+    private long rosterVersion = -1; // Version of the displayed user list, -1 until a full list is received
+    private boolean userListRequested = false;
 
     public MessageController(ConnectionManager model, ChatWindowView view, ActivityController activityController) {
         this.model = model;
@@ -21,6 +23,9 @@ public class MessageController implements MessageListener {
         view.getUserListView().viewDetailsAction(e -> showUserDetails());
         view.getUserListView().privateMessageAction(e -> openPrivateChat());
         view.sendButtonAction(e -> sendMessage());
+        view.createRoomAction(e -> createRoom());
+        view.joinRoomAction(e -> joinRoom());
+        view.leaveRoomAction(e -> leaveRoom());
         model.setMessageListener(this);
     }
 
@@ -34,9 +39,12 @@ public class MessageController implements MessageListener {
     public void controlCommunication(Message message) {
         switch (message.getType()) {
             case USER_LIST -> controlUserListResponse(message);
+            case USER_ADDED, USER_REMOVED, USER_UPDATED, USER_LIST_UPDATE -> controlRosterUpdate(message);
             case USER_DETAILS_RESPONSE -> controlUserDetailsResponse(message);
             case OPEN_PRIVATE_CHAT -> openPrivateChat(message);
             case CLOSE_PRIVATE_CHAT -> controlDisconnection(message);
+            case JOIN_ROOM -> view.getChatView().openRoom((String) message.getContent());
+            case LEAVE_ROOM -> view.getChatView().closeRoom((String) message.getContent());
             case MESSAGE -> processMessage(message);
             default -> {
             }
@@ -64,7 +72,9 @@ public class MessageController implements MessageListener {
 
     private void displayMessage(String sender, String recipient, Message message) {
         String chatName;
-        if (recipient.equals("Group") || (sender.equals("[SERVER]"))) {
+        if (recipient.startsWith("#")) { // A room, including its announcements
+            chatName = recipient;
+        } else if (recipient.equals("Group") || (sender.equals("[SERVER]"))) {
             chatName = "Group";
         } else if (model.getUserId().equals(sender)) {
             chatName = recipient;
@@ -72,13 +82,64 @@ public class MessageController implements MessageListener {
             chatName = sender;
         }
 
-        view.getChatView().displayMessage(chatName, message.getTimestamp(), sender, (String) message.getContent());
+        view.getChatView().displayMessage(chatName, message.getFormattedTimestamp(), sender, (String) message.getContent());
     }
 
     private void controlUserListResponse(Message message) {
         @SuppressWarnings("unchecked") // The message type is known to be a map
         Map<String, Map<String, String>> userList = (Map<String, Map<String, String>>) message.getContent();
         view.getUserListView().updateUserList(userList, model.getUserId());
+
+        rosterVersion = message.getSequence();
+        userListRequested = false;
+    }
+
+    /**
+     * Applies an added, removed or updated user (or several at once) to the user list if it is the next version.
+     * Updates already in the displayed list are ignored, a missing version (e.g. dropped for a slow connection) asks
+     * for the full list again
+     */
+    private void controlRosterUpdate(Message message) {
+        long version = message.getSequence();
+        if (rosterVersion >= 0 && version <= rosterVersion) {
+            return; // Already included in the displayed list
+        }
+
+        if (rosterVersion < 0 || version != rosterVersion + 1) {
+            rosterVersion = -1; // Ignore updates until the full list arrives
+            if (!userListRequested) {
+                userListRequested = true;
+                model.requestUserList();
+            }
+            return;
+        }
+
+        if (message.getType() == Message.Type.USER_LIST_UPDATE) {
+            @SuppressWarnings("unchecked") // The message type is known to be a map
+            Map<String, Map<String, String>> changes = (Map<String, Map<String, String>>) message.getContent();
+            for (Map.Entry<String, Map<String, String>> change : changes.entrySet()) {
+                Map<String, String> userDetails = change.getValue();
+                applyUserChange(change.getKey(), userDetails.isEmpty() ? null : userDetails);
+            }
+        } else {
+            @SuppressWarnings("unchecked") // The message type is known to be a map
+            Map<String, String> userDetails = (Map<String, String>) message.getContent();
+            boolean removed = message.getType() == Message.Type.USER_REMOVED;
+            applyUserChange(userDetails.get("userId"), removed ? null : userDetails);
+        }
+        rosterVersion = version;
+    }
+
+    /**
+     * @param userDetails Role and status of the user, null if the user left
+     */
+    private void applyUserChange(String userId, Map<String, String> userDetails) {
+        if (userDetails == null) {
+            view.getUserListView().removeUser(userId);
+            view.getChatView().closePrivateChat(userId); // Coalesced leaves do not send CLOSE_PRIVATE_CHAT
+        } else {
+            view.getUserListView().updateUser(userId, userDetails, model.getUserId());
+        }
     }
 
     private void showUserDetails() {
@@ -107,10 +168,31 @@ public class MessageController implements MessageListener {
     private void openPrivateChat(Message message) {
         String requestingUser = message.getSender();
         view.getChatView().openPrivateChat(requestingUser);
-        view.getChatView().displayMessage("Group", message.getTimestamp(), "[SERVER]",
+        view.getChatView().displayMessage("Group", message.getFormattedTimestamp(), "[SERVER]",
                 "%s has opened a private chat with you.".formatted(requestingUser));
     }
 
+    private void createRoom() {
+        String roomId = view.askRoomName("New room");
+        if (roomId != null) {
+            model.createRoom(roomId); // The tab opens when the server confirms
+        }
+    }
+
+    private void joinRoom() {
+        String roomId = view.askRoomName("Join room");
+        if (roomId != null) {
+            model.joinRoom(roomId);
+        }
+    }
+
+    private void leaveRoom() {
+        String chatName = view.getChatView().getCurrentChatName();
+        if (chatName.startsWith("#")) {
+            model.leaveRoom(chatName);
+        }
+    }
+
     private void controlDisconnection(Message message) {
         String userId = (String) message.getSender();
         view.getChatView().closePrivateChat(userId);
@@ -3,7 +3,7 @@ package client.model;
 import javax.swing.Timer;
 
 /**
- * Tracks user activity and toggles the user's status when the user is inactive after a set timeout, based on the config
+ * Tracks user activity and sets the user's status to inactive after a set timeout, and back to active on activity
  */
 public class ActivityModel {
     private final int TIMEOUT = 30000; // milliseconds
@@ -23,7 +23,7 @@ public class ActivityModel {
         timer = new Timer(TIMEOUT, e -> {
             if (active) {
                 active = false;
-                connectionManager.toggleStatus();
+                connectionManager.setActive(false);
             }
         });
 
@@ -34,7 +34,7 @@ public class ActivityModel {
     public void trackActivity() {
         if (!active) {
             active = true;
-            connectionManager.toggleStatus();
+            connectionManager.setActive(true);
         }
         startTimer();
     }
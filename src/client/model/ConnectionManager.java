@@ -1,24 +1,37 @@
 package client.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import client.util.LoginInputValidator;
 import common.model.Message;
-import common.util.MessageFormatter;
+import common.util.ConfigLoader;
+import common.util.FrameCompression;
+import common.util.MessageDecoder;
+import common.util.Protocol;
 
 /**
  * Manages the connection between the client and the server, sends and receives communication
  */
 public class ConnectionManager {
     private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private InputStream input;
+    private OutputStream output;
+    private MessageDecoder decoder;
+    private final ReentrantLock writeLock = new ReentrantLock(); // Messages are sent from the UI and other threads
+    private final Protocol requestedProtocol;
+    private Protocol protocol = Protocol.TEXT;
     private Thread messageListenerThread;
     private MessageListener messageListener;
     private LostConnectionListener lostConnectionListener;
@@ -27,6 +40,38 @@ public class ConnectionManager {
     private final int MAX_RECONNECT_ATTEMPTS = 3;
     private String lastServerIp;
     private String lastServerPort;
+    private final List<String> endpoints; // Other servers (host:port) tried when the last one cannot be reached
+    private String sessionToken; // Presented to take over the session after a lost connection
+    private String serverEpoch; // Server run the sequence numbers belong to, null before the first join
+    private final Map<String, Long> lastSequences = new ConcurrentHashMap<>(); // Key: "Group", a room or the other user
+
+    public ConnectionManager() {
+        this(new ConfigLoader());
+    }
+
+    private ConnectionManager(ConfigLoader config) {
+        this(Protocol.fromOptions(Map.of(Protocol.OPTION, config.get("client.protocol", "text"),
+                FrameCompression.OPTION, config.get("client.compression", ""))),
+                List.of(config.get("client.server.endpoints", "").split(",")));
+    }
+
+    /**
+     * @param requestedProtocol Protocol asked for in the join handshake, text is used if the server does not
+     *                          support it
+     */
+    public ConnectionManager(Protocol requestedProtocol) {
+        this(requestedProtocol, List.of());
+    }
+
+    /**
+     * @param requestedProtocol Protocol asked for in the join handshake
+     * @param endpoints         Servers (host:port) to fail over to after a lost connection, e.g. a primary and its
+     *                          standby
+     */
+    public ConnectionManager(Protocol requestedProtocol, List<String> endpoints) {
+        this.requestedProtocol = requestedProtocol;
+        this.endpoints = endpoints.stream().map(String::trim).filter(endpoint -> !endpoint.isEmpty()).toList();
+    }
 
     /**
      * Sends a request to the server, checks if user is unique and starts a message listener thread
@@ -48,6 +93,9 @@ public class ConnectionManager {
         // Store server details for reconnection
         this.lastServerIp = serverIp;
         this.lastServerPort = serverPort;
+        sessionToken = null; // A new login starts a new session with the full history
+        serverEpoch = null;
+        lastSequences.clear();
 
         connectToServer(serverIp, serverPort);
         authenticateUser();
@@ -58,25 +106,65 @@ public class ConnectionManager {
 
     protected void connectToServer(String serverIp, String serverPort) throws IOException {
         socket = new Socket(serverIp, Integer.parseInt(serverPort));
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        writer = new PrintWriter(socket.getOutputStream(), true);
+        input = socket.getInputStream();
+        output = socket.getOutputStream();
+        decoder = new MessageDecoder();
+        protocol = Protocol.TEXT; // The handshake is always text
     }
 
+    /**
+     * Sends the join request with the requested protocol. A server that supports it accepts the join with the
+     * agreed protocol, an older server ignores the option and replies with a normal message, so text is kept.
+     * After a lost connection the request presents the session token to take over the session (even if the server
+     * has not noticed the lost connection yet) and the last sequence received of each chat, so the server only
+     * sends the messages that were missed
+     */
     protected void authenticateUser() throws IllegalArgumentException, IOException {
-        Message joinMessage = Message.requestJoin(userId);
-        writer.println(MessageFormatter.format(joinMessage));
+        Map<String, String> joinOptions = new LinkedHashMap<>();
+        requestedProtocol.putOptions(joinOptions);
+        if (sessionToken != null) {
+            joinOptions.put(Message.RESUME_OPTION, "true");
+            joinOptions.put(Message.TOKEN_OPTION, sessionToken);
+        }
+        if (serverEpoch != null) {
+            joinOptions.put(Message.EPOCH_OPTION, serverEpoch);
+            for (Map.Entry<String, Long> lastSequence : lastSequences.entrySet()) {
+                joinOptions.put(Message.SEQUENCE_OPTION_PREFIX + lastSequence.getKey(),
+                        lastSequence.getValue().toString());
+            }
+        }
+        Message joinMessage = Message.requestJoin(userId, joinOptions);
+        sendFormattedMessage(joinMessage);
 
-        String response = reader.readLine();
-        Message responseMsg = MessageFormatter.parse(response);
+        Message response = decoder.read(input);
+        if (response == null) {
+            throw new SocketException("Connection closed by server");
+        }
 
-        if (responseMsg.getType() == Message.Type.REJECT_USER_JOIN) {
+        if (response.getType() == Message.Type.REJECT_USER_JOIN) {
             socket.close();
             throw new IllegalArgumentException("User ID already in use!");
+        } else if (response.getType() == Message.Type.ACCEPT_USER_JOIN) {
+            @SuppressWarnings("unchecked") // The message type is known to be a map
+            Map<String, String> options = (Map<String, String>) response.getContent();
+            protocol = Protocol.fromOptions(options);
+            decoder.setProtocol(protocol);
+
+            String epoch = options.get(Message.EPOCH_OPTION);
+            if (epoch == null || !epoch.equals(serverEpoch)) {
+                lastSequences.clear(); // Sequences of another server run
+            }
+            serverEpoch = epoch;
+            sessionToken = options.get(Message.TOKEN_OPTION);
         } else {
             processMessage(response);
         }
     }
 
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
     public String getUserId() {
         return userId;
     }
@@ -109,24 +197,53 @@ public class ConnectionManager {
         sendFormattedMessage(Message.requestUserDetails(userId, targetUserId));
     }
 
-    public void toggleStatus() {
-        sendFormattedMessage(Message.updateStatus(userId));
+    /**
+     * @param active True: the user is active, False: inactive. Sending the same status again changes nothing
+     */
+    public void setActive(boolean active) {
+        sendFormattedMessage(Message.setStatus(userId, active ? "ACTIVE" : "INACTIVE"));
+    }
+
+    public void requestUserList() {
+        sendFormattedMessage(Message.requestUserList(userId));
     }
 
     public void openPrivateChat(String targetUserId) {
         sendFormattedMessage(Message.openPrivateChat(userId, targetUserId));
     }
 
+    public void createRoom(String roomId) {
+        sendFormattedMessage(Message.createRoom(userId, roomId));
+    }
+
+    public void joinRoom(String roomId) {
+        sendFormattedMessage(Message.joinRoom(userId, roomId));
+    }
+
+    public void leaveRoom(String roomId) {
+        sendFormattedMessage(Message.leaveRoom(userId, roomId));
+    }
+
     private void sendFormattedMessage(Message message) {
-        if (message != null) {
-            writer.println(MessageFormatter.format(message));
+        if (message == null) {
+            return;
+        }
+
+        ByteBuffer encoded = protocol.encode(message);
+        writeLock.lock();
+        try {
+            output.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        } catch (IOException e) {
+            // Lost connection, the listener thread notices and reconnects
+        } finally {
+            writeLock.unlock();
         }
     }
 
     private void listenForMessages() {
         try {
-            String message;
-            while ((message = reader.readLine()) != null) {
+            Message message;
+            while ((message = decoder.read(input)) != null) {
                 processMessage(message);
             }
         } catch (SocketException e) {
@@ -140,12 +257,39 @@ public class ConnectionManager {
         }
     }
 
-    private void processMessage(String messageString) {
-        Message parsedMessage = MessageFormatter.parse(messageString);
-        if (parsedMessage == null) {
-            return; // Do nothing if no message
+    private void processMessage(Message message) {
+        if (message == null || isDuplicate(message)) {
+            return; // Do nothing if no message or it was already received
+        }
+        if (message.getType() == Message.Type.PING) {
+            sendFormattedMessage(Message.pong(userId)); // Server checks the connection is still alive
+            return;
+        }
+        messageListener.controlCommunication(message);
+    }
+
+    /**
+     * Remembers the sequence of each received chat message. The server sends every chat in sequence order, so a
+     * message at or below the last sequence was already received (e.g. sent live and again after resuming)
+     * 
+     * @param message Received message
+     * @return True: already received
+     */
+    private boolean isDuplicate(Message message) {
+        long sequence = message.getSequence();
+        if (message.getType() != Message.Type.MESSAGE || sequence <= 0) {
+            return false; // Only chat messages are numbered
+        }
+
+        String recipient = message.getRecipient();
+        boolean isSharedChat = recipient.equals("Group") || recipient.startsWith("#"); // The group or a room
+        String chat = isSharedChat || message.getSender().equals(userId) ? recipient : message.getSender();
+        Long lastSequence = lastSequences.get(chat);
+        if (lastSequence != null && sequence <= lastSequence) {
+            return true;
         }
-        messageListener.controlCommunication(parsedMessage);
+        lastSequences.put(chat, sequence);
+        return false;
     }
 
     public void disconnect() {
@@ -173,13 +317,45 @@ public class ConnectionManager {
         lostConnectionListener.onLostConnection(false);
     }
 
+    /**
+     * Reconnects to the last server, or the first of the other endpoints that answers (e.g. the standby that took
+     * over from a failed primary), which becomes the last server
+     */
     private void attemptReconnection() throws IOException, IllegalArgumentException {
-        connectToServer(lastServerIp, lastServerPort);
-        authenticateUser();
-        reconnectAttempts = 0;
+        IOException failure = null;
+        for (String[] server : getReconnectionServers()) {
+            try {
+                connectToServer(server[0], server[1]);
+                authenticateUser();
+            } catch (IOException e) {
+                failure = e; // Try the next server
+                continue;
+            }
+            lastServerIp = server[0];
+            lastServerPort = server[1];
+            reconnectAttempts = 0;
 
-        lostConnectionListener.onReconnectionSuccess();
-        messageListenerThread = new Thread(this::listenForMessages);
-        messageListenerThread.start();
+            lostConnectionListener.onReconnectionSuccess();
+            messageListenerThread = new Thread(this::listenForMessages);
+            messageListenerThread.start();
+            return;
+        }
+        throw failure;
+    }
+
+    /**
+     * @return Ip and port of the last server first, then of the other endpoints
+     */
+    List<String[]> getReconnectionServers() {
+        List<String[]> servers = new ArrayList<>();
+        servers.add(new String[] { lastServerIp, lastServerPort });
+        for (String endpoint : endpoints) {
+            int separator = endpoint.lastIndexOf(':');
+            String[] server = { endpoint.substring(0, separator), endpoint.substring(separator + 1) };
+            if (!server[0].equals(lastServerIp) || !server[1].equals(lastServerPort)) {
+                servers.add(server);
+            }
+        }
+        return servers;
     }
 }
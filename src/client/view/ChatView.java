@@ -11,7 +11,7 @@ import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 
 /**
- * Displays chat messages in a tabbed pane (Group chat and private chats)
+ * Displays chat messages in a tabbed pane (Group chat, rooms and private chats)
  */
 public class ChatView extends JPanel {
     private final JTabbedPane chatTabs = new JTabbedPane();
@@ -62,23 +62,42 @@ public class ChatView extends JPanel {
     }
 
     public void openPrivateChat(String userId) {
-        if (chats.containsKey(userId)) {
+        openChat(userId);
+    }
+
+    public void closePrivateChat(String userId) {
+        closeChat(userId);
+    }
+
+    /**
+     * @param roomId Id of the room the user is in, e.g. "#team"
+     */
+    public void openRoom(String roomId) {
+        openChat(roomId);
+    }
+
+    public void closeRoom(String roomId) {
+        closeChat(roomId);
+    }
+
+    private void openChat(String chatName) {
+        if (chats.containsKey(chatName)) {
             return;
         }
 
-        ChatPanel privateChatPanel = new ChatPanel();
-        chats.put(userId, privateChatPanel);
-        chatTabs.addTab(userId, privateChatPanel);
+        ChatPanel chatPanel = new ChatPanel();
+        chats.put(chatName, chatPanel);
+        chatTabs.addTab(chatName, chatPanel);
     }
 
-    public void closePrivateChat(String userId) {
-        ChatPanel privateChatPanel = chats.get(userId);
-        if (privateChatPanel == null) {
+    private void closeChat(String chatName) {
+        ChatPanel chatPanel = chats.get(chatName);
+        if (chatPanel == null) {
             return;
         }
 
-        int index = chatTabs.indexOfComponent(privateChatPanel);
-        chats.remove(userId);
+        int index = chatTabs.indexOfComponent(chatPanel);
+        chats.remove(chatName);
         chatTabs.removeTabAt(index);
     }
 }
@@ -2,6 +2,7 @@ package client.view;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.FlowLayout;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
@@ -15,7 +16,7 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 
 /**
- * The main chat window that displays the chat messages, user list and bottom panel
+ * The main chat window that displays the chat messages, user list and bottom panel (with the room buttons)
  */
 public class ChatWindowView extends JFrame {
     private final ChatView chatView = new ChatView();
@@ -23,6 +24,9 @@ public class ChatWindowView extends JFrame {
     private final JTextField messageField = new JTextField();
     private final JButton sendButton = new JButton("Send");
     private final JButton quitButton = new JButton("Quit");
+    private final JButton createRoomButton = new JButton("New room");
+    private final JButton joinRoomButton = new JButton("Join room");
+    private final JButton leaveRoomButton = new JButton("Leave room");
     private final JLabel currentServerLabel = new JLabel();
 
     private String serverIp = null;
@@ -46,11 +50,16 @@ public class ChatWindowView extends JFrame {
         JPanel infoPanel = new JPanel(new BorderLayout(5, 0));
         infoPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
         infoPanel.add(currentServerLabel, BorderLayout.WEST);
+        JPanel roomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        roomPanel.add(createRoomButton);
+        roomPanel.add(joinRoomButton);
+        roomPanel.add(leaveRoomButton);
+        infoPanel.add(roomPanel, BorderLayout.CENTER);
         infoPanel.add(quitButton, BorderLayout.EAST);
         rootPanel.add(infoPanel, BorderLayout.SOUTH);
 
         add(rootPanel);
-        setSize(700, 400);
+        setSize(800, 400);
         setLocationRelativeTo(null); // center window
 
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
@@ -81,6 +90,33 @@ public class ChatWindowView extends JFrame {
         messageField.addActionListener(listener); // Enter key mimics send button
     }
 
+    public void createRoomAction(ActionListener listener) {
+        createRoomButton.addActionListener(listener);
+    }
+
+    public void joinRoomAction(ActionListener listener) {
+        joinRoomButton.addActionListener(listener);
+    }
+
+    public void leaveRoomAction(ActionListener listener) {
+        leaveRoomButton.addActionListener(listener);
+    }
+
+    /**
+     * Asks for the name of a room, the "#" in front is added if left out
+     * 
+     * @param title Title of the dialog
+     * @return Room id (e.g. "#team"), null if cancelled or blank
+     */
+    public String askRoomName(String title) {
+        String name = JOptionPane.showInputDialog(this, "Room name:", title, JOptionPane.QUESTION_MESSAGE);
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        name = name.strip();
+        return name.startsWith("#") ? name : "#" + name;
+    }
+
     public String getMessage() {
         String message = messageField.getText();
         messageField.setText("");
@@ -115,6 +151,9 @@ public class ChatWindowView extends JFrame {
     private void toggleComponentsUse(boolean enabled) {
         messageField.setEnabled(enabled);
         sendButton.setEnabled(enabled);
+        createRoomButton.setEnabled(enabled);
+        joinRoomButton.setEnabled(enabled);
+        leaveRoomButton.setEnabled(enabled);
 
         userListView.setEnabled(enabled);
 
@@ -55,31 +55,72 @@ public class UserListView extends JPanel {
         List<String> formattedUsers = new ArrayList<>();
 
         for (Map.Entry<String, Map<String, String>> entry : userList.entrySet()) {
-            String user = entry.getKey();
-            Map<String, String> userDetails = entry.getValue();
-            String role = userDetails.get("role");
-            String status = userDetails.get("status");
-            StringBuilder displayName = new StringBuilder(user);
-
-            if (user.equals(userId)) {
-                displayName.append(SUFFIX_YOU);
+            formattedUsers.add(formatUser(entry.getKey(), entry.getValue(), userId));
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            usersModel.clear();
+            usersModel.addAll(formattedUsers);
+        });
+    }
+
+    /**
+     * Adds a user to the end of the list, or replaces the user's entry if already listed (role or status changed)
+     * 
+     * @param user        Id of the added or updated user
+     * @param userDetails Role and status of the user
+     * @param userId      Id of this client's user
+     */
+    public void updateUser(String user, Map<String, String> userDetails, String userId) {
+        String formattedUser = formatUser(user, userDetails, userId);
+
+        SwingUtilities.invokeLater(() -> {
+            int index = indexOfUser(user);
+            if (index == -1) {
+                usersModel.addElement(formattedUser);
+            } else {
+                usersModel.set(index, formattedUser);
             }
+        });
+    }
 
-            if ("COORDINATOR".equals(role)) {
-                displayName.append(SUFFIX_COORDINATOR);
+    public void removeUser(String user) {
+        SwingUtilities.invokeLater(() -> {
+            int index = indexOfUser(user);
+            if (index != -1) {
+                usersModel.remove(index);
             }
+        });
+    }
 
-            if ("INACTIVE".equals(status)) {
-                displayName.append(SUFFIX_INACTIVE);
+    private int indexOfUser(String user) {
+        for (int i = 0; i < usersModel.size(); i++) {
+            String formattedUser = usersModel.getElementAt(i);
+            if (formattedUser.equals(user) || formattedUser.startsWith(user + " ")) {
+                return i;
             }
+        }
+        return -1;
+    }
 
-            formattedUsers.add(displayName.toString());
+    private String formatUser(String user, Map<String, String> userDetails, String userId) {
+        String role = userDetails.get("role");
+        String status = userDetails.get("status");
+        StringBuilder displayName = new StringBuilder(user);
+
+        if (user.equals(userId)) {
+            displayName.append(SUFFIX_YOU);
         }
 
-        SwingUtilities.invokeLater(() -> {
-            usersModel.clear();
-            usersModel.addAll(formattedUsers);
-        });
+        if ("COORDINATOR".equals(role)) {
+            displayName.append(SUFFIX_COORDINATOR);
+        }
+
+        if ("INACTIVE".equals(status)) {
+            displayName.append(SUFFIX_INACTIVE);
+        }
+
+        return displayName.toString();
     }
 
     private void rightClickAction() {
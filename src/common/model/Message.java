@@ -1,29 +1,42 @@
 package common.model;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import common.util.CoarseClock;
+import common.util.TimestampFormatter;
+
 /**
  * Different messages that can be sent between the client and server for both actual chat messages and control messages
  */
 public class Message {
     public enum Type {
-        USER_JOIN, REJECT_USER_JOIN,
+        USER_JOIN, ACCEPT_USER_JOIN, REJECT_USER_JOIN,
         OPEN_PRIVATE_CHAT, CLOSE_PRIVATE_CHAT,
         USER_DETAILS_REQUEST, USER_DETAILS_RESPONSE,
         MESSAGE,
-        USER_LIST,
+        USER_LIST, USER_ADDED, USER_REMOVED, USER_UPDATED, USER_LIST_UPDATE, USER_LIST_REQUEST,
         STATUS_UPDATE,
+        NODE_HELLO, REPLICA_HELLO,
+        CREATE_ROOM, JOIN_ROOM, LEAVE_ROOM,
+        PING, PONG,
+        SET_STATUS, // Last, so the binary type numbers of the other types do not change
     }
 
     private static final String SERVER_ID = "[SERVER]";
     private static final String GROUP_ID = "Group";
+    // Join handshake options for resuming after a lost connection
+    public static final String RESUME_OPTION = "resume"; // Client: true if it was connected before
+    public static final String RESUMED_OPTION = "resumed"; // Server: true if the old session was taken over silently
+    public static final String TOKEN_OPTION = "token"; // Server: session token, Client: presented to resume it
+    public static final String EPOCH_OPTION = "epoch"; // Server run the chat sequence numbers belong to
+    public static final String SEQUENCE_OPTION_PREFIX = "seq_"; // Client: last sequence of each chat, e.g. seq_Group=12
     private final Type type;
-    private final String timestamp;
+    private final long timestamp; // Milliseconds since the epoch, formatted only when displayed
     private final String sender;
     private final String recipient;
     private final Object content;
+    private final long sequence; // Version or sequence number the message carries, 0 if none
 
     /**
      * Creates a new message object with:
@@ -34,11 +47,31 @@ public class Message {
      * @param content   Content of the message based on the type
      */
     public Message(Type type, String sender, String recipient, Object content) {
+        this(type, sender, recipient, content, 0);
+    }
+
+    /**
+     * Creates a new message object that carries a sequence number, e.g. the user list version for roster updates
+     * 
+     * @param sequence Sequence number, 0 if none
+     */
+    public Message(Type type, String sender, String recipient, Object content, long sequence) {
+        this(type, sender, recipient, content, sequence, CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * Creates a message object with the time it was created elsewhere, e.g. when the server received a chat message
+     * 
+     * @param sequence  Sequence number, 0 if none
+     * @param timestamp Milliseconds since the epoch
+     */
+    public Message(Type type, String sender, String recipient, Object content, long sequence, long timestamp) {
         this.type = type;
         this.sender = sender;
         this.recipient = recipient;
         this.content = content;
-        this.timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
+        this.sequence = sequence;
+        this.timestamp = timestamp;
     }
 
     public Type getType() {
@@ -57,14 +90,42 @@ public class Message {
         return content;
     }
 
-    public String getTimestamp() {
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Milliseconds since the epoch
+     */
+    public long getTimestamp() {
         return timestamp;
     }
 
+    /**
+     * @return Timestamp as HH:mm:ss, for display
+     */
+    public String getFormattedTimestamp() {
+        return TimestampFormatter.format(timestamp);
+    }
+
     public static Message requestJoin(String requesterId) {
         return new Message(Type.USER_JOIN, requesterId, SERVER_ID, null);
     }
 
+    /**
+     * Join request with handshake options (e.g. protocol=binary), a server that does not know an option ignores it
+     */
+    public static Message requestJoin(String requesterId, Map<String, String> options) {
+        return new Message(Type.USER_JOIN, requesterId, SERVER_ID, options);
+    }
+
+    /**
+     * Reply to a join request that had options, with the options the server agreed to
+     */
+    public static Message acceptJoin(String recipientId, Map<String, String> options) {
+        return new Message(Type.ACCEPT_USER_JOIN, SERVER_ID, recipientId, options);
+    }
+
     public static Message rejectJoin(String recipientId) {
         return new Message(Type.REJECT_USER_JOIN, SERVER_ID, recipientId, null);
     }
@@ -89,12 +150,138 @@ public class Message {
         return new Message(Type.MESSAGE, sender, recipient, content);
     }
 
+    /**
+     * Chat message with the sequence number of its chat (the group or a private pair), clients use it to skip
+     * messages they already have and to ask for the ones they missed when reconnecting
+     */
+    public static Message sendMessage(String sender, String recipient, String content, long sequence) {
+        return new Message(Type.MESSAGE, sender, recipient, content, sequence);
+    }
+
     public static Message sendUserList(Map<String, Map<String, String>> userList) {
         return new Message(Type.USER_LIST, SERVER_ID, GROUP_ID, userList);
     }
 
+    /**
+     * Full user list sent to a user who just joined or asked for a resync, versions increase by one for every
+     * roster update that follows
+     */
+    public static Message sendUserList(Map<String, Map<String, String>> userList, long version) {
+        return new Message(Type.USER_LIST, SERVER_ID, GROUP_ID, userList, version);
+    }
+
+    public static Message sendUserAdded(Map<String, String> userDetails, long version) {
+        return new Message(Type.USER_ADDED, SERVER_ID, GROUP_ID, userDetails, version);
+    }
+
+    public static Message sendUserRemoved(String userId, long version) {
+        return new Message(Type.USER_REMOVED, SERVER_ID, GROUP_ID, Map.of("userId", userId), version);
+    }
+
+    public static Message sendUserUpdated(Map<String, String> userDetails, long version) {
+        return new Message(Type.USER_UPDATED, SERVER_ID, GROUP_ID, userDetails, version);
+    }
+
+    /**
+     * Several roster changes as one update: user id to role and status, an empty map for a removed user
+     */
+    public static Message sendUserListUpdate(Map<String, Map<String, String>> changes, long version) {
+        return new Message(Type.USER_LIST_UPDATE, SERVER_ID, GROUP_ID, changes, version);
+    }
+
+    /**
+     * Asks the server for a new room (e.g. "#team"), the sender is its first member
+     */
+    public static Message createRoom(String senderId, String roomId) {
+        return new Message(Type.CREATE_ROOM, senderId, SERVER_ID, roomId);
+    }
+
+    public static Message joinRoom(String senderId, String roomId) {
+        return new Message(Type.JOIN_ROOM, senderId, SERVER_ID, roomId);
+    }
+
+    public static Message leaveRoom(String senderId, String roomId) {
+        return new Message(Type.LEAVE_ROOM, senderId, SERVER_ID, roomId);
+    }
+
+    /**
+     * Tells a client it is in a room (created or joined), sent before the room's recent messages
+     */
+    public static Message roomJoined(String recipientId, String roomId) {
+        return new Message(Type.JOIN_ROOM, SERVER_ID, recipientId, roomId);
+    }
+
+    public static Message roomLeft(String recipientId, String roomId) {
+        return new Message(Type.LEAVE_ROOM, SERVER_ID, recipientId, roomId);
+    }
+
+    /**
+     * Asks a client that has sent nothing for a while to show it is still connected, it replies with a pong
+     */
+    public static Message ping(String recipientId) {
+        return new Message(Type.PING, SERVER_ID, recipientId, null);
+    }
+
+    public static Message pong(String senderId) {
+        return new Message(Type.PONG, senderId, SERVER_ID, null);
+    }
+
+    public static Message requestUserList(String senderId) {
+        return new Message(Type.USER_LIST_REQUEST, senderId, SERVER_ID, null);
+    }
+
+    /**
+     * Sets the sender's status (ACTIVE or INACTIVE), unlike a status update it can be sent again without effect
+     */
+    public static Message setStatus(String senderId, String status) {
+        return new Message(Type.SET_STATUS, senderId, SERVER_ID, status);
+    }
+
     public static Message updateStatus(String userId) {
         return new Message(Type.STATUS_UPDATE, SERVER_ID, GROUP_ID, userId);
     }
 
+    /**
+     * First message on a link between two nodes of a server cluster, with the shared cluster secret and the users
+     * connected to the sending node (user id to join time, status and address). The accepting node replies with its
+     * own id, the secret and no users
+     */
+    public static Message nodeHello(String nodeId, String secret, Map<String, Map<String, String>> users) {
+        Map<String, Object> hello = new LinkedHashMap<>();
+        hello.put("secret", secret);
+        hello.put("users", users == null ? Map.of() : users);
+        return new Message(Type.NODE_HELLO, nodeId, SERVER_ID, hello);
+    }
+
+    /**
+     * A user joined the sending node, relayed to the other nodes of the cluster
+     */
+    public static Message relayUserAdded(String nodeId, Map<String, String> userDetails) {
+        return new Message(Type.USER_ADDED, nodeId, SERVER_ID, userDetails);
+    }
+
+    /**
+     * First message from a primary server to its standby: the epoch of the sequence numbers, the coordinator and
+     * every user with its session (user id to join time, status, address and session token)
+     */
+    public static Message replicaHello(String epoch, String coordinatorId, Map<String, Map<String, String>> users) {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put(EPOCH_OPTION, epoch);
+        state.put("coordinator", coordinatorId == null ? "" : coordinatorId);
+        state.put("users", users);
+        return new Message(Type.REPLICA_HELLO, SERVER_ID, SERVER_ID, state);
+    }
+
+    public static Message relayUserRemoved(String nodeId, String userId) {
+        return relayUserRemoved(nodeId, Map.of("userId", userId));
+    }
+
+    public static Message relayUserRemoved(String nodeId, Map<String, String> userDetails) {
+        return new Message(Type.USER_REMOVED, nodeId, SERVER_ID, userDetails);
+    }
+
+    public static Message relayUserUpdated(String nodeId, Map<String, String> userDetails) {
+        return new Message(Type.USER_UPDATED, nodeId, SERVER_ID, userDetails);
+    }
+
 }
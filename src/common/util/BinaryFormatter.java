@@ -0,0 +1,348 @@
+package common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import common.model.Message;
+
+/**
+ * Compact binary alternative to the MessageFormatter text format, each message is one length-prefixed frame:
+ * varint body length | type byte | sender id | recipient id | varint sequence (0 if none) |
+ * varint timestamp (chat messages only) | typed content.
+ * Ids are a tag byte, the server and group ids are sent as the tag alone (interned on the wire), other ids follow
+ * as a string. Content is a tag byte followed by nothing (null), a string, or a map of string keys to content
+ * (so nested maps, commas and braces are all safe). Strings are a varint byte length and UTF-8 bytes.
+ * Encoding is static so a frame can be shared by every recipient, decoding is done by one instance per connection
+ * because it caches the ids it has already decoded
+ */
+public class BinaryFormatter {
+    public static final int MAX_FRAME_LENGTH = 1 << 20; // Larger frames are treated as a broken connection
+    private static final String SERVER_ID = "[SERVER]";
+    private static final String GROUP_ID = "Group";
+    private static final byte ID_NULL = 0;
+    private static final byte ID_SERVER = 1;
+    private static final byte ID_GROUP = 2;
+    private static final byte ID_STRING = 3;
+    private static final byte CONTENT_NULL = 0;
+    private static final byte CONTENT_STRING = 1;
+    private static final byte CONTENT_MAP = 2;
+    private static final int MAX_VARINT_LENGTH = 5;
+    private static final int MAX_CONTENT_DEPTH = 4; // Maps inside maps, the user list only needs two levels
+    private static final int ID_CACHE_SIZE = 64; // Power of two
+    private static final Message.Type[] TYPES = Message.Type.values();
+
+    private final String[] cachedIds = new String[ID_CACHE_SIZE];
+    private final byte[][] cachedIdBytes = new byte[ID_CACHE_SIZE][];
+    private byte[] data;
+    private int position;
+    private int limit;
+
+    /**
+     * Encodes a message into a complete frame (length prefix included)
+     * 
+     * @param message Message to be encoded
+     * @return Array backed buffer positioned at the start of the frame
+     */
+    public static ByteBuffer encode(Message message) {
+        Encoder encoder = new Encoder();
+        encoder.writeByte((byte) message.getType().ordinal());
+        encoder.writeId(message.getSender());
+        encoder.writeId(message.getRecipient());
+        encoder.writeVarLong(message.getSequence());
+        if (MessageFormatter.carriesTimestamp(message.getType())) {
+            encoder.writeVarLong(message.getTimestamp());
+        }
+        encoder.writeContent(message.getContent());
+        return encoder.toFrame();
+    }
+
+    /**
+     * Reads the body length at the start of a frame
+     * 
+     * @param bytes  Received bytes
+     * @param offset Start of the frame
+     * @param length Number of received bytes from the offset
+     * @return Body length, or -1 if the length prefix has not been fully received yet
+     * @throws IOException If the prefix is malformed or the frame is too large
+     */
+    public static int readFrameLength(byte[] bytes, int offset, int length) throws IOException {
+        int value = 0;
+        for (int i = 0; i < Math.min(length, MAX_VARINT_LENGTH); i++) {
+            byte b = bytes[offset + i];
+            value |= (b & 0x7f) << (7 * i);
+
+            if ((b & 0x80) == 0) {
+                if (value < 0 || value > MAX_FRAME_LENGTH) {
+                    throw new IOException("Frame too large (%d bytes)".formatted(value));
+                }
+                return value;
+            }
+        }
+
+        if (length >= MAX_VARINT_LENGTH) {
+            throw new IOException("Malformed frame length");
+        }
+        return -1;
+    }
+
+    /**
+     * @param bodyLength Body length read by readFrameLength
+     * @return Number of bytes taken by the length prefix
+     */
+    public static int prefixLength(int bodyLength) {
+        int prefixLength = 1;
+        while ((bodyLength >>> (7 * prefixLength)) != 0) {
+            prefixLength++;
+        }
+        return prefixLength;
+    }
+
+    /**
+     * Decodes a frame body (without its length prefix)
+     * 
+     * @param bytes  Received bytes
+     * @param offset Start of the body
+     * @param length Body length
+     * @return Message object
+     * @throws IOException If the body is malformed
+     */
+    public Message decode(byte[] bytes, int offset, int length) throws IOException {
+        data = bytes;
+        position = offset;
+        limit = offset + length;
+
+        try {
+            int typeIndex = readByte();
+            if (typeIndex < 0 || typeIndex >= TYPES.length) {
+                throw new IOException("Unknown message type %d".formatted(typeIndex));
+            }
+
+            String sender = readId();
+            String recipient = readId();
+            long sequence = readVarLong();
+            Message.Type type = TYPES[typeIndex];
+            if (MessageFormatter.carriesTimestamp(type)) {
+                long timestamp = readVarLong();
+                return new Message(type, sender, recipient, readContent(0), sequence, timestamp);
+            }
+            return new Message(type, sender, recipient, readContent(0), sequence);
+        } finally {
+            data = null;
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (position >= limit) {
+            throw new IOException("Truncated frame");
+        }
+        return data[position++];
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_LENGTH; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int readStringLength() throws IOException {
+        int length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw new IOException("Truncated frame");
+        }
+        return length;
+    }
+
+    private String readString() throws IOException {
+        int length = readStringLength();
+        for (int i = position; i < position + length; i++) {
+            checkNotLineBreak(data[i]);
+        }
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Ids repeat on almost every frame, so the last decoded id for each hash slot is reused instead of creating a
+     * new string
+     */
+    private String readId() throws IOException {
+        switch (readByte()) {
+            case ID_NULL -> {
+                return null;
+            }
+            case ID_SERVER -> {
+                return SERVER_ID;
+            }
+            case ID_GROUP -> {
+                return GROUP_ID;
+            }
+            case ID_STRING -> {
+            }
+            default -> throw new IOException("Unknown id tag");
+        }
+
+        int length = readStringLength();
+        int start = position;
+        position += length;
+
+        int hash = 1;
+        for (int i = start; i < position; i++) {
+            checkNotLineBreak(data[i]);
+            hash = 31 * hash + data[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (ID_CACHE_SIZE - 1);
+
+        byte[] idBytes = cachedIdBytes[slot];
+        if (idBytes != null && Arrays.equals(idBytes, 0, idBytes.length, data, start, position)) {
+            return cachedIds[slot];
+        }
+
+        String id = new String(data, start, length, StandardCharsets.UTF_8);
+        cachedIdBytes[slot] = Arrays.copyOfRange(data, start, position);
+        cachedIds[slot] = id;
+        return id;
+    }
+
+    /**
+     * Text clients get the same message as a line, a line break in it would start a forged message. Never part of
+     * a multi-byte UTF-8 character, so the bytes can be checked before decoding
+     */
+    private static void checkNotLineBreak(byte b) throws IOException {
+        if (b == '\n' || b == '\r') {
+            throw new IOException("Line break in a string");
+        }
+    }
+
+    private Object readContent(int depth) throws IOException {
+        return switch (readByte()) {
+            case CONTENT_NULL -> null;
+            case CONTENT_STRING -> readString();
+            case CONTENT_MAP -> {
+                int size = readVarint();
+                if (depth >= MAX_CONTENT_DEPTH || size < 0 || size > limit - position) {
+                    throw new IOException("Malformed map content");
+                }
+
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = readString();
+                    map.put(key, readContent(depth + 1));
+                }
+                yield map;
+            }
+            default -> throw new IOException("Unknown content tag");
+        };
+    }
+
+    /**
+     * Growable byte array, the first bytes are kept free so the length prefix can be put in front of the body
+     * without copying it
+     */
+    private static class Encoder {
+        private byte[] bytes = new byte[128];
+        private int length = MAX_VARINT_LENGTH;
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void writeByte(byte b) {
+            ensureCapacity(1);
+            bytes[length++] = b;
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(MAX_VARINT_LENGTH);
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(encoded.length);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+
+        void writeId(String id) {
+            if (id == null) {
+                writeByte(ID_NULL);
+            } else if (id.equals(SERVER_ID)) {
+                writeByte(ID_SERVER);
+            } else if (id.equals(GROUP_ID)) {
+                writeByte(ID_GROUP);
+            } else {
+                writeByte(ID_STRING);
+                writeString(id);
+            }
+        }
+
+        void writeContent(Object content) {
+            if (content == null) {
+                writeByte(CONTENT_NULL);
+            } else if (content instanceof Map<?, ?> map) {
+                writeByte(CONTENT_MAP);
+                writeVarint(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(String.valueOf(entry.getKey()));
+                    writeContent(entry.getValue());
+                }
+            } else {
+                writeByte(CONTENT_STRING);
+                writeString(content.toString()); // e.g. roles and statuses are sent by name
+            }
+        }
+
+        /**
+         * Writes the body length in front of the body
+         */
+        ByteBuffer toFrame() {
+            int bodyLength = length - MAX_VARINT_LENGTH;
+            int start = MAX_VARINT_LENGTH - prefixLength(bodyLength);
+            int value = bodyLength;
+            for (int i = start; i < MAX_VARINT_LENGTH; i++) {
+                bytes[i] = (byte) (i == MAX_VARINT_LENGTH - 1 ? value & 0x7f : (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            return ByteBuffer.wrap(bytes, start, length - start).slice();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package common.util;
+
+/**
+ * Wall clock that is read from a cached value instead of asking the system on every call. A daemon thread refreshes
+ * it every few milliseconds, which is precise enough for message timestamps shown to the second
+ */
+public class CoarseClock {
+    private static final long RESOLUTION_MS = 10;
+    private static volatile long currentTimeMillis = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(CoarseClock::tick, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * @return Milliseconds since the epoch, at most about RESOLUTION_MS behind the system clock
+     */
+    public static long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+
+    private static void tick() {
+        while (true) {
+            currentTimeMillis = System.currentTimeMillis();
+            try {
+                Thread.sleep(RESOLUTION_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -28,4 +28,30 @@ public class ConfigLoader {
     public int getInt(String key) {
         return Integer.parseInt(properties.getProperty(key));
     }
+
+    /**
+     * Returns the property or a default value if it is not set, for optional settings
+     * 
+     * @param key          Property name
+     * @param defaultValue Value used if the property is missing
+     * @return Property value or default value
+     */
+    public String get(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    /**
+     * Overrides a property for this loader only (the config file is not changed)
+     * 
+     * @param key   Property name
+     * @param value New value
+     */
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
 }
\ No newline at end of file
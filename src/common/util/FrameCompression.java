@@ -0,0 +1,258 @@
+package common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of large binary frames, used by connections that agreed to it in the join handshake
+ * (compression=deflate, see Protocol.DEFLATE). A frame body at or above the threshold is sent as:
+ * varint body length | marker byte (never a message type) | varint original body length | raw deflate data.
+ * Each frame is compressed on its own with a preset dictionary both sides know (the ids, keys and values most frames
+ * repeat), so a compressed frame is still encoded once and shared by every recipient, and frames stay independent of
+ * each other. Smaller frames, and frames deflate does not shrink, are sent as plain binary frames.
+ * Deflaters and inflaters are native objects, they are pooled instead of kept per connection thread
+ */
+public final class FrameCompression {
+    public static final String OPTION = "compression"; // Handshake option key, e.g. compression=deflate
+    public static final String DEFLATE = "deflate";
+    public static final int THRESHOLD_BYTES = 256; // Smaller bodies gain little and still cost a deflate
+    private static final byte MARKER = (byte) 0xFF;
+    private static final int MAX_POOLED = 8;
+    // Most common last, deflate reaches the end of the dictionary with the shortest distances
+    private static final byte[] DICTIONARY = ("has opened a private chat with you. is the coordinator. "
+            + "The old coordinator, has left the chat. is the new coordinator. has joined the chat. "
+            + "protocolbinaryepochtokenresumedtruejoined127.0.0.1:localhost:socketAddress"
+            + "roleCOORDINATORstatusINACTIVEuserIdroleMEMBERstatusACTIVE[SERVER]Group")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private static final LongAdder compressedFrames = new LongAdder();
+    private static final LongAdder incompressibleFrames = new LongAdder();
+    private static final LongAdder bytesBeforeCompression = new LongAdder();
+    private static final LongAdder bytesAfterCompression = new LongAdder();
+    private static final LongAdder compressNanos = new LongAdder();
+    private static final LongAdder inflatedFrames = new LongAdder();
+    private static final LongAdder inflateNanos = new LongAdder();
+    private static final LongAdder sentBytesSaved = new LongAdder();
+
+    private FrameCompression() {
+    }
+
+    /**
+     * Compresses a binary frame if its body is at or above the threshold and deflate shrinks it
+     * 
+     * @param frame Complete binary frame (length prefix included), positioned at its start
+     * @return Compressed frame, or the given frame if it is sent as it is
+     */
+    public static ByteBuffer compress(ByteBuffer frame) {
+        byte[] bytes;
+        int offset;
+        if (frame.hasArray()) {
+            bytes = frame.array();
+            offset = frame.arrayOffset() + frame.position();
+        } else { // Read-only view of a cached frame
+            bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            offset = 0;
+        }
+        int bodyLength;
+        try {
+            bodyLength = BinaryFormatter.readFrameLength(bytes, offset, frame.remaining());
+        } catch (IOException e) {
+            return frame; // Not a frame this side encoded, left as it is
+        }
+        if (bodyLength < THRESHOLD_BYTES) {
+            return frame;
+        }
+
+        long start = System.nanoTime();
+        int bodyStart = offset + BinaryFormatter.prefixLength(bodyLength);
+        int headerLength = 1 + BinaryFormatter.prefixLength(bodyLength); // Marker and original length
+        byte[] deflated = new byte[bodyLength]; // Anything longer is not worth sending
+        int deflatedLength;
+        Deflater deflater = takeDeflater();
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(bytes, bodyStart, bodyLength);
+            deflater.finish();
+            deflatedLength = deflater.deflate(deflated, 0, deflated.length - headerLength);
+            if (!deflater.finished()) {
+                deflatedLength = -1;
+            }
+        } finally {
+            returnDeflater(deflater);
+        }
+        compressNanos.add(System.nanoTime() - start);
+        if (deflatedLength < 0) {
+            incompressibleFrames.increment();
+            return frame;
+        }
+
+        int compressedBodyLength = headerLength + deflatedLength;
+        ByteBuffer compressed = ByteBuffer.allocate(BinaryFormatter.prefixLength(compressedBodyLength)
+                + compressedBodyLength);
+        writeVarInt(compressed, compressedBodyLength);
+        compressed.put(MARKER);
+        writeVarInt(compressed, bodyLength);
+        compressed.put(deflated, 0, deflatedLength);
+
+        compressedFrames.increment();
+        bytesBeforeCompression.add(frame.remaining());
+        bytesAfterCompression.add(compressed.position());
+        return compressed.flip();
+    }
+
+    /**
+     * @param bytes      Received bytes
+     * @param bodyOffset Start of a frame body
+     * @param bodyLength Length of the body
+     * @return True: the body is compressed
+     */
+    public static boolean isCompressed(byte[] bytes, int bodyOffset, int bodyLength) {
+        return bodyLength > 0 && bytes[bodyOffset] == MARKER;
+    }
+
+    /**
+     * Restores the original body of a compressed frame
+     * 
+     * @param bytes      Received bytes
+     * @param bodyOffset Start of the compressed body
+     * @param bodyLength Length of the compressed body
+     * @return Original frame body
+     * @throws IOException If the body is malformed
+     */
+    public static byte[] inflate(byte[] bytes, int bodyOffset, int bodyLength) throws IOException {
+        int position = bodyOffset + 1; // After the marker
+        int limit = bodyOffset + bodyLength;
+        int originalLength = BinaryFormatter.readFrameLength(bytes, position, limit - position);
+        if (originalLength == -1) {
+            throw new IOException("Truncated compressed frame");
+        }
+        position += BinaryFormatter.prefixLength(originalLength);
+
+        long start = System.nanoTime();
+        byte[] body = new byte[originalLength];
+        Inflater inflater = takeInflater();
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(bytes, position, limit - position);
+            int inflatedLength = 0;
+            while (inflatedLength < originalLength && !inflater.finished()) {
+                int count = inflater.inflate(body, inflatedLength, originalLength - inflatedLength);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedLength += count;
+            }
+            if (inflatedLength != originalLength || !inflater.finished()) {
+                throw new IOException("Malformed compressed frame");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed frame", e);
+        } finally {
+            returnInflater(inflater);
+        }
+        inflatedFrames.increment();
+        inflateNanos.add(System.nanoTime() - start);
+        return body;
+    }
+
+    /**
+     * Counts the bytes a connection did not have to send because it got a compressed frame
+     * 
+     * @param savedBytes Plain frame length minus compressed frame length
+     */
+    public static void countSent(long savedBytes) {
+        sentBytesSaved.add(savedBytes);
+    }
+
+    private static Deflater takeDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private static void returnDeflater(Deflater deflater) {
+        deflater.reset();
+        if (deflaters.size() < MAX_POOLED) {
+            deflaters.offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static Inflater takeInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    private static void returnInflater(Inflater inflater) {
+        inflater.reset();
+        if (inflaters.size() < MAX_POOLED) {
+            inflaters.offer(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @return Frames sent compressed
+     */
+    public static long getCompressedFrameCount() {
+        return compressedFrames.sum();
+    }
+
+    /**
+     * @return Frames above the threshold that deflate did not shrink, sent as they were
+     */
+    public static long getIncompressibleFrameCount() {
+        return incompressibleFrames.sum();
+    }
+
+    /**
+     * @return Length of the compressed frames before compression
+     */
+    public static long getBytesBeforeCompression() {
+        return bytesBeforeCompression.sum();
+    }
+
+    public static long getBytesAfterCompression() {
+        return bytesAfterCompression.sum();
+    }
+
+    /**
+     * @return Time spent deflating, including frames that were then sent as they were
+     */
+    public static long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public static long getInflatedFrameCount() {
+        return inflatedFrames.sum();
+    }
+
+    public static long getInflateNanos() {
+        return inflateNanos.sum();
+    }
+
+    /**
+     * @return Bytes not written to connections, every recipient of a shared compressed frame counts
+     */
+    public static long getSentBytesSaved() {
+        return sentBytesSaved.sum();
+    }
+}
@@ -0,0 +1,156 @@
+package common.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import common.model.Message;
+
+/**
+ * Turns the bytes received on one connection back into messages, as text lines or binary frames. Bytes that arrive
+ * after the join handshake stay buffered when the protocol is switched, so nothing is lost between the two.
+ * Works both with blocking streams (read) and with non-blocking channels (fill, then next until null)
+ */
+public class MessageDecoder {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private final BinaryFormatter binaryFormatter = new BinaryFormatter();
+    private Protocol protocol = Protocol.TEXT; // Every connection starts with the text handshake
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start = 0; // First byte not decoded yet
+    private int end = 0; // End of the received bytes
+    private long parseNanos = 0;
+
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(Protocol protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * @return Time spent decoding the last message returned, without the time spent waiting for its bytes
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Blocks until the next message is received
+     * 
+     * @param input Stream of the connection
+     * @return Message object, or null if the stream ended
+     * @throws IOException If reading fails or the received bytes are not a valid message
+     */
+    public Message read(InputStream input) throws IOException {
+        Message message;
+        while ((message = next()) == null) {
+            makeRoom();
+            int bytesRead = input.read(buffer, end, buffer.length - end);
+            if (bytesRead == -1) {
+                return null;
+            }
+            end += bytesRead;
+        }
+        return message;
+    }
+
+    /**
+     * Reads whatever the channel has available without blocking (for non-blocking channels)
+     * 
+     * @param channel Channel of the connection
+     * @return Number of bytes read, -1 if the channel reached end of stream
+     * @throws IOException If reading fails
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        makeRoom();
+        int bytesRead = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+        if (bytesRead > 0) {
+            end += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Decodes the next complete message from the bytes received so far
+     * 
+     * @return Message object, or null if more bytes are needed
+     * @throws IOException If the received bytes are not a valid message
+     */
+    public Message next() throws IOException {
+        long started = System.nanoTime();
+        Message message;
+        try {
+            message = protocol.isBinary() ? nextFrame() : nextLine();
+        } catch (RuntimeException e) { // E.g. an unknown message type or a malformed number, the bytes are skipped
+            throw new IOException("Malformed message", e);
+        }
+        if (message != null) {
+            parseNanos = System.nanoTime() - started;
+        }
+        return message;
+    }
+
+    private Message nextLine() throws IOException {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\r' && i + 1 < end && buffer[i + 1] != '\n') {
+                throw new IOException("Line break in a message"); // BufferedReader.readLine would split it in two
+            }
+            if (buffer[i] == '\n') {
+                int length = i - start;
+                if (length > 0 && buffer[i - 1] == '\r') { // Same line endings as BufferedReader.readLine
+                    length--;
+                }
+
+                String line = new String(buffer, start, length, StandardCharsets.UTF_8);
+                start = i + 1;
+                return MessageFormatter.parse(line);
+            }
+        }
+
+        if (end - start > BinaryFormatter.MAX_FRAME_LENGTH) {
+            throw new IOException("Line too long");
+        }
+        return null;
+    }
+
+    private Message nextFrame() throws IOException {
+        int bodyLength = BinaryFormatter.readFrameLength(buffer, start, end - start);
+        if (bodyLength == -1) {
+            return null;
+        }
+
+        int bodyStart = start + BinaryFormatter.prefixLength(bodyLength);
+        if (end - bodyStart < bodyLength) {
+            return null;
+        }
+
+        start = bodyStart + bodyLength;
+        if (protocol == Protocol.DEFLATE && FrameCompression.isCompressed(buffer, bodyStart, bodyLength)) {
+            byte[] body = FrameCompression.inflate(buffer, bodyStart, bodyLength);
+            return binaryFormatter.decode(body, 0, body.length);
+        }
+        return binaryFormatter.decode(buffer, bodyStart, bodyLength);
+    }
+
+    /**
+     * Moves the undecoded bytes to the front of the buffer, and grows it if a single message does not fit
+     */
+    private void makeRoom() {
+        if (start == end) {
+            start = 0;
+            end = 0;
+        } else if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+
+        if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+}
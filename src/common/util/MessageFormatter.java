@@ -2,8 +2,6 @@ package common.util;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import common.model.Message;
 
@@ -13,9 +11,12 @@ import common.model.Message;
  * Could be removed or simplified by using a library for strings, or direct objects
  */
 public class MessageFormatter {
-    private static final String MESSAGE_FORMAT = "type=%s&sender=%s&recipient=%s&content=%s";
-    private static final String KEY_VALUE_PATTERN = "(\\w+)=([^,]+)"; // Key-value pairs from String[] e.g. [key1=value1, key2=value2]
-    private static final String NESTED_MAP_PATTERN = "(\\w+)=\\{(.*?)}"; // Nested maps e.g. {key1={keyA=valueB, keyA=valueB}, key2.. }
+    private static final Message.Type[] TYPES = Message.Type.values();
+    // Ids, keys and values that repeat in every user list, returned as these constants instead of new substrings
+    private static final String[] KNOWN_STRINGS = {
+            "[SERVER]", "Group", "role", "status", "userId", "socketAddress", "MEMBER", "COORDINATOR", "ACTIVE",
+            "INACTIVE", "protocol", "binary", "text"
+    };
 
     /**
      * Formats a message object into a string to be sent over the server
@@ -23,48 +24,201 @@ public class MessageFormatter {
      * @return String formatted message
      */
     public static String format(Message message) {
-        return MESSAGE_FORMAT.formatted(message.getType(), message.getSender(), message.getRecipient(), message.getContent());
+        StringBuilder line = new StringBuilder(64);
+        line.append("type=").append(message.getType())
+                .append("&sender=").append(message.getSender())
+                .append("&recipient=").append(message.getRecipient());
+        // Optional fields, lines without them are still the original format
+        if (message.getSequence() != 0) {
+            line.append("&seq=").append(message.getSequence());
+        }
+        if (carriesTimestamp(message.getType())) {
+            line.append("&time=").append(message.getTimestamp());
+        }
+        return line.append("&content=").append(message.getContent()).toString();
+    }
+
+    /**
+     * Chat messages carry the time they were created on the wire, so clients show when the server received them.
+     * Other messages are given the time they are parsed
+     * 
+     * @param type Message type
+     * @return True if messages of the type are sent with their timestamp
+     */
+    static boolean carriesTimestamp(Message.Type type) {
+        return type == Message.Type.MESSAGE;
     }
 
     /**
-     * Parses a string message back into a message object, if map, parse into map
+     * Parses a string message back into a message object, if map, parse into map.
+     * Single pass over the characters, only the fields of the returned message are copied out
      * @param messageString String message to be parsed
      * @return Message object
      */
-    public static Message parse(String messageString) {
-        String[] parts = messageString.split("&", 4);
+    public static Message parse(CharSequence messageString) {
+        int typeStart = skipPrefix(messageString, 0, "type=");
+        int typeEnd = findFieldEnd(messageString, typeStart);
+        int senderStart = skipPrefix(messageString, typeEnd + 1, "sender=");
+        int senderEnd = findFieldEnd(messageString, senderStart);
+        int recipientStart = skipPrefix(messageString, senderEnd + 1, "recipient=");
+        int recipientEnd = findFieldEnd(messageString, recipientStart);
+        int position = recipientEnd + 1;
+        long sequence = 0;
+        if (regionEquals(messageString, position, position + 4, "seq=")) {
+            int sequenceEnd = findFieldEnd(messageString, position + 4);
+            sequence = parseLong(messageString, position + 4, sequenceEnd);
+            position = sequenceEnd + 1;
+        }
+        long timestamp = 0;
+        if (regionEquals(messageString, position, position + 5, "time=")) {
+            int timestampEnd = findFieldEnd(messageString, position + 5);
+            timestamp = parseLong(messageString, position + 5, timestampEnd);
+            position = timestampEnd + 1;
+        }
+        int contentStart = skipPrefix(messageString, position, "content="); // Content is the rest, may contain '&'
 
-        Message.Type type = Message.Type.valueOf(parts[0].replace("type=", ""));
-        String sender = parts[1].replace("sender=", "");
-        String recipient = parts[2].replace("recipient=", "");
-        String content = parts[3].replace("content=", "");
+        Message.Type type = findType(messageString, typeStart, typeEnd);
+        String sender = substring(messageString, senderStart, senderEnd);
+        String recipient = substring(messageString, recipientStart, recipientEnd);
 
         Object parsedContent = switch (type) {
-            case USER_LIST -> extractStringToMap(content, NESTED_MAP_PATTERN, true);
-            case USER_DETAILS_RESPONSE -> extractStringToMap(content, KEY_VALUE_PATTERN, false);
-            default -> content;
+            case USER_LIST, USER_LIST_UPDATE -> new MapParser(messageString, contentStart).parseMap(true);
+            case USER_DETAILS_RESPONSE, USER_JOIN, ACCEPT_USER_JOIN, USER_ADDED, USER_REMOVED, USER_UPDATED ->
+                    new MapParser(messageString, contentStart).parseMap(false);
+            default -> messageString.subSequence(contentStart, messageString.length()).toString();
         };
 
-        return new Message(type, sender, recipient, parsedContent);
+        if (timestamp == 0) { // Not sent, e.g. by an older server
+            return new Message(type, sender, recipient, parsedContent, sequence);
+        }
+        return new Message(type, sender, recipient, parsedContent, sequence, timestamp);
     }
 
-    private static Map<String, ?> extractStringToMap(String input, String regex, boolean isNested) {
-        Map<String, Object> map = new LinkedHashMap<>();
+    private static long parseLong(CharSequence input, int start, int end) {
+        if (start == end) {
+            throw new IllegalArgumentException("Empty number");
+        }
 
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(input);
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid number: " + input.subSequence(start, end));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
 
-        while (matcher.find()) {
-            String key = matcher.group(1);
-            String value = matcher.group(2).replaceAll("}$", ""); // Removes trailing "}" from non-nested maps
+    private static int findFieldEnd(CharSequence input, int position) {
+        while (position < input.length()) {
+            if (input.charAt(position) == '&') {
+                return position;
+            }
+            position++;
+        }
+        throw new IllegalArgumentException("Missing message field");
+    }
 
-            if (isNested) {
-                map.put(key, extractStringToMap(value, KEY_VALUE_PATTERN, false));
-            } else {
-                map.put(key, value);
+    private static int skipPrefix(CharSequence input, int position, String prefix) {
+        if (regionEquals(input, position, position + prefix.length(), prefix)) {
+            return position + prefix.length();
+        }
+        return position;
+    }
+
+    private static boolean regionEquals(CharSequence input, int start, int end, String expected) {
+        if (end - start != expected.length() || end > input.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (input.charAt(start + i) != expected.charAt(i)) {
+                return false;
             }
         }
+        return true;
+    }
 
-        return map;
+    private static Message.Type findType(CharSequence input, int start, int end) {
+        for (Message.Type type : TYPES) {
+            if (regionEquals(input, start, end, type.name())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown message type: " + input.subSequence(start, end));
+    }
+
+    /**
+     * Returns one of the known strings if the region matches it, otherwise a copy of the region
+     */
+    private static String substring(CharSequence input, int start, int end) {
+        for (String known : KNOWN_STRINGS) {
+            if (regionEquals(input, start, end, known)) {
+                return known;
+            }
+        }
+        return input.subSequence(start, end).toString();
+    }
+
+    /**
+     * Reads maps written by Map.toString, e.g. {key1=value1, key2=value2} or nested
+     * {key1={keyA=valueA, keyB=valueB}, key2={..}}. Outer braces and the spaces after commas are optional. Keys are
+     * letters, digits, '_' and '#' (room ids in resume options, e.g. seq_#team=3)
+     */
+    private static class MapParser {
+        private final CharSequence input;
+        private final int length;
+        private int position;
+
+        MapParser(CharSequence input, int position) {
+            this.input = input;
+            this.length = input.length();
+            this.position = position;
+        }
+
+        Map<String, Object> parseMap(boolean isNested) {
+            Map<String, Object> map = new LinkedHashMap<>();
+
+            while (true) {
+                skipSeparators();
+                int keyStart = position;
+                while (position < length && isKeyChar(input.charAt(position))) {
+                    position++;
+                }
+                if (position == length || position == keyStart || input.charAt(position) != '=') {
+                    return map; // End of map (or no map, e.g. "null")
+                }
+                String key = substring(input, keyStart, position++);
+
+                if (isNested) {
+                    if (position == length || input.charAt(position) != '{') {
+                        return map;
+                    }
+                    position++;
+                    map.put(key, parseMap(false));
+                    position++; // Closing brace of the nested map
+                } else {
+                    int valueStart = position;
+                    while (position < length && input.charAt(position) != ',' && input.charAt(position) != '}') {
+                        position++;
+                    }
+                    map.put(key, substring(input, valueStart, position));
+                }
+            }
+        }
+
+        private void skipSeparators() {
+            while (position < length) {
+                char c = input.charAt(position);
+                if (c != ',' && c != ' ' && c != '{') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private static boolean isKeyChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '#';
+        }
     }
 }
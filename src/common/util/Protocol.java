@@ -0,0 +1,85 @@
+package common.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import common.model.Message;
+
+/**
+ * Wire protocols a connection can use after joining, chosen by the client in its USER_JOIN handshake.
+ * TEXT: one MessageFormatter line per message (the default, and what older clients and servers speak).
+ * BINARY: length-prefixed BinaryFormatter frames.
+ * DEFLATE: binary frames, with large frame bodies deflated (protocol=binary and compression=deflate)
+ */
+public enum Protocol {
+    TEXT, BINARY, DEFLATE;
+
+    public static final String OPTION = "protocol"; // Handshake option key, e.g. protocol=binary
+
+    /**
+     * @return Value of the protocol option, binary for DEFLATE as compression is a separate option
+     */
+    public String getName() {
+        return this == TEXT ? "text" : "binary";
+    }
+
+    /**
+     * @return True: messages are sent as length-prefixed frames
+     */
+    public boolean isBinary() {
+        return this != TEXT;
+    }
+
+    /**
+     * @param name Protocol name (e.g. from the config file), may be null
+     * @return Named protocol, text if the name is unknown
+     */
+    public static Protocol fromName(Object name) {
+        return BINARY.getName().equals(name) ? BINARY : TEXT;
+    }
+
+    /**
+     * Returns the protocol requested in a join handshake, falling back to text if none or an unknown one is given
+     * 
+     * @param options Handshake options of a USER_JOIN or ACCEPT_USER_JOIN message (may be null)
+     * @return Requested protocol
+     */
+    public static Protocol fromOptions(Map<?, ?> options) {
+        if (options == null) {
+            return TEXT;
+        }
+        Protocol protocol = fromName(options.get(OPTION));
+        if (protocol == BINARY && FrameCompression.DEFLATE.equals(options.get(FrameCompression.OPTION))) {
+            return DEFLATE;
+        }
+        return protocol;
+    }
+
+    /**
+     * Adds the options that request or accept this protocol to a join handshake
+     * 
+     * @param options Handshake options of a USER_JOIN or ACCEPT_USER_JOIN message
+     */
+    public void putOptions(Map<String, String> options) {
+        options.put(OPTION, getName());
+        if (this == DEFLATE) {
+            options.put(FrameCompression.OPTION, FrameCompression.DEFLATE);
+        }
+    }
+
+    /**
+     * Encodes a message as it is sent on the wire with this protocol
+     * 
+     * @param message Message to be encoded
+     * @return Array backed buffer holding one complete line or frame
+     */
+    public ByteBuffer encode(Message message) {
+        if (this == BINARY) {
+            return BinaryFormatter.encode(message);
+        } else if (this == DEFLATE) {
+            return FrameCompression.compress(BinaryFormatter.encode(message));
+        }
+        return ByteBuffer.wrap((MessageFormatter.format(message) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,38 @@
+package common.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats epoch-millis timestamps as HH:mm:ss in the local time zone. Messages received within the same second
+ * share one formatted string, so displaying a burst of messages formats the time once
+ */
+public class TimestampFormatter {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static volatile FormattedSecond lastFormatted = new FormattedSecond(Long.MIN_VALUE, null);
+
+    /**
+     * Last formatted second and its text
+     */
+    private record FormattedSecond(long epochSecond, String text) {
+    }
+
+    private TimestampFormatter() {
+    }
+
+    /**
+     * @param epochMillis Milliseconds since the epoch
+     * @return Time of day as HH:mm:ss
+     */
+    public static String format(long epochMillis) {
+        long epochSecond = Math.floorDiv(epochMillis, 1000);
+        FormattedSecond cached = lastFormatted;
+        if (cached.epochSecond() != epochSecond) {
+            cached = new FormattedSecond(epochSecond, TIME_FORMAT.format(Instant.ofEpochSecond(epochSecond)));
+            lastFormatted = cached;
+        }
+        return cached.text();
+    }
+}
@@ -0,0 +1,47 @@
+package loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import common.util.ConfigLoader;
+import loadtest.controller.LoadController;
+import loadtest.model.LoadProfile;
+import loadtest.model.LoadReport;
+
+/**
+ * Headless load test against a running server, without any Swing window.
+ * The server address and the loadtest.* settings are loaded from the config file, each argument key=value
+ * overrides one of them (e.g. loadtest.clients=2000 loadtest.chat.rate=2). The report is printed and written to
+ * the report file as JSON
+ */
+public class LoadGenerator {
+    public static void main(String[] args) {
+        ConfigLoader config = new ConfigLoader();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) {
+                config.set(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+            }
+        }
+        LoadProfile profile = LoadProfile.fromConfig(config);
+
+        System.out.println("LOAD TEST %s:%s, %d CLIENTS FOR %ds\n".formatted(profile.serverIp(), profile.serverPort(),
+                profile.clients(), profile.durationSeconds()));
+
+        int status = 0;
+        try {
+            LoadReport report = new LoadController(profile).run();
+            String json = report.toJson(profile);
+            Files.writeString(Path.of(profile.reportPath()), json);
+            System.out.println(json);
+        } catch (IOException e) {
+            System.err.println("Could not write the report (%s)".formatted(e.getMessage()));
+            status = 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 1;
+        }
+        System.exit(status); // Client connections are still open and would reconnect if closed
+    }
+}
@@ -0,0 +1,140 @@
+package loadtest.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import loadtest.model.LoadProfile;
+import loadtest.model.LoadReport;
+import loadtest.model.SimulatedClient;
+
+/**
+ * Runs a load test: joins every simulated client (spread over the ramp-up), then sends the profile's traffic mix
+ * for its duration and waits briefly for messages still on their way. Each client action is scheduled on its own
+ * random (exponential) delay on a small shared scheduler, so thousands of clients need no sending thread each
+ */
+public class LoadController {
+    private static final int DRAIN_MS = 1000; // Deliveries still recorded after the traffic stops
+    private static final String GROUP_ID = "Group";
+    private final LoadProfile profile;
+    private final LoadReport report = new LoadReport();
+    private final List<SimulatedClient> clients = new ArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean running = false;
+
+    public LoadController(LoadProfile profile) {
+        this.profile = profile;
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                Thread.ofPlatform().name("load-traffic-", 0).daemon().factory());
+    }
+
+    /**
+     * Runs the whole test on the calling thread
+     * 
+     * @return Results of the test
+     * @throws InterruptedException If interrupted while waiting for the test to end
+     */
+    public LoadReport run() throws InterruptedException {
+        connectClients();
+        clients.removeIf(client -> !client.isConnected()); // Only joined clients send and are sent to
+
+        running = true;
+        report.start();
+        for (SimulatedClient client : clients) {
+            scheduleRandomly(profile.chatRate(), () -> client.sendChat(pickRecipient(client)));
+            if (clients.size() > 1) {
+                scheduleRandomly(profile.privateChatRate(), () -> client.openPrivateChat(pickOther(client)));
+            }
+            scheduleRandomly(profile.statusFlapRate(), client::flapStatus);
+        }
+        if (profile.stormIntervalSeconds() > 0) {
+            scheduler.scheduleAtFixedRate(this::startReconnectStorm, profile.stormIntervalSeconds(),
+                    profile.stormIntervalSeconds(), TimeUnit.SECONDS);
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(profile.durationSeconds()));
+        running = false;
+        report.stop();
+        scheduler.shutdownNow();
+        Thread.sleep(DRAIN_MS);
+        return report;
+    }
+
+    /**
+     * Joins the clients in parallel, each one at its own offset of the ramp-up
+     */
+    private void connectClients() throws InterruptedException {
+        for (int i = 0; i < profile.clients(); i++) {
+            clients.add(new SimulatedClient("Load" + i, profile.protocol(), report));
+        }
+
+        try (ExecutorService connectExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients.size(); i++) {
+                SimulatedClient client = clients.get(i);
+                long offsetMs = (long) profile.rampUpMs() * i / clients.size();
+                connectExecutor.execute(() -> connectClient(client, offsetMs));
+            }
+        } // Waits for every join
+    }
+
+    private void connectClient(SimulatedClient client, long offsetMs) {
+        try {
+            Thread.sleep(offsetMs);
+            client.connect(profile.serverIp(), profile.serverPort());
+            report.countConnected();
+        } catch (IOException | IllegalArgumentException e) {
+            report.countFailedConnection();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs an action again and again with exponential delays, so it happens at the given average rate
+     */
+    private void scheduleRandomly(double ratePerSecond, Runnable action) {
+        if (ratePerSecond <= 0 || !running) {
+            return;
+        }
+
+        double delaySeconds = -Math.log(1 - ThreadLocalRandom.current().nextDouble()) / ratePerSecond;
+        scheduler.schedule(() -> {
+            if (running) {
+                action.run();
+                scheduleRandomly(ratePerSecond, action);
+            }
+        }, (long) (delaySeconds * 1e9), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drops the connections of a random share of the clients at once, they all reconnect and resume together
+     */
+    private void startReconnectStorm() {
+        for (SimulatedClient client : clients) {
+            if (ThreadLocalRandom.current().nextDouble() < profile.stormShare()) {
+                client.dropConnection();
+            }
+        }
+    }
+
+    private String pickRecipient(SimulatedClient sender) {
+        boolean toGroup = clients.size() < 2 || ThreadLocalRandom.current().nextDouble() < profile.groupShare();
+        return toGroup ? GROUP_ID : pickOther(sender);
+    }
+
+    /**
+     * @return Id of a random client other than the given one, there are at least two clients
+     */
+    private String pickOther(SimulatedClient client) {
+        SimulatedClient other;
+        do {
+            other = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+        } while (other == client);
+        return other.getUserId();
+    }
+}
@@ -0,0 +1,59 @@
+package loadtest.model;
+
+import java.util.Map;
+
+import common.util.ConfigLoader;
+import common.util.FrameCompression;
+import common.util.Protocol;
+
+/**
+ * What a load test does: how many clients connect to which server, how fast they join, and the traffic each of them
+ * sends once everyone has joined. Rates are per client and per second, each action is spaced randomly (a Poisson
+ * process) so the clients do not send in lockstep
+ * 
+ * @param serverIp             Server IP address
+ * @param serverPort           Server port
+ * @param protocol             Protocol asked for in the join handshake
+ * @param clients              Connections to open
+ * @param rampUpMs             Time the joins are spread over
+ * @param durationSeconds      Time traffic is sent for, after every client joined
+ * @param chatRate             Chat messages per client per second
+ * @param groupShare           Share of chat messages sent to the group (0 to 1), the rest go to a random user
+ * @param privateChatRate      Private chats opened per client per second
+ * @param statusFlapRate       Status changes per client per second
+ * @param stormIntervalSeconds Time between reconnect storms, 0 for none
+ * @param stormShare           Share of the clients that drop their connection in each storm (0 to 1)
+ * @param reportPath           File the JSON report is written to
+ */
+public record LoadProfile(String serverIp, String serverPort, Protocol protocol, int clients, int rampUpMs,
+        int durationSeconds, double chatRate, double groupShare, double privateChatRate, double statusFlapRate,
+        int stormIntervalSeconds, double stormShare, String reportPath) {
+
+    /**
+     * Reads the server address (default.server.ip, default.server.port) and the loadtest.* settings, any setting
+     * that is missing has a small default
+     * 
+     * @param config Config, e.g. with settings given on the command line
+     */
+    public static LoadProfile fromConfig(ConfigLoader config) {
+        Protocol protocol = Protocol.fromOptions(Map.of(Protocol.OPTION, config.get("loadtest.protocol", "text"),
+                FrameCompression.OPTION, config.get("loadtest.compression", "")));
+        return new LoadProfile(config.get("default.server.ip", "localhost"),
+                config.get("default.server.port", "1549"), protocol,
+                config.getInt("loadtest.clients", 100),
+                config.getInt("loadtest.rampup.ms", 5000),
+                config.getInt("loadtest.duration.s", 30),
+                getDouble(config, "loadtest.chat.rate", 1),
+                getDouble(config, "loadtest.chat.group.share", 0.1),
+                getDouble(config, "loadtest.private.open.rate", 0.05),
+                getDouble(config, "loadtest.status.flap.rate", 0.05),
+                config.getInt("loadtest.storm.interval.s", 0),
+                getDouble(config, "loadtest.storm.share", 0.2),
+                config.get("loadtest.report", "loadtest-report.json"));
+    }
+
+    private static double getDouble(ConfigLoader config, String key, double defaultValue) {
+        String value = config.get(key);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,123 @@
+package loadtest.model;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import server.model.LatencyHistogram;
+
+/**
+ * Results of a load test, recorded by every simulated client at once. Delivery latency is the time from a client
+ * sending a chat message to another client receiving it, taken from the send time embedded in the message. The
+ * percentiles are the upper bounds of the histogram buckets they fall in, at most 25% above the exact value
+ */
+public class LoadReport {
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder failedConnections = new LongAdder();
+    private final LongAdder chatSent = new LongAdder();
+    private final LongAdder privateChatsOpened = new LongAdder();
+    private final LongAdder statusChanges = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder(); // Connections dropped by reconnect storms
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder lost = new LongAdder(); // Clients that gave up reconnecting
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private volatile long startedAt;
+    private volatile long stoppedAt;
+
+    public void countConnected() {
+        connected.increment();
+    }
+
+    public void countFailedConnection() {
+        failedConnections.increment();
+    }
+
+    public void countChatSent() {
+        chatSent.increment();
+    }
+
+    public void countPrivateChatOpened() {
+        privateChatsOpened.increment();
+    }
+
+    public void countStatusChange() {
+        statusChanges.increment();
+    }
+
+    public void countDropped() {
+        dropped.increment();
+    }
+
+    public void countResumed() {
+        resumed.increment();
+    }
+
+    public void countLost() {
+        lost.increment();
+    }
+
+    /**
+     * @param latencyNanos Time from sending a chat message to another client receiving it
+     */
+    public void recordDelivery(long latencyNanos) {
+        delivered.increment();
+        deliveryLatency.record(latencyNanos);
+    }
+
+    /**
+     * Starts the traffic phase, throughput is measured over it
+     */
+    public void start() {
+        startedAt = System.nanoTime();
+    }
+
+    public void stop() {
+        stoppedAt = System.nanoTime();
+    }
+
+    public long getConnectedCount() {
+        return connected.sum();
+    }
+
+    public long getChatSentCount() {
+        return chatSent.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * @param profile Profile the test ran with
+     * @return Results as a JSON object, latencies in milliseconds
+     */
+    public String toJson(LoadProfile profile) {
+        double seconds = Math.max(1, stoppedAt - startedAt) / 1e9;
+        long latencyCount = deliveryLatency.getCount();
+        double meanMs = latencyCount == 0 ? 0 : deliveryLatency.getSumNanos() / 1e6 / latencyCount;
+        return String.format(Locale.ROOT, """
+                {
+                  "server": "%s:%s",
+                  "protocol": "%s",
+                  "clients": %d,
+                  "connected": %d,
+                  "failedConnections": %d,
+                  "durationSeconds": %.3f,
+                  "sent": {"chat": %d, "privateChatOpens": %d, "statusChanges": %d},
+                  "delivered": %d,
+                  "throughput": {"sentPerSecond": %.1f, "deliveredPerSecond": %.1f},
+                  "latencyMs": {"p50": %.3f, "p99": %.3f, "p999": %.3f, "mean": %.3f},
+                  "reconnects": {"dropped": %d, "resumed": %d, "lost": %d}
+                }
+                """, profile.serverIp(), profile.serverPort(), profile.protocol().name().toLowerCase(Locale.ROOT),
+                profile.clients(), connected.sum(), failedConnections.sum(), seconds, chatSent.sum(),
+                privateChatsOpened.sum(), statusChanges.sum(), delivered.sum(), chatSent.sum() / seconds,
+                delivered.sum() / seconds, deliveryLatency.getPercentile(50) / 1e6,
+                deliveryLatency.getPercentile(99) / 1e6, deliveryLatency.getPercentile(99.9) / 1e6, meanMs,
+                dropped.sum(), resumed.sum(), lost.sum());
+    }
+}
@@ -0,0 +1,116 @@
+package loadtest.model;
+
+import java.io.IOException;
+
+import client.model.ConnectionManager;
+import client.model.LostConnectionListener;
+import common.model.Message;
+import common.util.Protocol;
+
+/**
+ * One headless chat client: the protocol, handshake, heartbeat replies and session resumption are the
+ * ConnectionManager's, only the user interface is replaced by counting into the load report. Every chat message
+ * carries its send time, so the receiving client can record the delivery latency
+ */
+public class SimulatedClient {
+    private static final String TIMESTAMP_PREFIX = "lt:"; // Content of a load test message: lt:<System.nanoTime>
+    private final String userId;
+    private final ConnectionManager connectionManager;
+    private final LoadReport report;
+    private boolean active = true; // Changed by one scheduler task at a time
+    private volatile boolean connected = false;
+
+    /**
+     * @param userId   Id the client joins with
+     * @param protocol Protocol asked for in the join handshake
+     * @param report   Report the client records into
+     */
+    public SimulatedClient(String userId, Protocol protocol, LoadReport report) {
+        this.userId = userId;
+        this.connectionManager = new ConnectionManager(protocol);
+        this.report = report;
+
+        connectionManager.setMessageListener(this::onMessage);
+        connectionManager.setLostConnectionListener(new LostConnectionListener() {
+            @Override
+            public void onLostConnection(boolean attemptReconnection) {
+                if (!attemptReconnection) {
+                    report.countLost();
+                }
+            }
+
+            @Override
+            public void onReconnectionSuccess() {
+                report.countResumed();
+            }
+        });
+    }
+
+    /**
+     * Joins the server, the listener thread of the connection manager receives from then on
+     * 
+     * @throws IOException If the server cannot be reached
+     */
+    public void connect(String serverIp, String serverPort) throws IOException {
+        connectionManager.connect(userId, serverIp, serverPort);
+        connected = true;
+    }
+
+    /**
+     * @return True: joined the server (it may be reconnecting at the moment)
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Records the latency of a load test message from another client
+     */
+    private void onMessage(Message message) {
+        if (message.getType() != Message.Type.MESSAGE || userId.equals(message.getSender())
+                || !(message.getContent() instanceof String content) || !content.startsWith(TIMESTAMP_PREFIX)) {
+            return;
+        }
+
+        try {
+            long sentAt = Long.parseLong(content, TIMESTAMP_PREFIX.length(), content.length(), 10);
+            report.recordDelivery(System.nanoTime() - sentAt);
+        } catch (NumberFormatException e) {
+            // A chat message that only looks like a load test message
+        }
+    }
+
+    /**
+     * @param recipient "Group" or the id of another client
+     */
+    public void sendChat(String recipient) {
+        connectionManager.sendMessage(recipient, TIMESTAMP_PREFIX + System.nanoTime());
+        report.countChatSent();
+    }
+
+    public void openPrivateChat(String targetUserId) {
+        connectionManager.openPrivateChat(targetUserId);
+        report.countPrivateChatOpened();
+    }
+
+    /**
+     * Switches between active and inactive
+     */
+    public void flapStatus() {
+        active = !active;
+        connectionManager.setActive(active);
+        report.countStatusChange();
+    }
+
+    /**
+     * Closes the connection as if it was lost, the connection manager reconnects and resumes the session
+     */
+    public void dropConnection() {
+        connectionManager.disconnect();
+        report.countDropped();
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+}
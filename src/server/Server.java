@@ -2,33 +2,141 @@ package server;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 
 import common.util.ConfigLoader;
+import server.controller.ClusterController;
 import server.controller.ConnectionController;
+import server.controller.MetricsController;
+import server.controller.NioConnectionController;
+import server.controller.ReplicationController;
+import server.controller.ServerOptions;
+import server.controller.StandbyController;
+import server.model.MessageJournal;
+import server.model.MessageLog;
+import server.model.Metrics;
+import server.model.Replica;
 import server.model.UserManager;
 
 /**
  * Starts the server and listens for incoming connections
- * server ip and port are loaded from the config file
+ * server ip, port, connection engine (blocking, virtual or nio), message log, cluster links, standby role and metrics
+ * port are loaded from the config file. A standby follows its primary and only listens once it has taken over
  */
 public class Server {
     public static void main(String[] args) {
         ConfigLoader config = new ConfigLoader();
-        UserManager userManager = new UserManager();
-        ConnectionController connectionController = new ConnectionController(userManager);
+        UserManager userManager = new UserManager(config.get("server.cluster.node", "local"));
 
         String serverIp = config.get("default.server.ip");
         int serverPort = config.getInt("default.server.port");
+        String engine = config.get("server.engine", "blocking");
 
-        System.out.println("STARTING SERVER %s:%d\n".formatted(serverIp, serverPort));
+        System.out.println("STARTING SERVER %s:%d (%s)\n".formatted(serverIp, serverPort, engine));
 
-        try (ServerSocket serverSocket = new ServerSocket(serverPort, 0, InetAddress.getByName(serverIp))) {
-            while (true) {
-                connectionController.handleNewConnection(serverSocket.accept());
+        try {
+            Replica replica = awaitTakeover(config);
+            MessageJournal journal = openMessageLog(config);
+            ClusterController cluster = ClusterController.fromConfig(userManager, config);
+            ReplicationController replication = ReplicationController.fromConfig(userManager, config);
+            ServerOptions options = new ServerOptions().withJournal(journal).withCluster(cluster)
+                    .withReplication(replication).withReplica(replica);
+            if (engine.equals("nio")) {
+                NioConnectionController connectionController = new NioConnectionController(userManager, config,
+                        options);
+                startMetrics(connectionController.getMetrics(), config);
+                connectionController.listen(new InetSocketAddress(InetAddress.getByName(serverIp), serverPort));
+            } else {
+                ConnectionController connectionController = new ConnectionController(userManager, config, options);
+                startMetrics(connectionController.getMetrics(), config);
+                connectionController.start();
+                listenBlocking(connectionController, serverIp, serverPort);
             }
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println("ERROR STARTING SERVER (%s)\n".formatted(e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Follows the primary if this server is a standby, until the primary fails
+     * 
+     * @param config Server config (primary's replication address, takeover delay, message history)
+     * @return State of the failed primary, null if this server is not a standby
+     * @throws InterruptedException If interrupted while following the primary
+     */
+    private static Replica awaitTakeover(ConfigLoader config) throws InterruptedException {
+        StandbyController standby = StandbyController.fromConfig(config);
+        if (standby == null) {
+            return null;
+        }
+
+        System.out.println("STANDBY OF %s\n".formatted(config.get("server.standby.of")));
+        Replica replica = standby.awaitTakeover();
+        System.out.println("PRIMARY LOST, TAKING OVER %d SESSIONS\n".formatted(replica.getSessions().size()));
+        return replica;
+    }
+
+    /**
+     * Opens the message log if a directory is configured, the queued messages are written when the server stops
+     * 
+     * @param config Server config (log directory, segment size and age, retained segments, fsync interval, journal
+     *               capacity)
+     * @return Journal of the log, null if messages are not logged
+     * @throws IOException If the log cannot be opened or recovered
+     */
+    private static MessageJournal openMessageLog(ConfigLoader config) throws IOException {
+        String directory = config.get("server.log.dir", "");
+        if (directory.isBlank()) {
+            return null;
+        }
+
+        MessageLog log = new MessageLog(Path.of(directory), config.getInt("server.log.segment.bytes", 64 << 20),
+                config.getInt("server.log.segment.ms", 3_600_000), config.getInt("server.log.retention.segments", 168));
+        MessageJournal journal = new MessageJournal(log, config.getInt("server.log.queue.capacity", 65536),
+                config.getInt("server.log.fsync.ms", 100));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        return journal;
+    }
+
+    /**
+     * Serves the metrics over HTTP if a metrics port is configured, the chat server runs on without them if the
+     * port cannot be bound
+     * 
+     * @param metrics Metrics of the connection engine
+     * @param config  Server config (metrics host and port)
+     */
+    private static void startMetrics(Metrics metrics, ConfigLoader config) {
+        MetricsController metricsController = MetricsController.fromConfig(metrics, config);
+        if (metricsController == null) {
+            return;
+        }
+
+        try {
+            metricsController.start();
+            System.out.println("METRICS ON PORT %d\n".formatted(metricsController.getPort()));
+        } catch (IOException e) {
+            System.err.println("Could not start the metrics endpoint (%s)".formatted(e.getMessage()));
+        }
+    }
+
+    private static void listenBlocking(ConnectionController connectionController, String serverIp, int serverPort)
+            throws IOException {
+        // Accepted through a channel so each socket also has a SocketChannel for gathering writes
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(InetAddress.getByName(serverIp), serverPort));
+            while (true) {
+                connectionController.handleNewConnection(serverChannel.accept().socket());
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,463 @@
+package server.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import common.util.MessageDecoder;
+import common.util.Protocol;
+import server.model.Frame;
+import server.model.OutboundQueue;
+import server.model.RemoteUser;
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Links this server to the other nodes of a cluster. Every node owns the connections of its own users and tells the
+ * other nodes about its joins, leaves and status changes, so each node has the cluster-wide user list. Chat
+ * messages are relayed once to every node for the group (each node broadcasts to its own users) and only to the
+ * owner node of the recipient for a private chat.
+ * Nodes form a full mesh: every node dials every peer and only sends on the links it dialled, the links it accepts
+ * are only read. Links use the binary protocol, each dialled link has its own bounded queue and writer thread so a
+ * slow node only fills its own queue, and a relayed frame is encoded once for all links.
+ * Both hellos of a link carry the shared cluster secret, a link whose hello has another secret is closed before
+ * anything it sends is used
+ */
+public class ClusterController {
+    private static final int LINK_QUEUE_CAPACITY = 65536; // A node that falls this far behind is reconnected
+    private static final int WRITE_BATCH_SIZE = 16; // Frames passed to a single gathering write
+    private static final int RECONNECT_DELAY_MS = 1000;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private final UserManager userManager;
+    private final String nodeId;
+    private final List<InetSocketAddress> peers;
+    private final String secret;
+    private final ExecutorService linkExecutor = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().daemon()
+            .factory());
+    private final ReentrantLock linksLock = new ReentrantLock();
+    private volatile PeerLink[] links = new PeerLink[0]; // Copied on change, relays read it without a lock
+    private final ConcurrentMap<String, Socket> inboundLinks = new ConcurrentHashMap<>(); // Key: node id
+    private volatile MessageController messageController;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Dialled link to a peer, the node id is known once the peer replied to the hello
+     */
+    private static class PeerLink {
+        private final OutboundQueue outbound = new OutboundQueue(LINK_QUEUE_CAPACITY,
+                OutboundQueue.OverflowPolicy.DISCONNECT);
+        private final Socket socket;
+        private volatile String peerNodeId;
+
+        PeerLink(Socket socket) {
+            this.socket = socket;
+        }
+    }
+
+    /**
+     * Binds the cluster port, links are accepted and dialled once started
+     * 
+     * @param userManager Shared user manager, its node id is this node's id
+     * @param bindAddress Address the links of the other nodes are accepted on (port 0 picks a free port)
+     * @param peers       Addresses of the other nodes
+     * @param secret      Secret shared by every node of the cluster
+     * @throws IOException If the cluster port cannot be bound
+     */
+    public ClusterController(UserManager userManager, InetSocketAddress bindAddress, List<InetSocketAddress> peers,
+            String secret) throws IOException {
+        this.userManager = userManager;
+        this.nodeId = userManager.getNodeId();
+        this.peers = List.copyOf(peers);
+        this.secret = secret;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+    }
+
+    /**
+     * Creates the cluster links from the config, e.g. server.cluster.port=1649 and
+     * server.cluster.peers=localhost:1650,localhost:1651. The cluster port is bound on server.cluster.host
+     * (localhost unless set) and server.cluster.secret has to be set
+     * 
+     * @param userManager Shared user manager
+     * @param config      Server config
+     * @return Cluster controller, null if the server is not part of a cluster (no cluster port)
+     * @throws IOException              If the cluster port cannot be bound
+     * @throws IllegalArgumentException If no cluster secret is set
+     */
+    public static ClusterController fromConfig(UserManager userManager, ConfigLoader config) throws IOException {
+        int port = config.getInt("server.cluster.port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        String secret = config.get("server.cluster.secret", "");
+        if (secret.isBlank()) {
+            throw new IllegalArgumentException("server.cluster.secret has to be set to run a cluster");
+        }
+
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : config.get("server.cluster.peers", "").split(",")) {
+            if (!peer.isBlank()) {
+                int separator = peer.lastIndexOf(':');
+                peers.add(new InetSocketAddress(peer.substring(0, separator).trim(),
+                        Integer.parseInt(peer.substring(separator + 1).trim())));
+            }
+        }
+        return new ClusterController(userManager,
+                new InetSocketAddress(config.get("server.cluster.host", "localhost"), port), peers, secret);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Accepts the links of the other nodes and starts dialling every peer
+     * 
+     * @param messageController Handles the joins, leaves and messages relayed by the other nodes
+     */
+    public void start(MessageController messageController) {
+        this.messageController = messageController;
+        linkExecutor.execute(this::acceptLinks);
+
+        for (InetSocketAddress peer : peers) {
+            connectTo(peer);
+        }
+    }
+
+    /**
+     * @return Port the links of the other nodes are accepted on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Keeps a link to the peer open, dialling it again after a delay whenever it is lost
+     * 
+     * @param peer Address of another node
+     */
+    public void connectTo(InetSocketAddress peer) {
+        linkExecutor.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try (SocketChannel channel = SocketChannel.open()) {
+                    channel.socket().connect(peer, CONNECT_TIMEOUT_MS);
+                    channel.socket().setTcpNoDelay(true);
+                    controlOutboundLink(channel);
+                } catch (IOException | InterruptedException e) {
+                    // Peer down or link lost, dial again
+                }
+
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting and dialling links, open links are closed
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (PeerLink link : links) {
+            closeSocket(link.socket);
+        }
+        for (Socket socket : inboundLinks.values()) {
+            closeSocket(socket);
+        }
+        linkExecutor.shutdownNow();
+    }
+
+    /**
+     * Sends the hello with this node's users, then writes the relayed frames until the link is lost, frames queued
+     * while a write was blocked are written together with one gathering write. The link is registered before the
+     * users are read, so every change after the hello's snapshot is queued behind it.
+     * Nothing else is read from the link, a second thread waits for it to be closed by the peer so a restarted peer
+     * is dialled again even if nothing is relayed
+     */
+    private void controlOutboundLink(SocketChannel channel) throws IOException, InterruptedException {
+        Socket socket = channel.socket();
+        PeerLink link = new PeerLink(socket);
+        addLink(link);
+        try {
+            writeAll(channel, new ByteBuffer[] {
+                    Protocol.BINARY.encode(Message.nodeHello(nodeId, secret, getLocalUsers())) }, 1);
+
+            InputStream input = socket.getInputStream();
+            MessageDecoder decoder = new MessageDecoder();
+            decoder.setProtocol(Protocol.BINARY);
+            Message reply = decoder.read(input);
+            if (!isNodeHello(reply)) {
+                return;
+            }
+            link.peerNodeId = reply.getSender();
+            linkExecutor.execute(() -> awaitClose(input, link));
+
+            ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_SIZE];
+            Frame frame;
+            while ((frame = link.outbound.take()) != null) {
+                int batchSize = 0;
+                do {
+                    writeBatch[batchSize++] = frame.getBuffer(Protocol.BINARY);
+                } while (batchSize < WRITE_BATCH_SIZE && (frame = link.outbound.poll()) != null);
+
+                writeAll(channel, writeBatch, batchSize);
+            }
+        } finally {
+            removeLink(link);
+            link.outbound.close();
+        }
+    }
+
+    private void awaitClose(InputStream input, PeerLink link) {
+        try {
+            while (input.read() != -1) {
+                // The peer sends nothing after its hello
+            }
+        } catch (IOException e) {
+            // Lost
+        } finally {
+            link.outbound.close(); // Ends the writer
+        }
+    }
+
+    private void writeAll(GatheringByteChannel output, ByteBuffer[] buffers, int count) throws IOException {
+        while (buffers[count - 1].hasRemaining()) {
+            output.write(buffers, 0, count);
+        }
+        Arrays.fill(buffers, 0, count, null);
+    }
+
+    private void addLink(PeerLink link) {
+        linksLock.lock();
+        try {
+            PeerLink[] updated = Arrays.copyOf(links, links.length + 1);
+            updated[links.length] = link;
+            links = updated;
+        } finally {
+            linksLock.unlock();
+        }
+    }
+
+    private void removeLink(PeerLink link) {
+        linksLock.lock();
+        try {
+            links = Arrays.stream(links).filter(current -> current != link).toArray(PeerLink[]::new);
+        } finally {
+            linksLock.unlock();
+        }
+    }
+
+    /**
+     * @return Users of this node (user id to join time, status and address)
+     */
+    private Map<String, Map<String, String>> getLocalUsers() {
+        Map<String, Map<String, String>> users = new LinkedHashMap<>();
+        for (User user : userManager.getRoster().getUsers()) {
+            users.put(user.getUserId(), getUserDetails(user));
+        }
+        return users;
+    }
+
+    private static Map<String, String> getUserDetails(User user) {
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("userId", user.getUserId());
+        details.put("joined", Long.toString(user.getJoinedAt()));
+        details.put("status", user.getStatus().toString());
+        details.put("socketAddress", user.getSocketAddress());
+        return details;
+    }
+
+    private void acceptLinks() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                linkExecutor.execute(() -> controlInboundLink(socket));
+            } catch (IOException e) {
+                // Closed by stop, or a failed accept
+            }
+        }
+    }
+
+    /**
+     * Reads the hello and the changes and messages relayed by the node that dialled this link. The node's users are
+     * taken from the hello (users it no longer has leave), and leave when the link is lost unless the node already
+     * opened a new link
+     */
+    private void controlInboundLink(Socket socket) {
+        String peerNodeId = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            InputStream input = socket.getInputStream();
+            MessageDecoder decoder = new MessageDecoder();
+            decoder.setProtocol(Protocol.BINARY);
+            Message hello = decoder.read(input);
+            if (!isNodeHello(hello) || hello.getSender().equals(nodeId)) {
+                return;
+            }
+
+            peerNodeId = hello.getSender();
+            Socket previous = inboundLinks.put(peerNodeId, socket);
+            if (previous != null) {
+                closeSocket(previous);
+            }
+            socket.getOutputStream().write(toBytes(Protocol.BINARY.encode(Message.nodeHello(nodeId, secret, null))));
+
+            List<RemoteUser> remoteUsers = new ArrayList<>();
+            if (((Map<?, ?>) hello.getContent()).get("users") instanceof Map<?, ?> users) {
+                for (Object details : users.values()) {
+                    remoteUsers.add(toRemoteUser(peerNodeId, (Map<?, ?>) details));
+                }
+            }
+            messageController.controlRemoteNode(peerNodeId, remoteUsers);
+
+            Message message;
+            while ((message = decoder.read(input)) != null) {
+                controlNodeMessage(peerNodeId, message);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Link lost or a malformed frame, the node dials again
+        } finally {
+            if (peerNodeId != null && inboundLinks.remove(peerNodeId, socket)) {
+                messageController.controlRemoteNodeLost(peerNodeId);
+            }
+        }
+    }
+
+    /**
+     * @param hello First message read from a link
+     * @return True: a hello with this cluster's secret
+     */
+    private boolean isNodeHello(Message hello) {
+        if (hello == null || hello.getType() != Message.Type.NODE_HELLO
+                || !(hello.getContent() instanceof Map<?, ?> content)) {
+            return false;
+        }
+        // Takes the same time wherever the secrets differ
+        return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(content.get("secret")).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Passes a change or message relayed by another node to the MessageController
+     * 
+     * @param peerNodeId Node that sent it
+     * @param message    Decoded message
+     */
+    private void controlNodeMessage(String peerNodeId, Message message) {
+        switch (message.getType()) {
+            case USER_ADDED -> messageController.controlRemoteUserJoin(
+                    toRemoteUser(peerNodeId, (Map<?, ?>) message.getContent()));
+            case USER_REMOVED -> messageController.controlRemoteUserLeave(
+                    String.valueOf(((Map<?, ?>) message.getContent()).get("userId")), peerNodeId);
+            case USER_UPDATED -> {
+                Map<?, ?> details = (Map<?, ?>) message.getContent();
+                messageController.controlRemoteStatusUpdate(String.valueOf(details.get("userId")),
+                        User.Status.valueOf(String.valueOf(details.get("status"))));
+            }
+            case MESSAGE -> messageController.controlRelayedMessage(message);
+            case OPEN_PRIVATE_CHAT -> messageController.controlRelayedPrivateChat(message.getSender(),
+                    (String) message.getContent());
+            default -> {
+            }
+        }
+    }
+
+    private static RemoteUser toRemoteUser(String peerNodeId, Map<?, ?> details) {
+        return new RemoteUser(String.valueOf(details.get("userId")), peerNodeId,
+                Long.parseLong(String.valueOf(details.get("joined"))),
+                User.Status.valueOf(String.valueOf(details.get("status"))),
+                String.valueOf(details.get("socketAddress")));
+    }
+
+    /**
+     * Tells every node that a user joined this node
+     * 
+     * @param user User of this node
+     */
+    public void relayUserAdded(User user) {
+        relayToAll(Frame.of(Message.relayUserAdded(nodeId, getUserDetails(user))));
+    }
+
+    public void relayUserRemoved(String userId) {
+        relayToAll(Frame.of(Message.relayUserRemoved(nodeId, userId)));
+    }
+
+    public void relayUserUpdated(User user) {
+        relayToAll(Frame.of(Message.relayUserUpdated(nodeId, getUserDetails(user))));
+    }
+
+    /**
+     * Queues the frame once for every node, it is encoded once and the same bytes are written to every link
+     * 
+     * @param frame Frame to be relayed
+     */
+    public void relayToAll(Frame frame) {
+        PeerLink[] current = links;
+        for (int i = 0; i < current.length; i++) {
+            relay(current[i], frame);
+        }
+    }
+
+    /**
+     * Queues the frame for one node only, e.g. a private message for a user of that node
+     * 
+     * @param peerNodeId Id of the node
+     * @param frame      Frame to be relayed
+     * @return True: queued, False: no link to the node
+     */
+    public boolean relayToNode(String peerNodeId, Frame frame) {
+        for (PeerLink link : links) {
+            if (peerNodeId.equals(link.peerNodeId)) {
+                relay(link, frame);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void relay(PeerLink link, Frame frame) {
+        if (!link.outbound.offer(frame)) {
+            closeSocket(link.socket); // Too far behind, the node is sent the users again when it reconnects
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,110 +1,718 @@
 package server.controller;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import common.model.Message;
-import common.util.MessageFormatter;
+import common.util.ConfigLoader;
+import common.util.FrameCompression;
+import common.util.MessageDecoder;
+import common.util.Protocol;
+import server.model.Frame;
+import server.model.MessageHistory;
+import server.model.MessageJournal;
+import server.model.Metrics;
+import server.model.OutboundQueue;
+import server.model.Replica;
 import server.model.User;
+import server.model.UserConnection;
 import server.model.UserManager;
 
 /**
  * Controls the server side connection between the server and a client
  */
 public class ConnectionController {
+    private static final int WRITE_BATCH_SIZE = 16; // Frames passed to a single gathering write
     private final UserManager userManager;
     private final MessageController messageController;
+    private final MessageHistory history;
+    private final ClusterController cluster; // Null if the server is not part of a cluster
+    private final ReplicationController replication; // Null if no standby follows this server
+    private final Replica replica; // Null if this server started empty
+    private final ExecutorService connectionExecutor;
+    private final int outboundCapacity;
+    private final OutboundQueue.OverflowPolicy overflowPolicy;
+    private final LongAdder outboundDropped = new LongAdder(); // Frames over the capacity of any client's queue
+    private final String epoch; // Of the message history, resumes from another server run start over
+    private final int reconnectGraceMs;
+    private final boolean compressionEnabled; // False: clients asking for compression get plain binary frames
+    private final HeartbeatController heartbeats;
+    private final RateLimitController rateLimits;
+    private final Metrics metrics;
+    private final ScheduledExecutorService reconnectScheduler;
+    private final ConcurrentMap<String, DetachedUser> detachedUsers = new ConcurrentHashMap<>();
+    private final ReentrantLock sessionLock = new ReentrantLock(); // Orders take-overs and leaves of sessions
+    private static final int SESSION_TOKEN_BYTES = 24;
+    private final SecureRandom tokenGenerator = new SecureRandom();
+
+    /**
+     * User whose connection was lost, still listed until the leave runs at the end of the grace window
+     */
+    private record DetachedUser(User user, OutboundQueue lostOutbound, ScheduledFuture<?> leave) {
+    }
 
     public ConnectionController(UserManager userManager) {
+        this(userManager, new ConfigLoader(), new ServerOptions());
+    }
+
+    /**
+     * Creates the controller with a thread per connection, either platform threads or virtual threads (cheap to
+     * park in blocking reads, so many more idle connections fit in the same memory) based on the config.
+     * With a message journal the message history is restored from the log. The links to the other nodes of a
+     * cluster and to the standbys are started by start. A standby taking over from its primary keeps the primary's
+     * history (same epoch and sequence numbers) and sessions, so the primary's clients resume with their session
+     * tokens as if they had reconnected to the primary
+     * 
+     * @param userManager Shared user manager
+     * @param config      Server config (engine, outbound queue capacity and overflow policy, membership window,
+     *                    message history, reconnect grace window)
+     * @param options     Message journal, cluster and replication links, replica of a failed primary and metrics
+     */
+    public ConnectionController(UserManager userManager, ConfigLoader config, ServerOptions options) {
+        MessageJournal journal = options.getJournal();
         this.userManager = userManager;
-        this.messageController = new MessageController(userManager);
+        this.cluster = options.getCluster();
+        this.replication = options.getReplication();
+        this.replica = options.getReplica();
+        this.history = replica != null ? replica.getHistory()
+                : new MessageHistory(config.getInt("server.history.messages", 50),
+                        config.getInt("server.history.bytes", 65536),
+                        config.getInt("server.history.private.channels", 1000));
+        if (journal != null && replica == null) {
+            try {
+                history.restore(journal.getLog());
+            } catch (IOException e) {
+                System.err.println("Could not restore message history (%s)".formatted(e.getMessage()));
+            }
+        }
+        this.epoch = history.getEpoch();
+        this.metrics = options.getMetrics();
+        this.messageController = new MessageController(userManager, new ServerOptions()
+                .withMembershipWindow(config.getInt("server.membership.window.ms", 50)).withHistory(history)
+                .withPresence(PresenceController.fromConfig(userManager, config)).withJournal(journal)
+                .withCluster(cluster).withReplication(replication).withMetrics(metrics));
+        messageController.start();
+        this.connectionExecutor = config.get("server.engine", "blocking").equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory());
+        this.outboundCapacity = config.getInt("server.outbound.capacity", 1024);
+        this.overflowPolicy = OutboundQueue.OverflowPolicy
+                .valueOf(config.get("server.outbound.policy", "drop_presence").toUpperCase());
+        this.reconnectGraceMs = config.getInt("server.reconnect.grace.ms", 10000);
+        this.compressionEnabled = !config.get("server.compression", "true").equals("false");
+        this.heartbeats = HeartbeatController.fromConfig(config);
+        this.rateLimits = RateLimitController.fromConfig(config);
+        this.reconnectScheduler = reconnectGraceMs > 0
+                ? Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("reconnect-grace").daemon()
+                        .factory())
+                : null;
+        registerMetrics();
+    }
+
+    /**
+     * Lists the sessions of the failed primary and starts the links to the other nodes and to the standbys, called
+     * once before the server accepts connections
+     */
+    public void start() {
+        if (replica != null) {
+            restoreSessions(replica);
+        }
+        if (cluster != null) {
+            cluster.start(messageController);
+        }
+        if (replication != null) {
+            replication.start(history);
+        }
+    }
+
+    /**
+     * Registers the counters kept by the other controllers, so they are written out with the server's metrics
+     */
+    private void registerMetrics() {
+        metrics.registerGauge("users", "Users listed on this server, including users of other nodes",
+                () -> userManager.getRoster().size());
+        metrics.registerGauge("detached_sessions", "Users whose connection was lost, waiting to resume",
+                detachedUsers::size);
+        metrics.registerCounter("membership_events_total", "Joins and leaves collected in membership windows",
+                messageController::getMembershipEventCount);
+        metrics.registerCounter("membership_flushes_total", "Membership windows announced",
+                messageController::getMembershipFlushCount);
+
+        PresenceController presence = messageController.getPresenceController();
+        metrics.registerCounter("status_requests_total", "Status changes requested by clients",
+                presence::getRequestCount);
+        metrics.registerCounter("status_unchanged_total", "Status requests for the status the user already had",
+                presence::getUnchangedCount);
+        metrics.registerCounter("status_damped_total", "Status changes held back because the user was flapping",
+                presence::getDampedCount);
+        metrics.registerCounter("status_published_total", "Status changes sent to everyone",
+                presence::getPublishedCount);
+
+        metrics.registerCounters("ratelimit_rejected_by_type_total", "Messages over a rate limit", "type", () -> {
+            Map<String, Long> rejections = new LinkedHashMap<>();
+            for (Message.Type type : Message.Type.values()) {
+                long rejected = rateLimits.getRejectedCount(type);
+                if (rejected > 0) {
+                    rejections.put(type.name(), rejected);
+                }
+            }
+            return rejections;
+        });
+        metrics.registerCounters("ratelimit_rejected_by_user_total", "Messages over a rate limit per open connection",
+                "user", rateLimits::getRejectionsByUser);
+        metrics.registerCounter("ratelimit_delayed_total", "Messages delayed by the rate limit",
+                rateLimits::getDelayedCount);
+        metrics.registerCounter("ratelimit_dropped_total", "Messages dropped by the rate limit",
+                rateLimits::getDroppedCount);
+        metrics.registerCounter("ratelimit_disconnected_total", "Clients disconnected by the rate limit",
+                rateLimits::getDisconnectedCount);
+
+        metrics.registerCounter("outbound_dropped_total", "Frames over the capacity of a client's outbound queue",
+                outboundDropped::sum);
+        metrics.registerGauge("outbound_queue_depth_max", "Frames waiting in the fullest outbound queue", () -> {
+            int maxDepth = 0;
+            for (User user : userManager.getUsers()) {
+                maxDepth = Math.max(maxDepth, user.getOutbound().getDepth());
+            }
+            return maxDepth;
+        });
+
+        metrics.registerCounter("compressed_frames_total", "Frames sent deflated",
+                FrameCompression::getCompressedFrameCount);
+        metrics.registerCounter("incompressible_frames_total", "Frames sent uncompressed because deflate did not help",
+                FrameCompression::getIncompressibleFrameCount);
+        metrics.registerCounter("compression_saved_bytes_total", "Bytes saved by deflate on sent frames",
+                FrameCompression::getSentBytesSaved);
+        metrics.registerCounter("inflated_frames_total", "Deflated frames received",
+                FrameCompression::getInflatedFrameCount);
+    }
+
+    /**
+     * Lists the users of the failed primary (its coordinator first, so it keeps the role) as detached sessions:
+     * each client that resumes within the grace window takes over its session silently, the rest are removed at
+     * the end of it and their leaves announced as usual
+     * 
+     * @param replica State of the failed primary
+     */
+    private void restoreSessions(Replica replica) {
+        for (Replica.Session session : replica.getSessions()) {
+            User user = new User(session.userId(), session.socketAddress(), createOutboundQueue(),
+                    new DetachedConnection());
+            user.setSessionToken(session.sessionToken());
+            if (!userManager.addUser(user)) {
+                continue;
+            }
+            if (session.status() == User.Status.INACTIVE) {
+                user.toggleStatus();
+            }
+            controlDisconnection(user, user.getOutbound());
+        }
     }
 
     /**
-     * Processes the new connection from a client by creating a new thread to control the connection
+     * Processes the new connection from a client by starting a new thread to control the connection
      * 
      * @param socket Socket connection to the client
      */
     public void handleNewConnection(Socket socket) {
-        new Thread(() -> controlConnection(socket)).start();
+        connectionExecutor.execute(() -> controlConnection(socket));
     }
 
     /**
-     * Processes the connection (join/leave) between the server and client
+     * Processes the connection (join/leave) between the server and client, a second thread writes the user's
+     * outbound queue to the socket
      * 
      * @param socket Socket connection to the client
      */
     private void controlConnection(Socket socket) {
-        String userId = null;
+        metrics.countConnectionOpened();
+        User user = null;
         boolean userAdded = false;
+        OutboundQueue outbound = null;
+        HeartbeatController.Heartbeat heartbeat = null;
 
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            InputStream input = socket.getInputStream();
+            MessageDecoder decoder = new MessageDecoder();
+            Message joinRequest = decoder.read(input);
 
-            String joinRequest = reader.readLine();
-            Message joinResponse = MessageFormatter.parse(joinRequest);
-
-            if (joinResponse == null || joinResponse.getType() != Message.Type.USER_JOIN) {
+            if (joinRequest == null || joinRequest.getType() != Message.Type.USER_JOIN) {
                 return;
             }
 
-            userId = joinResponse.getSender();
+            String userId = joinRequest.getSender();
+            String socketAddress = "%s:%d".formatted(socket.getInetAddress().getHostAddress(), socket.getPort());
+            Protocol protocol = agreeProtocol(getJoinOptions(joinRequest));
 
-            if (userManager.getUser(userId) != null) {
-                Message rejectMessage = Message.rejectJoin(userId);
-                writer.println(MessageFormatter.format(rejectMessage));
-                return;
+            outbound = createOutboundQueue();
+            user = new User(userId, socketAddress, outbound, new SocketConnection(socket));
+            OutboundQueue userOutbound = outbound;
+
+            userAdded = controlUserJoin(user, joinRequest);
+            connectionExecutor.execute(() -> controlOutbound(userOutbound, socket, protocol)); // After the join reply
+            if (userAdded) {
+                decoder.setProtocol(protocol);
+                heartbeat = heartbeats.start(user);
+                RateLimitController.Limiter limiter = rateLimits.start(userId, user.getSessionToken());
+                controlClientCommunication(userId, decoder, input, heartbeat, limiter);
             }
-            userAdded = true;
-            String socketAddress = "%s:%d".formatted(socket.getInetAddress().getHostAddress(), socket.getPort());
-            controlUserJoin(userId, socket, reader, writer, socketAddress);
-            controlClientCommunication(userId, reader);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            if (heartbeat != null) {
+                heartbeat.stop();
+            }
             if (userAdded) {
-                controlDisconnection(userId, socket);
+                controlDisconnection(user, outbound);
+            }
+
+            metrics.countConnectionClosed();
+            if (outbound != null) {
+                outbound.close(); // Writer closes the socket once the queue is written
+            } else {
+                closeSocket(socket);
             }
         }
     }
 
-    private void controlUserJoin(String userId, Socket socket, BufferedReader reader, PrintWriter writer,
-            String socketAddress) {
-        userManager.addUser(new User(userId, socketAddress, writer));
+    /**
+     * Writes the user's queued frames to the socket until the queue is closed or the connection is lost. Frames
+     * queued while a write was blocked are written together with one gathering write of their shared buffers
+     * 
+     * @param outbound Outbound queue of the user
+     * @param socket   Socket connection to the client
+     * @param protocol Protocol agreed in the join handshake
+     */
+    private void controlOutbound(OutboundQueue outbound, Socket socket, Protocol protocol) {
+        try {
+            SocketChannel channel = socket.getChannel();
+            WritableByteChannel output = channel != null ? channel : Channels.newChannel(socket.getOutputStream());
+            ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_SIZE];
+
+            Frame frame;
+            while ((frame = outbound.take()) != null) {
+                int batchSize = 0;
+                long batchBytes = 0;
+                do {
+                    writeBatch[batchSize] = frame.getBuffer(protocol);
+                    batchBytes += writeBatch[batchSize++].remaining();
+                } while (batchSize < WRITE_BATCH_SIZE && (frame = outbound.poll()) != null);
+
+                writeAll(output, writeBatch, batchSize);
+                metrics.countSent(batchSize, batchBytes);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Lost connection, the reading thread disconnects the user
+        } finally {
+            closeSocket(socket);
+        }
+    }
+
+    private void writeAll(WritableByteChannel output, ByteBuffer[] buffers, int count) throws IOException {
+        if (output instanceof GatheringByteChannel gatheringOutput) {
+            while (buffers[count - 1].hasRemaining()) {
+                gatheringOutput.write(buffers, 0, count);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                while (buffers[i].hasRemaining()) {
+                    output.write(buffers[i]);
+                }
+            }
+        }
+        Arrays.fill(buffers, 0, count, null);
+    }
+
+    OutboundQueue createOutboundQueue() {
+        return new OutboundQueue(outboundCapacity, overflowPolicy, outboundDropped);
+    }
+
+    /**
+     * Registers the user and announces the join, or rejects the join if the user id is already in use.
+     * Shared by every connection engine so join behaviour is the same regardless of how sockets are read.
+     * A join request with handshake options is accepted with the agreed options first, the engine switches to the
+     * agreed protocol after that reply. The reply is queued before the user can receive broadcasts, without waking
+     * the writer, and taken back if the id turns out to be in use (the engine writes the queue after this returns).
+     * A client resuming with its session token takes over its user silently (no leave or join is announced) and
+     * gets only the messages after the last sequence it received of each chat
+     * 
+     * @param user        User requesting to join, created by the engine around its connection
+     * @param joinRequest USER_JOIN message sent by the client
+     * @return True: user joined, False: user was rejected
+     */
+    boolean controlUserJoin(User user, Message joinRequest) {
+        String userId = user.getUserId();
+        OutboundQueue outbound = user.getOutbound();
+
+        Map<?, ?> options = getJoinOptions(joinRequest);
+        Map<String, Long> lastSequences = getLastSequences(options);
+        if (resumeSession(user, options, lastSequences)) {
+            messageController.controlUserResume(userId);
+            return true;
+        }
+
+        user.setSessionToken(createSessionToken());
+        if (!options.isEmpty()) { // Older clients send no options and do not expect a reply
+            offerAccept(outbound, user, options, false);
+        }
+
+        // Atomic, two joins with the same id cannot both pass
+        if (!messageController.attachUser(userId, lastSequences, () -> userManager.addUser(user))) {
+            clearQueue(outbound); // Take back the accept reply
+            Message rejectMessage = Message.rejectJoin(userId);
+            user.send(Frame.of(rejectMessage));
+            return false;
+        }
+
         messageController.controlUserJoin(userId);
+        return true;
+    }
+
+    /**
+     * Takes over the session of a client that resumes with its session token, whether or not the old connection
+     * was noticed to be lost: the existing user is moved onto the new connection in place (the roster is not
+     * changed and no leave or join is announced) and the old connection is closed. A detached session that is not
+     * resumed is ended, the id is free for a new client
+     * 
+     * @param user          User created around the new connection
+     * @param options       Handshake options of the join request
+     * @param lastSequences Last sequence the client received per chat, the newer messages are sent
+     * @return True: session taken over, the accept reply and missed messages are queued
+     */
+    private boolean resumeSession(User user, Map<?, ?> options, Map<String, Long> lastSequences) {
+        String userId = user.getUserId();
+        boolean resume = Boolean.parseBoolean(String.valueOf(options.get(Message.RESUME_OPTION)));
+        String token = String.valueOf(options.get(Message.TOKEN_OPTION));
+
+        sessionLock.lock();
+        try {
+            DetachedUser detached = detachedUsers.remove(userId);
+            if (detached != null) {
+                detached.leave().cancel(false);
+            }
+
+            User existing = userManager.getUser(userId);
+            if (resume && existing != null && isSessionToken(existing, token)) {
+                user.setSessionToken(existing.getSessionToken()); // The connection joins the existing session
+                return messageController.resumeUser(userId, lastSequences, () -> {
+                    offerAccept(user.getOutbound(), existing, options, true);
+                    existing.swapConnection(user).close();
+                    return true;
+                });
+            }
+
+            if (detached != null) {
+                completeDisconnection(detached.user()); // A new client, the old session is over
+            }
+            return false;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    private String createSessionToken() {
+        byte[] token = new byte[SESSION_TOKEN_BYTES];
+        tokenGenerator.nextBytes(token);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    private static boolean isSessionToken(User user, String token) {
+        String sessionToken = user.getSessionToken();
+        return sessionToken != null && MessageDigest.isEqual(sessionToken.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8)); // Takes the same time wherever the tokens differ
+    }
+
+    /**
+     * Queues the accept reply with the agreed protocol, the epoch of the sequence numbers and the session token
+     * 
+     * @param outbound Outbound queue of the new connection
+     * @param session  User whose session the connection joins
+     * @param options  Handshake options of the join request
+     * @param resumed  True: an existing session was taken over
+     */
+    private void offerAccept(OutboundQueue outbound, User session, Map<?, ?> options, boolean resumed) {
+        Map<String, String> acceptOptions = new LinkedHashMap<>();
+        agreeProtocol(options).putOptions(acceptOptions);
+        acceptOptions.put(Message.EPOCH_OPTION, epoch);
+        acceptOptions.put(Message.TOKEN_OPTION, session.getSessionToken());
+        if (resumed) {
+            acceptOptions.put(Message.RESUMED_OPTION, "true");
+        }
+        outbound.offer(Frame.of(Message.acceptJoin(session.getUserId(), acceptOptions)));
+    }
+
+    private void clearQueue(OutboundQueue outbound) {
+        while (outbound.poll() != null) {
+            // Drop the queued replies
+        }
+    }
+
+    /**
+     * Reads the last sequence the client received of each chat from the join options, they only count if the
+     * client's epoch is this server run's
+     * 
+     * @param options Handshake options of the join request
+     * @return Last sequence per chat (key: "Group" or the other user's id), empty if the client has none
+     */
+    private Map<String, Long> getLastSequences(Map<?, ?> options) {
+        if (!epoch.equals(String.valueOf(options.get(Message.EPOCH_OPTION)))) {
+            return Map.of();
+        }
+
+        Map<String, Long> lastSequences = new HashMap<>();
+        for (Map.Entry<?, ?> option : options.entrySet()) {
+            String name = String.valueOf(option.getKey());
+            if (name.startsWith(Message.SEQUENCE_OPTION_PREFIX)) {
+                try {
+                    lastSequences.put(name.substring(Message.SEQUENCE_OPTION_PREFIX.length()),
+                            Long.parseLong(String.valueOf(option.getValue())));
+                } catch (NumberFormatException e) {
+                    // Ignore it, the chat is sent in full
+                }
+            }
+        }
+        return lastSequences;
     }
 
     /**
      * Processes the communication (different types of messages) between the server and client
      * 
-     * @param reader BufferedReader to read messages from the client
-     * @param userId Id of the user
+     * @param userId    Id of the user
+     * @param decoder   Decoder of the connection, switched to the agreed protocol
+     * @param input     Input stream of the socket
+     * @param heartbeat Heartbeat of the connection, told about every received message
+     * @param limiter   Rate limiter of the connection, a delayed message holds back the reading of the next one
      * @see MessageController
      */
-    private void controlClientCommunication(String userId, BufferedReader reader) {
+    private void controlClientCommunication(String userId, MessageDecoder decoder, InputStream input,
+            HeartbeatController.Heartbeat heartbeat, RateLimitController.Limiter limiter) {
         try {
-            String messageStr;
-            while ((messageStr = reader.readLine()) != null) { // Constantly listen for messages from the client
-                Message message = MessageFormatter.parse(messageStr);
-                messageController.controlCommunication(userId, message);
+            Message message;
+            boolean virtualThread = Thread.currentThread().isVirtual();
+            while ((message = decoder.read(input)) != null) { // Constantly listen for messages from the client
+                heartbeat.onReceived();
+                countReceived(message, decoder);
+                RateLimitController.Verdict verdict = limiter.check(message.getType());
+                if (verdict == RateLimitController.Verdict.DISCONNECT) {
+                    return; // Disconnected like a lost connection
+                }
+                if (verdict == RateLimitController.Verdict.DROP) {
+                    continue;
+                }
+                if (verdict == RateLimitController.Verdict.DELAY) {
+                    Thread.sleep(Duration.ofNanos(limiter.getDelayNanos()));
+                }
+                controlMessage(userId, message);
+
+                if (virtualThread) {
+                    Thread.yield(); // Virtual threads are not preempted, let writers drain their queues
+                }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            // Lost connection, or closed because the session was taken over, the caller disconnects the connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts a message received from a joined client and records how long it took to decode
+     * 
+     * @param message Decoded message
+     * @param decoder Decoder of the connection, which decoded it last
+     */
+    void countReceived(Message message, MessageDecoder decoder) {
+        metrics.countReceived(message.getType());
+        metrics.getParseTime().record(decoder.getParseNanos());
+    }
+
+    /**
+     * Passes a single message received from a joined client to the MessageController
+     * 
+     * @param userId  Id of the user who sent the message
+     * @param message Decoded message
+     */
+    void controlMessage(String userId, Message message) {
+        messageController.controlCommunication(userId, message);
+    }
+
+    /**
+     * Starts the heartbeat of a connection whose user joined, for engines that read messages themselves
+     * 
+     * @param user User created by the engine around the connection
+     * @return Heartbeat to be told about every received message and stopped when the connection closes
+     */
+    HeartbeatController.Heartbeat startHeartbeat(User user) {
+        return heartbeats.start(user);
+    }
+
+    /**
+     * Starts rate limiting a connection whose user joined, for engines that read messages themselves
+     * 
+     * @param user User the engine created around the connection
+     * @return Limiter every received message is checked with, kept until the session ends
+     */
+    RateLimitController.Limiter startRateLimit(User user) {
+        return rateLimits.start(user.getUserId(), user.getSessionToken());
+    }
+
+    public RateLimitController getRateLimitController() {
+        return rateLimits;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Picks the protocol of a joining connection: the one the client requested, without compression if it is
+     * turned off on this server. The accept reply tells the client which one was agreed
+     * 
+     * @param options Handshake options of the join request
+     * @return Agreed protocol
+     */
+    Protocol agreeProtocol(Map<?, ?> options) {
+        Protocol requested = Protocol.fromOptions(options);
+        return requested == Protocol.DEFLATE && !compressionEnabled ? Protocol.BINARY : requested;
+    }
+
+    /**
+     * @param joinRequest USER_JOIN message
+     * @return Handshake options of the join request, empty if it has none
+     */
+    static Map<?, ?> getJoinOptions(Message joinRequest) {
+        return joinRequest.getContent() instanceof Map<?, ?> options ? options : Map.of();
+    }
+
+    /**
+     * Handles a lost connection. Within the grace window the user stays listed, so a client that resumes in time
+     * causes no leave or join announcement, after it the user is removed as usual. Nothing is done if the session
+     * was already taken over by a new connection
+     * 
+     * @param connectionUser User the engine created around the lost connection, after a take-over it is the
+     *                       session's user, which has the new connection's outbound queue by then
+     * @param lostOutbound   Outbound queue the engine created with the lost connection
+     */
+    void controlDisconnection(User connectionUser, OutboundQueue lostOutbound) {
+        String userId = connectionUser.getUserId();
+
+        sessionLock.lock();
+        try {
+            User user = userManager.getUser(userId);
+            if (user == null || user.getOutbound() != lostOutbound) {
+                if (user == null || !connectionUser.getSessionToken().equals(user.getSessionToken())) {
+                    rateLimits.end(connectionUser.getSessionToken()); // Session ended elsewhere, e.g. by the cluster
+                }
+                return; // Left already or resumed on another connection
+            }
+
+            if (reconnectScheduler == null) {
+                completeDisconnection(user);
+                return;
+            }
+            ScheduledFuture<?> leave = reconnectScheduler.schedule(() -> endDetachedSession(userId, lostOutbound),
+                    reconnectGraceMs, TimeUnit.MILLISECONDS);
+            detachedUsers.put(userId, new DetachedUser(user, lostOutbound, leave));
+        } finally {
+            sessionLock.unlock();
         }
     }
 
-    private void controlDisconnection(String userId, Socket socket) {
+    /**
+     * Ends a session that was not resumed within the grace window
+     * 
+     * @param userId       Id of the detached user
+     * @param lostOutbound Outbound queue of the lost connection
+     */
+    private void endDetachedSession(String userId, OutboundQueue lostOutbound) {
+        sessionLock.lock();
         try {
-            boolean isCoordinator = userManager.getCoordinatorId().equals(userId);
-            userManager.removeUser(userId);
+            DetachedUser detached = detachedUsers.get(userId);
+            if (detached != null && detached.lostOutbound() == lostOutbound) {
+                detachedUsers.remove(userId);
+                completeDisconnection(detached.user());
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the user and announces the leave (and new coordinator if needed)
+     * 
+     * @param user User whose session ended
+     */
+    private void completeDisconnection(User user) {
+        String userId = user.getUserId();
+        boolean isCoordinator = userId.equals(userManager.getCoordinatorId());
+        if (userManager.removeUser(user)) {
+            rateLimits.end(user.getSessionToken());
             messageController.controlUserLeave(userId, isCoordinator);
+        }
+    }
+
+    private void closeSocket(Socket socket) {
+        try {
             socket.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Connection of a session restored from the primary, nothing writes it until the client resumes
+     */
+    private static class DetachedConnection implements UserConnection {
+        @Override
+        public void onFramesQueued() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Socket connection of a user, the writer thread waits on the outbound queue itself so only closing is needed
+     */
+    private class SocketConnection implements UserConnection {
+        private final Socket socket;
+
+        SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void onFramesQueued() {
+        }
+
+        @Override
+        public void close() {
+            closeSocket(socket);
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package server.controller;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import server.model.Frame;
+import server.model.TimingWheel;
+import server.model.User;
+
+/**
+ * Finds clients that vanished without closing their connection (e.g. a laptop that went to sleep). Every joined
+ * connection has a heartbeat on one server-wide timing wheel: a connection that has sent nothing for the ping
+ * interval is sent a PING, which the client answers with a PONG, and a connection that has sent nothing for the
+ * timeout is closed, so the engine disconnects its user as if the connection was lost.
+ * Receiving a message only stores the time, the wheel looks at each connection about once per interval
+ */
+public class HeartbeatController {
+    private static final int SLOT_COUNT = 512;
+    private static final long MIN_TICK_MS = 10;
+    private static final long MAX_TICK_MS = 1000;
+    private final long intervalMs;
+    private final long timeoutMs;
+    private final TimingWheel<Heartbeat> wheel;
+    private final ScheduledExecutorService ticker; // Null if heartbeats are turned off
+
+    /**
+     * Heartbeat of one connection, created by the engine when the user joins
+     */
+    public class Heartbeat {
+        private final User user; // User created by the engine around the connection
+        private volatile long lastReceived;
+        private volatile long lastPinged = -1;
+        private volatile boolean stopped = false;
+
+        private Heartbeat(User user) {
+            this.user = user;
+            this.lastReceived = wheel.now();
+        }
+
+        /**
+         * Called by the engine for every message received on the connection
+         */
+        public void onReceived() {
+            lastReceived = wheel.now();
+        }
+
+        /**
+         * Called by the engine when the connection is closed, the wheel drops the heartbeat on its next deadline
+         */
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * @param intervalMs Time without a message after which a connection is pinged, 0 turns heartbeats off
+     * @param timeoutMs  Time without a message after which a connection is closed, at least the interval
+     */
+    public HeartbeatController(long intervalMs, long timeoutMs) {
+        this.intervalMs = intervalMs;
+        this.timeoutMs = Math.max(timeoutMs, intervalMs);
+        long tickMs = Math.min(MAX_TICK_MS, Math.max(MIN_TICK_MS, intervalMs / 10));
+        this.wheel = new TimingWheel<>(tickMs, SLOT_COUNT, this::onDeadline);
+
+        if (intervalMs > 0) {
+            ticker = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("heartbeat-wheel").daemon()
+                    .factory());
+            ticker.scheduleAtFixedRate(() -> wheel.advance(wheel.now()), tickMs, tickMs, TimeUnit.MILLISECONDS);
+        } else {
+            ticker = null;
+        }
+    }
+
+    /**
+     * @param config Server config (server.heartbeat.interval.ms, server.heartbeat.timeout.ms)
+     */
+    public static HeartbeatController fromConfig(ConfigLoader config) {
+        return new HeartbeatController(config.getInt("server.heartbeat.interval.ms", 15000),
+                config.getInt("server.heartbeat.timeout.ms", 45000));
+    }
+
+    /**
+     * Starts the heartbeat of a connection whose user joined
+     * 
+     * @param user User created by the engine around the connection
+     * @return Heartbeat the engine reports received messages to
+     */
+    public Heartbeat start(User user) {
+        Heartbeat heartbeat = new Heartbeat(user);
+        if (ticker != null) {
+            wheel.schedule(heartbeat, heartbeat.lastReceived + intervalMs);
+        }
+        return heartbeat;
+    }
+
+    /**
+     * Pings a connection that has been quiet for the interval and closes one that has been quiet for the timeout,
+     * a pinged connection is looked at again after another interval
+     * 
+     * @return Next deadline of the heartbeat, -1 once the connection is closed
+     */
+    private long onDeadline(Heartbeat heartbeat, long now) {
+        if (heartbeat.stopped) {
+            return -1;
+        }
+
+        long lastReceived = heartbeat.lastReceived;
+        long quietMs = now - lastReceived;
+        if (quietMs >= timeoutMs) {
+            heartbeat.stop();
+            heartbeat.user.disconnect(); // Handled by the engine like any lost connection
+            return -1;
+        }
+        if (quietMs < intervalMs) {
+            return lastReceived + intervalMs;
+        }
+
+        if (heartbeat.lastPinged < lastReceived) { // One ping per quiet period
+            heartbeat.lastPinged = now;
+            heartbeat.user.send(Frame.of(Message.ping(heartbeat.user.getUserId())));
+        }
+        return Math.min(now + intervalMs, lastReceived + timeoutMs);
+    }
+}
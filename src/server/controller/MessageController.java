@@ -1,94 +1,585 @@
 package server.controller;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
 import common.model.Message;
-import common.util.MessageFormatter;
+import server.model.Frame;
+import server.model.LatencyHistogram;
+import server.model.MessageHistory;
+import server.model.MessageJournal;
+import server.model.Metrics;
+import server.model.RemoteUser;
+import server.model.RoomManager;
+import server.model.Roster;
 import server.model.User;
 import server.model.UserManager;
 
 /**
- * Controls the messages sent between the server and clients
+ * Controls the messages sent between the server and clients.
+ * In a cluster the joins, leaves and status changes of local users are also sent to the other nodes, group messages
+ * are relayed once to every node and private messages to the node of the recipient only. What other nodes relay is
+ * delivered to local users only, so nothing is relayed twice.
+ * Messages to a room are queued for the room's members only, and room messages are relayed like group messages (each
+ * node delivers them to its own members of the room).
+ * With standby servers the same changes and every numbered chat message are streamed to them as well
  */
 public class MessageController {
     private final UserManager userManager;
+    private final RoomManager roomManager = new RoomManager();
     private static final String SERVER_ID = "[SERVER]";
     private static final String GROUP_ID = "Group";
+    private final ReentrantLock rosterLock = new ReentrantLock(); // Roster updates are queued in version order
+    private long rosterVersion = 0;
+    private static final int MAX_ANNOUNCED_NAMES = 10; // Longer lists end with "and N others"
+    private final int membershipWindowMs;
+    private final ScheduledExecutorService membershipScheduler;
+    private final ReentrantLock membershipLock = new ReentrantLock();
+    private MembershipChanges pendingChanges; // Null when no flush is scheduled
+    private final LongAdder membershipEventCount = new LongAdder();
+    private final LongAdder membershipFlushCount = new LongAdder();
+    private final LongAccumulator largestMembershipFlush = new LongAccumulator(Long::max, 0);
+    private final MessageHistory history;
+    private final MessageJournal journal; // Null if messages are not logged to disk
+    private final ClusterController cluster; // Null if the server is not part of a cluster
+    private final ReplicationController replication; // Null if no standby follows this server
+    private final PresenceController presence;
+    private final Metrics metrics;
 
     public MessageController(UserManager userManager) {
+        this(userManager, new ServerOptions());
+    }
+
+    /**
+     * Creates the controller, with a membership window > 0 joins, leaves and status changes are collected and sent
+     * together (one announcement and one roster update per window) so reconnect storms do not broadcast once per
+     * user. Chat messages are kept in the history and sent to users who join, and also logged to disk, relayed to
+     * the other nodes of a cluster and streamed to standbys if the options have them
+     * 
+     * @param userManager Shared user manager
+     * @param options     Membership window, message history, presence controller, message journal, cluster and
+     *                    replication links and metrics
+     */
+    public MessageController(UserManager userManager, ServerOptions options) {
         this.userManager = userManager;
+        this.membershipWindowMs = options.getMembershipWindowMs();
+        this.history = options.getHistory();
+        this.journal = options.getJournal();
+        this.cluster = options.getCluster();
+        this.replication = options.getReplication();
+        this.membershipScheduler = membershipWindowMs > 0
+                ? Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("membership-flush").daemon()
+                        .factory())
+                : null;
+        this.presence = options.getPresence() != null ? options.getPresence()
+                : new PresenceController(userManager, 0, 0);
+        this.metrics = options.getMetrics();
+    }
+
+    /**
+     * Starts publishing the status changes of the presence controller, called once the controller is created
+     */
+    public void start() {
+        presence.start(this::publishStatus);
     }
 
     /**
-     * When a user joins the server, announce join, update user list and notify user
-     * of coordinator
+     * Registers a new user and sends it the recent group messages it has not received in one frame. Both happen
+     * while the group chat is locked, so every group message reaches the user once and in order, from the history
+     * or live. Private chats of an earlier session with the same id are not sent
+     * 
+     * @param userId        Id of the user
+     * @param lastSequences Last sequence the user received per chat (key: "Group", a room id or the other user's
+     *                      id), empty to send all
+     * @param register      Adds the user, false if rejected
+     * @return Result of the registration
+     */
+    public boolean attachUser(String userId, Map<String, Long> lastSequences, BooleanSupplier register) {
+        return history.attach(userId, lastSequences, register, frame -> sendFrameToUser(userId, frame));
+    }
+
+    /**
+     * Moves a session onto a new connection and sends it the recent messages of all its chats (group, private and
+     * rooms) it has not received in one frame, while those chats are locked
+     * 
+     * @param register Moves the session onto the new connection, false if rejected
+     * @see #attachUser(String, Map, BooleanSupplier)
+     */
+    public boolean resumeUser(String userId, Map<String, Long> lastSequences, BooleanSupplier register) {
+        return history.attach(userId, lastSequences, roomManager.getRooms(userId), register,
+                frame -> sendFrameToUser(userId, frame));
+    }
+
+    /**
+     * When a user joins the server, announce join, send the user list to the new user (everyone else only gets the
+     * added user) and notify user of coordinator
      * 
      * @param userId Id of the user that joined
      */
     public void controlUserJoin(String userId) {
+        metrics.countJoin();
+        User user = userManager.getUser(userId);
+        if (cluster != null && user != null) {
+            cluster.relayUserAdded(user);
+        }
+        if (replication != null && user != null) {
+            replication.replicateUserAdded(user);
+        }
+        announceJoin(userId);
+    }
+
+    private void announceJoin(String userId) {
+        if (membershipScheduler != null) {
+            collectMembershipChange(changes -> changes.addJoin(userId));
+            return;
+        }
+
         broadcastSystemMessage("%s has joined the chat.".formatted(userId));
-        broadcastUserList();
+        broadcastUserAdded(userId);
         String coordinatorId = userManager.getCoordinatorId();
         notifyUser(null, userId, "%s is the coordinator.".formatted(coordinatorId));
     }
 
     /**
-     * When a user leaves the server, announce leave, update user list and if was
+     * When a user resumes its session on a new connection nothing is announced, the user only gets the current
+     * user list (the messages it missed are sent when it is attached)
+     * 
+     * @param userId Id of the user that resumed
+     */
+    public void controlUserResume(String userId) {
+        sendUserList(userId);
+    }
+
+    /**
+     * When a user leaves the server, announce leave, remove the user from everyone's user list and if was
      * coordinator, announce new one
      * 
      * @param userId        Id of the user that left
      * @param isCoordinator True: user was the coordinator
      */
     public void controlUserLeave(String userId, boolean isCoordinator) {
+        metrics.countLeave();
+        presence.removeUser(userId);
+        for (String roomId : roomManager.leaveAllRooms(userId)) { // Not announced, the leave is
+            if (!roomManager.hasRoom(roomId)) {
+                history.removeRoom(roomId);
+            }
+        }
+        history.removePrivateChannels(userId); // The session is over, a new user with the id must not get them
+        if (cluster != null) {
+            cluster.relayUserRemoved(userId);
+        }
+        if (replication != null) {
+            replication.replicateUserRemoved(userId);
+        }
+        if (userManager.getRemoteUser(userId) != null) { // A user of another node with the same id joined earlier
+            announceUpdate(userId);
+            return;
+        }
+        announceLeave(userId, isCoordinator);
+    }
+
+    private void announceLeave(String userId, boolean isCoordinator) {
+        if (membershipScheduler != null) {
+            collectMembershipChange(changes -> changes.addLeave(userId, isCoordinator));
+            return;
+        }
+
         broadcastSystemMessage("%s has left the chat.".formatted(userId));
 
         if (isCoordinator) {
             broadcastSystemMessage("The old coordinator, %s, has left the chat. %s is the new coordinator."
                     .formatted(userId, userManager.getCoordinatorId()));
         }
-        broadcastUserList();
+        broadcastRosterUpdate(version -> Message.sendUserRemoved(userId, version));
+
+        String coordinatorId = userManager.getCoordinatorId();
+        if (isCoordinator && coordinatorId != null) {
+            broadcastRosterUpdate(version -> Message.sendUserUpdated(getRosterDetails(coordinatorId), version));
+        }
 
         sendMessageToGroup(Message.closePrivateChat(userId));
     }
 
+    /**
+     * Toggles the status of a user, sent by older clients on every change between active and inactive
+     * 
+     * @param userId Id of the user
+     */
     public void controlStatusUpdate(String userId) {
-        userManager.toggleUserStatus(userId);
-        broadcastUserList();
+        User user = userManager.getUser(userId);
+        if (user != null) {
+            presence.setStatus(userId, user.getStatus() == User.Status.ACTIVE ? User.Status.INACTIVE
+                    : User.Status.ACTIVE);
+        }
+    }
+
+    /**
+     * Sets the status of a user, nothing is sent if the user already has it
+     * 
+     * @param userId Id of the user
+     * @param status Status name (ACTIVE or INACTIVE), anything else is ignored
+     */
+    public void controlSetStatus(String userId, String status) {
+        for (User.Status knownStatus : User.Status.values()) {
+            if (knownStatus.name().equals(status)) {
+                presence.setStatus(userId, knownStatus);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends status changes the presence controller released to the other nodes, the standbys and everyone: as one
+     * roster update, or as part of the membership window
+     * 
+     * @param userIds Users whose status changed
+     */
+    private void publishStatus(Set<String> userIds) {
+        for (String userId : userIds) {
+            User user = userManager.getUser(userId);
+            if (cluster != null && user != null) {
+                cluster.relayUserUpdated(user);
+            }
+            if (replication != null && user != null) {
+                replication.replicateUserUpdated(user);
+            }
+        }
+
+        if (membershipScheduler != null || userIds.size() == 1) {
+            userIds.forEach(this::announceUpdate);
+            return;
+        }
+        Map<String, Map<String, String>> rosterChanges = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            rosterChanges.put(userId, userManager.getUserDetails(userId, false));
+        }
+        broadcastRosterUpdate(version -> Message.sendUserListUpdate(rosterChanges, version));
+    }
+
+    public PresenceController getPresenceController() {
+        return presence;
+    }
+
+    private void announceUpdate(String userId) {
+        if (membershipScheduler != null) {
+            collectMembershipChange(changes -> changes.changedUsers.add(userId));
+            return;
+        }
+        broadcastRosterUpdate(version -> Message.sendUserUpdated(getRosterDetails(userId), version));
     }
 
     public void openPrivateChat(String senderId, String targetUserId) {
-        sendMessageToUser(targetUserId, Message.openPrivateChat(senderId, targetUserId));
+        Frame frame = Frame.of(Message.openPrivateChat(senderId, targetUserId));
+        if (!relayToOwner(targetUserId, frame)) {
+            sendFrameToUser(targetUserId, frame);
+        }
+    }
+
+    /**
+     * Queues a frame for the node that owns a user of another node
+     * 
+     * @return True: the user belongs to another node
+     */
+    private boolean relayToOwner(String userId, Frame frame) {
+        RemoteUser remoteUser = cluster == null || userManager.getUser(userId) != null ? null
+                : userManager.getRemoteUser(userId);
+        if (remoteUser == null) {
+            return false;
+        }
+        cluster.relayToNode(remoteUser.nodeId(), frame);
+        return true;
     }
 
     /**
-     * Sends a message to everyone or displays for both sender and recipient in a
+     * Creates a room with the user as its first member
+     * 
+     * @param userId Id of the user
+     * @param roomId Id of the room, e.g. "#team"
+     */
+    public void createRoom(String userId, String roomId) {
+        User user = userManager.getUser(userId);
+        if (user == null) {
+            return;
+        }
+        if (!RoomManager.isRoomId(roomId)) {
+            notifyUser(null, userId, "Room names are # followed by up to 32 letters and digits.");
+            return;
+        }
+
+        if (!attachToRoom(user, roomId, () -> roomManager.createRoom(roomId, user))) {
+            notifyUser(null, userId, "%s already exists.".formatted(roomId));
+        }
+    }
+
+    /**
+     * Adds the user to a room, the user gets the room's recent messages and the members are told
+     * 
+     * @param userId Id of the user
+     * @param roomId Id of the room
+     */
+    public void joinRoom(String userId, String roomId) {
+        User user = userManager.getUser(userId);
+        if (user == null) {
+            return;
+        }
+        if (roomManager.isMember(roomId, userId)) {
+            sendMessageToUser(userId, Message.roomJoined(userId, roomId));
+            return;
+        }
+
+        if (attachToRoom(user, roomId, () -> roomManager.joinRoom(roomId, user))) {
+            sendMessage(SERVER_ID, roomId, "%s has joined %s.".formatted(userId, roomId));
+        } else {
+            history.removeRoom(roomId); // Opened for the attempt
+            notifyUser(null, userId, "%s does not exist.".formatted(roomId));
+        }
+    }
+
+    /**
+     * Registers the user with the room under the room's lock: the client is told it is in the room, then gets the
+     * room's recent messages before any new one
+     * 
+     * @param register Creates or joins the room, false if rejected
+     * @return Result of the registration
+     */
+    private boolean attachToRoom(User user, String roomId, BooleanSupplier register) {
+        String userId = user.getUserId();
+        return history.attachRoom(userId, roomId, 0, () -> {
+            if (!register.getAsBoolean()) {
+                return false;
+            }
+            user.send(Frame.of(Message.roomJoined(userId, roomId)));
+            return true;
+        }, user::send);
+    }
+
+    /**
+     * Takes the user out of a room, a room without members is removed with its messages
+     * 
+     * @param userId Id of the user
+     * @param roomId Id of the room
+     */
+    public void leaveRoom(String userId, String roomId) {
+        if (!roomManager.leaveRoom(roomId, userId)) {
+            notifyUser(null, userId, "You are not in %s.".formatted(roomId));
+            return;
+        }
+
+        sendMessageToUser(userId, Message.roomLeft(userId, roomId));
+        if (roomManager.hasRoom(roomId)) {
+            sendMessage(SERVER_ID, roomId, "%s has left %s.".formatted(userId, roomId));
+        } else {
+            history.removeRoom(roomId);
+        }
+    }
+
+    /**
+     * Sends a message to everyone, to the members of a room or displays for both sender and recipient in a
      * private chat
      * 
      * @param sender    Id of the user or server sending the message
-     * @param recipient Id of the user or "Group" receiving the message
+     * @param recipient Id of the user, room or "Group" receiving the message
      * @param content   Message content
      */
     public void sendMessage(String sender, String recipient, String content) {
-        Message message = Message.sendMessage(sender, recipient, content);
-        String formattedMessage = MessageFormatter.format(message);
+        if (sender.equals(SERVER_ID)) { // Announcements are not numbered or kept
+            deliverMessage(sender, recipient, Frame.of(Message.sendMessage(sender, recipient, content)));
+            return;
+        }
+
+        boolean isRoom = RoomManager.isRoomId(recipient);
+        if (isRoom && !roomManager.isMember(recipient, sender)) {
+            notifyUser(null, sender, "You are not in %s.".formatted(recipient));
+            return;
+        }
+
+        // Numbered, kept and queued under the channel's lock, so every recipient gets the channel in order
+        history.publish(sender, recipient, content, (message, frame) -> {
+            deliverMessage(sender, recipient, frame);
+            if (cluster != null && (isRoom || recipient.equals(GROUP_ID))) {
+                cluster.relayToAll(frame); // The same encoded frame, once per node
+            } else if (cluster != null) {
+                relayToOwner(recipient, frame);
+            }
+            if (replication != null) {
+                replication.replicateMessage(frame);
+            }
+            if (journal != null) {
+                journal.offer(message); // Logged in sequence order too
+            }
+        });
+    }
+
+    /**
+     * Delivers a chat message relayed by another node to the local users. It is numbered by this node's history,
+     * so resuming clients of this node see the same sequences as the rest of its chats
+     * 
+     * @param relayed Chat message sent by a user of another node
+     */
+    public void controlRelayedMessage(Message relayed) {
+        String sender = relayed.getSender();
+        String recipient = relayed.getRecipient();
+        if (RoomManager.isRoomId(recipient) && !roomManager.hasRoom(recipient)) {
+            return; // No members of the room on this node
+        }
+        history.publish(sender, recipient, (String) relayed.getContent(), (message, frame) -> {
+            deliverMessage(sender, recipient, frame);
+            if (replication != null) {
+                replication.replicateMessage(frame);
+            }
+            if (journal != null) {
+                journal.offer(message);
+            }
+        });
+    }
+
+    /**
+     * Opens a private chat with a local user for a user of another node
+     * 
+     * @param senderId     Id of the user of another node
+     * @param targetUserId Id of the local user
+     */
+    public void controlRelayedPrivateChat(String senderId, String targetUserId) {
+        sendMessageToUser(targetUserId, Message.openPrivateChat(senderId, targetUserId));
+    }
+
+    /**
+     * A user joined another node: it is listed and announced like a local user. If a local user has the same id
+     * and joined later (both joined before the nodes heard of each other), the local user is removed and
+     * disconnected
+     * 
+     * @param remoteUser User of another node
+     */
+    public void controlRemoteUserJoin(RemoteUser remoteUser) {
+        String userId = remoteUser.userId();
+        RemoteUser known = userManager.getRemoteUser(userId);
+        if (remoteUser.equals(known)) {
+            return; // Sent again, e.g. after the link to the node was dialled again
+        }
+
+        boolean isShadowing = userManager.getUser(userId) != null;
+        String previousCoordinatorId = userManager.getCoordinatorId();
+        User laterUser = userManager.addRemoteUser(remoteUser);
+
+        if (laterUser != null) {
+            if (userManager.removeUser(laterUser)) {
+                laterUser.disconnect();
+                controlUserLeave(userId, false);
+            }
+        } else if (known != null && known.nodeId().equals(remoteUser.nodeId())) {
+            announceUpdate(userId);
+        } else if (!isShadowing && known == null) {
+            announceJoin(userId);
+        }
+        announceCoordinatorChange(previousCoordinatorId);
+    }
+
+    /**
+     * A user left another node
+     * 
+     * @param userId Id of the user
+     * @param nodeId Node the user was connected to
+     */
+    public void controlRemoteUserLeave(String userId, String nodeId) {
+        boolean isCoordinator = userId.equals(userManager.getCoordinatorId());
+        if (userManager.removeRemoteUser(userId, nodeId) && userManager.getUser(userId) == null) {
+            announceLeave(userId, isCoordinator);
+        }
+    }
+
+    public void controlRemoteStatusUpdate(String userId, User.Status status) {
+        userManager.updateRemoteUser(userId, status);
+        if (userManager.getUser(userId) == null) {
+            announceUpdate(userId);
+        }
+    }
+
+    /**
+     * Another node (re)connected and sent its users: the ones it no longer has leave, the rest are listed
+     * 
+     * @param nodeId Id of the node
+     * @param users  Users connected to the node
+     */
+    public void controlRemoteNode(String nodeId, List<RemoteUser> users) {
+        Set<String> userIds = new LinkedHashSet<>();
+        for (RemoteUser remoteUser : users) {
+            userIds.add(remoteUser.userId());
+        }
+        for (RemoteUser remoteUser : List.copyOf(userManager.getRemoteUsers())) {
+            if (remoteUser.nodeId().equals(nodeId) && !userIds.contains(remoteUser.userId())) {
+                controlRemoteUserLeave(remoteUser.userId(), nodeId);
+            }
+        }
+
+        for (RemoteUser remoteUser : users) {
+            controlRemoteUserJoin(remoteUser);
+        }
+    }
+
+    /**
+     * The link from another node was lost, its users leave
+     * 
+     * @param nodeId Id of the node
+     */
+    public void controlRemoteNodeLost(String nodeId) {
+        for (RemoteUser remoteUser : List.copyOf(userManager.getRemoteUsers())) {
+            if (remoteUser.nodeId().equals(nodeId)) {
+                controlRemoteUserLeave(remoteUser.userId(), nodeId);
+            }
+        }
+    }
 
+    /**
+     * Announces a coordinator that changed without leaving, e.g. a node joined whose user joined earliest
+     */
+    private void announceCoordinatorChange(String previousCoordinatorId) {
+        String coordinatorId = userManager.getCoordinatorId();
+        if (coordinatorId == null || coordinatorId.equals(previousCoordinatorId)) {
+            return;
+        }
+
+        if (previousCoordinatorId != null && userManager.isListed(previousCoordinatorId)) {
+            broadcastRosterUpdate(version -> Message.sendUserUpdated(getRosterDetails(previousCoordinatorId),
+                    version));
+        }
+        broadcastRosterUpdate(version -> Message.sendUserUpdated(getRosterDetails(coordinatorId), version));
+        broadcastSystemMessage("%s is the coordinator.".formatted(coordinatorId));
+    }
+
+    private void deliverMessage(String sender, String recipient, Frame frame) {
         if (recipient.equals(GROUP_ID)) {
-            broadcastMessage(formattedMessage);
+            broadcastFrame(frame);
+        } else if (RoomManager.isRoomId(recipient)) {
+            broadcastFrame(roomManager.getMembers(recipient), frame); // Grows with the room, not the server
         } else {
-            sendPrivateMessage(sender, recipient, formattedMessage);
+            sendPrivateMessage(sender, recipient, frame);
         }
     }
 
-    private void sendPrivateMessage(String sender, String recipient, String formattedMessage) {
+    private void sendPrivateMessage(String sender, String recipient, Frame frame) {
         User recipientUser = userManager.getUser(recipient);
         if (recipientUser != null) {
-            recipientUser.getWriter().println(formattedMessage);
+            sendTimed(recipientUser, frame);
         }
 
         if (!sender.equals(SERVER_ID)) { // Send to both sender and recipients
             User senderUser = userManager.getUser(sender);
             if (senderUser != null) {
-                senderUser.getWriter().println(formattedMessage);
+                sendTimed(senderUser, frame);
             }
         }
     }
@@ -98,8 +589,169 @@ public class MessageController {
         sendMessageToUser(requesterId, Message.respondUserDetails(targetId, details));
     }
 
+    /**
+     * Sends the full user list to everyone at the current version, reusing the snapshot's encoded list until the
+     * users or the version change
+     */
     public void broadcastUserList() {
-        sendMessageToGroup(Message.sendUserList(userManager.getAllUserDetails()));
+        rosterLock.lock();
+        try {
+            Roster roster = userManager.getRoster();
+            broadcastFrame(roster, roster.getUserListFrame(rosterVersion));
+        } finally {
+            rosterLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the full user list to one user, e.g. after the client noticed a missing roster update
+     * 
+     * @param userId Id of the user to resync
+     */
+    public void sendUserList(String userId) {
+        rosterLock.lock();
+        try {
+            User user = userManager.getUser(userId);
+            if (user != null) {
+                user.send(userManager.getRoster().getUserListFrame(rosterVersion));
+            }
+        } finally {
+            rosterLock.unlock();
+        }
+    }
+
+    private void broadcastUserAdded(String userId) {
+        rosterLock.lock();
+        try {
+            long version = ++rosterVersion;
+            Frame addedFrame = Frame.of(Message.sendUserAdded(getRosterDetails(userId), version));
+
+            Roster roster = userManager.getRoster();
+            for (User user : roster.getUsers()) {
+                if (user.getUserId().equals(userId)) {
+                    user.send(roster.getUserListFrame(version));
+                } else {
+                    user.send(addedFrame);
+                }
+            }
+        } finally {
+            rosterLock.unlock();
+        }
+    }
+
+    /**
+     * Gives the update the next roster version and queues it for everyone. Versions are assigned and queued under
+     * one lock, so every client receives them in order and a missing version means an update was dropped
+     * 
+     * @param update Creates the update message for the given version
+     */
+    private void broadcastRosterUpdate(LongFunction<Message> update) {
+        rosterLock.lock();
+        try {
+            sendMessageToGroup(update.apply(++rosterVersion));
+        } finally {
+            rosterLock.unlock();
+        }
+    }
+
+    /**
+     * Adds a change to the current window, the first change of a window schedules its flush
+     */
+    private void collectMembershipChange(Consumer<MembershipChanges> change) {
+        membershipEventCount.increment();
+
+        membershipLock.lock();
+        try {
+            if (pendingChanges == null) {
+                pendingChanges = new MembershipChanges();
+                membershipScheduler.schedule(this::flushMembershipChanges, membershipWindowMs, TimeUnit.MILLISECONDS);
+            }
+            pendingChanges.eventCount++;
+            change.accept(pendingChanges);
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the changes collected in the window: one combined announcement, the full user list to the users who
+     * joined and a single roster update (all changed users at one version) to everyone else
+     */
+    void flushMembershipChanges() {
+        MembershipChanges changes;
+        membershipLock.lock();
+        try {
+            changes = pendingChanges;
+            pendingChanges = null;
+        } finally {
+            membershipLock.unlock();
+        }
+
+        if (changes == null) {
+            return;
+        }
+        membershipFlushCount.increment();
+        largestMembershipFlush.accumulate(changes.eventCount);
+
+        String announcement = changes.getAnnouncement(userManager.getCoordinatorId());
+        if (!announcement.isEmpty()) {
+            broadcastSystemMessage(announcement);
+        }
+
+        rosterLock.lock();
+        try {
+            long version = ++rosterVersion;
+            Map<String, Map<String, String>> rosterChanges = new LinkedHashMap<>();
+            for (String userId : changes.changedUsers) {
+                rosterChanges.put(userId, userManager.getUserDetails(userId, false)); // Empty if the user left
+            }
+            if (changes.oldCoordinatorId != null && userManager.getCoordinatorId() != null) {
+                String coordinatorId = userManager.getCoordinatorId();
+                rosterChanges.put(coordinatorId, userManager.getUserDetails(coordinatorId, false));
+            }
+
+            Frame updateFrame = Frame.of(Message.sendUserListUpdate(rosterChanges, version));
+            Roster roster = userManager.getRoster();
+            for (User user : roster.getUsers()) {
+                if (changes.joinedUsers.contains(user.getUserId())) {
+                    user.send(roster.getUserListFrame(version));
+                } else {
+                    user.send(updateFrame);
+                }
+            }
+        } finally {
+            rosterLock.unlock();
+        }
+
+        String coordinatorNotice = "%s is the coordinator.".formatted(userManager.getCoordinatorId());
+        for (String userId : changes.joinedUsers) {
+            notifyUser(null, userId, coordinatorNotice);
+        }
+    }
+
+    /**
+     * @return Joins, leaves and status changes collected by the coalescing stage
+     */
+    public long getMembershipEventCount() {
+        return membershipEventCount.sum();
+    }
+
+    /**
+     * @return Windows flushed, events / flushes is how many changes each flush collapsed on average
+     */
+    public long getMembershipFlushCount() {
+        return membershipFlushCount.sum();
+    }
+
+    public long getLargestMembershipFlush() {
+        return largestMembershipFlush.get();
+    }
+
+    private Map<String, String> getRosterDetails(String userId) {
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("userId", userId);
+        details.putAll(userManager.getUserDetails(userId, false));
+        return details;
     }
 
     public void notifyUser(String sender, String recipient, String content) {
@@ -115,30 +767,74 @@ public class MessageController {
     }
 
     private void sendMessageToUser(String userId, Message message) {
+        sendFrameToUser(userId, Frame.of(message));
+    }
+
+    private void sendFrameToUser(String userId, Frame frame) {
         User user = userManager.getUser(userId);
         if (user != null) {
-            String formattedMessage = MessageFormatter.format(message);
-            user.getWriter().println(formattedMessage);
+            sendTimed(user, frame);
         }
     }
 
+    private void sendTimed(User user, Frame frame) {
+        long started = System.nanoTime();
+        user.send(frame);
+        metrics.getRecipientWriteTime().record(System.nanoTime() - started);
+    }
+
     private void sendMessageToGroup(Message message) {
-        broadcastMessage(MessageFormatter.format(message));
+        broadcastFrame(Frame.of(message));
     }
 
-    public void broadcastMessage(String content) {
-        for (User user : userManager.getUsers()) {
-            user.getWriter().println(content);
+    /**
+     * Queues the frame for every user in the current roster, it is encoded once per protocol for all of them
+     * 
+     * @param frame Frame of a complete message, e.g. from Frame.of
+     */
+    public void broadcastFrame(Frame frame) {
+        broadcastFrame(userManager.getRoster(), frame);
+    }
+
+    /**
+     * Queues the frame for every user in the snapshot, each user's own writer sends it so a slow client does not
+     * hold up the rest. Loops over the snapshot's array, so no lock is taken and no iterator is created
+     * 
+     * @param roster Snapshot of the recipients
+     * @param frame  Frame to be sent to everyone
+     */
+    private void broadcastFrame(Roster roster, Frame frame) {
+        broadcastFrame(roster.getUsers(), frame);
+    }
+
+    /**
+     * Queues the frame for each user, the time of each hand-off is recorded with one clock read per recipient
+     */
+    private void broadcastFrame(User[] users, Frame frame) {
+        LatencyHistogram writeTime = metrics.getRecipientWriteTime();
+        long previous = System.nanoTime();
+        for (int i = 0; i < users.length; i++) {
+            users[i].send(frame);
+            long now = System.nanoTime();
+            writeTime.record(now - previous);
+            previous = now;
         }
     }
 
     /**
-     * Controls the communication between the client and server
+     * Controls the communication between the client and server, the time to handle the message is recorded as its
+     * routing time
      * 
      * @param userId  The user who sent the message
      * @param message The message object to process
      */
     public void controlCommunication(String userId, Message message) {
+        long started = System.nanoTime();
+        route(userId, message);
+        metrics.getRoutingTime().record(System.nanoTime() - started);
+    }
+
+    private void route(String userId, Message message) {
         switch (message.getType()) {
             case MESSAGE -> {
                 String recipient = message.getRecipient();
@@ -154,8 +850,75 @@ public class MessageController {
                 sendUserDetails(userId, targetId);
             }
             case STATUS_UPDATE -> controlStatusUpdate(userId);
+            case SET_STATUS -> controlSetStatus(userId, (String) message.getContent());
+            case USER_LIST_REQUEST -> sendUserList(userId);
+            case CREATE_ROOM -> createRoom(userId, (String) message.getContent());
+            case JOIN_ROOM -> joinRoom(userId, (String) message.getContent());
+            case LEAVE_ROOM -> leaveRoom(userId, (String) message.getContent());
             default -> {
             }
         }
     }
+
+    /**
+     * Changes collected during one window. A user who leaves and joins again within the window (a reconnect) or
+     * joins and leaves again is not announced, the roster update still carries the user's final state
+     */
+    private static class MembershipChanges {
+        private final Set<String> announcedJoins = new LinkedHashSet<>();
+        private final Set<String> announcedLeaves = new LinkedHashSet<>();
+        private final Set<String> joinedUsers = new LinkedHashSet<>(); // Need the full user list
+        private final Set<String> changedUsers = new LinkedHashSet<>();
+        private String oldCoordinatorId;
+        private int eventCount = 0;
+
+        void addJoin(String userId) {
+            if (!announcedLeaves.remove(userId)) {
+                announcedJoins.add(userId);
+            }
+            joinedUsers.add(userId);
+            changedUsers.add(userId);
+        }
+
+        void addLeave(String userId, boolean isCoordinator) {
+            if (!announcedJoins.remove(userId)) {
+                announcedLeaves.add(userId);
+            }
+            joinedUsers.remove(userId);
+            changedUsers.add(userId);
+
+            if (isCoordinator && oldCoordinatorId == null) {
+                oldCoordinatorId = userId;
+            }
+        }
+
+        String getAnnouncement(String coordinatorId) {
+            List<String> sentences = new ArrayList<>();
+            if (!announcedJoins.isEmpty()) {
+                sentences.add("%s joined the chat.".formatted(listNames(announcedJoins)));
+            }
+            if (!announcedLeaves.isEmpty()) {
+                sentences.add("%s left the chat.".formatted(listNames(announcedLeaves)));
+            }
+            if (oldCoordinatorId != null && coordinatorId != null && !coordinatorId.equals(oldCoordinatorId)) {
+                sentences.add("The old coordinator, %s, has left the chat. %s is the new coordinator."
+                        .formatted(oldCoordinatorId, coordinatorId));
+            }
+            return String.join(" ", sentences);
+        }
+
+        /**
+         * e.g. "User1 has", "User1 and User2 have", "User1, User2 and 12 others have"
+         */
+        private static String listNames(Set<String> userIds) {
+            List<String> names = new ArrayList<>(userIds);
+            if (names.size() == 1) {
+                return "%s has".formatted(names.get(0));
+            }
+
+            int shown = Math.min(names.size() - 1, MAX_ANNOUNCED_NAMES);
+            String last = shown == names.size() - 1 ? names.get(shown) : "%d others".formatted(names.size() - shown);
+            return "%s and %s have".formatted(String.join(", ", names.subList(0, shown)), last);
+        }
+    }
 }
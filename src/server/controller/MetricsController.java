@@ -0,0 +1,88 @@
+package server.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import common.util.ConfigLoader;
+import server.model.Metrics;
+
+/**
+ * Serves the server's metrics over HTTP at /metrics in the Prometheus text format, on its own port and thread so a
+ * scrape never runs on a connection engine's threads
+ */
+public class MetricsController {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private final Metrics metrics;
+    private final InetSocketAddress address;
+    private HttpServer httpServer;
+
+    /**
+     * @param metrics Metrics of the server
+     * @param address Address the endpoint listens on
+     */
+    public MetricsController(Metrics metrics, InetSocketAddress address) {
+        this.metrics = metrics;
+        this.address = address;
+    }
+
+    /**
+     * @param config Server config (server.metrics.host, server.metrics.port)
+     * @return Controller of the endpoint, null if server.metrics.port is 0 (no endpoint)
+     */
+    public static MetricsController fromConfig(Metrics metrics, ConfigLoader config) {
+        int port = config.getInt("server.metrics.port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        return new MetricsController(metrics, new InetSocketAddress(config.get("server.metrics.host", "localhost"),
+                port));
+    }
+
+    /**
+     * Starts listening for scrapes
+     * 
+     * @throws IOException If the port cannot be bound
+     */
+    public void start() throws IOException {
+        httpServer = HttpServer.create(address, 0);
+        httpServer.createContext("/metrics", this::handleScrape);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(Thread.ofPlatform().name("metrics-http").daemon()
+                .factory()));
+        httpServer.start();
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    /**
+     * @return Port the endpoint listens on (the bound one if it was started on port 0)
+     */
+    public int getPort() {
+        return httpServer != null ? httpServer.getAddress().getPort() : address.getPort();
+    }
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
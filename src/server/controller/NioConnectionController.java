@@ -0,0 +1,400 @@
+package server.controller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import common.util.MessageDecoder;
+import common.util.Protocol;
+import server.model.Frame;
+import server.model.Metrics;
+import server.model.OutboundQueue;
+import server.model.User;
+import server.model.UserConnection;
+import server.model.UserManager;
+
+/**
+ * Non-blocking alternative to the thread per connection ConnectionController: a small, fixed set of event loops
+ * (one Selector each) multiplex every client channel. Join, leave and message handling is still delegated to the
+ * ConnectionController so both engines behave the same
+ */
+public class NioConnectionController {
+    private static final int WRITE_BATCH_SIZE = 16; // Frames passed to a single gathering write
+    private final ConnectionController connectionController;
+    private final EventLoop[] eventLoops;
+    private int nextEventLoop = 0;
+
+    /**
+     * Creates the event loops, they are started by listen
+     * 
+     * @param userManager Shared user manager
+     * @param config      Server config (number of selector threads and outbound queue settings)
+     * @param options     Message journal, cluster and replication links, replica of a failed primary and metrics
+     * @throws IOException If a selector cannot be opened
+     */
+    public NioConnectionController(UserManager userManager, ConfigLoader config, ServerOptions options)
+            throws IOException {
+        this.connectionController = new ConnectionController(userManager, config, options);
+        this.eventLoops = new EventLoop[Math.max(1, config.getInt("server.nio.threads", 2))];
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+        }
+    }
+
+    public Metrics getMetrics() {
+        return connectionController.getMetrics();
+    }
+
+    /**
+     * Starts the server (sessions of a failed primary, cluster and standby links), binds the server channel and
+     * accepts connections on the calling thread, each new channel is handed to the next event loop (round robin)
+     * 
+     * @param address Address and port to listen on
+     * @throws IOException If the server channel cannot be bound
+     */
+    public void listen(InetSocketAddress address) throws IOException {
+        connectionController.start();
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(address);
+
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                eventLoops[nextEventLoop].register(channel);
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            }
+        }
+    }
+
+    /**
+     * Single selector thread, owns the channels registered to it. Other threads (e.g. a broadcast from another loop)
+     * and the loop itself hand it work through the task queue and wake the selector
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-event-loop-%d".formatted(index));
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new ClientConnection(this, channel, key));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        /**
+         * Runs the task on this loop, always through the task queue even on the loop thread: the caller may hold
+         * locks (e.g. a history channel's lock while a message is delivered) and a write that fails would close the
+         * channel and take the session lock under them
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    runTasks();
+                    processSelectedKeys();
+                } catch (IOException | RuntimeException e) { // The loop keeps serving its other connections
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) { // One failed task must not stop the others
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                ClientConnection connection = (ClientConnection) key.attachment();
+
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.writePending();
+                    }
+                } catch (RuntimeException e) { // Only this connection is dropped
+                    connection.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one client channel: partial messages read so far, the user's outbound queue and the frames being
+     * written
+     */
+    private class ClientConnection implements UserConnection {
+        private final EventLoop eventLoop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final OutboundQueue outbound;
+        private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_SIZE];
+        private int batchStart = 0;
+        private int batchEnd = 0;
+        private final MessageDecoder decoder = new MessageDecoder();
+        private Protocol protocol = Protocol.TEXT;
+        private String userId;
+        private User user; // This connection's user, replaced in the UserManager if the client resumes elsewhere
+        private HeartbeatController.Heartbeat heartbeat; // Started once joined
+        private RateLimitController.Limiter limiter; // Started once joined
+        private Message delayedMessage; // Over a rate limit, reading is paused until it is handled
+        private boolean joined = false;
+        private boolean closeAfterWrite = false;
+        private boolean closed = false;
+
+        ClientConnection(EventLoop eventLoop, SocketChannel channel, SelectionKey key) {
+            this.eventLoop = eventLoop;
+            this.channel = channel;
+            this.key = key;
+            this.outbound = connectionController.createOutboundQueue();
+            connectionController.getMetrics().countConnectionOpened();
+        }
+
+        /**
+         * Reads what is available and handles every complete message, the rest stays buffered for the next read
+         */
+        void read() {
+            try {
+                if (decoder.fill(channel) == -1) {
+                    closeChannel();
+                    return;
+                }
+                handleBuffered();
+            } catch (IOException e) {
+                closeChannel();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Handles the buffered complete messages, until one of them is delayed
+         */
+        private void handleBuffered() throws IOException {
+            Message message;
+            while (!closed && delayedMessage == null && (message = decoder.next()) != null) {
+                handleMessage(message);
+            }
+        }
+
+        private void handleMessage(Message message) {
+            if (joined) {
+                heartbeat.onReceived();
+                connectionController.countReceived(message, decoder);
+                switch (limiter.check(message.getType())) {
+                    case HANDLE -> connectionController.controlMessage(userId, message);
+                    case DELAY -> delay(message);
+                    case DROP -> {
+                    }
+                    case DISCONNECT -> closeChannel();
+                }
+                return;
+            }
+
+            if (message.getType() != Message.Type.USER_JOIN) {
+                closeChannel();
+                return;
+            }
+
+            userId = message.getSender();
+            String socketAddress = "%s:%d".formatted(channel.socket().getInetAddress().getHostAddress(),
+                    channel.socket().getPort());
+            protocol = connectionController.agreeProtocol(ConnectionController.getJoinOptions(message));
+
+            user = new User(userId, socketAddress, outbound, this);
+            joined = connectionController.controlUserJoin(user, message);
+            if (joined) {
+                decoder.setProtocol(protocol); // Following bytes are already in the agreed protocol
+                heartbeat = connectionController.startHeartbeat(user);
+                limiter = connectionController.startRateLimit(user);
+            } else {
+                closeAfterWrite = true; // Let the rejection reach the client first
+            }
+            writePending(); // Join reply
+        }
+
+        /**
+         * Stops reading the channel until a message over the rate limit may be handled, so the loop keeps serving
+         * the other connections while the client waits
+         */
+        private void delay(Message message) {
+            delayedMessage = message;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            connectionController.getRateLimitController().runAfter(() -> eventLoop.execute(this::resumeReading),
+                    limiter.getDelayNanos());
+        }
+
+        private void resumeReading() {
+            if (closed) {
+                return;
+            }
+
+            Message message = delayedMessage;
+            delayedMessage = null;
+            try {
+                connectionController.controlMessage(userId, message);
+                handleBuffered();
+                if (!closed && delayedMessage == null) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                closeChannel();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Asks the owning loop to write the user's queued frames
+         */
+        @Override
+        public void onFramesQueued() {
+            eventLoop.execute(this::writePending);
+        }
+
+        /**
+         * Writes queued frames with gathering writes (each frame's shared buffer is written as is) until the socket
+         * stops accepting bytes, then waits for OP_WRITE. Frames stay in the outbound queue until the current batch
+         * is written, so a slow client hits its own queue limit
+         */
+        void writePending() {
+            if (closed) {
+                return;
+            }
+
+            try {
+                while (fillWriteBatch()) {
+                    channel.write(writeBatch, batchStart, batchEnd - batchStart);
+
+                    while (batchStart < batchEnd && !writeBatch[batchStart].hasRemaining()) {
+                        writeBatch[batchStart++] = null;
+                    }
+                    if (batchStart < batchEnd) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closeAfterWrite) {
+                    closeChannel();
+                }
+            } catch (IOException e) {
+                closeChannel();
+            }
+        }
+
+        /**
+         * Takes the next frames from the outbound queue once the previous batch is fully written
+         * 
+         * @return True: there is something to write
+         */
+        private boolean fillWriteBatch() {
+            if (batchStart < batchEnd) {
+                return true;
+            }
+
+            batchStart = 0;
+            batchEnd = 0;
+            Frame frame;
+            long batchBytes = 0;
+            while (batchEnd < WRITE_BATCH_SIZE && (frame = outbound.poll()) != null) {
+                writeBatch[batchEnd] = frame.getBuffer(protocol);
+                batchBytes += writeBatch[batchEnd++].remaining();
+            }
+            if (batchEnd == 0) {
+                return false;
+            }
+            connectionController.getMetrics().countSent(batchEnd, batchBytes); // Fully written before the next batch
+            return true;
+        }
+
+        /**
+         * Closes the channel from any thread (e.g. the outbound queue overflowed during a broadcast)
+         */
+        @Override
+        public void close() {
+            eventLoop.execute(this::closeChannel);
+        }
+
+        /**
+         * Closes the channel after handling one of its messages failed (e.g. a message the controllers cannot
+         * handle), the loop goes on with its other connections
+         */
+        void fail(RuntimeException e) {
+            System.err.println("Closing connection of %s (%s)".formatted(userId, e));
+            try {
+                closeChannel();
+            } catch (RuntimeException closeFailure) {
+                closeFailure.printStackTrace();
+            }
+        }
+
+        private void closeChannel() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.close();
+            connectionController.getMetrics().countConnectionClosed();
+
+            try {
+                key.cancel();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (joined) {
+                heartbeat.stop();
+                connectionController.controlDisconnection(user, outbound);
+            }
+        }
+    }
+}
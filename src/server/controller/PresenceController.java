@@ -0,0 +1,266 @@
+package server.controller;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import common.util.ConfigLoader;
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Decides which status changes of this server's users are sent to everyone, and when.
+ * Setting a status the user already has changes nothing, so a repeated or reordered request cannot invert it.
+ * Changes are collected for the presence window and published together, a user whose status flipped and flipped back
+ * within the window is not published at all. A user who keeps flapping is damped: every change adds a penalty that
+ * halves every half-life, once it reaches the suppress limit the user's changes are held back until it has decayed
+ * to the reuse limit, then only the latest status is published
+ */
+public class PresenceController {
+    private static final double PENALTY_PER_CHANGE = 1000;
+    private static final double SUPPRESS_PENALTY = 2500; // Reached by a third change within about half a half-life
+    private static final double REUSE_PENALTY = 1500;
+    private static final double MAX_PENALTY = 6000; // Held back for at most two half-lives after the last change
+    private final UserManager userManager;
+    private final int windowMs;
+    private final int halfLifeMs;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private final Map<String, Presence> presences = new HashMap<>(); // Users whose status changed
+    private final Set<String> pendingUsers = new LinkedHashSet<>(); // Changed in the current window
+    private Consumer<Set<String>> publisher = userIds -> {
+    };
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder unchangedCount = new LongAdder();
+    private final LongAdder dampedCount = new LongAdder();
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+
+    /**
+     * Presence of one user, guarded by the presence lock
+     */
+    private static class Presence {
+        private User.Status publishedStatus; // Last status sent to everyone
+        private double penalty = 0;
+        private long penaltyUpdatedAt;
+        private boolean suppressed = false;
+
+        Presence(User.Status publishedStatus, long now) {
+            this.publishedStatus = publishedStatus;
+            this.penaltyUpdatedAt = now;
+        }
+
+        /**
+         * @return Penalty decayed to the given time
+         */
+        double decay(long now, int halfLifeMs) {
+            penalty *= Math.pow(0.5, (double) (now - penaltyUpdatedAt) / halfLifeMs);
+            penaltyUpdatedAt = now;
+            return penalty;
+        }
+    }
+
+    /**
+     * @param userManager Shared user manager
+     * @param windowMs    How long changes are collected for, 0 publishes every change straight away
+     * @param halfLifeMs  Half-life of the flap penalty, 0 turns damping off
+     */
+    public PresenceController(UserManager userManager, int windowMs, int halfLifeMs) {
+        this.userManager = userManager;
+        this.windowMs = windowMs;
+        this.halfLifeMs = halfLifeMs;
+        this.scheduler = windowMs > 0 || halfLifeMs > 0
+                ? Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("presence").daemon().factory())
+                : null;
+    }
+
+    /**
+     * @param config Server config (server.presence.window.ms, server.presence.damping.halflife.ms)
+     */
+    public static PresenceController fromConfig(UserManager userManager, ConfigLoader config) {
+        return new PresenceController(userManager, config.getInt("server.presence.window.ms", 1000),
+                config.getInt("server.presence.damping.halflife.ms", 10000));
+    }
+
+    /**
+     * @param publisher Sends the current status of the given users to everyone, called without the presence lock
+     */
+    public void start(Consumer<Set<String>> publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * Sets the status of a user of this server, publishing it after the window unless the user is damped
+     * 
+     * @param userId Id of the user
+     * @param status Status the client asked for
+     * @return True: the status changed
+     */
+    public boolean setStatus(String userId, User.Status status) {
+        requestCount.increment();
+        if (!userManager.setUserStatus(userId, status)) {
+            unchangedCount.increment();
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean publishNow = false;
+        presenceLock.lock();
+        try {
+            Presence presence = presences.computeIfAbsent(userId,
+                    key -> new Presence(status == User.Status.ACTIVE ? User.Status.INACTIVE : User.Status.ACTIVE,
+                            now));
+            if (halfLifeMs > 0) {
+                presence.penalty = Math.min(MAX_PENALTY, presence.decay(now, halfLifeMs) + PENALTY_PER_CHANGE);
+                if (presence.suppressed || presence.penalty >= SUPPRESS_PENALTY) {
+                    dampedCount.increment();
+                    if (!presence.suppressed) {
+                        presence.suppressed = true;
+                        pendingUsers.remove(userId);
+                        scheduleRelease(userId, presence);
+                    }
+                    return true;
+                }
+            }
+            publishNow = addPending(userId);
+        } finally {
+            presenceLock.unlock();
+        }
+
+        if (publishNow) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * @return True: no window, the change is to be published straight away
+     */
+    private boolean addPending(String userId) {
+        boolean firstChange = pendingUsers.isEmpty();
+        pendingUsers.add(userId);
+        if (windowMs <= 0) {
+            return true;
+        }
+        if (firstChange) {
+            scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    private void scheduleRelease(String userId, Presence presence) {
+        long delayMs = (long) Math.ceil(halfLifeMs * Math.log(presence.penalty / REUSE_PENALTY) / Math.log(2));
+        scheduler.schedule(() -> release(userId), Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publishes the latest status of a damped user once its penalty has decayed, or waits longer if it kept
+     * flapping while damped
+     */
+    private void release(String userId) {
+        boolean publishNow;
+        presenceLock.lock();
+        try {
+            Presence presence = presences.get(userId);
+            if (presence == null || !presence.suppressed) {
+                return; // Left
+            }
+            if (presence.decay(System.currentTimeMillis(), halfLifeMs) > REUSE_PENALTY) {
+                scheduleRelease(userId, presence);
+                return;
+            }
+            presence.suppressed = false;
+            publishNow = addPending(userId);
+        } finally {
+            presenceLock.unlock();
+        }
+
+        if (publishNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Publishes the users whose status differs from what was last published
+     */
+    void flush() {
+        Set<String> changedUsers = new LinkedHashSet<>();
+        presenceLock.lock();
+        try {
+            for (String userId : pendingUsers) {
+                Presence presence = presences.get(userId);
+                User user = userManager.getUser(userId);
+                if (presence == null || user == null || presence.suppressed) {
+                    continue;
+                }
+                if (user.getStatus() != presence.publishedStatus) { // Not flipped back within the window
+                    presence.publishedStatus = user.getStatus();
+                    changedUsers.add(userId);
+                }
+            }
+            pendingUsers.clear();
+        } finally {
+            presenceLock.unlock();
+        }
+
+        if (!changedUsers.isEmpty()) {
+            flushCount.increment();
+            publishedCount.add(changedUsers.size());
+            publisher.accept(changedUsers);
+        }
+    }
+
+    /**
+     * Forgets a user who left, its leave is announced instead of any pending change
+     * 
+     * @param userId Id of the user
+     */
+    public void removeUser(String userId) {
+        presenceLock.lock();
+        try {
+            presences.remove(userId);
+            pendingUsers.remove(userId);
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    /**
+     * @return Status requests received, including toggles from older clients
+     */
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * @return Requests for the status the user already had
+     */
+    public long getUnchangedCount() {
+        return unchangedCount.sum();
+    }
+
+    /**
+     * @return Changes held back because the user was flapping
+     */
+    public long getDampedCount() {
+        return dampedCount.sum();
+    }
+
+    /**
+     * @return Status changes sent to everyone, at most one per user per window
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+}
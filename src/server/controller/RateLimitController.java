@@ -0,0 +1,248 @@
+package server.controller;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import server.model.TokenBucket;
+
+/**
+ * Limits how fast each connection may send messages, with a token bucket for the whole connection and one per limited
+ * message type (e.g. chat messages and user details requests). A message over a limit is delayed, dropped or gets
+ * its client disconnected, depending on the configured action. A delayed message holds back the messages after it,
+ * so the client is slowed down as a whole. Heartbeat replies are never limited. The buckets belong to the session,
+ * a client that reconnects and resumes it keeps them. Rejections are counted per session (by user id) and per
+ * message type
+ */
+public class RateLimitController {
+    private final Limit connectionLimit; // Null if the connection as a whole is not limited
+    private final Map<Message.Type, Limit> typeLimits;
+    private final Action action;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService delayScheduler; // Null unless messages are delayed
+    private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>(); // Key: session token
+    private final LongAdder[] rejectionsByType = new LongAdder[Message.Type.values().length];
+    private final LongAdder delayedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder disconnectedCount = new LongAdder();
+
+    /**
+     * What happens to a message over a limit
+     */
+    public enum Action {
+        DELAY, // Handled once a token is available, dropped if that is further away than the max delay
+        DROP,
+        DISCONNECT
+    }
+
+    /**
+     * What the engine does with one received message
+     */
+    public enum Verdict {
+        HANDLE, DELAY, DROP, DISCONNECT
+    }
+
+    /**
+     * @param rate  Messages per second
+     * @param burst Messages that may be sent at once after a quiet period
+     */
+    public record Limit(double rate, int burst) {
+    }
+
+    /**
+     * @param connectionLimit Limit of all messages of a connection, null for none
+     * @param typeLimits      Limits of single message types
+     * @param action          What happens to a message over a limit
+     * @param maxDelayMs      Longest delay before a message is dropped instead (DELAY only)
+     */
+    public RateLimitController(Limit connectionLimit, Map<Message.Type, Limit> typeLimits, Action action,
+            int maxDelayMs) {
+        this.connectionLimit = connectionLimit;
+        this.typeLimits = typeLimits.isEmpty() ? Map.of() : new EnumMap<>(typeLimits);
+        this.action = action;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.delayScheduler = action == Action.DELAY
+                ? Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("rate-limit-delay").daemon()
+                        .factory())
+                : null;
+        for (int i = 0; i < rejectionsByType.length; i++) {
+            rejectionsByType[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Reads server.ratelimit.connection.rate/burst and server.ratelimit.TYPE.rate/burst for each message type (a rate
+     * of 0 or no rate is unlimited), server.ratelimit.action and server.ratelimit.delay.max.ms
+     * 
+     * @param config Server config
+     */
+    public static RateLimitController fromConfig(ConfigLoader config) {
+        Map<Message.Type, Limit> typeLimits = new EnumMap<>(Message.Type.class);
+        for (Message.Type type : Message.Type.values()) {
+            Limit limit = readLimit(config, "server.ratelimit.%s".formatted(type.name()));
+            if (limit != null) {
+                typeLimits.put(type, limit);
+            }
+        }
+        return new RateLimitController(readLimit(config, "server.ratelimit.connection"), typeLimits,
+                Action.valueOf(config.get("server.ratelimit.action", "drop").toUpperCase()),
+                config.getInt("server.ratelimit.delay.max.ms", 1000));
+    }
+
+    private static Limit readLimit(ConfigLoader config, String prefix) {
+        int rate = config.getInt(prefix + ".rate", 0);
+        return rate > 0 ? new Limit(rate, config.getInt(prefix + ".burst", rate)) : null;
+    }
+
+    /**
+     * Starts limiting a connection whose user joined, a connection that resumes a session gets the session's limiter
+     * with the tokens it has left
+     * 
+     * @param userId       Id of the user
+     * @param sessionToken Token of the session the connection joined
+     * @return Limiter the engine checks every received message with
+     */
+    public Limiter start(String userId, String sessionToken) {
+        return limiters.computeIfAbsent(sessionToken, token -> new Limiter(userId));
+    }
+
+    /**
+     * Stops limiting a session, called when it ends rather than when one of its connections closes
+     * 
+     * @param sessionToken Token of the session
+     */
+    public void end(String sessionToken) {
+        limiters.remove(sessionToken);
+    }
+
+    /**
+     * Runs a task once a delay has passed, for engines that cannot block while a message is delayed
+     * 
+     * @param task       Task to be run
+     * @param delayNanos Delay returned by the limiter
+     */
+    public void runAfter(Runnable task, long delayNanos) {
+        delayScheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Buckets of one session, checked by the thread that reads its current connection
+     */
+    public class Limiter {
+        private final String userId;
+        private final TokenBucket connectionBucket;
+        private final TokenBucket[] typeBuckets = new TokenBucket[Message.Type.values().length];
+        private final LongAdder rejectedCount = new LongAdder();
+        private long delayNanos = 0;
+
+        private Limiter(String userId) {
+            this.userId = userId;
+            this.connectionBucket = connectionLimit == null ? null
+                    : new TokenBucket(connectionLimit.rate(), connectionLimit.burst());
+            for (Map.Entry<Message.Type, Limit> typeLimit : typeLimits.entrySet()) {
+                typeBuckets[typeLimit.getKey().ordinal()] = new TokenBucket(typeLimit.getValue().rate(),
+                        typeLimit.getValue().burst());
+            }
+        }
+
+        /**
+         * Takes a token from the buckets that apply to a received message. A message over a limit takes none, it
+         * is not charged to the other bucket either
+         * 
+         * @param type Type of the message
+         * @return What to do with it, for DELAY see getDelayNanos
+         */
+        public Verdict check(Message.Type type) {
+            if (type == Message.Type.PONG) {
+                return Verdict.HANDLE;
+            }
+
+            TokenBucket typeBucket = typeBuckets[type.ordinal()];
+            long now = System.nanoTime();
+            long typeWait = typeBucket == null ? 0 : typeBucket.tryTake(now);
+            long connectionWait = connectionBucket == null ? 0 : connectionBucket.tryTake(now);
+            if (typeWait == 0 && connectionWait == 0) {
+                return Verdict.HANDLE;
+            }
+            if (typeWait == 0 && typeBucket != null) {
+                typeBucket.refund();
+            }
+            if (connectionWait == 0 && connectionBucket != null) {
+                connectionBucket.refund();
+            }
+
+            rejectedCount.increment();
+            rejectionsByType[type.ordinal()].increment();
+            if (action == Action.DISCONNECT) {
+                disconnectedCount.increment();
+                return Verdict.DISCONNECT;
+            }
+            if (action == Action.DROP || Math.max(typeWait, connectionWait) > maxDelayNanos) {
+                droppedCount.increment();
+                return Verdict.DROP;
+            }
+
+            // The message waits for the later of the two tokens
+            long waitNanos = typeBucket != null ? typeBucket.reserve(now) : 0;
+            if (connectionBucket != null) {
+                waitNanos = Math.max(waitNanos, connectionBucket.reserve(now));
+            }
+            delayNanos = Math.max(waitNanos, 1);
+            delayedCount.increment();
+            return Verdict.DELAY;
+        }
+
+        /**
+         * @return How long the message of the last DELAY verdict has to wait
+         */
+        public long getDelayNanos() {
+            return delayNanos;
+        }
+
+        public long getRejectedCount() {
+            return rejectedCount.sum();
+        }
+    }
+
+    /**
+     * @return Messages over a limit per session (key: user id), sessions without any are left out
+     */
+    public Map<String, Long> getRejectionsByUser() {
+        Map<String, Long> rejections = new LinkedHashMap<>();
+        for (Limiter limiter : limiters.values()) {
+            long rejected = limiter.getRejectedCount();
+            if (rejected > 0) {
+                rejections.put(limiter.userId, rejected);
+            }
+        }
+        return rejections;
+    }
+
+    /**
+     * @param type Message type
+     * @return Messages of the type that were over a limit, since the server started
+     */
+    public long getRejectedCount(Message.Type type) {
+        return rejectionsByType[type.ordinal()].sum();
+    }
+
+    public long getDelayedCount() {
+        return delayedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getDisconnectedCount() {
+        return disconnectedCount.sum();
+    }
+}
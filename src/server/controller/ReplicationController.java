@@ -0,0 +1,265 @@
+package server.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import common.util.Protocol;
+import server.model.Frame;
+import server.model.MessageHistory;
+import server.model.OutboundQueue;
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Streams the state of this server to standby servers over a loopback link: the sessions, the coordinator and the
+ * recent messages when a standby connects, then every join, leave, status change and chat message. Each standby has
+ * its own bounded queue and writer thread, so a slow standby never holds up the clients, and the frames of chat
+ * messages are the ones sent to the clients (encoded once).
+ * The link carries session tokens, so it only accepts connections from the same machine
+ */
+public class ReplicationController {
+    private static final int LINK_QUEUE_CAPACITY = 65536; // A standby this far behind is sent the state again
+    private static final int WRITE_BATCH_SIZE = 16; // Frames passed to a single gathering write
+    private final UserManager userManager;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService linkExecutor = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().daemon()
+            .factory());
+    private final ReentrantLock linksLock = new ReentrantLock();
+    private volatile StandbyLink[] links = new StandbyLink[0]; // Copied on change, read without a lock
+    private MessageHistory history;
+
+    /**
+     * Link to one standby
+     */
+    private record StandbyLink(OutboundQueue outbound, SocketChannel channel) {
+    }
+
+    /**
+     * Binds the replication port on the loopback address, standbys are accepted once started
+     * 
+     * @param userManager Shared user manager
+     * @param port        Port the standbys connect to (0 picks a free port)
+     * @throws IOException If the port cannot be bound
+     */
+    public ReplicationController(UserManager userManager, int port) throws IOException {
+        this.userManager = userManager;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * @param userManager Shared user manager
+     * @param config      Server config
+     * @return Replication controller, null if no standby is configured (no replication port)
+     * @throws IOException If the port cannot be bound
+     */
+    public static ReplicationController fromConfig(UserManager userManager, ConfigLoader config) throws IOException {
+        int port = config.getInt("server.replication.port", 0);
+        return port > 0 ? new ReplicationController(userManager, port) : null;
+    }
+
+    /**
+     * Starts accepting standbys
+     * 
+     * @param history History of the recent messages, sent to every standby that connects
+     */
+    public void start(MessageHistory history) {
+        this.history = history;
+        linkExecutor.execute(this::acceptStandbys);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return Standbys linked to this server
+     */
+    public int getStandbyCount() {
+        return links.length;
+    }
+
+    /**
+     * Stops accepting standbys, the changes already queued are still sent before each link is closed
+     */
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (StandbyLink link : links) {
+            link.outbound().close();
+        }
+        linkExecutor.shutdown();
+    }
+
+    private void acceptStandbys() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                linkExecutor.execute(() -> controlStandbyLink(channel));
+            } catch (IOException e) {
+                // Closed by stop, or a failed accept
+            }
+        }
+    }
+
+    /**
+     * Sends the state, then the queued changes until the link is lost. The link is registered before the state is
+     * read, so every change after it is queued behind it (a change in both is applied twice, which is harmless)
+     */
+    private void controlStandbyLink(SocketChannel channel) {
+        StandbyLink link = new StandbyLink(new OutboundQueue(LINK_QUEUE_CAPACITY,
+                OutboundQueue.OverflowPolicy.DISCONNECT), channel);
+        addLink(link);
+        try (channel) {
+            channel.socket().setTcpNoDelay(true);
+            linkExecutor.execute(() -> awaitClose(link));
+
+            Map<String, Map<String, String>> users = new LinkedHashMap<>();
+            for (User user : userManager.getRoster().getUsers()) {
+                users.put(user.getUserId(), getSessionDetails(user));
+            }
+            Message hello = Message.replicaHello(history.getEpoch(), userManager.getCoordinatorId(), users);
+            List<Frame> messages = history.getAllMessages();
+            ByteBuffer[] state = new ByteBuffer[messages.size() + 1];
+            state[0] = Protocol.BINARY.encode(hello);
+            for (int i = 0; i < messages.size(); i++) {
+                state[i + 1] = messages.get(i).getBuffer(Protocol.BINARY);
+            }
+            writeAll(channel, state, state.length);
+
+            ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH_SIZE];
+            Frame frame;
+            while ((frame = link.outbound().take()) != null) {
+                int batchSize = 0;
+                do {
+                    writeBatch[batchSize++] = frame.getBuffer(Protocol.BINARY);
+                } while (batchSize < WRITE_BATCH_SIZE && (frame = link.outbound().poll()) != null);
+
+                writeAll(channel, writeBatch, batchSize);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Standby gone, it connects again
+        } finally {
+            removeLink(link);
+            link.outbound().close();
+        }
+    }
+
+    /**
+     * The standby sends nothing, waits for it to close the link so the writer stops
+     */
+    private void awaitClose(StandbyLink link) {
+        try {
+            InputStream input = link.channel().socket().getInputStream();
+            while (input.read() != -1) {
+                // Ignored
+            }
+        } catch (IOException e) {
+            // Lost
+        } finally {
+            link.outbound().close();
+        }
+    }
+
+    private void writeAll(SocketChannel channel, ByteBuffer[] buffers, int count) throws IOException {
+        while (count > 0 && buffers[count - 1].hasRemaining()) {
+            channel.write(buffers, 0, count);
+        }
+        Arrays.fill(buffers, 0, count, null);
+    }
+
+    private void addLink(StandbyLink link) {
+        linksLock.lock();
+        try {
+            StandbyLink[] updated = Arrays.copyOf(links, links.length + 1);
+            updated[links.length] = link;
+            links = updated;
+        } finally {
+            linksLock.unlock();
+        }
+    }
+
+    private void removeLink(StandbyLink link) {
+        linksLock.lock();
+        try {
+            links = Arrays.stream(links).filter(current -> current != link).toArray(StandbyLink[]::new);
+        } finally {
+            linksLock.unlock();
+        }
+    }
+
+    /**
+     * @return User id, join time, status, address, session token and the current coordinator
+     */
+    private Map<String, String> getSessionDetails(User user) {
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("userId", user.getUserId());
+        details.put("joined", Long.toString(user.getJoinedAt()));
+        details.put("status", user.getStatus().toString());
+        details.put("socketAddress", user.getSocketAddress());
+        details.put("token", String.valueOf(user.getSessionToken()));
+        details.put("coordinator", getCoordinatorId());
+        return details;
+    }
+
+    private String getCoordinatorId() {
+        String coordinatorId = userManager.getCoordinatorId();
+        return coordinatorId == null ? "" : coordinatorId;
+    }
+
+    public void replicateUserAdded(User user) {
+        replicate(Frame.of(Message.relayUserAdded(userManager.getNodeId(), getSessionDetails(user))));
+    }
+
+    public void replicateUserRemoved(String userId) {
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("userId", userId);
+        details.put("coordinator", getCoordinatorId());
+        replicate(Frame.of(Message.relayUserRemoved(userManager.getNodeId(), details)));
+    }
+
+    public void replicateUserUpdated(User user) {
+        replicate(Frame.of(Message.relayUserUpdated(userManager.getNodeId(), getSessionDetails(user))));
+    }
+
+    /**
+     * @param frame Frame of a numbered chat message, as queued for its recipients
+     */
+    public void replicateMessage(Frame frame) {
+        replicate(frame);
+    }
+
+    private void replicate(Frame frame) {
+        StandbyLink[] current = links;
+        for (int i = 0; i < current.length; i++) {
+            if (!current[i].outbound().offer(frame)) {
+                closeChannel(current[i].channel()); // Too far behind, it connects again and is sent the state
+            }
+        }
+    }
+
+    private void closeChannel(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package server.controller;
+
+import server.model.MessageHistory;
+import server.model.MessageJournal;
+import server.model.Metrics;
+import server.model.Replica;
+
+/**
+ * Optional parts of a server, passed to the connection engines and the message controller instead of a growing list
+ * of constructor arguments. Parts that are not set are not used: no message log, no cluster, no standby and a server
+ * that starts empty. The connection engines read the membership window, message history and presence settings from
+ * the config, the message controller takes them from here
+ */
+public class ServerOptions {
+    private MessageJournal journal; // Null if messages are not logged to disk
+    private ClusterController cluster; // Null if the server is not part of a cluster
+    private ReplicationController replication; // Null if no standby follows this server
+    private Replica replica; // Null if this server starts empty
+    private Metrics metrics = new Metrics();
+    private int membershipWindowMs = 0;
+    private MessageHistory history = new MessageHistory(0, 0, 0);
+    private PresenceController presence; // Null publishes every status change straight away
+
+    /**
+     * @param journal Journal of the message log, every chat message is logged through it so routing never waits for
+     *                the disk
+     */
+    public ServerOptions withJournal(MessageJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * @param cluster Links to the other nodes of a server cluster
+     */
+    public ServerOptions withCluster(ClusterController cluster) {
+        this.cluster = cluster;
+        return this;
+    }
+
+    /**
+     * @param replication Links to the standbys, every change of the users and every chat message is streamed to them
+     */
+    public ServerOptions withReplication(ReplicationController replication) {
+        this.replication = replication;
+        return this;
+    }
+
+    /**
+     * @param replica State of the failed primary this standby takes over: its history (same epoch and sequence
+     *                numbers) and sessions, so its clients resume as if they had reconnected to the primary
+     */
+    public ServerOptions withReplica(Replica replica) {
+        this.replica = replica;
+        return this;
+    }
+
+    /**
+     * @param metrics Metrics the server's counters and latencies are recorded in
+     */
+    public ServerOptions withMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param membershipWindowMs How long joins, leaves and status changes are collected and sent together (one
+     *                           announcement and one roster update per window), 0 sends every change straight away
+     */
+    public ServerOptions withMembershipWindow(int membershipWindowMs) {
+        this.membershipWindowMs = membershipWindowMs;
+        return this;
+    }
+
+    /**
+     * @param history Recent messages of each channel, sent to every user who joins
+     */
+    public ServerOptions withHistory(MessageHistory history) {
+        this.history = history;
+        return this;
+    }
+
+    /**
+     * @param presence Presence controller that collects status changes for its window and damps flapping users
+     */
+    public ServerOptions withPresence(PresenceController presence) {
+        this.presence = presence;
+        return this;
+    }
+
+    public MessageJournal getJournal() {
+        return journal;
+    }
+
+    public ClusterController getCluster() {
+        return cluster;
+    }
+
+    public ReplicationController getReplication() {
+        return replication;
+    }
+
+    public Replica getReplica() {
+        return replica;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public int getMembershipWindowMs() {
+        return membershipWindowMs;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public PresenceController getPresence() {
+        return presence;
+    }
+}
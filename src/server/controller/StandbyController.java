@@ -0,0 +1,112 @@
+package server.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import common.util.MessageDecoder;
+import common.util.Protocol;
+import server.model.Replica;
+
+/**
+ * Runs this server as the hot standby of a primary on the same machine: the primary's state is streamed into a
+ * Replica until the primary fails, then the standby takes over with it (see ConnectionController).
+ * A lost link is dialled again, the standby only takes over once the primary has not answered for the takeover
+ * delay, so a primary that dropped the link (e.g. because the standby fell behind) keeps its role
+ */
+public class StandbyController {
+    private static final int RETRY_DELAY_MS = 100;
+    private final InetSocketAddress primaryAddress;
+    private final int takeoverDelayMs;
+    private final Replica replica;
+
+    /**
+     * @param primaryAddress  Replication address of the primary
+     * @param takeoverDelayMs How long the primary may be unreachable before the standby takes over
+     * @param replica         State of the primary, empty until the first link
+     */
+    public StandbyController(InetSocketAddress primaryAddress, int takeoverDelayMs, Replica replica) {
+        this.primaryAddress = primaryAddress;
+        this.takeoverDelayMs = takeoverDelayMs;
+        this.replica = replica;
+    }
+
+    /**
+     * @param config Server config, e.g. server.standby.of=localhost:1649
+     * @return Standby controller, null if the server is not a standby
+     */
+    public static StandbyController fromConfig(ConfigLoader config) {
+        String primary = config.get("server.standby.of", "");
+        if (primary.isBlank()) {
+            return null;
+        }
+
+        int separator = primary.lastIndexOf(':');
+        InetSocketAddress primaryAddress = new InetSocketAddress(primary.substring(0, separator).trim(),
+                Integer.parseInt(primary.substring(separator + 1).trim()));
+        Replica replica = new Replica(config.getInt("server.history.messages", 50),
+                config.getInt("server.history.bytes", 65536),
+                config.getInt("server.history.private.channels", 1000));
+        return new StandbyController(primaryAddress, config.getInt("server.standby.takeover.ms", 500), replica);
+    }
+
+    /**
+     * Follows the primary until it fails. Blocks until then, a primary that was never reached is waited for
+     * 
+     * @return State of the primary when it failed
+     * @throws InterruptedException If the calling thread is interrupted
+     */
+    public Replica awaitTakeover() throws InterruptedException {
+        long unreachableSince = 0; // 0 while the primary answers
+        while (true) {
+            boolean followed = false;
+            try (Socket socket = new Socket()) {
+                socket.connect(primaryAddress, takeoverDelayMs);
+                socket.setTcpNoDelay(true);
+                followed = followPrimary(socket.getInputStream());
+            } catch (IOException | RuntimeException e) {
+                // Primary down, or a malformed frame
+            }
+
+            long now = System.currentTimeMillis();
+            if (followed || unreachableSince == 0 || !replica.isInitialised()) {
+                unreachableSince = now;
+            } else if (now - unreachableSince >= takeoverDelayMs) {
+                return replica;
+            }
+            Thread.sleep(RETRY_DELAY_MS);
+        }
+    }
+
+    /**
+     * Reads the state, then applies the changes until the link is lost
+     * 
+     * @return True: the state was received
+     */
+    private boolean followPrimary(InputStream input) {
+        MessageDecoder decoder = new MessageDecoder();
+        decoder.setProtocol(Protocol.BINARY);
+        try {
+            Message hello = decoder.read(input);
+            if (hello == null || hello.getType() != Message.Type.REPLICA_HELLO) {
+                return false;
+            }
+            replica.reset(hello);
+        } catch (IOException e) {
+            return false;
+        }
+
+        try {
+            Message message;
+            while ((message = decoder.read(input)) != null) {
+                replica.apply(message);
+            }
+        } catch (IOException e) {
+            // Link lost
+        }
+        return true;
+    }
+}
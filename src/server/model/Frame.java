@@ -0,0 +1,198 @@
+package server.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import common.model.Message;
+import common.util.BinaryFormatter;
+import common.util.FrameCompression;
+import common.util.MessageFormatter;
+import common.util.Protocol;
+
+/**
+ * A formatted message waiting to be written to a client, the type is kept so the outbound queue can tell chat
+ * messages apart from presence updates when it has to drop something.
+ * A broadcast creates one frame for every recipient, so it is only encoded once for each protocol in use
+ */
+public class Frame {
+    private final Message.Type type;
+    private final Message message; // Null if created from already formatted text
+    private final Frame[] parts; // Frames sent together in one write, null if a single message
+    private volatile String text;
+    private volatile ByteBuffer textBuffer; // Encoded on first use, shared by every recipient
+    private volatile ByteBuffer binaryBuffer;
+    private volatile ByteBuffer deflateBuffer; // Same bytes as binaryBuffer if the frame is sent uncompressed
+    private volatile int deflateSavedBytes; // Written before deflateBuffer
+
+    public Frame(Message.Type type, String text) {
+        this.type = type;
+        this.message = null;
+        this.parts = null;
+        this.text = text;
+    }
+
+    private Frame(Message message) {
+        this.type = message.getType();
+        this.message = message;
+        this.parts = null;
+    }
+
+    private Frame(Frame[] parts) {
+        this.type = Message.Type.MESSAGE;
+        this.message = null;
+        this.parts = parts;
+    }
+
+    public static Frame of(Message message) {
+        return new Frame(message);
+    }
+
+    /**
+     * Joins chat frames into one frame, so they are queued as one entry and written with one write (e.g. the
+     * message history sent to a user who joined)
+     * 
+     * @param frames Chat frames in the order they are sent
+     * @return Frame holding every line or binary frame of the given frames
+     */
+    public static Frame batch(Frame[] frames) {
+        return new Frame(frames.clone());
+    }
+
+    public Message.Type getType() {
+        return type;
+    }
+
+    public String getText() {
+        String formatted = text;
+        if (formatted == null) {
+            if (parts != null) {
+                StringBuilder lines = new StringBuilder();
+                for (Frame part : parts) {
+                    lines.append(lines.isEmpty() ? "" : "\n").append(part.getText());
+                }
+                formatted = lines.toString();
+            } else {
+                formatted = MessageFormatter.format(message);
+            }
+            text = formatted;
+        }
+        return formatted;
+    }
+
+    public ByteBuffer getBuffer() {
+        return getBuffer(Protocol.TEXT);
+    }
+
+    /**
+     * Returns the frame encoded for the protocol, encoding it on the first call. Every caller gets its own read-only
+     * view of the same bytes, so each connection can write it with an independent position.
+     * Join replies are always text, they are written before the client switches protocol
+     * 
+     * @param protocol Protocol agreed with the recipient
+     * @return Read-only buffer positioned at the start of the frame
+     */
+    public ByteBuffer getBuffer(Protocol protocol) {
+        if (protocol == Protocol.DEFLATE && !isJoinReply()) {
+            ByteBuffer encoded = getDeflated();
+            if (deflateSavedBytes > 0) {
+                FrameCompression.countSent(deflateSavedBytes); // Counted for every recipient
+            }
+            return encoded.duplicate();
+        }
+
+        if (protocol == Protocol.BINARY && !isJoinReply()) {
+            ByteBuffer encoded = binaryBuffer;
+            if (encoded == null) { // Two threads may both encode, either result is the same
+                if (parts != null) {
+                    encoded = joinParts(part -> part.getBuffer(protocol));
+                } else {
+                    encoded = BinaryFormatter.encode(message != null ? message : MessageFormatter.parse(text))
+                            .asReadOnlyBuffer();
+                }
+                binaryBuffer = encoded;
+            }
+            return encoded.duplicate();
+        }
+
+        if (parts != null && textBuffer == null) {
+            textBuffer = joinParts(part -> part.getBuffer(protocol));
+        }
+
+        ByteBuffer encoded = textBuffer;
+        if (encoded == null) {
+            encoded = ByteBuffer.wrap((getText() + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+            textBuffer = encoded;
+        }
+        return encoded.duplicate();
+    }
+
+    /**
+     * Returns the binary frame with its body deflated if it is large enough, compressing it on the first call.
+     * A batch compresses each part on its own, so the client decodes every part as a separate frame
+     */
+    private ByteBuffer getDeflated() {
+        ByteBuffer encoded = deflateBuffer;
+        if (encoded == null) {
+            int savedBytes;
+            if (parts != null) {
+                encoded = joinParts(Frame::getDeflated);
+                savedBytes = 0;
+                for (Frame part : parts) {
+                    savedBytes += part.deflateSavedBytes;
+                }
+            } else {
+                ByteBuffer binary = getBuffer(Protocol.BINARY);
+                encoded = FrameCompression.compress(binary).asReadOnlyBuffer();
+                savedBytes = binary.remaining() - encoded.remaining();
+            }
+            deflateSavedBytes = savedBytes;
+            deflateBuffer = encoded;
+        }
+        return encoded.duplicate();
+    }
+
+    /**
+     * Copies the encoded parts one after another, reusing each part's own cached encoding
+     */
+    private ByteBuffer joinParts(Function<Frame, ByteBuffer> encoder) {
+        int length = 0;
+        ByteBuffer[] encodedParts = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            encodedParts[i] = encoder.apply(parts[i]);
+            length += encodedParts[i].remaining();
+        }
+
+        ByteBuffer joined = ByteBuffer.allocate(length);
+        for (ByteBuffer encodedPart : encodedParts) {
+            joined.put(encodedPart);
+        }
+        return joined.flip().asReadOnlyBuffer();
+    }
+
+    private boolean isJoinReply() {
+        return type == Message.Type.ACCEPT_USER_JOIN || type == Message.Type.REJECT_USER_JOIN;
+    }
+
+    /**
+     * Chat messages (batches of them too) carry sequence numbers, a client cannot tell one was lost
+     * 
+     * @return True: frame is a chat message
+     */
+    public boolean isChat() {
+        return type == Message.Type.MESSAGE;
+    }
+
+    /**
+     * Presence updates (user list, roster updates, status) are the cheapest to lose, a client that misses a roster
+     * version asks for the full user list again
+     * 
+     * @return True: frame is a presence update
+     */
+    public boolean isPresence() {
+        return switch (type) {
+            case USER_LIST, USER_ADDED, USER_REMOVED, USER_UPDATED, USER_LIST_UPDATE, STATUS_UPDATE -> true;
+            default -> false;
+        };
+    }
+}
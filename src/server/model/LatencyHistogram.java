@@ -0,0 +1,117 @@
+package server.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in log-linear buckets, like an HDR histogram with a coarse precision: each power of two
+ * from about a microsecond to about 17 seconds is split into four buckets, so every bucket is at most 25% wider than
+ * the values in it. Recording is a leading-zero count and one striped counter increment, so threads recording at
+ * the same time do not contend. Values below the first bucket or above the last one are kept in the edge buckets
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = 10; // 1024ns
+    private static final int MAX_EXPONENT = 34; // About 17s
+    private static final int BUCKET_COUNT = 2 + (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKET_COUNT;
+    private final LongAdder[] counts = new LongAdder[BUCKET_COUNT]; // Last bucket: over the largest bound
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos Duration to be recorded
+     */
+    public void record(long nanos) {
+        counts[bucketOf(nanos)].increment();
+        sumNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * @return Index of the bucket whose upper bound is the smallest one the duration is not above
+     */
+    static int bucketOf(long nanos) {
+        long below = nanos - 1; // Bounds are inclusive
+        if (below < 1L << MIN_EXPONENT) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(below);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (below >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @param bucket Index of a bucket
+     * @return Largest duration in the bucket, Long.MAX_VALUE for the last one
+     */
+    public static long upperBound(int bucket) {
+        if (bucket == 0) {
+            return 1L << MIN_EXPONENT;
+        }
+        if (bucket >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKET_COUNT;
+        int subBucket = (bucket - 1) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public static int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * @return Durations recorded per bucket, read one bucket at a time while others may still be recording
+     */
+    public long[] getCounts() {
+        long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucketCount : counts) {
+            count += bucketCount.sum();
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Upper bound of the bucket the percentile falls in, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+}
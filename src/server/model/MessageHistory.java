@@ -0,0 +1,446 @@
+package server.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import common.model.Message;
+import common.util.CoarseClock;
+
+/**
+ * Recent chat messages of the group channel, of every room and of every private pair, kept as the frames that were
+ * sent (already encoded) so they can be sent again to users who join or reconnect.
+ * Chat messages are numbered from one counter, so the sequence numbers of every channel keep increasing (with gaps).
+ * A channel's messages are numbered and queued for their recipients under the channel's lock, and a joining user is
+ * registered under the same locks, so a client receives every channel in sequence order and only needs the last
+ * sequence it saw to resume.
+ * Every channel is a ring buffer capped by a number of messages and an approximate number of bytes, and only the
+ * most recently used private channels are kept
+ */
+public class MessageHistory {
+    private static final String GROUP_ID = "Group";
+    private static final int MESSAGE_OVERHEAD_BYTES = 64; // Type, ids and timestamp of an encoded message, roughly
+    private final int maxMessages;
+    private final int maxBytes;
+    private final String epoch; // Changes when the server restarts, unless a standby takes over
+    private final AtomicLong lastSequence = new AtomicLong();
+    private final Channel groupChannel;
+    private final ReentrantLock privateChannelsLock = new ReentrantLock();
+    private final Map<PrivateChannel, Channel> privateChannels; // Least recently used first
+    private final ConcurrentMap<String, Channel> roomChannels = new ConcurrentHashMap<>(); // Removed with the room
+
+    /**
+     * Two users of a private chat, in a fixed order so both directions are the same channel
+     */
+    private record PrivateChannel(String firstUserId, String secondUserId) {
+        static PrivateChannel of(String userId, String otherUserId) {
+            return userId.compareTo(otherUserId) <= 0
+                    ? new PrivateChannel(userId, otherUserId)
+                    : new PrivateChannel(otherUserId, userId);
+        }
+
+        boolean includes(String userId) {
+            return firstUserId.equals(userId) || secondUserId.equals(userId);
+        }
+
+        String otherUserId(String userId) {
+            return firstUserId.equals(userId) ? secondUserId : firstUserId;
+        }
+    }
+
+    /**
+     * @param maxMessages        Messages kept per channel, 0 keeps no history
+     * @param maxBytes           Approximate bytes kept per channel
+     * @param maxPrivateChannels Private channels kept, the least recently used one is dropped first
+     */
+    public MessageHistory(int maxMessages, int maxBytes, int maxPrivateChannels) {
+        this(maxMessages, maxBytes, maxPrivateChannels, Long.toString(CoarseClock.currentTimeMillis()));
+    }
+
+    /**
+     * Creates the history of a standby server, which keeps the epoch of its primary so clients that fail over
+     * resume with the sequences they have
+     * 
+     * @param epoch Id of the server run the sequence numbers belong to
+     */
+    public MessageHistory(int maxMessages, int maxBytes, int maxPrivateChannels, String epoch) {
+        this.epoch = epoch;
+        this.maxMessages = Math.max(0, maxMessages);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.groupChannel = new Channel();
+        this.privateChannels = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PrivateChannel, Channel> eldest) {
+                return size() > maxPrivateChannels;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxMessages > 0 && maxBytes > 0;
+    }
+
+    /**
+     * @return Id of this server run, sequence numbers of another run mean nothing here
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Numbers a chat message sent by a user, keeps it (dropping the oldest messages of its channel if the channel is
+     * full) and hands it to the delivery while the channel is locked
+     * 
+     * @param sender    Id of the user who sent it
+     * @param recipient Id of the user, room or "Group"
+     * @param content   Message content
+     * @param delivery  Queues the numbered message's frame for its recipients, must not block
+     * @return Message with its sequence number
+     */
+    public Message publish(String sender, String recipient, String content, BiConsumer<Message, Frame> delivery) {
+        Channel channel = getChannel(sender, recipient);
+        channel.lock.lock();
+        try {
+            Message message = Message.sendMessage(sender, recipient, content, lastSequence.incrementAndGet());
+            Frame frame = Frame.of(message);
+            channel.add(frame, message.getSequence(), getSize(sender, recipient, content));
+            delivery.accept(message, frame);
+            return message;
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps a chat message that was numbered before, e.g. read from the message log or replicated from a primary
+     * server. A message at or below the last sequence of its channel is already kept and is skipped
+     * 
+     * @param message Chat message
+     */
+    public void record(Message message) {
+        String sender = message.getSender();
+        String recipient = message.getRecipient();
+        lastSequence.accumulateAndGet(message.getSequence(), Math::max); // New messages are numbered after it
+
+        Channel channel = getChannel(sender, recipient);
+        channel.lock.lock();
+        try {
+            if (message.getSequence() <= channel.lastSequence) {
+                return;
+            }
+            channel.add(Frame.of(message), message.getSequence(),
+                    getSize(sender, recipient, (String) message.getContent()));
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    /**
+     * Fills the history with the latest messages of the group and room channels in the log, e.g. after a restart.
+     * Private chats are left out, no session survives a restart to resume them
+     * 
+     * @param log Log of the messages sent before
+     * @throws IOException If reading the log fails
+     */
+    public void restore(MessageLog log) throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+
+        for (String channel : log.getChannels()) {
+            long messageCount = log.getMessageCount(channel);
+            if (MessageLog.isPrivateChannel(channel)) {
+                for (Message message : log.read(channel, Math.max(0, messageCount - 1), 1)) {
+                    lastSequence.accumulateAndGet(message.getSequence(), Math::max); // Only numbered after
+                }
+                continue;
+            }
+            for (Message message : log.read(channel, Math.max(0, messageCount - maxMessages), maxMessages)) {
+                record(message);
+            }
+        }
+    }
+
+    /**
+     * Returns the history a user can see (the group channel, then every private channel the user is part of) as
+     * one frame, so it is queued and written at once
+     * 
+     * @param userId Id of the user who joined
+     * @return Frame with the messages oldest first, null if there are none
+     */
+    public Frame getHistory(String userId) {
+        return getHistory(userId, Map.of());
+    }
+
+    /**
+     * Returns the messages of the history a user has not received yet as one frame
+     * 
+     * @param userId        Id of the user who joined
+     * @param lastSequences Last sequence the user received per chat (key: "Group", a room id or the other user's
+     *                      id)
+     * @return Frame with the messages oldest first, null if there are none
+     */
+    public Frame getHistory(String userId, Map<String, Long> lastSequences) {
+        Frame[] history = new Frame[1];
+        attach(userId, lastSequences, Set.of(), () -> true, frame -> history[0] = frame);
+        return history[0];
+    }
+
+    /**
+     * Registers a new session and hands the messages of the group channel it has not received yet to the delivery as
+     * one frame, while the channel is locked. Every group message then reaches the user once and in sequence order:
+     * either in the history frame or sent live after it. Private chats kept under the id are not sent, they belong
+     * to an earlier session
+     * 
+     * @param userId        Id of the user
+     * @param lastSequences Last sequence the user received per chat (key: "Group", a room id or the other user's
+     *                      id), chats missing from it are sent in full
+     * @param register      Lets the user receive new messages, returns false if the user was rejected
+     * @param delivery      Queues the frame for the user, must not block. Not called if there are no messages
+     * @return Result of the registration
+     */
+    public boolean attach(String userId, Map<String, Long> lastSequences, BooleanSupplier register,
+            Consumer<Frame> delivery) {
+        return attach(userId, lastSequences, false, Set.of(), register, delivery);
+    }
+
+    /**
+     * Registers a session taken over by a new connection (resumed with its token), the messages of its private
+     * chats and of the rooms it is in that it has not received are sent too. No private channel can be created
+     * meanwhile
+     * 
+     * @param roomIds Rooms the user is in, keyed by room id in lastSequences
+     */
+    public boolean attach(String userId, Map<String, Long> lastSequences, Collection<String> roomIds,
+            BooleanSupplier register, Consumer<Frame> delivery) {
+        return attach(userId, lastSequences, true, roomIds, register, delivery);
+    }
+
+    private boolean attach(String userId, Map<String, Long> lastSequences, boolean isResumed,
+            Collection<String> roomIds, BooleanSupplier register, Consumer<Frame> delivery) {
+        if (!isEnabled()) {
+            return register.getAsBoolean();
+        }
+
+        privateChannelsLock.lock();
+        try {
+            List<Map.Entry<PrivateChannel, Channel>> userChannels = new ArrayList<>();
+            for (Map.Entry<PrivateChannel, Channel> entry : privateChannels.entrySet()) {
+                if (isResumed && entry.getKey().includes(userId)) {
+                    userChannels.add(entry);
+                }
+            }
+
+            Map<String, Channel> userRooms = new LinkedHashMap<>();
+            for (String roomId : roomIds) {
+                userRooms.put(roomId, getRoomChannel(roomId));
+            }
+            List<Channel> locks = new ArrayList<>();
+            for (Map.Entry<PrivateChannel, Channel> entry : userChannels) {
+                locks.add(entry.getValue());
+            }
+            locks.addAll(userRooms.values());
+
+            groupChannel.lock.lock();
+            int locked = 0;
+            try {
+                for (; locked < locks.size(); locked++) {
+                    locks.get(locked).lock.lock();
+                }
+                if (!register.getAsBoolean()) {
+                    return false;
+                }
+
+                List<Frame> frames = new ArrayList<>();
+                groupChannel.copyTo(frames, lastSequences.getOrDefault(GROUP_ID, 0L));
+                for (Map.Entry<PrivateChannel, Channel> entry : userChannels) {
+                    String otherUserId = entry.getKey().otherUserId(userId);
+                    entry.getValue().copyTo(frames, lastSequences.getOrDefault(otherUserId, 0L));
+                }
+                for (Map.Entry<String, Channel> entry : userRooms.entrySet()) {
+                    entry.getValue().copyTo(frames, lastSequences.getOrDefault(entry.getKey(), 0L));
+                }
+
+                if (!frames.isEmpty()) {
+                    delivery.accept(Frame.batch(frames.toArray(new Frame[0])));
+                }
+                return true;
+            } finally {
+                for (int i = locked - 1; i >= 0; i--) {
+                    locks.get(i).lock.unlock();
+                }
+                groupChannel.lock.unlock();
+            }
+        } finally {
+            privateChannelsLock.unlock();
+        }
+    }
+
+    /**
+     * Adds a user to a room and hands the room's messages it has not received to the delivery as one frame, while
+     * the room's channel is locked, so every message of the room reaches the user once and in order
+     * 
+     * @param userId       Id of the user
+     * @param roomId       Id of the room
+     * @param lastSequence Last sequence of the room the user received, 0 to send all
+     * @param register     Adds the user to the room (and queues anything the client needs before the messages),
+     *                     returns false if the user was rejected
+     * @param delivery     Queues the frame for the user, must not block. Not called if there are no messages
+     * @return Result of the registration
+     */
+    public boolean attachRoom(String userId, String roomId, long lastSequence, BooleanSupplier register,
+            Consumer<Frame> delivery) {
+        Channel channel = getRoomChannel(roomId);
+        channel.lock.lock();
+        try {
+            if (!register.getAsBoolean()) {
+                return false;
+            }
+
+            List<Frame> frames = new ArrayList<>();
+            channel.copyTo(frames, lastSequence);
+            if (!frames.isEmpty()) {
+                delivery.accept(Frame.batch(frames.toArray(new Frame[0])));
+            }
+            return true;
+        } finally {
+            channel.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the private chats of a user whose session ended, the next user with the id does not get them
+     * 
+     * @param userId Id of the user
+     */
+    public void removePrivateChannels(String userId) {
+        privateChannelsLock.lock();
+        try {
+            privateChannels.keySet().removeIf(channel -> channel.includes(userId));
+        } finally {
+            privateChannelsLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the messages of a room that was removed
+     * 
+     * @param roomId Id of the room
+     */
+    public void removeRoom(String roomId) {
+        roomChannels.remove(roomId);
+    }
+
+    /**
+     * Returns every kept message, each channel oldest first, e.g. to send the history to a standby server
+     * 
+     * @return Frames of the chat messages
+     */
+    public List<Frame> getAllMessages() {
+        List<Frame> frames = new ArrayList<>();
+        List<Channel> channels = new ArrayList<>();
+        channels.add(groupChannel);
+        channels.addAll(roomChannels.values());
+        privateChannelsLock.lock();
+        try {
+            channels.addAll(privateChannels.values());
+        } finally {
+            privateChannelsLock.unlock();
+        }
+
+        for (Channel channel : channels) {
+            channel.lock.lock();
+            try {
+                channel.copyTo(frames, 0);
+            } finally {
+                channel.lock.unlock();
+            }
+        }
+        return frames;
+    }
+
+    private Channel getChannel(String sender, String recipient) {
+        if (recipient.equals(GROUP_ID)) {
+            return groupChannel;
+        }
+        if (RoomManager.isRoomId(recipient)) {
+            return getRoomChannel(recipient);
+        }
+
+        privateChannelsLock.lock();
+        try {
+            return privateChannels.computeIfAbsent(PrivateChannel.of(sender, recipient), key -> new Channel());
+        } finally {
+            privateChannelsLock.unlock();
+        }
+    }
+
+    private Channel getRoomChannel(String roomId) {
+        return roomChannels.computeIfAbsent(roomId, key -> new Channel());
+    }
+
+    private static int getSize(String sender, String recipient, String content) {
+        return MESSAGE_OVERHEAD_BYTES + sender.length() + recipient.length() + content.length();
+    }
+
+    /**
+     * Ring buffer of one channel, its lock also orders the channel's deliveries
+     */
+    private class Channel {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Frame[] frames = new Frame[maxMessages];
+        private final long[] sequences = new long[maxMessages];
+        private final int[] sizes = new int[maxMessages];
+        private int oldest = 0;
+        private int count = 0;
+        private long bytes = 0;
+        private long lastSequence = 0; // Of the last message added, even if it was not kept
+
+        /**
+         * Called with the lock held
+         */
+        void add(Frame frame, long sequence, int size) {
+            lastSequence = sequence;
+            if (!isEnabled() || size > maxBytes) {
+                return; // No history kept, or would push out the whole channel
+            }
+
+            while (count == maxMessages || bytes + size > maxBytes) {
+                bytes -= sizes[oldest];
+                frames[oldest] = null;
+                oldest = (oldest + 1) % maxMessages;
+                count--;
+            }
+
+            int next = (oldest + count) % maxMessages;
+            frames[next] = frame;
+            sequences[next] = sequence;
+            sizes[next] = size;
+            bytes += size;
+            count++;
+        }
+
+        /**
+         * Called with the lock held
+         */
+        void copyTo(List<Frame> output, long afterSequence) {
+            for (int i = 0; i < count; i++) {
+                int index = (oldest + i) % maxMessages;
+                if (sequences[index] > afterSequence) {
+                    output.add(frames[index]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package server.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.model.Message;
+
+/**
+ * Asynchronous stage in front of the MessageLog, so routing a message never waits for the disk.
+ * Messages are queued (bounded, dropped from the log when full) and one thread appends them in batches, forcing
+ * the log to disk at most once per fsync interval (group commit)
+ */
+public class MessageJournal implements Closeable {
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long IDLE_POLL_MS = 100; // How often an idle writer checks for close
+    private final MessageLog log;
+    private final BlockingQueue<Message> queue;
+    private final long fsyncIntervalMs;
+    private final Thread writer;
+    private final LongAdder writtenCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder syncCount = new LongAdder();
+    private volatile boolean closed = false;
+
+    /**
+     * @param log             Log the messages are appended to, owned (and closed) by the journal
+     * @param capacity        Messages that can wait to be written
+     * @param fsyncIntervalMs Longest time a written message waits to be forced to disk, 0 forces every batch
+     */
+    public MessageJournal(MessageLog log, int capacity, long fsyncIntervalMs) {
+        this.log = log;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.fsyncIntervalMs = Math.max(0, fsyncIntervalMs);
+        this.writer = Thread.ofPlatform().name("message-journal").daemon().start(this::writeMessages);
+    }
+
+    public MessageLog getLog() {
+        return log;
+    }
+
+    /**
+     * Queues a message to be appended, never blocks
+     * 
+     * @param message Chat message
+     * @return False if the journal is full or closed and the message is not logged
+     */
+    public boolean offer(Message message) {
+        if (closed || !queue.offer(message)) {
+            droppedCount.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    /**
+     * Writes the queued messages, forces them to disk and closes the log
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private void writeMessages() {
+        List<Message> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        long lastSync = System.nanoTime();
+        boolean unsynced = false;
+
+        while (true) {
+            try {
+                long waitMs = unsynced
+                        ? Math.max(0, fsyncIntervalMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSync))
+                        : IDLE_POLL_MS;
+                Message first = queue.poll(waitMs, TimeUnit.MILLISECONDS);
+
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    for (Message message : batch) {
+                        log.append(message);
+                    }
+                    log.writePending();
+                    writtenCount.add(batch.size());
+                    batch.clear();
+                    unsynced = true;
+                } else if (closed && queue.isEmpty()) {
+                    return; // close forces the rest
+                }
+
+                if (unsynced && System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs)) {
+                    log.flush();
+                    syncCount.increment();
+                    lastSync = System.nanoTime();
+                    unsynced = false;
+                }
+            } catch (IOException e) {
+                e.printStackTrace(); // Keep routing messages, the failed batch is lost from the log
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
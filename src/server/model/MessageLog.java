@@ -0,0 +1,691 @@
+package server.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import common.model.Message;
+import common.util.BinaryFormatter;
+
+/**
+ * Append-only log of chat messages on disk, so the history survives a server restart.
+ * Messages are appended to segment files (named after the offset of their first message), each record is:
+ * int body length | int CRC32 of the body | BinaryFormatter frame body.
+ * A segment is sealed when it reaches the size or age limit, its index (a summary of how many messages each
+ * channel has in it, then the position and channel of every record) is then written next to it and its file is
+ * closed, so on startup only the summaries of sealed segments are read and only the last segment has to be scanned,
+ * a torn record at its end (from a crash mid-write) is cut off. Only the active segment is kept open with its record
+ * positions in memory, a read opens the segments it needs and looks the records up in their index files. Each
+ * channel (the group, a room or a private pair) keeps a sparse index in memory: the segments it has messages in and
+ * how many. The oldest sealed segments are deleted beyond the retained segment count. Not thread-safe for writers
+ * (the MessageJournal is the only one), reads may run at any time (one that needs a segment deleted meanwhile fails)
+ */
+public class MessageLog implements Closeable {
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".index";
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String GROUP_ID = "Group";
+    private static final int INDEX_MAGIC = 0x4D4C4958; // Index files without it are from an older format
+    private static final int MAX_CHANNEL_LENGTH = 0xFFFF / 3; // Characters writeUTF always fits
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMs;
+    private final int maxSegments;
+    private final ReentrantLock lock = new ReentrantLock(); // Guards the segments and the channel indexes
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>(); // Key: offset of the first record
+    private final Map<String, ChannelIndex> channelIndexes = new HashMap<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE); // Records not written yet
+    private final CRC32 crc = new CRC32();
+    private Segment activeSegment;
+    private long nextOffset;
+
+    /**
+     * Opens the log in the directory (created if missing) and recovers it, keeping every segment
+     * 
+     * @param directory       Directory of the segment files
+     * @param maxSegmentBytes Size a segment is sealed at
+     * @param maxSegmentAgeMs Age a segment is sealed at
+     * @throws IOException If the directory or a segment cannot be read
+     */
+    public MessageLog(Path directory, long maxSegmentBytes, long maxSegmentAgeMs) throws IOException {
+        this(directory, maxSegmentBytes, maxSegmentAgeMs, 0);
+    }
+
+    /**
+     * Opens the log in the directory (created if missing), deletes the oldest segments beyond the retained count
+     * without reading them and recovers the rest
+     * 
+     * @param maxSegments Segments kept (the active one included), the oldest are deleted when one is sealed.
+     *                    0 to keep every segment
+     * @throws IOException If the directory or a segment cannot be read
+     */
+    public MessageLog(Path directory, long maxSegmentBytes, long maxSegmentAgeMs, int maxSegments)
+            throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = Math.min(Math.max(maxSegmentBytes, RECORD_HEADER_LENGTH), Integer.MAX_VALUE);
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.maxSegments = Math.max(maxSegments, 0);
+        Files.createDirectories(directory);
+
+        List<Path> segmentFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            segmentFiles = files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+                    .toList();
+        }
+        if (this.maxSegments > 0 && segmentFiles.size() > this.maxSegments) { // Not loaded, deleted right away
+            for (Path file : segmentFiles.subList(0, segmentFiles.size() - this.maxSegments)) {
+                Files.deleteIfExists(indexFileOf(file));
+                Files.deleteIfExists(file);
+            }
+            segmentFiles = segmentFiles.subList(segmentFiles.size() - this.maxSegments, segmentFiles.size());
+        }
+
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            Path file = segmentFiles.get(i);
+            String name = file.getFileName().toString();
+            Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())),
+                    file);
+            boolean isLast = i == segmentFiles.size() - 1;
+
+            if (isLast) {
+                segment.open();
+                scan(segment);
+            } else if (!loadIndex(segment)) { // A sealed segment without an index was not sealed cleanly
+                segment.open();
+                scan(segment);
+                writeIndex(segment);
+                segment.seal();
+            }
+            segments.put(segment.baseOffset, segment);
+            nextOffset = segment.baseOffset + segment.count;
+        }
+
+        activeSegment = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+    }
+
+    /**
+     * @param sender    Id of the user who sent the message
+     * @param recipient Id of the user, room or "Group"
+     * @return Channel of the message, the group, the room or the pair of users (same for both directions)
+     */
+    public static String channelOf(String sender, String recipient) {
+        if (recipient.equals(GROUP_ID) || RoomManager.isRoomId(recipient)) {
+            return recipient;
+        }
+        // Ids cannot contain line breaks (the text protocol is one line per message)
+        return sender.compareTo(recipient) <= 0 ? sender + "\n" + recipient : recipient + "\n" + sender;
+    }
+
+    /**
+     * @param channel Channel from channelOf
+     * @return True if the channel is a pair of users
+     */
+    public static boolean isPrivateChannel(String channel) {
+        return channel.indexOf('\n') >= 0;
+    }
+
+    /**
+     * Appends a message, it is buffered until writePending or flush is called (or the buffer is full). A message of
+     * a channel longer than its index can hold is not logged
+     * 
+     * @param message Chat message
+     * @return Offset of the message in the log, -1 if it was not logged
+     * @throws IOException If writing fails
+     */
+    public long append(Message message) throws IOException {
+        String channel = channelOf(message.getSender(), message.getRecipient());
+        if (channel.length() > MAX_CHANNEL_LENGTH) {
+            System.err.println("Not logging a message of a channel of %d characters".formatted(channel.length()));
+            return -1;
+        }
+
+        ByteBuffer frame = BinaryFormatter.encode(message);
+        int frameStart = frame.arrayOffset() + frame.position();
+        int bodyLength = BinaryFormatter.readFrameLength(frame.array(), frameStart, frame.remaining());
+        int bodyStart = frameStart + BinaryFormatter.prefixLength(bodyLength);
+        int recordLength = RECORD_HEADER_LENGTH + bodyLength;
+
+        lock.lock();
+        try {
+            crc.reset();
+            crc.update(frame.array(), bodyStart, bodyLength);
+            if (shouldRoll(recordLength)) {
+                roll();
+            }
+            if (writeBuffer.remaining() < recordLength) {
+                writeBufferedRecords();
+            }
+
+            ChannelIndex channelIndex = getChannelIndex(channel);
+            long position = activeSegment.size;
+            if (recordLength > writeBuffer.capacity()) { // Larger than the buffer, written on its own
+                ByteBuffer record = ByteBuffer.allocate(recordLength);
+                record.putInt(bodyLength).putInt((int) crc.getValue()).put(frame.array(), bodyStart, bodyLength);
+                writeFully(activeSegment.channel, record.flip());
+            } else {
+                writeBuffer.putInt(bodyLength).putInt((int) crc.getValue()).put(frame.array(), bodyStart, bodyLength);
+            }
+
+            activeSegment.size += recordLength;
+            activeSegment.add((int) position, channelIndex);
+            channelIndex.add(activeSegment.baseOffset);
+            return nextOffset++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered messages to the active segment (to the OS, not forced to disk)
+     * 
+     * @throws IOException If writing fails
+     */
+    public void writePending() throws IOException {
+        lock.lock();
+        try {
+            writeBufferedRecords();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered messages and forces the active segment to disk
+     * 
+     * @throws IOException If writing fails
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            writeBufferedRecords();
+            activeSegment.channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads messages of one channel in the order they were appended
+     * 
+     * @param channel   Channel from channelOf
+     * @param fromIndex Position within the channel (0 is its first message)
+     * @param maxCount  Most messages returned
+     * @return Messages, empty if none from that position
+     * @throws IOException If reading fails or a record is corrupt
+     */
+    public List<Message> read(String channel, long fromIndex, int maxCount) throws IOException {
+        List<SegmentRead> segmentReads = new ArrayList<>();
+
+        lock.lock();
+        try {
+            writeBufferedRecords(); // Readers see every appended message
+            ChannelIndex channelIndex = channelIndexes.get(channel);
+            if (channelIndex == null || fromIndex >= channelIndex.count || maxCount <= 0) {
+                return List.of();
+            }
+
+            long index = fromIndex;
+            long remaining = Math.min(maxCount, channelIndex.count - fromIndex);
+            for (int entry = channelIndex.find(fromIndex); remaining > 0; entry++) {
+                Segment segment = segments.get(channelIndex.segmentOffsets[entry]);
+                int skip = (int) (index - channelIndex.firstIndexes[entry]);
+                int take = (int) Math.min(remaining, channelIndex.countIn(entry) - skip);
+                // Records of the active segment are looked up now, it may be sealed before they are read
+                int[] positions = segment == activeSegment ? segment.positionsOf(channelIndex, skip, take) : null;
+                segmentReads.add(new SegmentRead(segment.path, positions, skip, take));
+                index += take;
+                remaining -= take;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        BinaryFormatter formatter = new BinaryFormatter();
+        List<Message> messages = new ArrayList<>();
+        for (SegmentRead segmentRead : segmentReads) { // Own read-only handles, no lock needed
+            int[] positions = segmentRead.positions() != null ? segmentRead.positions()
+                    : readPositions(segmentRead.path(), channel, segmentRead.skip(), segmentRead.take());
+            try (FileChannel file = FileChannel.open(segmentRead.path(), StandardOpenOption.READ)) {
+                for (int position : positions) {
+                    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+                    readFully(file, header, position);
+                    ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+                    readFully(file, body, position + RECORD_HEADER_LENGTH);
+                    messages.add(formatter.decode(body.array(), 0, body.capacity()));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Records of one segment a read needs
+     * 
+     * @param positions Positions of the records, null to look them up in the segment's index file
+     * @param skip      Records of the channel in the segment before the first one read
+     * @param take      Records of the channel read
+     */
+    private record SegmentRead(Path path, int[] positions, int skip, int take) {
+    }
+
+    /**
+     * @return Channels that have messages in the log
+     */
+    public Set<String> getChannels() {
+        lock.lock();
+        try {
+            return Set.copyOf(channelIndexes.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param channel Channel from channelOf
+     * @return Number of messages of the channel in the log
+     */
+    public long getMessageCount(String channel) {
+        lock.lock();
+        try {
+            ChannelIndex channelIndex = channelIndexes.get(channel);
+            return channelIndex == null ? 0 : channelIndex.count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of segment files
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            flush();
+            activeSegment.channel.close(); // Sealed segments are closed already
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean shouldRoll(int recordLength) {
+        if (activeSegment.count == 0) {
+            return false; // Every segment holds at least one message
+        }
+        return activeSegment.size + recordLength > maxSegmentBytes
+                || System.currentTimeMillis() - activeSegment.createdAt >= maxSegmentAgeMs;
+    }
+
+    /**
+     * Seals the active segment (forced to disk, index written), starts the next one and deletes the oldest segments
+     * beyond the retained count
+     */
+    private void roll() throws IOException {
+        writeBufferedRecords();
+        activeSegment.channel.force(false);
+        writeIndex(activeSegment);
+        activeSegment.seal();
+        activeSegment = createSegment(nextOffset);
+        deleteOldSegments();
+    }
+
+    /**
+     * Deletes the oldest sealed segments (index file first, a segment without one is rescanned) and drops their
+     * messages from the channel indexes
+     */
+    private void deleteOldSegments() throws IOException {
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            Files.deleteIfExists(indexFileOf(oldest.path));
+            Files.deleteIfExists(oldest.path);
+
+            channelIndexes.values().removeIf(channelIndex -> channelIndex.removeSegment(oldest.baseOffset));
+        }
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+        Segment segment = new Segment(baseOffset, directory.resolve("%020d%s".formatted(baseOffset, SEGMENT_SUFFIX)));
+        segment.open();
+        segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    private void writeBufferedRecords() throws IOException {
+        if (writeBuffer.position() > 0) {
+            writeFully(activeSegment.channel, writeBuffer.flip());
+            writeBuffer.clear();
+        }
+    }
+
+    private ChannelIndex getChannelIndex(String channel) {
+        return channelIndexes.computeIfAbsent(channel, ChannelIndex::new);
+    }
+
+    /**
+     * Index file of a sealed segment: int magic | int record count | int channel count | per channel: UTF channel,
+     * int record count | per record: int position, int channel number (order of the channels above)
+     */
+    private void writeIndex(Segment segment) throws IOException {
+        Path indexFile = indexFileOf(segment.path);
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        Map<ChannelIndex, Integer> channelNumbers = new LinkedHashMap<>();
+        Map<ChannelIndex, Integer> channelCounts = new HashMap<>();
+        for (int i = 0; i < segment.count; i++) {
+            channelNumbers.putIfAbsent(segment.channels[i], channelNumbers.size());
+            channelCounts.merge(segment.channels[i], 1, Integer::sum);
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(segment.count);
+            output.writeInt(channelNumbers.size());
+            for (ChannelIndex channelIndex : channelNumbers.keySet()) {
+                output.writeUTF(channelIndex.name);
+                output.writeInt(channelCounts.get(channelIndex));
+            }
+            for (int i = 0; i < segment.count; i++) {
+                output.writeInt(segment.positions[i]);
+                output.writeInt(channelNumbers.get(segment.channels[i]));
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Counts the messages of each channel in a sealed segment from the summary at the start of its index, the record
+     * positions after it stay on disk and are not read
+     * 
+     * @return True if the segment's index was loaded, false if it has none, it is incomplete or of an older format
+     */
+    private boolean loadIndex(Segment segment) throws IOException {
+        Path indexFile = indexFileOf(segment.path);
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (input.readInt() != INDEX_MAGIC) {
+                return false;
+            }
+            int count = input.readInt();
+            int channelCount = input.readInt();
+            Map<String, Integer> channelCounts = new LinkedHashMap<>();
+            for (int i = 0; i < channelCount; i++) {
+                channelCounts.put(input.readUTF(), input.readInt());
+            }
+
+            for (Map.Entry<String, Integer> entry : channelCounts.entrySet()) {
+                getChannelIndex(entry.getKey()).add(segment.baseOffset, entry.getValue());
+            }
+            segment.count = count;
+            segment.size = Files.size(segment.path);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param segmentFile Sealed segment
+     * @return Positions of the records of the channel, from the index file of the segment
+     */
+    private static int[] readPositions(Path segmentFile, String channel, int skip, int take) throws IOException {
+        int[] positions = new int[take];
+        int found = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(indexFileOf(segmentFile))))) {
+            input.readInt(); // Magic, checked when the log was opened
+            int count = input.readInt();
+            int channelCount = input.readInt();
+            int channelNumber = -1;
+            for (int i = 0; i < channelCount; i++) {
+                if (input.readUTF().equals(channel)) {
+                    channelNumber = i;
+                }
+                input.readInt();
+            }
+
+            for (int i = 0; i < count && found < take && channelNumber >= 0; i++) {
+                int position = input.readInt();
+                if (input.readInt() == channelNumber && skip-- <= 0) {
+                    positions[found++] = position;
+                }
+            }
+        }
+        if (found < take) {
+            throw new EOFException("Index of %s is missing records".formatted(segmentFile));
+        }
+        return positions;
+    }
+
+    /**
+     * Reads every record of the segment to rebuild its index, the segment is cut at the first incomplete or
+     * corrupt record
+     */
+    private void scan(Segment segment) throws IOException {
+        BinaryFormatter formatter = new BinaryFormatter();
+        CRC32 recordCrc = new CRC32();
+        long fileSize = segment.channel.size();
+        long position = 0;
+        byte[] body = new byte[256];
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(segment.channel.position(0)), WRITE_BUFFER_SIZE));
+        while (fileSize - position >= RECORD_HEADER_LENGTH) {
+            int bodyLength = input.readInt();
+            int expectedCrc = input.readInt();
+            if (bodyLength <= 0 || bodyLength > BinaryFormatter.MAX_FRAME_LENGTH
+                    || fileSize - position - RECORD_HEADER_LENGTH < bodyLength) {
+                break;
+            }
+
+            if (body.length < bodyLength) {
+                body = new byte[Math.max(bodyLength, body.length * 2)];
+            }
+            input.readFully(body, 0, bodyLength);
+            recordCrc.reset();
+            recordCrc.update(body, 0, bodyLength);
+            if ((int) recordCrc.getValue() != expectedCrc) {
+                break;
+            }
+
+            Message message = formatter.decode(body, 0, bodyLength);
+            ChannelIndex channelIndex = getChannelIndex(channelOf(message.getSender(), message.getRecipient()));
+            segment.add((int) position, channelIndex);
+            channelIndex.add(segment.baseOffset);
+            position += RECORD_HEADER_LENGTH + bodyLength;
+        }
+
+        if (position < fileSize) {
+            System.err.println("Truncated %d bytes at the end of %s".formatted(fileSize - position, segment.path));
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+        segment.channel.position(position);
+    }
+
+    private static Path indexFileOf(Path segmentFile) {
+        String name = segmentFile.getFileName().toString();
+        return segmentFile.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Record past the end of the segment");
+            }
+        }
+    }
+
+    /**
+     * One segment file, while it is active also its open file and the position and channel of each of its records
+     */
+    private static class Segment {
+        private final long baseOffset;
+        private final Path path;
+        private final long createdAt;
+        private FileChannel channel; // Null once sealed
+        private long size;
+        private int[] positions = new int[64]; // Null once sealed, the index file has them
+        private ChannelIndex[] channels = new ChannelIndex[64];
+        private int count;
+
+        Segment(long baseOffset, Path path) {
+            this.baseOffset = baseOffset;
+            this.path = path;
+            this.createdAt = System.currentTimeMillis(); // A recovered segment gets a full age again
+        }
+
+        void open() throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+
+        /**
+         * Closes the file and drops the record positions, called once the index is written
+         */
+        void seal() throws IOException {
+            channel.close();
+            channel = null;
+            positions = null;
+            channels = null;
+        }
+
+        /**
+         * @return Positions of the records of the channel in the active segment
+         */
+        int[] positionsOf(ChannelIndex channelIndex, int skip, int take) {
+            int[] found = new int[take];
+            int foundCount = 0;
+            for (int i = 0; i < count && foundCount < take; i++) {
+                if (channels[i] == channelIndex && skip-- <= 0) {
+                    found[foundCount++] = positions[i];
+                }
+            }
+            return found;
+        }
+
+        void add(int position, ChannelIndex channelIndex) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                channels = Arrays.copyOf(channels, count * 2);
+            }
+            positions[count] = position;
+            channels[count] = channelIndex;
+            count++;
+        }
+    }
+
+    /**
+     * Sparse index of one channel: one entry per segment the channel has messages in, in append order
+     */
+    private static class ChannelIndex {
+        private final String name;
+        private long count; // Messages of the channel
+        private long[] segmentOffsets = new long[4]; // Base offset of the segment of each entry
+        private long[] firstIndexes = new long[4]; // Position within the channel of the entry's first message
+        private int entryCount;
+
+        ChannelIndex(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param segmentOffset Base offset of the segment the channel's next message is in
+         */
+        void add(long segmentOffset) {
+            add(segmentOffset, 1);
+        }
+
+        /**
+         * @param segmentOffset Base offset of the segment the channel's next messages are in
+         * @param messageCount  Number of the messages
+         */
+        void add(long segmentOffset, int messageCount) {
+            if (entryCount == 0 || segmentOffsets[entryCount - 1] != segmentOffset) {
+                if (entryCount == segmentOffsets.length) {
+                    segmentOffsets = Arrays.copyOf(segmentOffsets, entryCount * 2);
+                    firstIndexes = Arrays.copyOf(firstIndexes, entryCount * 2);
+                }
+                segmentOffsets[entryCount] = segmentOffset;
+                firstIndexes[entryCount] = count;
+                entryCount++;
+            }
+            count += messageCount;
+        }
+
+        /**
+         * Drops the messages in a deleted segment, positions within the channel then start at its next message
+         * 
+         * @param segmentOffset Base offset of the oldest segment
+         * @return True if the channel has no messages left
+         */
+        boolean removeSegment(long segmentOffset) {
+            if (entryCount > 0 && segmentOffsets[0] == segmentOffset) {
+                long removed = countIn(0);
+                entryCount--;
+                System.arraycopy(segmentOffsets, 1, segmentOffsets, 0, entryCount);
+                System.arraycopy(firstIndexes, 1, firstIndexes, 0, entryCount);
+                for (int i = 0; i < entryCount; i++) {
+                    firstIndexes[i] -= removed;
+                }
+                count -= removed;
+            }
+            return count == 0;
+        }
+
+        /**
+         * @param index Position within the channel
+         * @return Entry of the segment the message at the position is in
+         */
+        int find(long index) {
+            int found = Arrays.binarySearch(firstIndexes, 0, entryCount, index);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        long countIn(int entry) {
+            return (entry + 1 < entryCount ? firstIndexes[entry + 1] : count) - firstIndexes[entry];
+        }
+    }
+}
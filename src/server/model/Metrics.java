@@ -0,0 +1,230 @@
+package server.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import common.model.Message;
+
+/**
+ * Counters and latency histograms of one server, written out in the Prometheus text format. The hot paths (every
+ * received message, every written batch, every recipient of a broadcast) only increment striped counters, so
+ * recording does not contend between connections. Counters kept elsewhere (e.g. by the rate limiter or the presence
+ * controller) are registered once and read when the metrics are written
+ */
+public class Metrics {
+    private static final String PREFIX = "chat_";
+    private final LongAdder[] receivedByType = new LongAdder[Message.Type.values().length];
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+    private final LatencyHistogram routingTime = new LatencyHistogram();
+    private final LatencyHistogram recipientWriteTime = new LatencyHistogram();
+    private final List<Sampled> sampled = new CopyOnWriteArrayList<>();
+
+    /**
+     * Value kept elsewhere, read when the metrics are written
+     * 
+     * @param values Values by label value, a single unlabelled value if the label is null
+     */
+    private record Sampled(String name, String help, String type, String label, Supplier<Map<String, Long>> values) {
+    }
+
+    public Metrics() {
+        for (int i = 0; i < receivedByType.length; i++) {
+            receivedByType[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param type Type of a message received from a joined client
+     */
+    public void countReceived(Message.Type type) {
+        receivedByType[type.ordinal()].increment();
+    }
+
+    /**
+     * @param frames Frames written to a client in one write
+     * @param bytes  Bytes of the frames
+     */
+    public void countSent(int frames, long bytes) {
+        framesSent.add(frames);
+        bytesSent.add(bytes);
+    }
+
+    public void countConnectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void countConnectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public void countJoin() {
+        joins.increment();
+    }
+
+    public void countLeave() {
+        leaves.increment();
+    }
+
+    /**
+     * @return Time to decode a received message from its bytes
+     */
+    public LatencyHistogram getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * @return Time to handle a received message, from dispatch until every recipient has it queued
+     */
+    public LatencyHistogram getRoutingTime() {
+        return routingTime;
+    }
+
+    /**
+     * @return Time to hand a frame to one recipient (queue it and wake its writer)
+     */
+    public LatencyHistogram getRecipientWriteTime() {
+        return recipientWriteTime;
+    }
+
+    public long getReceivedCount(Message.Type type) {
+        return receivedByType[type.ordinal()].sum();
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    public long getJoinCount() {
+        return joins.sum();
+    }
+
+    public long getLeaveCount() {
+        return leaves.sum();
+    }
+
+    /**
+     * Registers a counter kept elsewhere
+     * 
+     * @param name  Name without the chat_ prefix, ending in _total
+     * @param help  Description
+     * @param value Reads the current value
+     */
+    public void registerCounter(String name, String help, LongSupplier value) {
+        sampled.add(new Sampled(name, help, "counter", null, () -> Map.of("", value.getAsLong())));
+    }
+
+    /**
+     * Registers a gauge kept elsewhere
+     * 
+     * @param name  Name without the chat_ prefix
+     * @param help  Description
+     * @param value Reads the current value
+     */
+    public void registerGauge(String name, String help, LongSupplier value) {
+        sampled.add(new Sampled(name, help, "gauge", null, () -> Map.of("", value.getAsLong())));
+    }
+
+    /**
+     * Registers a counter kept elsewhere with one value per label value (e.g. per user)
+     * 
+     * @param name   Name without the chat_ prefix, ending in _total
+     * @param help   Description
+     * @param label  Name of the label
+     * @param values Reads the current values by label value
+     */
+    public void registerCounters(String name, String help, String label, Supplier<Map<String, Long>> values) {
+        sampled.add(new Sampled(name, help, "counter", label, values));
+    }
+
+    /**
+     * @return Every metric in the Prometheus text exposition format (version 0.0.4)
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(16384);
+
+        writeHeader(out, "messages_received_total", "Messages received from joined clients", "counter");
+        for (Message.Type type : Message.Type.values()) {
+            long count = receivedByType[type.ordinal()].sum();
+            if (count > 0) {
+                writeValue(out, "messages_received_total", "type", type.name(), count);
+            }
+        }
+        writeSingle(out, "frames_sent_total", "Frames written to clients", "counter", framesSent.sum());
+        writeSingle(out, "bytes_sent_total", "Bytes written to clients", "counter", bytesSent.sum());
+        writeSingle(out, "connections_active", "Open client connections", "gauge", getActiveConnections());
+        writeSingle(out, "connections_opened_total", "Client connections accepted", "counter",
+                connectionsOpened.sum());
+        writeSingle(out, "joins_total", "Users who joined", "counter", joins.sum());
+        writeSingle(out, "leaves_total", "Users who left", "counter", leaves.sum());
+        writeHistogram(out, "parse_duration_seconds", "Time to decode a received message", parseTime);
+        writeHistogram(out, "routing_duration_seconds", "Time to handle a received message", routingTime);
+        writeHistogram(out, "recipient_write_duration_seconds",
+                "Time to hand a frame to one recipient's outbound queue", recipientWriteTime);
+
+        for (Sampled metric : sampled) {
+            writeHeader(out, metric.name(), metric.help(), metric.type());
+            for (Map.Entry<String, Long> value : metric.values().get().entrySet()) {
+                writeValue(out, metric.name(), metric.label(), value.getKey(), value.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSingle(StringBuilder out, String name, String help, String type, long value) {
+        writeHeader(out, name, help, type);
+        writeValue(out, name, null, null, value);
+    }
+
+    private static void writeValue(StringBuilder out, String name, String label, String labelValue, long value) {
+        out.append(PREFIX).append(name);
+        if (label != null) {
+            out.append('{').append(label).append("=\"").append(escape(labelValue)).append("\"}");
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes the cumulative buckets of a histogram, every bucket is written so each scrape has the same bounds
+     */
+    private static void writeHistogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        writeHeader(out, name, help, "histogram");
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            long bound = LatencyHistogram.upperBound(i);
+            String le = bound == Long.MAX_VALUE ? "+Inf" : Double.toString(bound / 1e9);
+            out.append(PREFIX).append(name).append("_bucket{le=\"").append(le).append("\"} ").append(cumulative)
+                    .append('\n');
+        }
+        out.append(PREFIX).append(name).append("_sum ").append(histogram.getSumNanos() / 1e9).append('\n');
+        out.append(PREFIX).append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
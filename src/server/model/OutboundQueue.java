@@ -0,0 +1,165 @@
+package server.model;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Bounded queue of frames waiting to be written to one client, so a slow client only fills its own queue rather than
+ * blocking the thread that is broadcasting. When the queue is full the overflow policy decides what is lost. Chat
+ * messages are never dropped (a client cannot tell a sequence number is missing): if nothing else is left to drop
+ * the client is disconnected and resumes its session from the last sequence it received
+ */
+public class OutboundQueue {
+    public enum OverflowPolicy {
+        DROP_OLDEST, // Drop the oldest queued frame that is not a chat message
+        DROP_PRESENCE, // Drop presence updates first, then the oldest frame that is not a chat message
+        DISCONNECT // Disconnect the client
+    }
+
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final LongAdder droppedTotal; // Shared by the queues of every client
+    private boolean closed = false;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, new LongAdder());
+    }
+
+    /**
+     * @param droppedTotal Counts the drops of this queue too, kept after the client is gone
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, LongAdder droppedTotal) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.droppedTotal = droppedTotal;
+    }
+
+    /**
+     * Adds a frame, applying the overflow policy if the queue is full
+     * 
+     * @param frame Frame to be written to the client
+     * @return True: frame queued or dropped by the policy, False: client should be disconnected
+     */
+    public boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true; // Client is leaving, nothing more will be written
+            }
+
+            if (frames.size() >= capacity) {
+                droppedCount.incrementAndGet();
+                droppedTotal.increment();
+                if (policy == OverflowPolicy.DISCONNECT) {
+                    return false;
+                }
+                if (!dropForOverflow(frame)) {
+                    return !frame.isChat(); // The new frame itself is dropped, a chat message only by disconnecting
+                }
+            }
+
+            frames.addLast(frame);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes room for a new frame (call with the lock held)
+     * 
+     * @return True: room was made, False: the new frame should be dropped instead
+     */
+    private boolean dropForOverflow(Frame frame) {
+        if (policy == OverflowPolicy.DROP_PRESENCE) {
+            if (removeFirst(Frame::isPresence)) {
+                return true;
+            }
+            if (frame.isPresence()) {
+                return false; // No presence update is queued, the new one is lost instead
+            }
+        }
+        return removeFirst(queued -> !queued.isChat());
+    }
+
+    private boolean removeFirst(Predicate<Frame> droppable) {
+        Iterator<Frame> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            if (droppable.test(iterator.next())) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Next frame or null if the queue is empty
+     */
+    public Frame poll() {
+        lock.lock();
+        try {
+            return frames.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next frame, used by a dedicated writer thread
+     * 
+     * @return Next frame or null once the queue is closed and empty
+     * @throws InterruptedException If the writer thread is interrupted
+     */
+    public Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return frames.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting frames, frames already queued can still be taken
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,20 @@
+package server.model;
+
+/**
+ * User connected to another node of the cluster, known from that node's membership updates
+ * 
+ * @param userId        Id of the user
+ * @param nodeId        Id of the node that owns the user's connection
+ * @param joinedAt      When the user joined (milliseconds since the epoch), orders users across nodes
+ * @param status        Status of the user
+ * @param socketAddress Address of the client (ip:port) as seen by its node
+ */
+public record RemoteUser(String userId, String nodeId, long joinedAt, User.Status status, String socketAddress) {
+    /**
+     * @param status New status
+     * @return Copy of the user with the status changed
+     */
+    public RemoteUser withStatus(User.Status status) {
+        return new RemoteUser(userId, nodeId, joinedAt, status, socketAddress);
+    }
+}
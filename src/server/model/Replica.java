@@ -0,0 +1,140 @@
+package server.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.model.Message;
+
+/**
+ * State of a primary server kept by its standby: every user's session, the coordinator and the recent messages.
+ * Updated by the single thread reading the replication link, and handed to the connection controller when the
+ * standby takes over, so users keep their sessions and clients resume as if they had reconnected to the primary
+ */
+public class Replica {
+    private final int maxMessages;
+    private final int maxBytes;
+    private final int maxPrivateChannels;
+    private MessageHistory history;
+    private String coordinatorId;
+    private final Map<String, Session> sessions = new LinkedHashMap<>(); // Join order
+
+    /**
+     * Session of a user of the primary server
+     * 
+     * @param userId        Id of the user
+     * @param joinedAt      When the user joined (milliseconds since the epoch)
+     * @param status        Status of the user
+     * @param socketAddress Address of the client (ip:port) as seen by the primary
+     * @param sessionToken  Token the client resumes its session with
+     */
+    public record Session(String userId, long joinedAt, User.Status status, String socketAddress,
+            String sessionToken) {
+    }
+
+    /**
+     * @param maxMessages        Messages kept per channel
+     * @param maxBytes           Approximate bytes kept per channel
+     * @param maxPrivateChannels Private channels kept
+     */
+    public Replica(int maxMessages, int maxBytes, int maxPrivateChannels) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.maxPrivateChannels = maxPrivateChannels;
+    }
+
+    /**
+     * Starts over from the state the primary sent when the link was opened
+     * 
+     * @param hello REPLICA_HELLO message
+     */
+    public void reset(Message hello) {
+        Map<?, ?> state = (Map<?, ?>) hello.getContent();
+        String epoch = String.valueOf(state.get(Message.EPOCH_OPTION));
+        if (history == null || !history.getEpoch().equals(epoch)) {
+            history = new MessageHistory(maxMessages, maxBytes, maxPrivateChannels, epoch); // Another primary run
+        }
+
+        sessions.clear();
+        String coordinator = String.valueOf(state.get("coordinator"));
+        coordinatorId = coordinator.isEmpty() ? null : coordinator;
+        if (state.get("users") instanceof Map<?, ?> users) {
+            for (Object details : users.values()) {
+                addSession((Map<?, ?>) details);
+            }
+        }
+    }
+
+    /**
+     * Applies one change streamed by the primary: a join, leave or status change (each with the coordinator after
+     * it) or a chat message
+     * 
+     * @param message Replicated message
+     */
+    public void apply(Message message) {
+        switch (message.getType()) {
+            case MESSAGE -> history.record(message);
+            case USER_ADDED -> addSession((Map<?, ?>) message.getContent());
+            case USER_REMOVED -> sessions.remove(String.valueOf(((Map<?, ?>) message.getContent()).get("userId")));
+            case USER_UPDATED -> {
+                Map<?, ?> details = (Map<?, ?>) message.getContent();
+                Session session = sessions.get(String.valueOf(details.get("userId")));
+                if (session != null) {
+                    sessions.put(session.userId(), new Session(session.userId(), session.joinedAt(),
+                            User.Status.valueOf(String.valueOf(details.get("status"))), session.socketAddress(),
+                            session.sessionToken()));
+                }
+            }
+            default -> {
+            }
+        }
+
+        if (message.getContent() instanceof Map<?, ?> details && details.get("coordinator") != null) {
+            String coordinator = String.valueOf(details.get("coordinator"));
+            coordinatorId = coordinator.isEmpty() ? null : coordinator;
+        }
+    }
+
+    private void addSession(Map<?, ?> details) {
+        String userId = String.valueOf(details.get("userId"));
+        sessions.put(userId, new Session(userId, Long.parseLong(String.valueOf(details.get("joined"))),
+                User.Status.valueOf(String.valueOf(details.get("status"))),
+                String.valueOf(details.get("socketAddress")), String.valueOf(details.get("token"))));
+    }
+
+    /**
+     * @return True: the primary's state was received at least once
+     */
+    public boolean isInitialised() {
+        return history != null;
+    }
+
+    /**
+     * @return History with the primary's epoch and sequence numbers
+     */
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public String getCoordinatorId() {
+        return coordinatorId;
+    }
+
+    /**
+     * @return Sessions with the coordinator first, then in join order
+     */
+    public List<Session> getSessions() {
+        List<Session> ordered = new ArrayList<>();
+        Session coordinator = coordinatorId == null ? null : sessions.get(coordinatorId);
+        if (coordinator != null) {
+            ordered.add(coordinator);
+        }
+        for (Session session : sessions.values()) {
+            if (session != coordinator) {
+                ordered.add(session);
+            }
+        }
+        return ordered;
+    }
+}
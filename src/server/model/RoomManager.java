@@ -0,0 +1,170 @@
+package server.model;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named rooms (e.g. "#team") and the users subscribed to each, next to the UserManager.
+ * The members of a room are an array that is copied when someone joins or leaves, so a room message is queued for the
+ * room's members only, looping over the array without a lock. The rooms of each user are indexed too, so a user who
+ * leaves the server is taken out of its rooms without walking every room. A room is removed when its last member
+ * leaves
+ */
+public class RoomManager {
+    public static final String ROOM_PREFIX = "#"; // User ids are alphanumeric, so a room id is never a user id
+    private static final int MAX_ROOM_NAME_LENGTH = 32;
+    private static final User[] NO_MEMBERS = new User[0];
+    private final ConcurrentMap<String, User[]> rooms = new ConcurrentHashMap<>(); // Members in join order
+    private final ConcurrentMap<String, Set<String>> roomsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * @param id Id of a chat (e.g. the recipient of a message)
+     * @return True: "#" followed by 1 to 32 letters and digits
+     */
+    public static boolean isRoomId(String id) {
+        if (id == null || !id.startsWith(ROOM_PREFIX) || id.length() < 2
+                || id.length() > ROOM_PREFIX.length() + MAX_ROOM_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = ROOM_PREFIX.length(); i < id.length(); i++) {
+            if (!Character.isLetterOrDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a room with its creator as the first member
+     * 
+     * @param roomId  Id of the room
+     * @param creator User who created it
+     * @return True: room created, False: a room with the id exists
+     */
+    public boolean createRoom(String roomId, User creator) {
+        if (rooms.putIfAbsent(roomId, new User[] { creator }) != null) {
+            return false;
+        }
+        addUserRoom(creator.getUserId(), roomId);
+        return true;
+    }
+
+    /**
+     * Adds a user to a room, nothing changes if the user is a member already
+     * 
+     * @param roomId Id of the room
+     * @param user   User joining it
+     * @return True: the user is a member, False: no such room
+     */
+    public boolean joinRoom(String roomId, User user) {
+        User[] members = rooms.computeIfPresent(roomId, (key, current) -> {
+            if (indexOf(current, user.getUserId()) >= 0) {
+                return current;
+            }
+            User[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = user;
+            return updated;
+        });
+        if (members == null) {
+            return false;
+        }
+        addUserRoom(user.getUserId(), roomId);
+        return true;
+    }
+
+    /**
+     * Takes a user out of a room, the room is removed if it was the last member
+     * 
+     * @param roomId Id of the room
+     * @param userId Id of the user
+     * @return True: the user was a member
+     */
+    public boolean leaveRoom(String roomId, String userId) {
+        boolean wasMember = removeMember(roomId, userId);
+        roomsByUser.computeIfPresent(userId, (key, userRooms) -> {
+            userRooms.remove(roomId);
+            return userRooms.isEmpty() ? null : userRooms;
+        });
+        return wasMember;
+    }
+
+    /**
+     * Takes a user who left the server out of all its rooms
+     * 
+     * @param userId Id of the user
+     * @return Rooms the user was in
+     */
+    public Set<String> leaveAllRooms(String userId) {
+        Set<String> userRooms = roomsByUser.remove(userId);
+        if (userRooms == null) {
+            return Set.of();
+        }
+        for (String roomId : userRooms) {
+            removeMember(roomId, userId);
+        }
+        return userRooms;
+    }
+
+    private boolean removeMember(String roomId, String userId) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(roomId, (key, current) -> {
+            int index = indexOf(current, userId);
+            if (index < 0) {
+                return current;
+            }
+            removed[0] = true;
+            if (current.length == 1) {
+                return null; // Last member, the room is removed
+            }
+            User[] updated = new User[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            return updated;
+        });
+        return removed[0];
+    }
+
+    private void addUserRoom(String userId, String roomId) {
+        roomsByUser.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(roomId);
+    }
+
+    private static int indexOf(User[] members, String userId) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].getUserId().equals(userId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param roomId Id of the room
+     * @return Members in join order, not to be modified. Empty if there is no such room
+     */
+    public User[] getMembers(String roomId) {
+        return rooms.getOrDefault(roomId, NO_MEMBERS);
+    }
+
+    public boolean hasRoom(String roomId) {
+        return rooms.containsKey(roomId);
+    }
+
+    public boolean isMember(String roomId, String userId) {
+        return indexOf(getMembers(roomId), userId) >= 0;
+    }
+
+    /**
+     * @param userId Id of the user
+     * @return Rooms the user is in
+     */
+    public Set<String> getRooms(String userId) {
+        Set<String> userRooms = roomsByUser.get(userId);
+        return userRooms == null ? Set.of() : Set.copyOf(userRooms);
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+}
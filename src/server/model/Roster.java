@@ -0,0 +1,111 @@
+package server.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import common.model.Message;
+
+/**
+ * Immutable snapshot of the connected users, published by the UserManager after every change (join, leave, role or
+ * status). Broadcasts loop over the recipient array without locks or iterators, and the user list (details and the
+ * encoded USER_LIST frame) is built at most once per snapshot.
+ * In a cluster the user list also has the users of the other nodes, they are not recipients
+ */
+public class Roster {
+    private final long version;
+    private final User[] users; // Join order
+    private final User.Role[] roles; // Captured when the snapshot was taken
+    private final User.Status[] statuses;
+    private final RemoteUser[] remoteUsers;
+    private final String coordinatorId;
+    private volatile Map<String, Map<String, String>> userDetails; // Built on first use
+    private volatile UserListFrame userListFrame;
+
+    /**
+     * Cached USER_LIST frame and the roster version it was sent with
+     */
+    private record UserListFrame(long rosterVersion, Frame frame) {
+    }
+
+    Roster(long version, User[] users, RemoteUser[] remoteUsers, String coordinatorId) {
+        this.version = version;
+        this.users = users;
+        this.remoteUsers = remoteUsers;
+        this.coordinatorId = coordinatorId;
+        this.roles = new User.Role[users.length];
+        this.statuses = new User.Status[users.length];
+
+        for (int i = 0; i < users.length; i++) {
+            roles[i] = users[i].getRole();
+            statuses[i] = users[i].getStatus();
+        }
+    }
+
+    /**
+     * @return Number of changes published before this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Recipients in join order, shared by every reader so it must not be modified
+     */
+    public User[] getUsers() {
+        return users;
+    }
+
+    public int size() {
+        return users.length;
+    }
+
+    /**
+     * @return Users of the other nodes of the cluster, shared by every reader so it must not be modified
+     */
+    public RemoteUser[] getRemoteUsers() {
+        return remoteUsers;
+    }
+
+    /**
+     * @return Role and status of every user (key: userId), read-only
+     */
+    public Map<String, Map<String, String>> getUserDetails() {
+        Map<String, Map<String, String>> details = userDetails;
+        if (details == null) { // Two threads may both build it, either result is the same
+            Map<String, Map<String, String>> allDetails = new LinkedHashMap<>();
+            for (int i = 0; i < users.length; i++) {
+                Map<String, String> user = new LinkedHashMap<>();
+                user.put("role", roles[i].toString());
+                user.put("status", statuses[i].toString());
+                allDetails.put(users[i].getUserId(), Collections.unmodifiableMap(user));
+            }
+            for (RemoteUser remoteUser : remoteUsers) {
+                Map<String, String> user = new LinkedHashMap<>();
+                User.Role role = remoteUser.userId().equals(coordinatorId) ? User.Role.COORDINATOR : User.Role.MEMBER;
+                user.put("role", role.toString());
+                user.put("status", remoteUser.status().toString());
+                allDetails.put(remoteUser.userId(), Collections.unmodifiableMap(user));
+            }
+
+            details = Collections.unmodifiableMap(allDetails);
+            userDetails = details;
+        }
+        return details;
+    }
+
+    /**
+     * Returns this snapshot as a USER_LIST frame, encoded once and reused until the roster version changes
+     * 
+     * @param rosterVersion Version sent to clients with the user list
+     * @return Frame shared by every recipient
+     */
+    public Frame getUserListFrame(long rosterVersion) {
+        UserListFrame cached = userListFrame;
+        if (cached == null || cached.rosterVersion() != rosterVersion) {
+            cached = new UserListFrame(rosterVersion, Frame.of(Message.sendUserList(getUserDetails(), rosterVersion)));
+            userListFrame = cached;
+        }
+        return cached.frame();
+    }
+}
@@ -0,0 +1,98 @@
+package server.model;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hashed timing wheel: a ring of slots, each holding the items whose deadline falls in one tick of the ring. An item
+ * is hashed to the slot of its deadline's tick, so scheduling is one queue insert however many items are waiting,
+ * and each tick only looks at the items of one slot. Items more than one revolution away stay in their slot and are
+ * looked at again each revolution.
+ * A single thread advances the wheel, the handler decides whether each due item is scheduled again
+ * 
+ * @param <T> Type of the scheduled items
+ */
+public class TimingWheel<T> {
+    private final long tickMs;
+    private final AtomicReferenceArray<Queue<Entry<T>>> slots;
+    private final Handler<T> handler;
+    private final long origin = System.nanoTime();
+    private volatile long processedTick; // Last tick whose slot was handled
+
+    /**
+     * Called on the advancing thread for each item whose deadline has passed
+     */
+    public interface Handler<T> {
+        /**
+         * @param item Item that is due
+         * @param now  Current time of the wheel
+         * @return Next deadline of the item, or -1 to drop it
+         */
+        long onDeadline(T item, long now);
+    }
+
+    private record Entry<T>(T item, long deadline) {
+    }
+
+    /**
+     * @param tickMs    Length of one slot, deadlines are met to within one tick
+     * @param slotCount Slots in the ring, one revolution lasts tickMs * slotCount
+     * @param handler   Handler of due items
+     */
+    public TimingWheel(long tickMs, int slotCount, Handler<T> handler) {
+        this.tickMs = Math.max(1, tickMs);
+        this.slots = new AtomicReferenceArray<>(Math.max(1, slotCount));
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, new ConcurrentLinkedQueue<>());
+        }
+        this.handler = handler;
+    }
+
+    /**
+     * @return Milliseconds since the wheel was created, the clock every deadline is given in
+     */
+    public long now() {
+        return (System.nanoTime() - origin) / 1_000_000;
+    }
+
+    /**
+     * Schedules an item, from any thread. A deadline that has already passed is handled on the next tick
+     * 
+     * @param item     Item to be scheduled
+     * @param deadline Time of the wheel when it is due
+     */
+    public void schedule(T item, long deadline) {
+        long tick = Math.max(deadline / tickMs, processedTick + 1);
+        slots.get((int) (tick % slots.length())).offer(new Entry<>(item, deadline));
+    }
+
+    /**
+     * Handles every slot up to the given time, called by the single thread that drives the wheel. A slot that was
+     * missed (e.g. the thread was descheduled) is caught up on
+     * 
+     * @param now Current time of the wheel
+     */
+    public void advance(long now) {
+        long currentTick = now / tickMs;
+        // A full revolution visits every slot, ticks further behind would only visit them again
+        long tick = Math.max(processedTick + 1, currentTick - slots.length() + 1);
+        for (; tick <= currentTick; tick++) {
+            int index = (int) (tick % slots.length());
+            Queue<Entry<T>> due = slots.getAndSet(index, new ConcurrentLinkedQueue<>());
+            processedTick = tick;
+
+            Entry<T> entry;
+            while ((entry = due.poll()) != null) {
+                if (entry.deadline() > now) {
+                    schedule(entry.item(), entry.deadline()); // A later revolution
+                    continue;
+                }
+                long nextDeadline = handler.onDeadline(entry.item(), now);
+                if (nextDeadline >= 0) {
+                    schedule(entry.item(), nextDeadline);
+                }
+            }
+        }
+    }
+}
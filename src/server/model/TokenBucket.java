@@ -0,0 +1,66 @@
+package server.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket refilled at a fixed rate up to its burst size, kept as a single atomic timestamp instead of a token
+ * count (the generic cell rate algorithm): the time at which the bucket would be empty again if no more tokens were
+ * taken. Taking a token is one read and one compare-and-set, no lock and no refill thread
+ */
+public class TokenBucket {
+    private final long intervalNanos; // Time to refill one token
+    private final long toleranceNanos; // How far ahead of now the bucket may run, (burst - 1) tokens
+    private final AtomicLong emptyAt = new AtomicLong(Long.MIN_VALUE); // Full at creation
+
+    /**
+     * @param ratePerSecond Tokens refilled per second, more than 0
+     * @param burst         Tokens available at once, at least 1
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000 / ratePerSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+    }
+
+    /**
+     * Takes a token if one is available
+     * 
+     * @param now Current System.nanoTime
+     * @return 0 if a token was taken, otherwise how long until one is available (nothing is taken)
+     */
+    public long tryTake(long now) {
+        while (true) {
+            long current = emptyAt.get();
+            long start = Math.max(current, now);
+            long waitNanos = start - toleranceNanos - now;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (emptyAt.compareAndSet(current, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by tryTake, for a caller that did not use it
+     */
+    public void refund() {
+        emptyAt.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * Takes a token that may only become available later, for a caller that waits for it
+     * 
+     * @param now Current System.nanoTime
+     * @return How long to wait before using the token, 0 if it is available now
+     */
+    public long reserve(long now) {
+        while (true) {
+            long current = emptyAt.get();
+            long start = Math.max(current, now);
+            if (emptyAt.compareAndSet(current, start + intervalNanos)) {
+                return Math.max(0, start - toleranceNanos - now);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package server.model;
 
 import java.io.PrintWriter;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Holds details about a connected user
@@ -14,19 +15,55 @@ public class User {
         ACTIVE, INACTIVE
     }
 
+    private static final int WRITER_QUEUE_CAPACITY = 1024;
     private final String userId;
-    private Role role;
-    private Status status;
-    private final String socketAddress;
-    private PrintWriter writer;
+    private volatile Role role; // Read by other threads building user lists
+    private volatile Status status;
+    private long joinSequence; // Set by the UserManager, orders users by when they joined
+    private volatile long joinedAt; // Set by the UserManager, orders users across the nodes of a cluster
+    private volatile String socketAddress;
+    private volatile PrintWriter writer;
+    private volatile Link link; // Swapped as one when the session moves to a new connection
+    private volatile String sessionToken; // Lets the client take over the session from a new connection
 
+    /**
+     * Outbound queue and the connection that writes it
+     */
+    private record Link(OutboundQueue outbound, UserConnection connection) {
+    }
+
+    /**
+     * Creates a user whose queued frames are written to the PrintWriter straight away by the sending thread
+     * 
+     * @param userId        Id of the user
+     * @param socketAddress Address of the client (ip:port)
+     * @param writer        PrintWriter to the client
+     */
     public User(String userId, String socketAddress, PrintWriter writer) {
         this.userId = userId;
         this.role = Role.MEMBER;
         this.status = Status.ACTIVE;
         this.socketAddress = socketAddress;
         this.writer = writer;
+        OutboundQueue outbound = new OutboundQueue(WRITER_QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        this.link = new Link(outbound, new WriterConnection(outbound, writer));
+    }
 
+    /**
+     * Creates a user whose outbound queue is drained by the connection engine
+     * 
+     * @param userId        Id of the user
+     * @param socketAddress Address of the client (ip:port)
+     * @param outbound      Bounded queue of frames waiting to be written to the client
+     * @param connection    Connection that writes the queued frames
+     */
+    public User(String userId, String socketAddress, OutboundQueue outbound, UserConnection connection) {
+        this.userId = userId;
+        this.role = Role.MEMBER;
+        this.status = Status.ACTIVE;
+        this.socketAddress = socketAddress;
+        this.writer = null;
+        this.link = new Link(outbound, connection);
     }
 
     public String getUserId() {
@@ -37,10 +74,36 @@ public class User {
         return role;
     }
 
+    long getJoinSequence() {
+        return joinSequence;
+    }
+
+    void setJoinSequence(long joinSequence) {
+        this.joinSequence = joinSequence;
+    }
+
+    /**
+     * @return When the user joined, milliseconds since the epoch
+     */
+    public long getJoinedAt() {
+        return joinedAt;
+    }
+
+    void setJoinedAt(long joinedAt) {
+        this.joinedAt = joinedAt;
+    }
+
     public void promoteToCoordinator() {
         this.role = Role.COORDINATOR;
     }
 
+    /**
+     * Takes the coordinator role away, e.g. a user of another node joined earlier
+     */
+    void demoteToMember() {
+        this.role = Role.MEMBER;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -56,6 +119,18 @@ public class User {
         }
     }
 
+    /**
+     * @param status New status of the user
+     * @return True: the status changed, False: the user already had it
+     */
+    public boolean setStatus(Status status) {
+        if (this.status == status) {
+            return false;
+        }
+        this.status = status;
+        return true;
+    }
+
     public String getSocketAddress() {
         return socketAddress;
     }
@@ -63,4 +138,86 @@ public class User {
     public PrintWriter getWriter() {
         return writer;
     }
+
+    public OutboundQueue getOutbound() {
+        return link.outbound();
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Closes the user's connection, the engine then handles it as a lost connection
+     */
+    public void disconnect() {
+        link.connection().close();
+    }
+
+    /**
+     * Moves the session onto the connection of a client that resumed it. The user keeps its place in the roster,
+     * role and status, and frames are queued to the new connection from now on
+     * 
+     * @param resumed User created by the engine around the new connection
+     * @return Connection that was replaced, to be closed by the caller
+     */
+    public UserConnection swapConnection(User resumed) {
+        Link previous = link;
+        link = resumed.link;
+        socketAddress = resumed.socketAddress;
+        writer = resumed.writer;
+        return previous.connection();
+    }
+
+    /**
+     * Queues a frame for the user without waiting for it to be written, disconnects the user if the queue is full
+     * and the overflow policy is to disconnect
+     * 
+     * @param frame Frame to be sent
+     */
+    public void send(Frame frame) {
+        Link current = link;
+        if (current.outbound().offer(frame)) {
+            current.connection().onFramesQueued();
+        } else {
+            current.connection().close();
+        }
+    }
+
+    /**
+     * Writes queued frames to the PrintWriter on the sending thread, a ReentrantLock keeps concurrent senders from
+     * interleaving without pinning virtual threads
+     */
+    private static class WriterConnection implements UserConnection {
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final OutboundQueue outbound;
+        private final PrintWriter writer;
+
+        WriterConnection(OutboundQueue outbound, PrintWriter writer) {
+            this.outbound = outbound;
+            this.writer = writer;
+        }
+
+        @Override
+        public void onFramesQueued() {
+            writeLock.lock();
+            try {
+                Frame frame;
+                while ((frame = outbound.poll()) != null) {
+                    writer.println(frame.getText());
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            writer.close();
+        }
+    }
 }
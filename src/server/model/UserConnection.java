@@ -0,0 +1,16 @@
+package server.model;
+
+/**
+ * Connection that writes a user's queued frames to the client, implemented by each connection engine
+ */
+public interface UserConnection {
+    /**
+     * Called after frames are added to the user's outbound queue, must not block the caller
+     */
+    void onFramesQueued();
+
+    /**
+     * Closes the connection, the engine then disconnects the user as normal
+     */
+    void close();
+}
@@ -1,66 +1,287 @@
 package server.model;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Allows the server to manage connected users and their details
+ * Allows the server to manage connected users and their details.
+ * Lock-free: users are looked up in a ConcurrentHashMap and kept in join order by a join sequence number. After every
+ * change an immutable Roster snapshot is published, so reads and broadcasts never block or walk the live maps.
+ * In a cluster the users of the other nodes are kept too, so ids are unique and the coordinator (the user who
+ * joined earliest) is the same across the cluster
  */
 public class UserManager {
-    private final Map<String, User> connectedUsers;
-    private String coordinatorId;
+    private final String nodeId;
+    private final ConcurrentMap<String, User> connectedUsers = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, User> usersByJoinOrder = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, RemoteUser> remoteUsers = new ConcurrentHashMap<>();
+    private final AtomicLong nextJoinSequence = new AtomicLong();
+    private final AtomicReference<String> coordinatorId = new AtomicReference<>();
+    private final AtomicReference<Roster> roster;
 
     public UserManager() {
-        this.connectedUsers = new LinkedHashMap<>(); // Maintains join order
-        this.coordinatorId = null;
+        this("local");
     }
 
     /**
-     * Registers user to the server and if the first one, assign coordinator role
-     * Synchronised to ensure only one thread can modify the user list at a time
+     * @param nodeId Id of this node in the cluster, breaks ties between users who joined in the same millisecond
+     */
+    public UserManager(String nodeId) {
+        this.nodeId = nodeId;
+        this.roster = new AtomicReference<>(new Roster(0, new User[0], new RemoteUser[0], null));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Registers user to the server if the user id is not taken and if the first one, assign coordinator role.
+     * The id check and the add are one atomic step, so two connections with the same id cannot both join. Users of
+     * other nodes are checked too, a join on two nodes at once is settled when the nodes hear of each other
      * 
      * @param user Object of the user to be added
+     * @return True: user added, False: user id already in use
      */
-    public synchronized void addUser(User user) {
-        connectedUsers.put(user.getUserId(), user);
+    public boolean addUser(User user) {
+        String userId = user.getUserId();
+        if (remoteUsers.containsKey(userId) || connectedUsers.putIfAbsent(userId, user) != null) {
+            return false;
+        }
 
-        if (coordinatorId == null) {
-            coordinatorId = user.getUserId();
+        long joinSequence = nextJoinSequence.incrementAndGet();
+        user.setJoinSequence(joinSequence);
+        user.setJoinedAt(System.currentTimeMillis());
+        usersByJoinOrder.put(joinSequence, user);
+
+        if (coordinatorId.compareAndSet(null, userId)) {
             user.promoteToCoordinator();
         }
+        publishRoster();
+        return true;
     }
 
     /**
-     * Removes user from the server and assigns coordinator role to the next user
-     * (start of the LinkedHashMap)
-     * Synchronised to ensure only one thread can modify the user list at a time
+     * Removes user from the server and, if it was the coordinator, hands the role to the user who joined earliest
      * 
      * @param userId Id of the user to be removed
      */
-    public synchronized void removeUser(String userId) {
-        connectedUsers.remove(userId);
+    public void removeUser(String userId) {
+        User user = connectedUsers.get(userId);
+        if (user != null) {
+            removeUser(user);
+        }
+    }
+
+    /**
+     * Removes this user object, nothing is done if the user already left (or another user with the id joined since)
+     * 
+     * @param user Object of the user to be removed
+     * @return True: user removed
+     */
+    public boolean removeUser(User user) {
+        String userId = user.getUserId();
+        if (!connectedUsers.remove(userId, user)) {
+            return false;
+        }
+        usersByJoinOrder.remove(user.getJoinSequence(), user);
+
+        if (userId.equals(coordinatorId.get())) {
+            electCoordinator();
+        }
+        publishRoster();
+        return true;
+    }
+
+    /**
+     * Adds a user of another node, or updates it if the node sent it again. If a user of this node (or of a third
+     * node) has the same id, the one who joined later has to go: a shadowed remote user is only listed once the
+     * local one is removed
+     * 
+     * @param remoteUser User of another node
+     * @return User of this node with the same id who joined later and should be disconnected, null if none
+     */
+    public User addRemoteUser(RemoteUser remoteUser) {
+        String userId = remoteUser.userId();
+        RemoteUser listed = remoteUsers.merge(userId, remoteUser, (known, added) ->
+                known.nodeId().equals(added.nodeId()) || isEarlier(added, known) ? added : known);
+        User local = connectedUsers.get(userId);
+
+        electCoordinator();
+        publishRoster();
+        boolean remoteWins = listed == remoteUser && local != null
+                && isEarlier(remoteUser.joinedAt(), remoteUser.nodeId(), local.getJoinedAt(), nodeId);
+        return remoteWins ? local : null;
+    }
+
+    /**
+     * Removes a user of another node
+     * 
+     * @param userId Id of the user
+     * @param nodeId Node that reported the leave, nothing is done if the user belongs to another node
+     * @return True: user removed
+     */
+    public boolean removeRemoteUser(String userId, String nodeId) {
+        RemoteUser remoteUser = remoteUsers.get(userId);
+        if (remoteUser == null || !remoteUser.nodeId().equals(nodeId) || !remoteUsers.remove(userId, remoteUser)) {
+            return false;
+        }
+
+        if (userId.equals(coordinatorId.get())) {
+            electCoordinator();
+        }
+        publishRoster();
+        return true;
+    }
+
+    /**
+     * Changes the status of a user of another node
+     * 
+     * @param userId Id of the user
+     * @param status New status
+     */
+    public void updateRemoteUser(String userId, User.Status status) {
+        RemoteUser updated = remoteUsers.computeIfPresent(userId, (id, remoteUser) -> remoteUser.withStatus(status));
+        if (updated != null) {
+            publishRoster();
+        }
+    }
+
+    /**
+     * @return User of another node, null if the id is not a remote user
+     */
+    public RemoteUser getRemoteUser(String userId) {
+        return remoteUsers.get(userId);
+    }
+
+    /**
+     * @return Users of other nodes, in no particular order
+     */
+    public Collection<RemoteUser> getRemoteUsers() {
+        return Collections.unmodifiableCollection(remoteUsers.values());
+    }
+
+    /**
+     * @param userId Id of the user
+     * @return True: the user is connected to this node or another node of the cluster
+     */
+    public boolean isListed(String userId) {
+        return connectedUsers.containsKey(userId) || remoteUsers.containsKey(userId);
+    }
+
+    /**
+     * Publishes a snapshot of the users after a change. Every change publishes after it is applied to the maps, and
+     * a snapshot only replaces the one it was built after, so the last published snapshot includes every change
+     */
+    private void publishRoster() {
+        while (true) {
+            Roster current = roster.get();
+            RemoteUser[] listedRemoteUsers = remoteUsers.values().stream()
+                    .filter(remoteUser -> !connectedUsers.containsKey(remoteUser.userId())) // Shadowed until removed
+                    .toArray(RemoteUser[]::new);
+            Roster next = new Roster(current.getVersion() + 1, usersByJoinOrder.values().toArray(new User[0]),
+                    listedRemoteUsers, coordinatorId.get());
+            if (roster.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Latest immutable snapshot of the users
+     */
+    public Roster getRoster() {
+        return roster.get();
+    }
+
+    /**
+     * Gives the coordinator role to the user who joined earliest, on this node or another, with a CAS. The role is
+     * taken from the previous coordinator if it is still here, and the election is repeated if the earliest user
+     * changed meanwhile (e.g. the chosen user left)
+     */
+    private void electCoordinator() {
+        while (true) {
+            String current = coordinatorId.get();
+            String earliest = findEarliestUserId();
+            if (!coordinatorId.compareAndSet(current, earliest)) {
+                continue; // Changed by another thread
+            }
+
+            if (current != null && !current.equals(earliest)) {
+                User previous = connectedUsers.get(current);
+                if (previous != null) {
+                    previous.demoteToMember();
+                }
+            }
+            if (earliest == null) {
+                if (connectedUsers.isEmpty() && remoteUsers.isEmpty()) {
+                    return; // Reset coordinator if all leave
+                }
+                continue;
+            }
 
-        if (userId.equals(coordinatorId)) {
-            if (!connectedUsers.isEmpty()) {
-                coordinatorId = connectedUsers.keySet().iterator().next();
-                connectedUsers.get(coordinatorId).promoteToCoordinator();
-            } else {
-                coordinatorId = null; // Reset coordinator if all leave
+            User next = connectedUsers.get(earliest);
+            if (next != null) {
+                next.promoteToCoordinator();
+            }
+            if (earliest.equals(findEarliestUserId())) {
+                return;
             }
         }
     }
 
+    private String findEarliestUserId() {
+        Map.Entry<Long, User> firstLocal = usersByJoinOrder.firstEntry();
+        User earliestLocal = firstLocal == null ? null : firstLocal.getValue();
+
+        RemoteUser earliestRemote = null;
+        for (RemoteUser remoteUser : remoteUsers.values()) {
+            if (earliestRemote == null || isEarlier(remoteUser, earliestRemote)) {
+                earliestRemote = remoteUser;
+            }
+        }
+
+        if (earliestRemote != null && (earliestLocal == null || isEarlier(earliestRemote.joinedAt(),
+                earliestRemote.nodeId(), earliestLocal.getJoinedAt(), nodeId))) {
+            return earliestRemote.userId();
+        }
+        return earliestLocal == null ? null : earliestLocal.getUserId();
+    }
+
+    private static boolean isEarlier(RemoteUser user, RemoteUser otherUser) {
+        return isEarlier(user.joinedAt(), user.nodeId(), otherUser.joinedAt(), otherUser.nodeId());
+    }
+
+    /**
+     * @return True: the first join happened before the second one, joins in the same millisecond are ordered by
+     *         node id
+     */
+    private static boolean isEarlier(long joinedAt, String nodeId, long otherJoinedAt, String otherNodeId) {
+        return joinedAt < otherJoinedAt || (joinedAt == otherJoinedAt && nodeId.compareTo(otherNodeId) < 0);
+    }
+
     public User getUser(String userId) {
         return connectedUsers.get(userId);
     }
 
+    /**
+     * @return Users in join order, from the latest snapshot
+     */
     public Collection<User> getUsers() {
-        return connectedUsers.values();
+        return Collections.unmodifiableList(Arrays.asList(roster.get().getUsers()));
     }
 
     public String getCoordinatorId() {
-        return coordinatorId;
+        return coordinatorId.get();
     }
 
     /**
@@ -72,6 +293,13 @@ public class UserManager {
      */
     public Map<String, String> getUserDetails(String userId, boolean allDetails) {
         User user = connectedUsers.get(userId);
+        if (user == null && remoteUsers.get(userId) instanceof RemoteUser remoteUser) {
+            return getUserDetails(remoteUser, allDetails);
+        }
+        return getUserDetails(user, allDetails);
+    }
+
+    private Map<String, String> getUserDetails(User user, boolean allDetails) {
         Map<String, String> userDetails = new LinkedHashMap<>();
 
         if (user == null) { // Empty details if no user
@@ -89,18 +317,47 @@ public class UserManager {
         return userDetails;
     }
 
+    private Map<String, String> getUserDetails(RemoteUser remoteUser, boolean allDetails) {
+        Map<String, String> userDetails = new LinkedHashMap<>();
+        if (allDetails) {
+            userDetails.put("userId", remoteUser.userId());
+            userDetails.put("socketAddress", "%s (%s)".formatted(remoteUser.socketAddress(), remoteUser.nodeId()));
+        }
+
+        boolean isCoordinator = remoteUser.userId().equals(coordinatorId.get());
+        userDetails.put("role", (isCoordinator ? User.Role.COORDINATOR : User.Role.MEMBER).toString());
+        userDetails.put("status", remoteUser.status().toString());
+        return userDetails;
+    }
+
+    /**
+     * @return Role and status of every user (key: userId) from the latest snapshot, read-only
+     */
     public Map<String, Map<String, String>> getAllUserDetails() {
-        Map<String, Map<String, String>> allDetails = new LinkedHashMap<>();
-        // Key: userId, Value: userDetails
-        connectedUsers.forEach((userId, user) -> allDetails.put(userId, getUserDetails(userId, false)));
+        return roster.get().getUserDetails();
+    }
 
-        return allDetails;
+    /**
+     * Sets the status of a user of this server, the roster is only rebuilt if it changed
+     * 
+     * @param userId Id of the user
+     * @param status New status
+     * @return True: the status changed, False: no such user or it already had the status
+     */
+    public boolean setUserStatus(String userId, User.Status status) {
+        User user = connectedUsers.get(userId);
+        if (user == null || !user.setStatus(status)) {
+            return false;
+        }
+        publishRoster();
+        return true;
     }
 
     public void toggleUserStatus(String userId) {
         User user = connectedUsers.get(userId);
         if (user != null) { // Do nothing if no user
             user.toggleStatus();
+            publishRoster();
         }
     }
 }
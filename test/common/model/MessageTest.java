@@ -3,6 +3,8 @@ package common.model;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -39,6 +41,16 @@ public class MessageTest {
         // Ignore timestamp as it gets set in the constructor, runs on runtime
     }
 
+    @Test
+    void getFormattedTimestamp_ReturnsTimeOfDay_IfTimestampGiven() {
+        long timestamp = LocalDateTime.of(2024, 1, 1, 9, 5, 7).atZone(ZoneId.systemDefault()).toInstant()
+                .toEpochMilli();
+        Message message = new Message(Message.Type.MESSAGE, USER_ID_1, GROUP_ID, EXAMPLE_CONTENT, 0, timestamp + 999);
+
+        assertEquals(timestamp + 999, message.getTimestamp());
+        assertEquals("09:05:07", message.getFormattedTimestamp());
+    }
+
     @Test
     void requestJoin_ReturnsJoinMessage_IfGivenRequesterId() {
         Message message = Message.requestJoin(USER_ID_1);
@@ -0,0 +1,103 @@
+package common.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the BinaryFormatter for encoding and decoding length-prefixed frames
+ */
+public class BinaryFormatterTest {
+    private static final String USER_ID_1 = "UserId1";
+    private static final String USER_ID_2 = "UserId2";
+    private static final String SERVER_ID = "[SERVER]";
+    private static final String GROUP_ID = "Group";
+
+    private Message roundTrip(BinaryFormatter formatter, Message message) throws IOException {
+        ByteBuffer frame = BinaryFormatter.encode(message);
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+
+        int bodyLength = BinaryFormatter.readFrameLength(bytes, 0, bytes.length);
+        int prefixLength = BinaryFormatter.prefixLength(bodyLength);
+        assertEquals(bytes.length, prefixLength + bodyLength);
+
+        return formatter.decode(bytes, prefixLength, bodyLength);
+    }
+
+    @Test
+    void decode_ReturnsSameMessage_IfEncodedMessage() throws IOException {
+        Message decoded = roundTrip(new BinaryFormatter(), Message.sendMessage(USER_ID_1, GROUP_ID, "Hello & bye="));
+
+        assertEquals(Message.Type.MESSAGE, decoded.getType());
+        assertEquals(USER_ID_1, decoded.getSender());
+        assertEquals(GROUP_ID, decoded.getRecipient());
+        assertEquals("Hello & bye=", decoded.getContent());
+    }
+
+    @Test
+    void decode_KeepsTimestamp_IfChatMessage() throws IOException {
+        long timestamp = 1_700_000_000_123L;
+        Message message = new Message(Message.Type.MESSAGE, SERVER_ID, GROUP_ID, "Hi", 0, timestamp);
+
+        assertEquals(timestamp, roundTrip(new BinaryFormatter(), message).getTimestamp());
+    }
+
+    @Test
+    void decode_ReturnsNestedMap_IfValuesContainCommasAndBraces() throws IOException {
+        Map<String, Map<String, String>> userList = new LinkedHashMap<>();
+        userList.put(USER_ID_1, Map.of("role", "COORDINATOR", "status", "{ACTIVE, away}"));
+        userList.put(USER_ID_2, Map.of("role", "MEMBER", "status", "INACTIVE"));
+
+        Message decoded = roundTrip(new BinaryFormatter(), Message.sendUserList(userList, 300));
+
+        assertEquals(SERVER_ID, decoded.getSender());
+        assertEquals(300, decoded.getSequence());
+        assertEquals(userList, decoded.getContent());
+    }
+
+    @Test
+    void decode_ReusesIdString_IfSameIdDecodedTwice() throws IOException {
+        BinaryFormatter formatter = new BinaryFormatter();
+        Message first = roundTrip(formatter, Message.sendMessage(USER_ID_1, USER_ID_2, "1"));
+        Message second = roundTrip(formatter, Message.sendMessage(USER_ID_1, USER_ID_2, "2"));
+
+        assertSame(first.getSender(), second.getSender());
+        assertSame(first.getRecipient(), second.getRecipient());
+    }
+
+    @Test
+    void decode_ThrowsIOException_IfContentHasLineBreak() {
+        Message forging = Message.sendMessage(USER_ID_1, GROUP_ID, "hi\ntype=MESSAGE&sender=bob&recipient=Group");
+
+        assertThrows(IOException.class, () -> roundTrip(new BinaryFormatter(), forging));
+    }
+
+    @Test
+    void decode_ThrowsIOException_IfIdHasLineBreak() {
+        Message forging = Message.sendMessage(USER_ID_1, "bob\r", "hi");
+
+        assertThrows(IOException.class, () -> roundTrip(new BinaryFormatter(), forging));
+    }
+
+    @Test
+    void readFrameLength_ReturnsMinusOne_IfPrefixIncomplete() throws IOException {
+        byte[] bytes = { (byte) 0x80 }; // Continuation bit set, next byte not received yet
+        assertEquals(-1, BinaryFormatter.readFrameLength(bytes, 0, bytes.length));
+    }
+
+    @Test
+    void readFrameLength_ThrowsIOException_IfFrameTooLarge() {
+        byte[] bytes = { (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f }; // 256 MB
+        assertThrows(IOException.class, () -> BinaryFormatter.readFrameLength(bytes, 0, bytes.length));
+    }
+}
@@ -37,4 +37,14 @@ public class ConfigLoaderTest {
     void getInt_ThrowsNumberFormatException_IfGetSavedNonNumProperty() {
         assertThrows(NumberFormatException.class, () -> configLoader.getInt("default.server.ip"));
     }
+
+    @Test
+    void get_ReturnsDefault_IfGetNotSavedPropertyWithDefault() {
+        assertEquals("default", configLoader.get("not.saved", "default"));
+    }
+
+    @Test
+    void getInt_ReturnsDefault_IfGetNotSavedNumPropertyWithDefault() {
+        assertEquals(2, configLoader.getInt("not.saved", 2));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package common.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the FrameCompression of large binary frames and the negotiation of the DEFLATE protocol
+ */
+public class FrameCompressionTest {
+    private static final String USER_ID = "UserId1";
+    private static final String GROUP_ID = "Group";
+
+    private Message createUserList(int users) {
+        Map<String, Map<String, String>> userList = new LinkedHashMap<>();
+        for (int i = 0; i < users; i++) {
+            userList.put("User" + i, Map.of("userId", "User" + i, "role", "MEMBER", "status", "ACTIVE",
+                    "socketAddress", "127.0.0.1:" + (50000 + i)));
+        }
+        return Message.sendUserList(userList, 1);
+    }
+
+    private Message decode(ByteBuffer frame, Protocol protocol) throws IOException {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        MessageDecoder decoder = new MessageDecoder();
+        decoder.setProtocol(protocol);
+        return decoder.read(new ByteArrayInputStream(bytes));
+    }
+
+    private int bodyOffset(ByteBuffer frame) throws IOException {
+        int bodyLength = BinaryFormatter.readFrameLength(frame.array(), 0, frame.remaining());
+        return BinaryFormatter.prefixLength(bodyLength);
+    }
+
+    @Test
+    void encode_CompressesFrame_IfUserListLarge() throws IOException {
+        Message userList = createUserList(100);
+        ByteBuffer binary = Protocol.BINARY.encode(userList);
+
+        ByteBuffer compressed = Protocol.DEFLATE.encode(userList);
+
+        assertTrue(compressed.remaining() < binary.remaining());
+        assertTrue(FrameCompression.isCompressed(compressed.array(), bodyOffset(compressed),
+                compressed.remaining() - bodyOffset(compressed)));
+        assertEquals(userList.getContent(), decode(compressed, Protocol.DEFLATE).getContent());
+    }
+
+    @Test
+    void encode_SendsFrameUncompressed_IfBelowThreshold() {
+        ByteBuffer binary = Protocol.BINARY.encode(Message.sendMessage(USER_ID, GROUP_ID, "Hello", 1));
+
+        assertSame(binary, FrameCompression.compress(binary));
+    }
+
+    @Test
+    void read_ThrowsIOException_IfCompressedBodyMalformed() throws IOException {
+        ByteBuffer compressed = Protocol.DEFLATE.encode(createUserList(100));
+        int originalLength = BinaryFormatter.readFrameLength(compressed.array(), bodyOffset(compressed) + 1,
+                compressed.remaining());
+        compressed.array()[bodyOffset(compressed) + 1 + BinaryFormatter.prefixLength(originalLength)] = (byte) 0xFF;
+
+        assertThrows(IOException.class, () -> decode(compressed, Protocol.DEFLATE));
+    }
+
+    @Test
+    void fromOptions_ReturnsDeflate_IfBinaryAndCompressionRequested() {
+        Map<String, String> options = new LinkedHashMap<>();
+        Protocol.DEFLATE.putOptions(options);
+
+        assertEquals(Map.of(Protocol.OPTION, "binary", FrameCompression.OPTION, "deflate"), options);
+        assertEquals(Protocol.DEFLATE, Protocol.fromOptions(options));
+        assertEquals(Protocol.TEXT, Protocol.fromOptions(Map.of(FrameCompression.OPTION, "deflate")));
+        assertEquals(Protocol.BINARY, Protocol.fromOptions(Map.of(Protocol.OPTION, "binary")));
+    }
+}
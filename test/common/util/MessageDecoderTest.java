@@ -0,0 +1,83 @@
+package common.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the MessageDecoder for reading text lines and binary frames from the same connection
+ */
+public class MessageDecoderTest {
+    private static final String USER_ID = "UserId1";
+    private static final String GROUP_ID = "Group";
+
+    private void write(ByteArrayOutputStream output, Protocol protocol, Message message) {
+        ByteBuffer encoded = protocol.encode(message);
+        output.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+    }
+
+    @Test
+    void read_ReturnsBinaryMessages_IfProtocolSwitchedAfterJoin() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(output, Protocol.TEXT, Message.requestJoin(USER_ID, Map.of(Protocol.OPTION, "binary")));
+        write(output, Protocol.BINARY, Message.sendMessage(USER_ID, GROUP_ID, "Hello"));
+        ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+
+        MessageDecoder decoder = new MessageDecoder();
+        Message joinRequest = decoder.read(input);
+        decoder.setProtocol(Protocol.fromOptions((Map<?, ?>) joinRequest.getContent()));
+        Message message = decoder.read(input);
+
+        assertEquals(Protocol.BINARY, decoder.getProtocol());
+        assertEquals(Message.Type.MESSAGE, message.getType());
+        assertEquals("Hello", message.getContent());
+        assertNull(decoder.read(input));
+    }
+
+    @Test
+    void next_ReturnsNull_IfFrameOnlyPartlyReceived() throws IOException {
+        ByteBuffer frame = Protocol.BINARY.encode(Message.sendMessage(USER_ID, GROUP_ID, "Hello"));
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+
+        MessageDecoder decoder = new MessageDecoder();
+        decoder.setProtocol(Protocol.BINARY);
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(bytes, 0, bytes.length - 1)));
+        assertNull(decoder.next());
+
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(bytes, bytes.length - 1, 1)));
+        assertEquals("Hello", decoder.next().getContent());
+    }
+
+    @Test
+    void read_ThrowsIOException_IfLineMalformed() {
+        ByteArrayInputStream input = new ByteArrayInputStream("garbage\n".getBytes(StandardCharsets.UTF_8));
+
+        MessageDecoder decoder = new MessageDecoder();
+
+        assertThrows(IOException.class, () -> decoder.read(input));
+    }
+
+    @Test
+    void read_ThrowsIOException_IfLineHasCarriageReturn() {
+        String line = "type=MESSAGE&sender=%s&recipient=Group&content=hi\rtype=MESSAGE&sender=bob&recipient=Group"
+                + "&content=forged\n";
+        ByteArrayInputStream input = new ByteArrayInputStream(line.formatted(USER_ID).getBytes(StandardCharsets.UTF_8));
+
+        MessageDecoder decoder = new MessageDecoder();
+
+        assertThrows(IOException.class, () -> decoder.read(input));
+    }
+}
@@ -1,8 +1,10 @@
 package common.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.junit.jupiter.api.Test;
@@ -19,6 +21,7 @@ public class MessageFormatterTest {
     private static final String SERVER_ID = "[SERVER]";
     private static final String GROUP_ID = "Group";
     private static final String EXAMPLE_MESSAGE = "Hello world!";
+    private static final long TIMESTAMP = 1_700_000_000_123L;
 
     private String formatMessage(String type, String sender, String recipient, String content) {
         return MESSAGE_FORMAT.formatted(type, sender, recipient, content);
@@ -34,10 +37,20 @@ public class MessageFormatterTest {
 
     @Test
     void format_ReturnsFormattedString_IfMessage() {
-        Message message = Message.sendMessage(USER_ID_1, GROUP_ID, EXAMPLE_MESSAGE);
+        Message message = new Message(Message.Type.MESSAGE, USER_ID_1, GROUP_ID, EXAMPLE_MESSAGE, 0, TIMESTAMP);
         String formatted = MessageFormatter.format(message);
 
-        assertEquals(formatMessage("MESSAGE", USER_ID_1, GROUP_ID, EXAMPLE_MESSAGE), formatted);
+        assertEquals("type=MESSAGE&sender=%s&recipient=%s&time=%d&content=%s"
+                .formatted(USER_ID_1, GROUP_ID, TIMESTAMP, EXAMPLE_MESSAGE), formatted);
+    }
+
+    @Test
+    void parse_KeepsTimestamp_IfFormattedMessage() {
+        Message message = new Message(Message.Type.MESSAGE, SERVER_ID, GROUP_ID, EXAMPLE_MESSAGE, 0, TIMESTAMP);
+        Message parsed = MessageFormatter.parse(MessageFormatter.format(message));
+
+        assertEquals(TIMESTAMP, parsed.getTimestamp());
+        assertEquals(EXAMPLE_MESSAGE, parsed.getContent());
     }
 
     @Test
@@ -63,6 +76,17 @@ public class MessageFormatterTest {
         assertEquals("ACTIVE", content.get("status"));
     }
 
+    @Test
+    void parse_KeepsEveryOption_IfKeyHasRoomId() {
+        String messageString = formatMessage("USER_JOIN", USER_ID_1, SERVER_ID,
+                "{protocol=text, resume=true, epoch=1, seq_#team=3, seq_Group=5}");
+        Map<?, ?> content = (Map<?, ?>) MessageFormatter.parse(messageString).getContent();
+
+        assertEquals(5, content.size());
+        assertEquals("3", content.get("seq_#team"));
+        assertEquals("5", content.get("seq_Group"));
+    }
+
     @Test
     void parse_ReturnsMessageObject_IfHasNestedMapContent() {
         String messageString = formatMessage("USER_LIST", SERVER_ID, GROUP_ID,
@@ -80,4 +104,28 @@ public class MessageFormatterTest {
         assertEquals("MEMBER", content.get(USER_ID_2).get("role"));
         assertEquals("INACTIVE", content.get(USER_ID_2).get("status"));
     }
+
+    @Test
+    void parse_KeepsContent_IfContentContainsSeparators() {
+        String content = "a&b=c&content=d";
+        Message parsed = MessageFormatter.parse(formatMessage("MESSAGE", USER_ID_1, GROUP_ID, content));
+
+        assertMessageEquals(Message.Type.MESSAGE, USER_ID_1, GROUP_ID, content, parsed);
+    }
+
+    @Test
+    void parse_ReturnsSameUserList_IfFormattedUserList() {
+        Map<String, Map<String, String>> userList = new LinkedHashMap<>();
+        userList.put(USER_ID_1, Map.of("role", "COORDINATOR"));
+        userList.put(USER_ID_2, new LinkedHashMap<>(Map.of("role", "MEMBER")));
+        userList.get(USER_ID_2).put("status", "INACTIVE");
+
+        Message parsed = MessageFormatter.parse(MessageFormatter.format(Message.sendUserList(userList)));
+
+        @SuppressWarnings("unchecked") // The message type is known to be a map
+        Map<String, Map<String, String>> content = (Map<String, Map<String, String>>) parsed.getContent();
+
+        assertEquals(userList, content);
+        assertSame("MEMBER", content.get(USER_ID_2).get("role")); // Known values are not copied
+    }
 }
@@ -0,0 +1,69 @@
+package loadtest.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.jupiter.api.Test;
+
+import common.util.ConfigLoader;
+import common.util.Protocol;
+import loadtest.model.LoadProfile;
+import loadtest.model.LoadReport;
+import server.controller.NioConnectionController;
+import server.controller.ServerOptions;
+import server.model.UserManager;
+
+/**
+ * Tests the LoadController against a real server on a loopback port, for one second of group chat
+ */
+public class LoadControllerTest {
+    private int startServer() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        ConfigLoader config = new ConfigLoader();
+        config.set("server.nio.threads", "1");
+        NioConnectionController connectionController = new NioConnectionController(new UserManager(), config,
+                new ServerOptions());
+        Thread acceptThread = new Thread(() -> {
+            try {
+                connectionController.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        for (int attempt = 0; attempt < 20; attempt++) { // Wait for the server channel to be bound
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                return port;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start");
+    }
+
+    @Test
+    void run_RecordsDeliveryLatency_IfClientsChat() throws IOException, InterruptedException {
+        int port = startServer();
+        LoadProfile profile = new LoadProfile("localhost", String.valueOf(port), Protocol.BINARY, 3, 0, 1, 5, 1, 0,
+                0, 0, 0, "unused.json");
+
+        LoadReport report = new LoadController(profile).run();
+
+        assertEquals(3, report.getConnectedCount());
+        assertTrue(report.getChatSentCount() > 0);
+        assertTrue(report.getDeliveredCount() > 0); // Every group message reaches the other two clients
+        assertTrue(report.getDeliveryLatency().getPercentile(50) > 0);
+    }
+}
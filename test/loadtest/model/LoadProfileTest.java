@@ -0,0 +1,40 @@
+package loadtest.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import common.util.ConfigLoader;
+import common.util.Protocol;
+
+/**
+ * Tests reading the LoadProfile from the config
+ */
+public class LoadProfileTest {
+    @Test
+    void fromConfig_UsesGivenSettings_IfSet() {
+        ConfigLoader config = new ConfigLoader();
+        config.set("loadtest.clients", "2000");
+        config.set("loadtest.chat.rate", "0.5");
+        config.set("loadtest.protocol", "binary");
+        config.set("loadtest.storm.interval.s", "10");
+
+        LoadProfile profile = LoadProfile.fromConfig(config);
+
+        assertEquals(2000, profile.clients());
+        assertEquals(0.5, profile.chatRate());
+        assertEquals(Protocol.BINARY, profile.protocol());
+        assertEquals(10, profile.stormIntervalSeconds());
+    }
+
+    @Test
+    void fromConfig_UsesDefaults_IfNotSet() {
+        ConfigLoader config = new ConfigLoader();
+        config.set("loadtest.chat.group.share", "");
+
+        LoadProfile profile = LoadProfile.fromConfig(config);
+
+        assertEquals(0.1, profile.groupShare());
+        assertEquals(0, profile.stormIntervalSeconds());
+    }
+}
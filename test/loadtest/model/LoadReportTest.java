@@ -0,0 +1,48 @@
+package loadtest.model;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import common.util.Protocol;
+
+/**
+ * Tests the JSON written by the LoadReport
+ */
+public class LoadReportTest {
+    private static final LoadProfile PROFILE = new LoadProfile("localhost", "1549", Protocol.TEXT, 2, 0, 1, 1, 1, 0,
+            0, 0, 0, "report.json");
+
+    @Test
+    void toJson_WritesCountsAndPercentiles_IfDeliveriesRecorded() {
+        LoadReport report = new LoadReport();
+        report.countConnected();
+        report.countConnected();
+        report.start();
+        report.countChatSent();
+        for (int i = 0; i < 1000; i++) {
+            report.recordDelivery(2_000_000); // 2ms
+        }
+        report.stop();
+
+        String json = report.toJson(PROFILE);
+
+        assertTrue(json.contains("\"connected\": 2,"));
+        assertTrue(json.contains("\"sent\": {\"chat\": 1, \"privateChatOpens\": 0, \"statusChanges\": 0}"));
+        assertTrue(json.contains("\"delivered\": 1000,"));
+        assertTrue(json.contains("\"p50\": 2.097,")); // Upper bound of the bucket of 2ms
+        assertTrue(json.contains("\"mean\": 2.000"));
+    }
+
+    @Test
+    void toJson_WritesZeroLatency_IfNothingDelivered() {
+        LoadReport report = new LoadReport();
+        report.start();
+        report.stop();
+
+        String json = report.toJson(PROFILE);
+
+        assertTrue(json.contains("\"latencyMs\": {\"p50\": 0.000, \"p99\": 0.000, \"p999\": 0.000, \"mean\": 0.000}"));
+        assertTrue(json.contains("\"reconnects\": {\"dropped\": 0, \"resumed\": 0, \"lost\": 0}"));
+    }
+}
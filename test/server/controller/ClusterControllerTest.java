@@ -0,0 +1,160 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+import common.util.Protocol;
+import server.model.MessageHistory;
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Tests the ClusterController by linking two nodes in the same JVM over loopback.
+ * Users write to a StringWriter, so only the links between the nodes use real sockets
+ */
+public class ClusterControllerTest {
+    private UserManager userManager1;
+    private UserManager userManager2;
+    private ClusterController cluster1;
+    private ClusterController cluster2;
+    private MessageController messageController1;
+    private MessageController messageController2;
+    private StringWriter stringWriter1;
+    private StringWriter stringWriter2;
+
+    private static final String USER_ID_1 = "User1";
+    private static final String USER_ID_2 = "User2";
+    private static final String GROUP_ID = "Group";
+    private static final String SOCKET_ADDRESS = "127.0.0.1:1549";
+    private static final String EXAMPLE_MESSAGE = "Hello World!";
+    private static final String SECRET = "cluster-secret";
+
+    @BeforeEach
+    void setUp() throws IOException, InterruptedException {
+        userManager1 = new UserManager("node1");
+        userManager2 = new UserManager("node2");
+        cluster1 = createCluster(userManager1);
+        cluster2 = createCluster(userManager2);
+        messageController1 = new MessageController(userManager1,
+                new ServerOptions().withHistory(new MessageHistory(10, 4096, 10)).withCluster(cluster1));
+        messageController2 = new MessageController(userManager2,
+                new ServerOptions().withHistory(new MessageHistory(10, 4096, 10)).withCluster(cluster2));
+        messageController1.start();
+        messageController2.start();
+        cluster1.start(messageController1);
+        cluster2.start(messageController2);
+
+        stringWriter1 = new StringWriter();
+        stringWriter2 = new StringWriter();
+        joinUser(userManager1, messageController1, USER_ID_1, stringWriter1);
+        joinUser(userManager2, messageController2, USER_ID_2, stringWriter2);
+
+        cluster1.connectTo(new InetSocketAddress(InetAddress.getLoopbackAddress(), cluster2.getPort()));
+        cluster2.connectTo(new InetSocketAddress(InetAddress.getLoopbackAddress(), cluster1.getPort()));
+        awaitCondition(() -> userManager1.isListed(USER_ID_2) && userManager2.isListed(USER_ID_1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        cluster1.stop();
+        cluster2.stop();
+    }
+
+    private ClusterController createCluster(UserManager userManager) throws IOException {
+        return new ClusterController(userManager, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                List.of(), SECRET);
+    }
+
+    private void joinUser(UserManager userManager, MessageController messageController, String userId,
+            StringWriter writer) {
+        userManager.addUser(new User(userId, SOCKET_ADDRESS, new PrintWriter(writer, true)));
+        messageController.controlUserJoin(userId);
+    }
+
+    private void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        for (int attempt = 0; attempt < 250 && !condition.getAsBoolean(); attempt++) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean(), "Condition not met in time");
+    }
+
+    private int countOccurrences(String output, String text) {
+        return output.split(text, -1).length - 1;
+    }
+
+    @Test
+    void start_ListsUsersOfEveryNode_IfNodesLinked() {
+        assertEquals(userManager1.getAllUserDetails().keySet(), userManager2.getAllUserDetails().keySet());
+        assertEquals(USER_ID_1, userManager1.getCoordinatorId());
+        assertEquals(USER_ID_1, userManager2.getCoordinatorId()); // Joined first on any node
+        assertEquals("COORDINATOR", userManager2.getAllUserDetails().get(USER_ID_1).get("role"));
+    }
+
+    @Test
+    void sendMessage_DeliversOnceToUsersOfOtherNode_IfSentToGroup() throws InterruptedException {
+        messageController1.sendMessage(USER_ID_1, GROUP_ID, EXAMPLE_MESSAGE);
+        awaitCondition(() -> stringWriter2.toString().contains(EXAMPLE_MESSAGE));
+
+        assertEquals(1, countOccurrences(stringWriter1.toString(), EXAMPLE_MESSAGE));
+        assertEquals(1, countOccurrences(stringWriter2.toString(), EXAMPLE_MESSAGE));
+    }
+
+    @Test
+    void sendMessage_DeliversToRecipientOnOtherNode_IfSentPrivately() throws InterruptedException {
+        messageController1.sendMessage(USER_ID_1, USER_ID_2, EXAMPLE_MESSAGE);
+        awaitCondition(() -> stringWriter2.toString().contains(EXAMPLE_MESSAGE));
+
+        assertTrue(stringWriter1.toString().contains(EXAMPLE_MESSAGE)); // Shown to the sender too
+        assertTrue(stringWriter2.toString().contains("recipient=%s".formatted(USER_ID_2)));
+    }
+
+    @Test
+    void controlUserLeave_RemovesUserOnOtherNode_IfUserLeaves() throws InterruptedException {
+        userManager1.removeUser(USER_ID_1);
+        messageController1.controlUserLeave(USER_ID_1, true);
+        // Announced after the user is unlisted, so the announcement is what is waited for
+        awaitCondition(() -> stringWriter2.toString().contains("%s has left the chat".formatted(USER_ID_1)));
+
+        assertFalse(userManager2.isListed(USER_ID_1));
+        assertEquals(USER_ID_2, userManager2.getCoordinatorId());
+    }
+
+    @Test
+    void start_ClosesLink_IfHelloHasWrongSecret() throws IOException {
+        Map<String, String> details = Map.of("userId", "Intruder", "joined", "1", "status", "ACTIVE",
+                "socketAddress", SOCKET_ADDRESS);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), cluster1.getPort())) {
+            socket.setSoTimeout(5000);
+            ByteBuffer hello = Protocol.BINARY.encode(Message.nodeHello("node3", "wrong", Map.of("Intruder", details)));
+            socket.getOutputStream().write(hello.array(), hello.arrayOffset() + hello.position(), hello.remaining());
+
+            assertEquals(-1, socket.getInputStream().read()); // Closed without a reply
+            assertFalse(userManager1.isListed("Intruder"));
+        }
+    }
+
+    @Test
+    void stop_RemovesUsersOfNode_IfLinkLost() throws InterruptedException {
+        cluster2.stop();
+        awaitCondition(() -> stringWriter1.toString().contains("%s has left the chat".formatted(USER_ID_2)));
+
+        assertFalse(userManager1.isListed(USER_ID_2));
+    }
+}
@@ -7,6 +7,7 @@ import java.net.Socket;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import common.util.ConfigLoader;
 import server.model.UserManager;
 
 /**
@@ -32,4 +33,14 @@ public class ConnectionControllerTest {
         Socket mockSocket = null;
         assertDoesNotThrow(() -> connectionController.handleNewConnection(mockSocket));
     }
+
+    @Test
+    void handleNewConnection_StartsNewVirtualThread_IfVirtualThreadsEnabled() {
+        ConfigLoader config = new ConfigLoader();
+        config.set("server.engine", "virtual");
+        ConnectionController virtualConnectionController = new ConnectionController(userManager, config,
+                new ServerOptions());
+        Socket mockSocket = null;
+        assertDoesNotThrow(() -> virtualConnectionController.handleNewConnection(mockSocket));
+    }
 }
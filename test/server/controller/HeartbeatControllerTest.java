@@ -0,0 +1,92 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+import server.model.Frame;
+import server.model.OutboundQueue;
+import server.model.User;
+import server.model.UserConnection;
+
+/**
+ * Tests the HeartbeatController with short intervals, the user's connection only records when it is closed
+ */
+public class HeartbeatControllerTest {
+    private static final long INTERVAL_MS = 50;
+    private static final long TIMEOUT_MS = 200;
+    private OutboundQueue outbound;
+    private User user;
+    private volatile boolean closed;
+
+    @BeforeEach
+    void setUp() {
+        outbound = new OutboundQueue(16, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        closed = false;
+        user = new User("User1", "127.0.0.1:1549", outbound, new UserConnection() {
+            @Override
+            public void onFramesQueued() {
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+            }
+        });
+    }
+
+    private void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        for (int attempt = 0; attempt < 100 && !condition.getAsBoolean(); attempt++) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean(), "Condition not met in time");
+    }
+
+    @Test
+    void start_SendsPing_IfConnectionQuietForInterval() throws InterruptedException {
+        new HeartbeatController(INTERVAL_MS, TIMEOUT_MS).start(user);
+
+        awaitCondition(() -> outbound.getDepth() > 0);
+        Frame frame = outbound.poll();
+
+        assertEquals(Message.Type.PING, frame.getType());
+        assertFalse(closed);
+    }
+
+    @Test
+    void start_ClosesConnection_IfConnectionQuietForTimeout() throws InterruptedException {
+        new HeartbeatController(INTERVAL_MS, TIMEOUT_MS).start(user);
+
+        awaitCondition(() -> closed);
+
+        assertEquals(1, outbound.getDepth()); // One ping for the whole quiet period
+    }
+
+    @Test
+    void onReceived_KeepsConnection_IfClientAnswers() throws InterruptedException {
+        HeartbeatController.Heartbeat heartbeat = new HeartbeatController(INTERVAL_MS, TIMEOUT_MS).start(user);
+
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(INTERVAL_MS / 2);
+            heartbeat.onReceived();
+        }
+
+        assertFalse(closed);
+    }
+
+    @Test
+    void stop_KeepsConnection_IfHeartbeatStopped() throws InterruptedException {
+        new HeartbeatController(INTERVAL_MS, TIMEOUT_MS).start(user).stop();
+
+        Thread.sleep(TIMEOUT_MS * 2);
+
+        assertFalse(closed);
+        assertEquals(0, outbound.getDepth());
+    }
+}
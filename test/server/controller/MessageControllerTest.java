@@ -1,6 +1,7 @@
 package server.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.PrintWriter;
@@ -12,6 +13,7 @@ import org.junit.jupiter.api.Test;
 
 import common.model.Message;
 import common.util.MessageFormatter;
+import server.model.MessageHistory;
 import server.model.User;
 import server.model.UserManager;
 
@@ -38,6 +40,7 @@ public class MessageControllerTest {
     void setUp() {
         userManager = new UserManager();
         messageController = new MessageController(userManager);
+        messageController.start();
 
         stringWriter1 = new StringWriter();
         stringWriter2 = new StringWriter();
@@ -81,11 +84,11 @@ public class MessageControllerTest {
     }
 
     @Test
-    void controlUserLeave_SendsLeaveMessageAndUserList_IfUserLeaves() {
+    void controlUserLeave_SendsLeaveMessageAndRemovedUser_IfUserLeaves() {
         messageController.controlUserLeave(USER_ID_2, false);
         String output = getOutput(stringWriter1);
 
-        assertOutputContains(output, "%s has left the chat".formatted(USER_ID_2), "USER_LIST");
+        assertOutputContains(output, "%s has left the chat".formatted(USER_ID_2), "USER_REMOVED");
     }
 
     @Test
@@ -132,10 +135,21 @@ public class MessageControllerTest {
     }
 
     @Test
-    void controlStatusUpdate_TogglesUserStatusAndSendsUserList_IfReceivedStatusUpdate() {
+    void controlStatusUpdate_TogglesUserStatusAndSendsUpdatedUser_IfReceivedStatusUpdate() {
         messageController.controlStatusUpdate(USER_ID_1);
         String output = getOutput(stringWriter1);
-        assertOutputContains(output, "USER_LIST", "INACTIVE");
+        assertOutputContains(output, "USER_UPDATED", "INACTIVE");
+    }
+
+    @Test
+    void controlCommunication_SendsNothing_IfStatusAlreadySet() {
+        messageController.controlCommunication(USER_ID_1, Message.setStatus(USER_ID_1, "INACTIVE"));
+        messageController.controlCommunication(USER_ID_1, Message.setStatus(USER_ID_1, "INACTIVE")); // Repeated
+        String[] lines = getOutput(stringWriter2).split(System.lineSeparator());
+
+        assertEquals(1, lines.length);
+        assertOutputContains(lines[0], "USER_UPDATED", "INACTIVE");
+        assertEquals(1, messageController.getPresenceController().getUnchangedCount());
     }
 
     @Test
@@ -154,4 +168,190 @@ public class MessageControllerTest {
         assertOutputContainsForBothUsers("USER_LIST");
     }
 
+    @Test
+    void controlUserJoin_SendsUserListOnlyToNewUser_IfUserJoins() {
+        messageController.controlUserJoin(USER_ID_2);
+        String output1 = getOutput(stringWriter1);
+        String output2 = getOutput(stringWriter2);
+
+        assertOutputContains(output1, "USER_ADDED", "seq=1");
+        assertFalse(output1.contains("USER_LIST"));
+        assertOutputContains(output2, "type=USER_LIST", "seq=1");
+    }
+
+    @Test
+    void controlStatusUpdate_IncrementsRosterVersion_IfCalledTwice() {
+        messageController.controlStatusUpdate(USER_ID_1);
+        messageController.controlStatusUpdate(USER_ID_1);
+        String[] lines = getOutput(stringWriter2).split(System.lineSeparator());
+
+        assertEquals(1, parseMessage(lines[0]).getSequence());
+        assertEquals(2, parseMessage(lines[1]).getSequence());
+    }
+
+    @Test
+    void controlCommunication_SendsUserListAtCurrentVersion_IfUserListRequested() {
+        messageController.controlStatusUpdate(USER_ID_1);
+        messageController.controlCommunication(USER_ID_2, Message.requestUserList(USER_ID_2));
+        String[] lines = getOutput(stringWriter2).split(System.lineSeparator());
+        Message userList = parseMessage(lines[1]);
+
+        assertEquals(Message.Type.USER_LIST, userList.getType());
+        assertEquals(1, userList.getSequence());
+    }
+
+    @Test
+    void flushMembershipChanges_SendsOneAnnouncementAndOneUpdate_IfChangesCollected() {
+        MessageController coalescingController = new MessageController(userManager,
+                new ServerOptions().withMembershipWindow(60_000)); // Flushed by the test
+        coalescingController.start();
+        coalescingController.controlUserJoin(USER_ID_2);
+        coalescingController.controlStatusUpdate(USER_ID_1);
+        coalescingController.flushMembershipChanges();
+
+        String[] lines1 = getOutput(stringWriter1).split(System.lineSeparator());
+        Message update = parseMessage(lines1[1]);
+
+        assertEquals(2, lines1.length);
+        assertOutputContains(lines1[0], "%s has joined the chat.".formatted(USER_ID_2));
+        assertEquals(Message.Type.USER_LIST_UPDATE, update.getType());
+        assertEquals(1, update.getSequence());
+        assertOutputContains(getOutput(stringWriter2), "type=USER_LIST&", "is the coordinator");
+        assertEquals(2, coalescingController.getMembershipEventCount());
+        assertEquals(1, coalescingController.getMembershipFlushCount());
+    }
+
+    @Test
+    void flushMembershipChanges_DoesNotAnnounce_IfUserReconnectedWithinWindow() {
+        MessageController coalescingController = new MessageController(userManager,
+                new ServerOptions().withMembershipWindow(60_000));
+        coalescingController.start();
+        coalescingController.controlUserLeave(USER_ID_2, false);
+        coalescingController.controlUserJoin(USER_ID_2);
+        coalescingController.flushMembershipChanges();
+        String output = getOutput(stringWriter1);
+
+        assertFalse(output.contains("left the chat"));
+        assertFalse(output.contains("joined the chat"));
+        assertOutputContains(output, "USER_LIST_UPDATE");
+    }
+
+    @Test
+    void attachUser_SendsRecentGroupMessagesOnly_IfHistoryKept() {
+        MessageController historyController = new MessageController(userManager,
+                new ServerOptions().withHistory(new MessageHistory(2, 4096, 10)));
+        historyController.start();
+        historyController.sendMessage(USER_ID_2, GROUP_ID, "first");
+        historyController.sendMessage(USER_ID_2, GROUP_ID, "second");
+        historyController.sendMessage(USER_ID_2, GROUP_ID, "third");
+        historyController.sendMessage(USER_ID_2, USER_ID_1, "private");
+        historyController.sendMessage(SERVER_ID, GROUP_ID, "not kept");
+        stringWriter1.getBuffer().setLength(0);
+
+        historyController.attachUser(USER_ID_1, Map.of(), () -> true);
+        historyController.controlUserJoin(USER_ID_1);
+        String[] lines = getOutput(stringWriter1).split(System.lineSeparator());
+
+        assertEquals("second", parseMessage(lines[0]).getContent());
+        assertEquals("third", parseMessage(lines[1]).getContent());
+        assertOutputContains(lines[2], "%s has joined the chat.".formatted(USER_ID_1));
+        assertFalse(getOutput(stringWriter1).contains("private"));
+    }
+
+    @Test
+    void resumeUser_SendsPrivateMessages_IfSessionResumed() {
+        MessageController historyController = new MessageController(userManager,
+                new ServerOptions().withHistory(new MessageHistory(2, 4096, 10)));
+        historyController.start();
+        historyController.sendMessage(USER_ID_2, GROUP_ID, "group");
+        historyController.sendMessage(USER_ID_2, USER_ID_1, "private");
+        stringWriter1.getBuffer().setLength(0);
+
+        historyController.resumeUser(USER_ID_1, Map.of(), () -> true);
+        String[] lines = getOutput(stringWriter1).split(System.lineSeparator());
+
+        assertEquals("group", parseMessage(lines[0]).getContent());
+        assertEquals("private", parseMessage(lines[1]).getContent());
+    }
+
+    @Test
+    void controlUserLeave_DropsPrivateMessages_IfSessionEnded() {
+        MessageController historyController = new MessageController(userManager,
+                new ServerOptions().withHistory(new MessageHistory(2, 4096, 10)));
+        historyController.start();
+        historyController.sendMessage(USER_ID_2, USER_ID_1, "private");
+        historyController.controlUserLeave(USER_ID_1, false);
+        stringWriter1.getBuffer().setLength(0);
+
+        historyController.resumeUser(USER_ID_1, Map.of(), () -> true);
+
+        assertFalse(getOutput(stringWriter1).contains("private"));
+    }
+
+    @Test
+    void attachUser_SkipsReceivedMessages_IfLastSequencesGiven() {
+        MessageController historyController = new MessageController(userManager,
+                new ServerOptions().withHistory(new MessageHistory(10, 4096, 10)));
+        historyController.start();
+        historyController.sendMessage(USER_ID_2, GROUP_ID, "received");
+        long lastSequence = parseMessage(getOutput(stringWriter1).trim()).getSequence();
+        historyController.sendMessage(USER_ID_2, GROUP_ID, "missed");
+        stringWriter1.getBuffer().setLength(0);
+
+        historyController.attachUser(USER_ID_1, Map.of(GROUP_ID, lastSequence), () -> true);
+
+        assertEquals("missed", parseMessage(getOutput(stringWriter1).trim()).getContent());
+    }
+
+    @Test
+    void sendMessage_DeliversToRoomMembersOnly_IfSentToRoom() {
+        StringWriter stringWriter3 = new StringWriter();
+        userManager.addUser(new User("User3", SOCKET_ADDRESS, new PrintWriter(stringWriter3, true)));
+        messageController.createRoom(USER_ID_1, "#team");
+        messageController.joinRoom(USER_ID_2, "#team");
+
+        messageController.sendMessage(USER_ID_2, "#team", EXAMPLE_MESSAGE);
+
+        assertOutputContainsForBothUsers("recipient=#team", EXAMPLE_MESSAGE);
+        assertOutputContains(getOutput(stringWriter1), "%s has joined #team.".formatted(USER_ID_2));
+        assertFalse(getOutput(stringWriter3).contains(EXAMPLE_MESSAGE));
+    }
+
+    @Test
+    void sendMessage_RejectsMessage_IfSenderNotInRoom() {
+        messageController.createRoom(USER_ID_1, "#team");
+
+        messageController.sendMessage(USER_ID_2, "#team", EXAMPLE_MESSAGE);
+
+        assertFalse(getOutput(stringWriter1).contains(EXAMPLE_MESSAGE));
+        assertOutputContains(getOutput(stringWriter2), "You are not in #team.");
+    }
+
+    @Test
+    void joinRoom_SendsRoomHistoryAfterConfirmation_IfRoomHasMessages() {
+        MessageController historyController = new MessageController(userManager,
+                new ServerOptions().withHistory(new MessageHistory(10, 4096, 10)));
+        historyController.start();
+        historyController.createRoom(USER_ID_1, "#team");
+        historyController.sendMessage(USER_ID_1, "#team", EXAMPLE_MESSAGE);
+
+        historyController.joinRoom(USER_ID_2, "#team");
+        String[] lines = getOutput(stringWriter2).split(System.lineSeparator());
+
+        assertEquals(Message.Type.JOIN_ROOM, parseMessage(lines[0]).getType());
+        assertEquals(EXAMPLE_MESSAGE, parseMessage(lines[1]).getContent());
+    }
+
+    @Test
+    void leaveRoom_StopsDelivery_IfUserLeftRoom() {
+        messageController.createRoom(USER_ID_1, "#team");
+        messageController.joinRoom(USER_ID_2, "#team");
+        messageController.leaveRoom(USER_ID_2, "#team");
+
+        messageController.sendMessage(USER_ID_1, "#team", EXAMPLE_MESSAGE);
+
+        assertOutputContains(getOutput(stringWriter2), "type=LEAVE_ROOM");
+        assertFalse(getOutput(stringWriter2).contains(EXAMPLE_MESSAGE));
+        assertOutputContains(getOutput(stringWriter1), "%s has left #team.".formatted(USER_ID_2));
+    }
 }
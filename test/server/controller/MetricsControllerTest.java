@@ -0,0 +1,48 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import server.model.Metrics;
+
+/**
+ * Tests the MetricsController endpoint on a free local port
+ */
+public class MetricsControllerTest {
+    @Test
+    void start_ServesPrometheusText_IfScraped() throws IOException, InterruptedException {
+        Metrics metrics = new Metrics();
+        metrics.countReceived(Message.Type.MESSAGE);
+        MetricsController metricsController = new MetricsController(metrics, new InetSocketAddress("localhost", 0));
+        metricsController.start();
+
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest
+                    .newBuilder(URI.create("http://localhost:%d/metrics".formatted(metricsController.getPort())))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+            assertTrue(response.body().contains("chat_messages_received_total{type=\"MESSAGE\"} 1\n"));
+        } finally {
+            metricsController.stop();
+        }
+    }
+
+    @Test
+    void fromConfig_ReturnsNull_IfNoPortConfigured() {
+        assertNull(MetricsController.fromConfig(new Metrics(), new ConfigLoader()));
+    }
+}
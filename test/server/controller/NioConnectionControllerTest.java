@@ -0,0 +1,374 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+import common.util.ConfigLoader;
+import common.util.MessageDecoder;
+import common.util.MessageFormatter;
+import common.util.Protocol;
+import server.model.UserManager;
+
+/**
+ * Tests the NioConnectionController by joining through a real loopback connection
+ */
+public class NioConnectionControllerTest {
+    private UserManager userManager;
+    private static final String USER_ID = "User1";
+
+    @BeforeEach
+    void setUp() {
+        userManager = new UserManager();
+    }
+
+    private int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void startServer(int port) throws IOException {
+        startServer(port, new ConfigLoader());
+    }
+
+    private void startServer(int port, ConfigLoader config) throws IOException {
+        config.set("server.nio.threads", "1");
+        NioConnectionController connectionController = new NioConnectionController(userManager, config,
+                new ServerOptions());
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+        Thread acceptThread = new Thread(() -> {
+            try {
+                connectionController.listen(address);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private Socket connect(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 20; attempt++) { // Wait for the server channel to be bound
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start");
+    }
+
+    private Message readUntil(BufferedReader reader, Message.Type type, String content) throws IOException {
+        while (true) {
+            Message message = MessageFormatter.parse(reader.readLine());
+            if (message.getType() == type && (content == null || content.equals(message.getContent()))) {
+                return message;
+            }
+        }
+    }
+
+    @Test
+    void constructor_CreatesNioConnectionController_IfGivenUserManager() {
+        assertDoesNotThrow(() -> new NioConnectionController(userManager, new ConfigLoader(), new ServerOptions()));
+    }
+
+    @Test
+    void listen_AddsUserAndAnnouncesJoin_IfClientSendsJoinRequest() throws Exception {
+        int port = findFreePort();
+        startServer(port);
+
+        try (Socket socket = connect(port)) {
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            writer.println(MessageFormatter.format(Message.requestJoin(USER_ID)));
+
+            Message response = MessageFormatter.parse(reader.readLine());
+
+            assertEquals(Message.Type.MESSAGE, response.getType());
+            assertTrue(((String) response.getContent()).contains("%s has joined the chat".formatted(USER_ID)));
+            assertEquals(USER_ID, userManager.getCoordinatorId());
+        }
+    }
+
+    @Test
+    void listen_SwitchesToBinaryFrames_IfClientRequestsBinaryProtocol() throws Exception {
+        int port = findFreePort();
+        startServer(port);
+
+        try (Socket socket = connect(port)) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = socket.getInputStream();
+            MessageDecoder decoder = new MessageDecoder();
+            Message joinRequest = Message.requestJoin(USER_ID, Map.of(Protocol.OPTION, Protocol.BINARY.getName()));
+            output.write(Protocol.TEXT.encode(joinRequest).array());
+
+            Message accept = decoder.read(input);
+            decoder.setProtocol(Protocol.fromOptions((Map<?, ?>) accept.getContent()));
+            Message announcement = decoder.read(input);
+
+            assertEquals(Message.Type.ACCEPT_USER_JOIN, accept.getType());
+            assertEquals(Protocol.BINARY, decoder.getProtocol());
+            assertEquals(Message.Type.MESSAGE, announcement.getType());
+            assertTrue(((String) announcement.getContent()).contains("%s has joined the chat".formatted(USER_ID)));
+        }
+    }
+
+    @Test
+    void listen_RepliesToNextJoin_IfClientOnSameLoopSendsMalformedLine() throws Exception {
+        int port = findFreePort();
+        startServer(port); // One event loop
+
+        try (Socket malformed = connect(port); Socket socket = connect(port)) {
+            malformed.setSoTimeout(5000);
+            socket.setSoTimeout(5000);
+            new PrintWriter(malformed.getOutputStream(), true).println("garbage");
+            BufferedReader malformedReader = new BufferedReader(new InputStreamReader(malformed.getInputStream()));
+            assertNull(malformedReader.readLine()); // Closed by the server
+
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            writer.println(MessageFormatter.format(Message.requestJoin(USER_ID,
+                    Map.of(Protocol.OPTION, Protocol.TEXT.getName()))));
+
+            assertEquals(Message.Type.ACCEPT_USER_JOIN, MessageFormatter.parse(reader.readLine()).getType());
+        }
+    }
+
+    @Test
+    void listen_RepliesToNextJoin_IfHandlingClientMessageFails() throws Exception {
+        int port = findFreePort();
+        startServer(port);
+
+        try (Socket failing = connect(port); Socket socket = connect(port)) {
+            failing.setSoTimeout(5000);
+            socket.setSoTimeout(5000);
+            OutputStream output = failing.getOutputStream();
+            MessageDecoder decoder = new MessageDecoder();
+            output.write(Protocol.TEXT.encode(Message.requestJoin("User2",
+                    Map.of(Protocol.OPTION, Protocol.BINARY.getName()))).array());
+            decoder.read(failing.getInputStream());
+            decoder.setProtocol(Protocol.BINARY);
+            Message mapContent = new Message(Message.Type.MESSAGE, "User2", "Group", Map.of("not", "text"));
+            ByteBuffer frame = Protocol.BINARY.encode(mapContent); // Chat messages are handled as text
+            output.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            while (decoder.read(failing.getInputStream()) != null) {
+                // Skip what was sent before the connection was closed
+            }
+
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            writer.println(MessageFormatter.format(Message.requestJoin(USER_ID,
+                    Map.of(Protocol.OPTION, Protocol.TEXT.getName()))));
+
+            assertEquals(Message.Type.ACCEPT_USER_JOIN, MessageFormatter.parse(reader.readLine()).getType());
+        }
+    }
+
+    @Test
+    void listen_DoesNotForwardLineBreak_IfBinaryClientSendsItToTextClient() throws Exception {
+        int port = findFreePort();
+        startServer(port);
+
+        try (Socket text = connect(port); Socket binary = connect(port)) {
+            text.setSoTimeout(5000);
+            binary.setSoTimeout(5000);
+            PrintWriter writer = new PrintWriter(text.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(text.getInputStream()));
+            writer.println(MessageFormatter.format(Message.requestJoin(USER_ID,
+                    Map.of(Protocol.OPTION, Protocol.TEXT.getName()))));
+            readUntil(reader, Message.Type.ACCEPT_USER_JOIN, null);
+
+            OutputStream output = binary.getOutputStream();
+            MessageDecoder decoder = new MessageDecoder();
+            output.write(Protocol.TEXT.encode(Message.requestJoin("User2",
+                    Map.of(Protocol.OPTION, Protocol.BINARY.getName()))).array());
+            decoder.read(binary.getInputStream());
+            ByteBuffer frame = Protocol.BINARY.encode(Message.sendMessage("User2", "Group",
+                    "hi\ntype=MESSAGE&sender=bob&recipient=Group&content=forged"));
+            output.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+
+            writer.println(MessageFormatter.format(Message.sendMessage(USER_ID, "Group", "marker")));
+            String line;
+            while (!(line = reader.readLine()).endsWith("content=marker")) {
+                assertFalse(line.contains("forged"));
+            }
+        }
+    }
+
+    @Test
+    void listen_ResendsOnlyMissedMessages_IfClientResumesWithinGraceWindow() throws Exception {
+        int port = findFreePort();
+        ConfigLoader config = new ConfigLoader();
+        config.set("server.reconnect.grace.ms", "10000");
+        startServer(port, config);
+
+        Map<String, String> textOptions = Map.of(Protocol.OPTION, Protocol.TEXT.getName());
+        try (Socket other = connect(port)) {
+            other.setSoTimeout(5000);
+            PrintWriter otherWriter = new PrintWriter(other.getOutputStream(), true);
+            BufferedReader otherReader = new BufferedReader(new InputStreamReader(other.getInputStream()));
+            otherWriter.println(MessageFormatter.format(Message.requestJoin("User2", textOptions)));
+            readUntil(otherReader, Message.Type.ACCEPT_USER_JOIN, null);
+
+            Map<?, ?> accepted;
+            long lastSequence;
+            try (Socket lost = connect(port)) {
+                lost.setSoTimeout(5000);
+                PrintWriter writer = new PrintWriter(lost.getOutputStream(), true);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(lost.getInputStream()));
+                writer.println(MessageFormatter.format(Message.requestJoin(USER_ID, textOptions)));
+                accepted = (Map<?, ?>) readUntil(reader, Message.Type.ACCEPT_USER_JOIN, null).getContent();
+
+                otherWriter.println(MessageFormatter.format(Message.sendMessage("User2", "Group", "seen")));
+                lastSequence = readUntil(reader, Message.Type.MESSAGE, "seen").getSequence();
+            }
+            Thread.sleep(200); // Let the server notice the lost connection
+
+            otherWriter.println(MessageFormatter.format(Message.sendMessage("User2", "Group", "missed")));
+            readUntil(otherReader, Message.Type.MESSAGE, "missed");
+
+            try (Socket resumed = connect(port)) {
+                resumed.setSoTimeout(5000);
+                PrintWriter writer = new PrintWriter(resumed.getOutputStream(), true);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(resumed.getInputStream()));
+                writer.println(MessageFormatter.format(Message.requestJoin(USER_ID,
+                        Map.of(Protocol.OPTION, Protocol.TEXT.getName(), Message.RESUME_OPTION, "true",
+                                Message.TOKEN_OPTION, (String) accepted.get(Message.TOKEN_OPTION),
+                                Message.EPOCH_OPTION, (String) accepted.get(Message.EPOCH_OPTION),
+                                Message.SEQUENCE_OPTION_PREFIX + "Group", Long.toString(lastSequence)))));
+
+                Message accept = MessageFormatter.parse(reader.readLine());
+                assertEquals("true", ((Map<?, ?>) accept.getContent()).get(Message.RESUMED_OPTION));
+                assertEquals("missed", MessageFormatter.parse(reader.readLine()).getContent());
+                assertEquals(Message.Type.USER_LIST, MessageFormatter.parse(reader.readLine()).getType());
+                assertEquals(2, userManager.getRoster().size());
+            }
+        }
+    }
+
+    @Test
+    void listen_ResendsOnlyMissedRoomMessages_IfTextClientResumesWithRoomSequence() throws Exception {
+        int port = findFreePort();
+        ConfigLoader config = new ConfigLoader();
+        config.set("server.reconnect.grace.ms", "10000");
+        startServer(port, config);
+
+        Map<String, String> textOptions = Map.of(Protocol.OPTION, Protocol.TEXT.getName());
+        try (Socket other = connect(port)) {
+            other.setSoTimeout(5000);
+            PrintWriter otherWriter = new PrintWriter(other.getOutputStream(), true);
+            BufferedReader otherReader = new BufferedReader(new InputStreamReader(other.getInputStream()));
+            otherWriter.println(MessageFormatter.format(Message.requestJoin("User2", textOptions)));
+            readUntil(otherReader, Message.Type.ACCEPT_USER_JOIN, null);
+
+            Map<?, ?> accepted;
+            long lastRoomSequence;
+            long lastGroupSequence;
+            try (Socket lost = connect(port)) {
+                lost.setSoTimeout(5000);
+                PrintWriter writer = new PrintWriter(lost.getOutputStream(), true);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(lost.getInputStream()));
+                writer.println(MessageFormatter.format(Message.requestJoin(USER_ID, textOptions)));
+                accepted = (Map<?, ?>) readUntil(reader, Message.Type.ACCEPT_USER_JOIN, null).getContent();
+                writer.println(MessageFormatter.format(Message.createRoom(USER_ID, "#team")));
+                readUntil(reader, Message.Type.JOIN_ROOM, "#team");
+                otherWriter.println(MessageFormatter.format(Message.joinRoom("User2", "#team")));
+                readUntil(otherReader, Message.Type.JOIN_ROOM, "#team");
+
+                otherWriter.println(MessageFormatter.format(Message.sendMessage("User2", "#team", "seen")));
+                lastRoomSequence = readUntil(reader, Message.Type.MESSAGE, "seen").getSequence();
+                otherWriter.println(MessageFormatter.format(Message.sendMessage("User2", "Group", "seen")));
+                lastGroupSequence = readUntil(reader, Message.Type.MESSAGE, "seen").getSequence();
+            }
+            Thread.sleep(200); // Let the server notice the lost connection
+
+            otherWriter.println(MessageFormatter.format(Message.sendMessage("User2", "#team", "missed")));
+            readUntil(otherReader, Message.Type.MESSAGE, "missed");
+
+            try (Socket resumed = connect(port)) {
+                resumed.setSoTimeout(5000);
+                PrintWriter writer = new PrintWriter(resumed.getOutputStream(), true);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(resumed.getInputStream()));
+                Map<String, String> resumeOptions = new LinkedHashMap<>(); // Room before Group, as parsed in order
+                resumeOptions.put(Protocol.OPTION, Protocol.TEXT.getName());
+                resumeOptions.put(Message.RESUME_OPTION, "true");
+                resumeOptions.put(Message.TOKEN_OPTION, (String) accepted.get(Message.TOKEN_OPTION));
+                resumeOptions.put(Message.EPOCH_OPTION, (String) accepted.get(Message.EPOCH_OPTION));
+                resumeOptions.put(Message.SEQUENCE_OPTION_PREFIX + "#team", Long.toString(lastRoomSequence));
+                resumeOptions.put(Message.SEQUENCE_OPTION_PREFIX + "Group", Long.toString(lastGroupSequence));
+                writer.println(MessageFormatter.format(Message.requestJoin(USER_ID, resumeOptions)));
+
+                Message accept = MessageFormatter.parse(reader.readLine());
+                assertEquals("true", ((Map<?, ?>) accept.getContent()).get(Message.RESUMED_OPTION));
+                Message missed = MessageFormatter.parse(reader.readLine());
+                assertEquals("#team", missed.getRecipient());
+                assertEquals("missed", missed.getContent());
+                assertEquals(Message.Type.USER_LIST, MessageFormatter.parse(reader.readLine()).getType());
+            }
+        }
+    }
+
+    @Test
+    void listen_TakesOverSession_IfClientResumesBeforeOldConnectionIsNoticed() throws Exception {
+        int port = findFreePort();
+        ConfigLoader config = new ConfigLoader();
+        config.set("server.reconnect.grace.ms", "500");
+        startServer(port, config);
+
+        Map<String, String> textOptions = Map.of(Protocol.OPTION, Protocol.TEXT.getName());
+        try (Socket stale = connect(port); Socket resumed = connect(port)) {
+            stale.setSoTimeout(5000);
+            resumed.setSoTimeout(5000);
+            PrintWriter staleWriter = new PrintWriter(stale.getOutputStream(), true);
+            BufferedReader staleReader = new BufferedReader(new InputStreamReader(stale.getInputStream()));
+            staleWriter.println(MessageFormatter.format(Message.requestJoin(USER_ID, textOptions)));
+            Map<?, ?> accepted = (Map<?, ?>) readUntil(staleReader, Message.Type.ACCEPT_USER_JOIN, null).getContent();
+            readUntil(staleReader, Message.Type.USER_LIST, null);
+
+            PrintWriter writer = new PrintWriter(resumed.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(resumed.getInputStream()));
+            writer.println(MessageFormatter.format(Message.requestJoin(USER_ID, Map.of(Protocol.OPTION,
+                    Protocol.TEXT.getName(), Message.RESUME_OPTION, "true",
+                    Message.TOKEN_OPTION, (String) accepted.get(Message.TOKEN_OPTION)))));
+
+            Message accept = MessageFormatter.parse(reader.readLine());
+            assertEquals(Message.Type.ACCEPT_USER_JOIN, accept.getType());
+            assertEquals("true", ((Map<?, ?>) accept.getContent()).get(Message.RESUMED_OPTION));
+            assertNull(readUntilClosed(staleReader)); // Old connection closed by the server
+            assertEquals(1, userManager.getRoster().size());
+            Thread.sleep(1000); // Past the grace window of the old connection
+            assertNotNull(userManager.getUser(USER_ID));
+        }
+    }
+
+    private String readUntilClosed(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Skip what was queued before the take-over
+        }
+        return line;
+    }
+}
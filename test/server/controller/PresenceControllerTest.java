@@ -0,0 +1,104 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Tests the PresenceController, published changes are recorded instead of being sent to clients
+ */
+public class PresenceControllerTest {
+    private static final String USER_ID_1 = "User1";
+    private static final String USER_ID_2 = "User2";
+    private static final int LONG_MS = 60_000; // Window or half-life that does not end during a test
+    private UserManager userManager;
+    private final List<Set<String>> published = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        userManager = new UserManager();
+        userManager.addUser(new User(USER_ID_1, "127.0.0.1:1549", new PrintWriter(new StringWriter(), true)));
+        userManager.addUser(new User(USER_ID_2, "127.0.0.1:1549", new PrintWriter(new StringWriter(), true)));
+    }
+
+    private PresenceController createPresence(int windowMs, int halfLifeMs) {
+        PresenceController presence = new PresenceController(userManager, windowMs, halfLifeMs);
+        presence.start(published::add);
+        return presence;
+    }
+
+    @Test
+    void setStatus_PublishesNothing_IfUserAlreadyHasStatus() {
+        PresenceController presence = createPresence(0, 0);
+
+        assertFalse(presence.setStatus(USER_ID_1, User.Status.ACTIVE));
+        assertEquals(List.of(), published);
+        assertEquals(1, presence.getUnchangedCount());
+    }
+
+    @Test
+    void flush_PublishesUsersTogether_IfChangedWithinWindow() {
+        PresenceController presence = createPresence(LONG_MS, 0); // Flushed by the test
+        presence.setStatus(USER_ID_1, User.Status.INACTIVE);
+        presence.setStatus(USER_ID_2, User.Status.INACTIVE);
+
+        assertEquals(List.of(), published);
+        presence.flush();
+
+        assertEquals(List.of(Set.of(USER_ID_1, USER_ID_2)), published);
+        assertEquals(1, presence.getFlushCount());
+    }
+
+    @Test
+    void flush_PublishesNothing_IfStatusFlippedBackWithinWindow() {
+        PresenceController presence = createPresence(LONG_MS, 0);
+        presence.setStatus(USER_ID_1, User.Status.INACTIVE);
+        presence.setStatus(USER_ID_1, User.Status.ACTIVE);
+
+        presence.flush();
+
+        assertEquals(List.of(), published);
+        assertEquals(User.Status.ACTIVE, userManager.getUser(USER_ID_1).getStatus());
+    }
+
+    @Test
+    void setStatus_HoldsChangesBack_IfUserFlaps() {
+        PresenceController presence = createPresence(0, LONG_MS);
+        for (int i = 0; i < 3; i++) {
+            presence.setStatus(USER_ID_1, User.Status.INACTIVE);
+            presence.setStatus(USER_ID_1, User.Status.ACTIVE);
+        }
+
+        assertEquals(2, published.size()); // The third change reached the suppress limit
+        assertEquals(4, presence.getDampedCount());
+        assertEquals(User.Status.ACTIVE, userManager.getUser(USER_ID_1).getStatus()); // Still applied locally
+    }
+
+    @Test
+    void setStatus_PublishesLatestStatus_IfDampedUserCalmedDown() throws InterruptedException {
+        PresenceController presence = createPresence(0, 200);
+        presence.setStatus(USER_ID_1, User.Status.INACTIVE);
+        presence.setStatus(USER_ID_1, User.Status.ACTIVE);
+        presence.setStatus(USER_ID_1, User.Status.INACTIVE); // Damped
+
+        for (int attempt = 0; attempt < 100 && published.size() < 3; attempt++) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(3, published.size());
+        assertTrue(presence.getDampedCount() > 0);
+        assertEquals(User.Status.INACTIVE, userManager.getUser(USER_ID_1).getStatus());
+    }
+}
@@ -0,0 +1,115 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the RateLimitController with rates low enough that no token is refilled during a test
+ */
+public class RateLimitControllerTest {
+    private static final RateLimitController.Limit SLOW = new RateLimitController.Limit(0.01, 2);
+
+    private RateLimitController createController(RateLimitController.Action action) {
+        return new RateLimitController(null, Map.of(Message.Type.MESSAGE, SLOW), action, 1000);
+    }
+
+    @Test
+    void check_DropsMessage_IfTypeOverLimit() {
+        RateLimitController controller = createController(RateLimitController.Action.DROP);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+
+        assertEquals(RateLimitController.Verdict.HANDLE, limiter.check(Message.Type.MESSAGE));
+        assertEquals(RateLimitController.Verdict.HANDLE, limiter.check(Message.Type.MESSAGE));
+        assertEquals(RateLimitController.Verdict.DROP, limiter.check(Message.Type.MESSAGE));
+        assertEquals(RateLimitController.Verdict.HANDLE, limiter.check(Message.Type.SET_STATUS));
+        assertEquals(1, controller.getRejectedCount(Message.Type.MESSAGE));
+        assertEquals(1, controller.getDroppedCount());
+        assertEquals(Map.of("User1", 1L), controller.getRejectionsByUser());
+    }
+
+    @Test
+    void check_LimitsEveryType_IfConnectionOverLimit() {
+        RateLimitController controller = new RateLimitController(SLOW, Map.of(),
+                RateLimitController.Action.DISCONNECT, 1000);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+        limiter.check(Message.Type.MESSAGE);
+        limiter.check(Message.Type.USER_DETAILS_REQUEST);
+
+        assertEquals(RateLimitController.Verdict.DISCONNECT, limiter.check(Message.Type.OPEN_PRIVATE_CHAT));
+        assertEquals(RateLimitController.Verdict.HANDLE, limiter.check(Message.Type.PONG));
+        assertEquals(1, controller.getDisconnectedCount());
+    }
+
+    @Test
+    void check_DelaysMessage_IfTokenWithinMaxDelay() {
+        RateLimitController controller = new RateLimitController(null,
+                Map.of(Message.Type.MESSAGE, new RateLimitController.Limit(10, 1)), RateLimitController.Action.DELAY,
+                1000);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+        limiter.check(Message.Type.MESSAGE);
+
+        assertEquals(RateLimitController.Verdict.DELAY, limiter.check(Message.Type.MESSAGE));
+        assertTrue(limiter.getDelayNanos() > 0 && limiter.getDelayNanos() <= 100_000_000);
+        assertEquals(RateLimitController.Verdict.DELAY, limiter.check(Message.Type.MESSAGE));
+        assertTrue(limiter.getDelayNanos() > 100_000_000); // Queued behind the first delayed message
+        assertEquals(2, controller.getDelayedCount());
+    }
+
+    @Test
+    void check_DropsMessage_IfTokenBeyondMaxDelay() {
+        RateLimitController controller = createController(RateLimitController.Action.DELAY);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+        limiter.check(Message.Type.MESSAGE);
+        limiter.check(Message.Type.MESSAGE);
+
+        assertEquals(RateLimitController.Verdict.DROP, limiter.check(Message.Type.MESSAGE));
+        assertEquals(0, controller.getDelayedCount());
+    }
+
+    @Test
+    void check_KeepsTypeToken_IfConnectionOverLimit() throws InterruptedException {
+        RateLimitController controller = new RateLimitController(new RateLimitController.Limit(10, 1),
+                Map.of(Message.Type.MESSAGE, new RateLimitController.Limit(0.01, 1)),
+                RateLimitController.Action.DROP, 1000);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+        limiter.check(Message.Type.SET_STATUS);
+
+        assertEquals(RateLimitController.Verdict.DROP, limiter.check(Message.Type.MESSAGE));
+        Thread.sleep(150); // Connection token refilled, the message token would not be
+        assertEquals(RateLimitController.Verdict.HANDLE, limiter.check(Message.Type.MESSAGE));
+    }
+
+    @Test
+    void start_KeepsBuckets_IfSessionResumed() {
+        RateLimitController controller = createController(RateLimitController.Action.DROP);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+        limiter.check(Message.Type.MESSAGE);
+        limiter.check(Message.Type.MESSAGE);
+
+        RateLimitController.Limiter resumed = controller.start("User1", "Token1");
+
+        assertEquals(RateLimitController.Verdict.DROP, resumed.check(Message.Type.MESSAGE));
+        assertEquals(RateLimitController.Verdict.HANDLE,
+                controller.start("User1", "Token2").check(Message.Type.MESSAGE)); // A new session
+    }
+
+    @Test
+    void end_RemovesRejections_IfSessionEnded() {
+        RateLimitController controller = createController(RateLimitController.Action.DROP);
+        RateLimitController.Limiter limiter = controller.start("User1", "Token1");
+        limiter.check(Message.Type.MESSAGE);
+        limiter.check(Message.Type.MESSAGE);
+        limiter.check(Message.Type.MESSAGE);
+
+        controller.end("Token1");
+
+        assertTrue(controller.getRejectionsByUser().isEmpty());
+        assertEquals(1, controller.getRejectedCount(Message.Type.MESSAGE));
+    }
+}
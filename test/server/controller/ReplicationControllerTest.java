@@ -0,0 +1,137 @@
+package server.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import server.model.Frame;
+import server.model.MessageHistory;
+import server.model.Replica;
+import server.model.User;
+import server.model.UserManager;
+
+/**
+ * Tests the ReplicationController by following a primary in the same JVM with a StandbyController over loopback.
+ * Users write to a StringWriter, so only the replication link uses a real socket
+ */
+public class ReplicationControllerTest {
+    private UserManager userManager;
+    private MessageHistory history;
+    private ReplicationController replication;
+    private MessageController messageController;
+    private CompletableFuture<Replica> takeover;
+
+    private static final String USER_ID_1 = "User1";
+    private static final String USER_ID_2 = "User2";
+    private static final String GROUP_ID = "Group";
+    private static final String SOCKET_ADDRESS = "127.0.0.1:1549";
+    private static final String EXAMPLE_MESSAGE = "Hello World!";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        userManager = new UserManager();
+        history = new MessageHistory(10, 4096, 10);
+        replication = new ReplicationController(userManager, 0);
+        messageController = new MessageController(userManager,
+                new ServerOptions().withHistory(history).withReplication(replication));
+        messageController.start();
+        replication.start(history);
+        joinUser(USER_ID_1); // Sent in the state when the standby links
+    }
+
+    @AfterEach
+    void tearDown() {
+        replication.stop();
+        if (takeover != null) {
+            takeover.cancel(true);
+        }
+    }
+
+    private void joinUser(String userId) {
+        User user = new User(userId, SOCKET_ADDRESS, new PrintWriter(new StringWriter(), true));
+        user.setSessionToken("token-" + userId);
+        userManager.addUser(user);
+        messageController.controlUserJoin(userId);
+    }
+
+    private void startStandby() throws InterruptedException {
+        StandbyController standby = new StandbyController(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                replication.getPort()), 200, new Replica(10, 4096, 10));
+        takeover = CompletableFuture.supplyAsync(() -> {
+            try {
+                return standby.awaitTakeover();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        awaitCondition(() -> replication.getStandbyCount() == 1);
+    }
+
+    private Replica stopPrimary() throws Exception {
+        replication.stop();
+        return takeover.get(5, TimeUnit.SECONDS);
+    }
+
+    private void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        for (int attempt = 0; attempt < 250 && !condition.getAsBoolean(); attempt++) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean(), "Condition not met in time");
+    }
+
+    @Test
+    void awaitTakeover_ReturnsSessionsOfPrimary_IfPrimaryStops() throws Exception {
+        startStandby();
+        joinUser(USER_ID_2);
+        messageController.controlStatusUpdate(USER_ID_2);
+
+        Replica replica = stopPrimary();
+        List<Replica.Session> sessions = replica.getSessions();
+
+        assertEquals(2, sessions.size());
+        assertEquals(USER_ID_1, replica.getCoordinatorId());
+        assertEquals("token-" + USER_ID_2, sessions.get(1).sessionToken());
+        assertEquals(User.Status.INACTIVE, sessions.get(1).status());
+    }
+
+    @Test
+    void awaitTakeover_HandsCoordinatorOver_IfCoordinatorLeft() throws Exception {
+        startStandby();
+        joinUser(USER_ID_2);
+        userManager.removeUser(USER_ID_1);
+        messageController.controlUserLeave(USER_ID_1, true);
+
+        Replica replica = stopPrimary();
+
+        assertEquals(1, replica.getSessions().size());
+        assertEquals(USER_ID_2, replica.getCoordinatorId());
+    }
+
+    @Test
+    void awaitTakeover_KeepsMessagesAndSequences_IfSentBeforeAndAfterLink() throws Exception {
+        messageController.sendMessage(USER_ID_1, GROUP_ID, EXAMPLE_MESSAGE); // Sent in the state
+        startStandby();
+        messageController.sendMessage(USER_ID_1, GROUP_ID, EXAMPLE_MESSAGE + 2);
+
+        Replica replica = stopPrimary();
+        List<Frame> messages = replica.getHistory().getAllMessages();
+
+        assertEquals(history.getEpoch(), replica.getHistory().getEpoch());
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(1).getText().contains("seq=2"));
+        assertTrue(messages.get(1).getText().contains(EXAMPLE_MESSAGE + 2));
+    }
+}
@@ -0,0 +1,80 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+import common.util.MessageDecoder;
+import common.util.Protocol;
+
+/**
+ * Tests the Frame for sharing one encoded buffer between recipients
+ */
+public class FrameTest {
+    private static final String TEXT = "type=MESSAGE&sender=User1&recipient=Group&content=Héllo";
+
+    @Test
+    void getBuffer_ReturnsEncodedLine_IfCalled() {
+        Frame frame = new Frame(Message.Type.MESSAGE, TEXT);
+        ByteBuffer buffer = frame.getBuffer();
+
+        assertTrue(buffer.isReadOnly());
+        assertEquals(TEXT + "\n", StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    void getBuffer_ReturnsIndependentViews_IfCalledForEachRecipient() {
+        Frame frame = new Frame(Message.Type.MESSAGE, TEXT);
+        ByteBuffer firstRecipient = frame.getBuffer();
+        ByteBuffer secondRecipient = frame.getBuffer();
+
+        firstRecipient.position(firstRecipient.limit()); // First recipient has written everything
+
+        assertFalse(firstRecipient.hasRemaining());
+        assertEquals(0, secondRecipient.position());
+        assertEquals(firstRecipient.limit(), secondRecipient.remaining());
+    }
+
+    @Test
+    void isPresence_ReturnsTrue_IfUserList() {
+        assertTrue(new Frame(Message.Type.USER_LIST, TEXT).isPresence());
+        assertFalse(new Frame(Message.Type.MESSAGE, TEXT).isPresence());
+    }
+
+    @Test
+    void batch_ReturnsEveryLine_IfFramesJoined() {
+        String second = "type=MESSAGE&sender=User2&recipient=Group&content=Hi";
+        Frame frame = Frame.batch(new Frame[] {
+                new Frame(Message.Type.MESSAGE, TEXT), new Frame(Message.Type.MESSAGE, second) });
+
+        assertEquals(TEXT + "\n" + second + "\n", StandardCharsets.UTF_8.decode(frame.getBuffer()).toString());
+        assertEquals(TEXT + "\n" + second, frame.getText());
+        assertFalse(frame.isPresence());
+    }
+
+    @Test
+    void getBuffer_ReturnsEachPartAsFrame_IfBatchCompressed() throws IOException {
+        Frame large = Frame.of(Message.sendMessage("User1", "Group", "Hello ".repeat(100), 1));
+        Frame small = Frame.of(Message.sendMessage("User2", "Group", "Hi", 2));
+        Frame frame = Frame.batch(new Frame[] { large, small });
+
+        ByteBuffer buffer = frame.getBuffer(Protocol.DEFLATE);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        MessageDecoder decoder = new MessageDecoder();
+        decoder.setProtocol(Protocol.DEFLATE);
+        ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+
+        assertTrue(bytes.length < frame.getBuffer(Protocol.BINARY).remaining());
+        assertEquals("Hello ".repeat(100), decoder.read(input).getContent());
+        assertEquals("Hi", decoder.read(input).getContent());
+    }
+}
@@ -0,0 +1,50 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the bucket bounds and percentiles of the LatencyHistogram
+ */
+public class LatencyHistogramTest {
+    @Test
+    void record_PutsValueInBucketNotBelowIt_IfValueInRange() {
+        for (long nanos : new long[] { 1025, 1280, 1281, 50_000, 999_999, 1_000_000_000 }) {
+            int bucket = LatencyHistogram.bucketOf(nanos);
+
+            assertTrue(LatencyHistogram.upperBound(bucket) >= nanos);
+            assertTrue(LatencyHistogram.upperBound(bucket - 1) < nanos);
+            assertTrue(LatencyHistogram.upperBound(bucket) <= nanos * 1.25 + 1);
+        }
+    }
+
+    @Test
+    void record_KeepsValueInEdgeBuckets_IfValueOutOfRange() {
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+        assertEquals(0, LatencyHistogram.bucketOf(1024));
+        assertEquals(LatencyHistogram.getBucketCount() - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.getBucketCount() - 1));
+    }
+
+    @Test
+    void getPercentile_ReturnsBucketBound_IfValuesRecorded() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(10_000);
+        }
+        histogram.record(5_000_000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucketOf(10_000)), histogram.getPercentile(50));
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucketOf(10_000)), histogram.getPercentile(99));
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucketOf(5_000_000)), histogram.getPercentile(99.9));
+        assertEquals(99 * 10_000L + 5_000_000, histogram.getSumNanos());
+    }
+
+    @Test
+    void getPercentile_ReturnsZero_IfNothingRecorded() {
+        assertEquals(0, new LatencyHistogram().getPercentile(99));
+    }
+}
@@ -0,0 +1,163 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.model.Message;
+
+/**
+ * Tests the MessageHistory ring buffers for the group, room and private channels, their limits and sequence numbers
+ */
+public class MessageHistoryTest {
+    private static final String USER_ID_1 = "User1";
+    private static final String USER_ID_2 = "User2";
+    private static final String USER_ID_3 = "User3";
+    private static final String GROUP_ID = "Group";
+
+    @TempDir
+    Path directory;
+
+    private void record(MessageHistory history, String sender, String recipient, String content) {
+        history.publish(sender, recipient, content, (message, frame) -> {
+        });
+    }
+
+    private List<String> getContents(Frame frame) {
+        return Arrays.stream(frame.getText().split("\n")).map(line -> line.substring(line.indexOf("content=") + 8))
+                .toList();
+    }
+
+    @Test
+    void getHistory_ReturnsLatestMessages_IfChannelFull() {
+        MessageHistory history = new MessageHistory(3, 4096, 10);
+        for (int i = 1; i <= 5; i++) {
+            record(history, USER_ID_1, GROUP_ID, "message " + i);
+        }
+
+        assertEquals(List.of("message 3", "message 4", "message 5"), getContents(history.getHistory(USER_ID_2)));
+    }
+
+    @Test
+    void getHistory_DropsOldestMessages_IfByteLimitReached() {
+        MessageHistory history = new MessageHistory(50, 300, 10); // Two messages of 60 characters (plus overhead)
+        String content = "x".repeat(60);
+        record(history, USER_ID_1, GROUP_ID, content + 1);
+        record(history, USER_ID_1, GROUP_ID, content + 2);
+        record(history, USER_ID_1, GROUP_ID, content + 3);
+
+        assertEquals(List.of(content + 2, content + 3), getContents(history.getHistory(USER_ID_2)));
+    }
+
+    @Test
+    void getHistory_IncludesOnlyOwnPrivateChannels_IfPrivateMessagesKept() {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        record(history, USER_ID_1, USER_ID_2, "to two");
+        record(history, USER_ID_2, USER_ID_1, "to one");
+        record(history, USER_ID_1, USER_ID_3, "to three");
+
+        assertEquals(List.of("to two", "to one"), getContents(history.getHistory(USER_ID_2)));
+        assertEquals(List.of("to three"), getContents(history.getHistory(USER_ID_3)));
+    }
+
+    @Test
+    void getHistory_DropsLeastRecentlyUsedPrivateChannel_IfTooManyChannels() {
+        MessageHistory history = new MessageHistory(10, 4096, 1);
+        record(history, USER_ID_1, USER_ID_2, "old");
+        record(history, USER_ID_1, USER_ID_3, "new");
+
+        assertNull(history.getHistory(USER_ID_2));
+        assertEquals(List.of("new"), getContents(history.getHistory(USER_ID_1)));
+    }
+
+    @Test
+    void getHistory_SkipsReceivedMessages_IfLastSequencesGiven() {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        long groupSequence = history.publish(USER_ID_1, GROUP_ID, "seen", (message, frame) -> {
+        }).getSequence();
+        record(history, USER_ID_1, GROUP_ID, "missed");
+        long privateSequence = history.publish(USER_ID_1, USER_ID_2, "seen privately", (message, frame) -> {
+        }).getSequence();
+        record(history, USER_ID_2, USER_ID_1, "missed privately");
+
+        Frame missed = history.getHistory(USER_ID_2, Map.of(GROUP_ID, groupSequence, USER_ID_1, privateSequence));
+
+        assertEquals(List.of("missed", "missed privately"), getContents(missed));
+    }
+
+    @Test
+    void publish_NumbersAfterRestoredMessages_IfHistoryRecorded() {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        history.record(Message.sendMessage(USER_ID_1, GROUP_ID, "restored", 41));
+
+        Message message = history.publish(USER_ID_1, USER_ID_2, "new", (published, frame) -> {
+        });
+
+        assertEquals(42, message.getSequence());
+        assertTrue(history.getHistory(USER_ID_2).getText().contains("seq=42"));
+    }
+
+    @Test
+    void restore_SkipsPrivateChannels_IfLogHasPrivateMessages() throws IOException {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        try (MessageLog log = new MessageLog(directory, 1 << 20, 3_600_000)) {
+            log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "group", 1));
+            log.append(Message.sendMessage(USER_ID_1, USER_ID_2, "private", 2));
+            log.flush();
+
+            history.restore(log);
+        }
+
+        assertEquals(List.of("group"), getContents(history.getHistory(USER_ID_2)));
+        assertEquals(3, history.publish(USER_ID_1, GROUP_ID, "new", (message, frame) -> {
+        }).getSequence());
+    }
+
+    @Test
+    void attach_SkipsPrivateChannels_IfSessionIsNew() {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        record(history, USER_ID_1, GROUP_ID, "group");
+        record(history, USER_ID_1, USER_ID_2, "earlier session");
+        Frame[] delivered = new Frame[1];
+
+        history.attach(USER_ID_2, Map.of(), () -> true, frame -> delivered[0] = frame);
+
+        assertEquals(List.of("group"), getContents(delivered[0]));
+    }
+
+    @Test
+    void removePrivateChannels_DropsChannelsOfUser_IfSessionEnded() {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        record(history, USER_ID_1, USER_ID_2, "ended");
+        record(history, USER_ID_1, USER_ID_3, "kept");
+
+        history.removePrivateChannels(USER_ID_2);
+
+        assertNull(history.getHistory(USER_ID_2));
+        assertEquals(List.of("kept"), getContents(history.getHistory(USER_ID_1)));
+    }
+
+    @Test
+    void attach_IncludesMissedRoomMessages_IfUserIsInRoom() {
+        MessageHistory history = new MessageHistory(10, 4096, 10);
+        record(history, USER_ID_1, "#team", "seen");
+        long lastSequence = history.publish(USER_ID_1, "#team", "missed", (message, frame) -> {
+        }).getSequence() - 1;
+        record(history, USER_ID_1, "#other", "not a member");
+        Frame[] delivered = new Frame[1];
+
+        history.attach(USER_ID_2, Map.of("#team", lastSequence), List.of("#team"), () -> true,
+                frame -> delivered[0] = frame);
+
+        assertEquals(List.of("missed"), getContents(delivered[0]));
+    }
+}
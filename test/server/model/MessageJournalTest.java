@@ -0,0 +1,47 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.model.Message;
+
+/**
+ * Tests the MessageJournal writing queued messages to the MessageLog in the background
+ */
+public class MessageJournalTest {
+    private static final String USER_ID_1 = "User1";
+    private static final String GROUP_ID = "Group";
+    private static final long ONE_HOUR_MS = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void close_WritesQueuedMessages_IfMessagesOffered() throws IOException {
+        MessageJournal journal = new MessageJournal(new MessageLog(directory, 1 << 20, ONE_HOUR_MS), 100, 50);
+        for (int i = 0; i < 20; i++) {
+            journal.offer(Message.sendMessage(USER_ID_1, GROUP_ID, "message " + i));
+        }
+        journal.close();
+
+        try (MessageLog log = new MessageLog(directory, 1 << 20, ONE_HOUR_MS)) {
+            assertEquals(20, log.getMessageCount(GROUP_ID));
+        }
+        assertEquals(20, journal.getWrittenCount());
+    }
+
+    @Test
+    void offer_ReturnsFalse_IfJournalClosed() throws IOException {
+        MessageJournal journal = new MessageJournal(new MessageLog(directory, 1 << 20, ONE_HOUR_MS), 100, 50);
+        journal.close();
+
+        assertFalse(journal.offer(Message.sendMessage(USER_ID_1, GROUP_ID, "late")));
+        assertEquals(1, journal.getDroppedCount());
+    }
+}
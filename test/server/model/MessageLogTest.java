@@ -0,0 +1,157 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import common.model.Message;
+
+/**
+ * Tests the MessageLog segments on disk: reading channels back, rolling segments and recovering after a restart
+ */
+public class MessageLogTest {
+    private static final String USER_ID_1 = "User1";
+    private static final String USER_ID_2 = "User2";
+    private static final String GROUP_ID = "Group";
+    private static final long ONE_HOUR_MS = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private List<Object> getContents(List<Message> messages) {
+        return messages.stream().map(Message::getContent).toList();
+    }
+
+    private Path getLastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().reduce((first, second) -> second)
+                    .orElseThrow();
+        }
+    }
+
+    @Test
+    void read_ReturnsChannelMessages_IfMessagesAppended() throws IOException {
+        try (MessageLog log = new MessageLog(directory, 1 << 20, ONE_HOUR_MS)) {
+            log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "group 1"));
+            log.append(Message.sendMessage(USER_ID_1, USER_ID_2, "private 1"));
+            log.append(Message.sendMessage(USER_ID_2, GROUP_ID, "group 2"));
+            log.append(Message.sendMessage(USER_ID_2, USER_ID_1, "private 2"));
+
+            String privateChannel = MessageLog.channelOf(USER_ID_2, USER_ID_1);
+            assertEquals(List.of("group 1", "group 2"), getContents(log.read(GROUP_ID, 0, 10)));
+            assertEquals(List.of("private 2"), getContents(log.read(privateChannel, 1, 10)));
+            assertEquals(2, log.getMessageCount(privateChannel));
+        }
+    }
+
+    @Test
+    void read_ReturnsMessagesOfEverySegment_IfReopenedAfterRolling() throws IOException {
+        Message first = new Message(Message.Type.MESSAGE, USER_ID_1, GROUP_ID, "message 0", 0, 1_700_000_000_000L);
+        try (MessageLog log = new MessageLog(directory, 100, ONE_HOUR_MS)) { // About two messages per segment
+            log.append(first);
+            for (int i = 1; i < 7; i++) {
+                log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "message " + i));
+            }
+            assertTrue(log.getSegmentCount() > 2);
+        }
+
+        try (MessageLog log = new MessageLog(directory, 100, ONE_HOUR_MS)) {
+            List<Message> messages = log.read(GROUP_ID, 0, 10);
+
+            assertEquals(7, messages.size());
+            assertEquals("message 6", messages.get(6).getContent());
+            assertEquals(first.getTimestamp(), messages.get(0).getTimestamp());
+            assertEquals(7, log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "message 7")));
+        }
+    }
+
+    @Test
+    void read_ReturnsRangeAcrossSegments_IfStartedInSealedSegment() throws IOException {
+        try (MessageLog log = new MessageLog(directory, 150, ONE_HOUR_MS)) { // About three messages per segment
+            for (int i = 0; i < 10; i++) {
+                log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "group " + i));
+                log.append(Message.sendMessage(USER_ID_1, USER_ID_2, "private " + i));
+            }
+            assertTrue(log.getSegmentCount() > 4);
+
+            assertEquals(List.of("group 3", "group 4", "group 5", "group 6"), getContents(log.read(GROUP_ID, 3, 4)));
+            assertEquals(List.of("private 8", "private 9"),
+                    getContents(log.read(MessageLog.channelOf(USER_ID_1, USER_ID_2), 8, 10)));
+        }
+    }
+
+    @Test
+    void constructor_CutsTornRecord_IfLastSegmentEndsMidRecord() throws IOException {
+        try (MessageLog log = new MessageLog(directory, 1 << 20, ONE_HOUR_MS)) {
+            log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "kept"));
+            log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "torn"));
+        }
+        Path segment = getLastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // Crash while the last record was written
+        }
+
+        try (MessageLog log = new MessageLog(directory, 1 << 20, ONE_HOUR_MS)) {
+            log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "after restart"));
+
+            assertEquals(List.of("kept", "after restart"), getContents(log.read(GROUP_ID, 0, 10)));
+        }
+    }
+
+    @Test
+    void append_DeletesOldestSegments_IfRetainedCountReached() throws IOException {
+        try (MessageLog log = new MessageLog(directory, 100, ONE_HOUR_MS, 2)) { // About two messages per segment
+            for (int i = 0; i < 10; i++) {
+                log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "message " + i));
+            }
+
+            assertEquals(2, log.getSegmentCount());
+            List<Object> contents = getContents(log.read(GROUP_ID, 0, 10));
+            assertEquals("message 9", contents.get(contents.size() - 1));
+            assertEquals(contents.size(), log.getMessageCount(GROUP_ID));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.count()); // Two segments, the sealed one with its index
+        }
+    }
+
+    @Test
+    void constructor_DeletesOldestSegments_IfMoreThanRetained() throws IOException {
+        try (MessageLog log = new MessageLog(directory, 100, ONE_HOUR_MS)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "message " + i));
+            }
+            assertTrue(log.getSegmentCount() > 3);
+        }
+
+        try (MessageLog log = new MessageLog(directory, 100, ONE_HOUR_MS, 3)) {
+            assertEquals(3, log.getSegmentCount());
+            assertEquals("message 9", log.read(GROUP_ID, log.getMessageCount(GROUP_ID) - 1, 1).get(0).getContent());
+        }
+    }
+
+    @Test
+    void append_SkipsMessage_IfChannelTooLongForIndex() throws IOException {
+        String longId = "x".repeat(70_000);
+        try (MessageLog log = new MessageLog(directory, 100, ONE_HOUR_MS)) {
+            assertEquals(-1, log.append(Message.sendMessage(USER_ID_1, longId, "not logged")));
+            for (int i = 0; i < 5; i++) { // Rolls, every index can be written
+                log.append(Message.sendMessage(USER_ID_1, GROUP_ID, "message " + i));
+            }
+
+            assertTrue(log.getSegmentCount() > 1);
+            assertFalse(log.getChannels().contains(MessageLog.channelOf(USER_ID_1, longId)));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the Prometheus text written by Metrics
+ */
+public class MetricsTest {
+    @Test
+    void toPrometheus_WritesCountersByType_IfMessagesReceived() {
+        Metrics metrics = new Metrics();
+        metrics.countReceived(Message.Type.MESSAGE);
+        metrics.countReceived(Message.Type.MESSAGE);
+        metrics.countSent(3, 120);
+
+        String text = metrics.toPrometheus();
+
+        assertTrue(text.contains("# TYPE chat_messages_received_total counter\n"));
+        assertTrue(text.contains("chat_messages_received_total{type=\"MESSAGE\"} 2\n"));
+        assertFalse(text.contains("type=\"PING\""));
+        assertTrue(text.contains("chat_frames_sent_total 3\n"));
+        assertTrue(text.contains("chat_bytes_sent_total 120\n"));
+    }
+
+    @Test
+    void toPrometheus_WritesCumulativeBuckets_IfLatencyRecorded() {
+        Metrics metrics = new Metrics();
+        metrics.getRoutingTime().record(2_000);
+        metrics.getRoutingTime().record(2_000_000);
+
+        String text = metrics.toPrometheus();
+
+        assertTrue(text.contains("# TYPE chat_routing_duration_seconds histogram\n"));
+        assertTrue(text.contains("chat_routing_duration_seconds_bucket{le=\"1.024E-6\"} 0\n"));
+        assertTrue(text.contains("chat_routing_duration_seconds_bucket{le=\"2.048E-6\"} 1\n"));
+        assertTrue(text.contains("chat_routing_duration_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("chat_routing_duration_seconds_count 2\n"));
+    }
+
+    @Test
+    void toPrometheus_WritesRegisteredValues_IfKeptElsewhere() {
+        Metrics metrics = new Metrics();
+        metrics.countConnectionOpened();
+        metrics.countConnectionOpened();
+        metrics.countConnectionClosed();
+        metrics.registerGauge("users", "Users", () -> 7);
+        metrics.registerCounters("rejected_total", "Rejections", "user", () -> Map.of("Us\"er", 4L));
+
+        String text = metrics.toPrometheus();
+
+        assertEquals(1, metrics.getActiveConnections());
+        assertTrue(text.contains("chat_connections_active 1\n"));
+        assertTrue(text.contains("# TYPE chat_users gauge\nchat_users 7\n"));
+        assertTrue(text.contains("chat_rejected_total{user=\"Us\\\"er\"} 4\n"));
+    }
+}
@@ -0,0 +1,102 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the OutboundQueue for each overflow policy and the per user counters
+ */
+public class OutboundQueueTest {
+    private static final Frame MESSAGE_1 = new Frame(Message.Type.MESSAGE, "message1");
+    private static final Frame MESSAGE_2 = new Frame(Message.Type.MESSAGE, "message2");
+    private static final Frame USER_LIST = new Frame(Message.Type.USER_LIST, "userList");
+
+    @Test
+    void offer_DropsOldestFrame_IfFullWithDropOldestPolicy() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(USER_LIST);
+        queue.offer(MESSAGE_1);
+
+        assertTrue(queue.offer(MESSAGE_2));
+        assertEquals(2, queue.getDepth());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(MESSAGE_1, queue.poll());
+    }
+
+    @Test
+    void offer_DropsPresenceFrameFirst_IfFullWithDropPresencePolicy() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_PRESENCE);
+        queue.offer(MESSAGE_1);
+        queue.offer(USER_LIST);
+
+        assertTrue(queue.offer(MESSAGE_2));
+        assertEquals(MESSAGE_1, queue.poll());
+        assertEquals(MESSAGE_2, queue.poll());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    void offer_DropsNewPresenceFrame_IfFullOfMessagesWithDropPresencePolicy() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_PRESENCE);
+        queue.offer(MESSAGE_1);
+        queue.offer(MESSAGE_2);
+
+        assertTrue(queue.offer(USER_LIST));
+        assertEquals(MESSAGE_1, queue.poll());
+        assertEquals(MESSAGE_2, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void offer_ReturnsFalse_IfFullOfMessagesWithDropOldestPolicy() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(MESSAGE_1);
+        queue.offer(MESSAGE_2);
+
+        assertFalse(queue.offer(new Frame(Message.Type.MESSAGE, "message3"))); // Resumed instead of a silent gap
+        assertTrue(queue.offer(USER_LIST));
+        assertEquals(MESSAGE_1, queue.poll());
+        assertEquals(MESSAGE_2, queue.poll());
+    }
+
+    @Test
+    void offer_CountsDropsOfEveryQueue_IfTotalShared() {
+        LongAdder droppedTotal = new LongAdder();
+        OutboundQueue first = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DROP_PRESENCE, droppedTotal);
+        OutboundQueue second = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DROP_PRESENCE, droppedTotal);
+        first.offer(USER_LIST);
+        first.offer(MESSAGE_1);
+        second.offer(MESSAGE_1);
+        second.offer(USER_LIST);
+
+        assertEquals(1, first.getDroppedCount());
+        assertEquals(2, droppedTotal.sum());
+    }
+
+    @Test
+    void offer_ReturnsFalse_IfFullWithDisconnectPolicy() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        queue.offer(MESSAGE_1);
+
+        assertFalse(queue.offer(MESSAGE_2));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    void take_ReturnsNull_IfClosedAndEmpty() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(MESSAGE_1);
+        queue.close();
+
+        assertEquals(MESSAGE_1, queue.take()); // Queued frames are still written after closing
+        assertNull(queue.take());
+    }
+}
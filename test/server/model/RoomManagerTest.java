@@ -0,0 +1,93 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the RoomManager for creating, joining and leaving rooms and the index of each user's rooms
+ */
+public class RoomManagerTest {
+    private RoomManager roomManager;
+    private User user1;
+    private User user2;
+
+    private static final String ROOM_ID = "#team";
+    private static final String OTHER_ROOM_ID = "#other";
+    private static final String SOCKET_ADDRESS = "127.0.0.1:1549";
+
+    @BeforeEach
+    void setUp() {
+        roomManager = new RoomManager();
+        user1 = new User("User1", SOCKET_ADDRESS, new PrintWriter(new StringWriter(), true));
+        user2 = new User("User2", SOCKET_ADDRESS, new PrintWriter(new StringWriter(), true));
+    }
+
+    @Test
+    void isRoomId_ReturnsTrue_IfHashFollowedByLettersAndDigits() {
+        assertTrue(RoomManager.isRoomId(ROOM_ID));
+        assertTrue(RoomManager.isRoomId("#Room42"));
+        assertFalse(RoomManager.isRoomId("#"));
+        assertFalse(RoomManager.isRoomId("team"));
+        assertFalse(RoomManager.isRoomId("#my team"));
+        assertFalse(RoomManager.isRoomId("#" + "x".repeat(33)));
+        assertFalse(RoomManager.isRoomId("Group"));
+    }
+
+    @Test
+    void createRoom_ReturnsFalse_IfRoomExists() {
+        assertTrue(roomManager.createRoom(ROOM_ID, user1));
+        assertFalse(roomManager.createRoom(ROOM_ID, user2));
+        assertArrayEquals(new User[] { user1 }, roomManager.getMembers(ROOM_ID));
+    }
+
+    @Test
+    void joinRoom_ReturnsFalse_IfRoomMissing() {
+        assertFalse(roomManager.joinRoom(ROOM_ID, user1));
+        assertEquals(0, roomManager.getMembers(ROOM_ID).length);
+        assertEquals(Set.of(), roomManager.getRooms(user1.getUserId()));
+    }
+
+    @Test
+    void joinRoom_AddsMemberOnce_IfJoinedTwice() {
+        roomManager.createRoom(ROOM_ID, user1);
+        roomManager.joinRoom(ROOM_ID, user2);
+        roomManager.joinRoom(ROOM_ID, user2);
+
+        assertArrayEquals(new User[] { user1, user2 }, roomManager.getMembers(ROOM_ID));
+        assertTrue(roomManager.isMember(ROOM_ID, user2.getUserId()));
+        assertEquals(Set.of(ROOM_ID), roomManager.getRooms(user2.getUserId()));
+    }
+
+    @Test
+    void leaveRoom_RemovesRoom_IfLastMemberLeaves() {
+        roomManager.createRoom(ROOM_ID, user1);
+        roomManager.joinRoom(ROOM_ID, user2);
+
+        assertTrue(roomManager.leaveRoom(ROOM_ID, user1.getUserId()));
+        assertTrue(roomManager.hasRoom(ROOM_ID));
+        assertTrue(roomManager.leaveRoom(ROOM_ID, user2.getUserId()));
+        assertFalse(roomManager.hasRoom(ROOM_ID));
+        assertFalse(roomManager.leaveRoom(ROOM_ID, user2.getUserId()));
+    }
+
+    @Test
+    void leaveAllRooms_RemovesUserFromEveryRoom_IfUserLeavesServer() {
+        roomManager.createRoom(ROOM_ID, user1);
+        roomManager.createRoom(OTHER_ROOM_ID, user2);
+        roomManager.joinRoom(OTHER_ROOM_ID, user1);
+
+        assertEquals(Set.of(ROOM_ID, OTHER_ROOM_ID), roomManager.leaveAllRooms(user1.getUserId()));
+        assertFalse(roomManager.hasRoom(ROOM_ID));
+        assertArrayEquals(new User[] { user2 }, roomManager.getMembers(OTHER_ROOM_ID));
+        assertEquals(Set.of(), roomManager.getRooms(user1.getUserId()));
+    }
+}
@@ -0,0 +1,75 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import common.model.Message;
+
+/**
+ * Tests the Roster snapshots published by the UserManager, checking they stay unchanged after later changes and
+ * that the encoded user list is reused
+ */
+public class RosterTest {
+    private UserManager userManager;
+    private final String USER_ID_1 = "User1";
+    private final String USER_ID_2 = "User2";
+    private final String SOCKET_ADDRESS = "127.0.0.1:1549";
+    private PrintWriter printWriter;
+
+    @BeforeEach
+    void setUp() {
+        userManager = new UserManager();
+        printWriter = new PrintWriter(new StringWriter(), true);
+    }
+
+    private void createUser(String userId) {
+        userManager.addUser(new User(userId, SOCKET_ADDRESS, printWriter));
+    }
+
+    @Test
+    void getRoster_PublishesNewVersion_IfUsersChange() {
+        createUser(USER_ID_1);
+        Roster afterJoin = userManager.getRoster();
+        createUser(USER_ID_2);
+        userManager.toggleUserStatus(USER_ID_2);
+        userManager.removeUser(USER_ID_1);
+        Roster afterLeave = userManager.getRoster();
+
+        assertEquals(1, afterJoin.getVersion());
+        assertEquals(4, afterLeave.getVersion());
+        assertEquals(USER_ID_2, afterLeave.getUsers()[0].getUserId());
+        assertEquals("COORDINATOR", afterLeave.getUserDetails().get(USER_ID_2).get("role"));
+        assertEquals("INACTIVE", afterLeave.getUserDetails().get(USER_ID_2).get("status"));
+    }
+
+    @Test
+    void getUserDetails_ReturnsDetailsWhenSnapshotWasTaken_IfStatusChangesLater() {
+        createUser(USER_ID_1);
+        Roster roster = userManager.getRoster();
+        userManager.toggleUserStatus(USER_ID_1);
+
+        assertEquals("ACTIVE", roster.getUserDetails().get(USER_ID_1).get("status"));
+        assertEquals("INACTIVE", userManager.getAllUserDetails().get(USER_ID_1).get("status"));
+    }
+
+    @Test
+    void getUserListFrame_ReusesFrame_IfRosterVersionUnchanged() {
+        createUser(USER_ID_1);
+        createUser(USER_ID_2);
+        Roster roster = userManager.getRoster();
+        Frame frame = roster.getUserListFrame(2);
+
+        assertSame(frame, roster.getUserListFrame(2));
+        assertNotSame(frame, roster.getUserListFrame(3));
+        assertEquals(Message.Type.USER_LIST, frame.getType());
+        assertTrue(frame.getText().contains(USER_ID_2));
+    }
+}
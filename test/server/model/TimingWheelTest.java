@@ -0,0 +1,73 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the TimingWheel by advancing it to given times instead of waiting for its clock
+ */
+public class TimingWheelTest {
+    private static final long TICK_MS = 10;
+    private static final int SLOT_COUNT = 4; // One revolution lasts 40ms
+    private final List<String> handled = new ArrayList<>();
+
+    private TimingWheel<String> createWheel(long rescheduleMs) {
+        return new TimingWheel<>(TICK_MS, SLOT_COUNT, (item, now) -> {
+            handled.add(item + "@" + now);
+            return rescheduleMs < 0 ? -1 : now + rescheduleMs;
+        });
+    }
+
+    @Test
+    void advance_HandlesItem_IfDeadlinePassed() {
+        TimingWheel<String> wheel = createWheel(-1);
+        wheel.schedule("A", 25);
+        wheel.schedule("B", 35);
+
+        wheel.advance(20);
+        assertEquals(List.of(), handled);
+
+        wheel.advance(30);
+        assertEquals(List.of("A@30"), handled);
+    }
+
+    @Test
+    void advance_KeepsItem_IfDeadlineInLaterRevolution() {
+        TimingWheel<String> wheel = createWheel(-1);
+        wheel.schedule("A", 105); // Same slot as 25 and 65
+
+        wheel.advance(30);
+        wheel.advance(70);
+        assertEquals(List.of(), handled);
+
+        wheel.advance(110);
+        assertEquals(List.of("A@110"), handled);
+    }
+
+    @Test
+    void advance_SchedulesItemAgain_IfHandlerReturnsDeadline() {
+        TimingWheel<String> wheel = createWheel(20);
+        wheel.schedule("A", 10);
+
+        wheel.advance(10);
+        wheel.advance(20);
+        wheel.advance(30);
+
+        assertEquals(List.of("A@10", "A@30"), handled);
+    }
+
+    @Test
+    void schedule_HandlesItemOnNextTick_IfDeadlineAlreadyPassed() {
+        TimingWheel<String> wheel = createWheel(-1);
+        wheel.advance(50);
+        wheel.schedule("A", 5);
+
+        wheel.advance(60);
+
+        assertEquals(List.of("A@60"), handled);
+    }
+}
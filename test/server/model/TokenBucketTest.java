@@ -0,0 +1,70 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the TokenBucket with explicit times, 10 tokens per second is one token every 100ms
+ */
+public class TokenBucketTest {
+    private static final long START = 1_000_000_000L;
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void tryTake_TakesBurst_IfBucketFull() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+
+        assertEquals(0, bucket.tryTake(START));
+        assertEquals(0, bucket.tryTake(START));
+        assertEquals(0, bucket.tryTake(START));
+        assertTrue(bucket.tryTake(START) > 0);
+    }
+
+    @Test
+    void tryTake_ReturnsWaitWithoutTaking_IfBucketEmpty() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.tryTake(START);
+
+        assertEquals(INTERVAL, bucket.tryTake(START));
+        assertEquals(INTERVAL / 2, bucket.tryTake(START + INTERVAL / 2));
+        assertEquals(0, bucket.tryTake(START + INTERVAL));
+    }
+
+    @Test
+    void tryTake_RefillsUpToBurst_IfQuietForLong() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        bucket.tryTake(START);
+        bucket.tryTake(START);
+
+        long later = START + 100 * INTERVAL;
+
+        assertEquals(0, bucket.tryTake(later));
+        assertEquals(0, bucket.tryTake(later));
+        assertTrue(bucket.tryTake(later) > 0);
+    }
+
+    @Test
+    void refund_ReturnsTakenToken_IfNotUsed() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.tryTake(START);
+
+        bucket.refund();
+
+        assertEquals(0, bucket.tryTake(START));
+        assertEquals(INTERVAL, bucket.tryTake(START));
+    }
+
+    @Test
+    void reserve_ReturnsGrowingWaits_IfBucketEmpty() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+
+        assertEquals(0, bucket.reserve(START));
+        assertEquals(INTERVAL, bucket.reserve(START));
+        assertEquals(2 * INTERVAL, bucket.reserve(START));
+        assertEquals(3 * INTERVAL, bucket.tryTake(START));
+    }
+}
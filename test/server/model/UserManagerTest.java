@@ -1,12 +1,18 @@
 package server.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -79,6 +85,16 @@ public class UserManagerTest {
         assertNull(userManager.getCoordinatorId());
     }
 
+    @Test
+    void removeUser_KeepsConnectedUser_IfOtherUserWithSameIdRemoved() {
+        User connected = createUser(USER_ID_1);
+        User rejected = new User(USER_ID_1, SOCKET_ADDRESS, printWriter);
+
+        assertFalse(userManager.removeUser(rejected));
+        assertSame(connected, userManager.getUser(USER_ID_1));
+        assertEquals(1, userManager.getRoster().size());
+    }
+
     @Test
     void getUser_ReturnsNull_IfUserDoesNotExist() {
         assertNull(userManager.getUser(USER_ID_1));
@@ -134,4 +150,91 @@ public class UserManagerTest {
         userManager.toggleUserStatus(USER_ID_1);
         assertEquals(User.Status.ACTIVE, user.getStatus());
     }
+
+    @Test
+    void addUser_ReturnsFalse_IfUserIdAlreadyInUse() {
+        User user = createUser(USER_ID_1);
+        User duplicate = new User(USER_ID_1, SOCKET_ADDRESS, printWriter);
+
+        assertFalse(userManager.addUser(duplicate));
+        assertSame(user, userManager.getUser(USER_ID_1));
+        assertEquals(1, userManager.getUsers().size());
+    }
+
+    @Test
+    void addUser_AdmitsOneUser_IfSameIdJoinsConcurrently() throws InterruptedException {
+        int threadCount = 8;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    if (userManager.addUser(new User(USER_ID_1, SOCKET_ADDRESS, printWriter))) {
+                        admitted.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, admitted.get());
+        assertEquals(USER_ID_1, userManager.getCoordinatorId());
+    }
+
+    @Test
+    void removeUser_AssignsEarliestJoinedUser_IfCoordinatorLeaves() {
+        createCoordinatorAndMember();
+        createUser("User3");
+        userManager.removeUser(USER_ID_2);
+        userManager.removeUser(USER_ID_1);
+
+        assertEquals("User3", userManager.getCoordinatorId());
+        assertEquals(List.of("User3"), userManager.getUsers().stream().map(User::getUserId).toList());
+    }
+
+    @Test
+    void addUser_ReturnsFalse_IfUserIdTakenOnAnotherNode() {
+        userManager.addRemoteUser(new RemoteUser(USER_ID_1, "node2", 1, User.Status.ACTIVE, SOCKET_ADDRESS));
+
+        assertFalse(userManager.addUser(new User(USER_ID_1, SOCKET_ADDRESS, printWriter)));
+        assertTrue(userManager.getAllUserDetails().containsKey(USER_ID_1));
+    }
+
+    @Test
+    void addRemoteUser_HandsOverCoordinator_IfRemoteUserJoinedEarlier() {
+        User user = createUser(USER_ID_1);
+        userManager.addRemoteUser(new RemoteUser(USER_ID_2, "node2", 1, User.Status.ACTIVE, SOCKET_ADDRESS));
+
+        assertEquals(USER_ID_2, userManager.getCoordinatorId());
+        assertEquals(User.Role.MEMBER, user.getRole());
+        assertEquals("COORDINATOR", userManager.getAllUserDetails().get(USER_ID_2).get("role"));
+    }
+
+    @Test
+    void addRemoteUser_ReturnsLocalUser_IfSameIdJoinedLaterLocally() {
+        User user = createUser(USER_ID_1);
+        User later = userManager.addRemoteUser(new RemoteUser(USER_ID_1, "node2", 1, User.Status.ACTIVE,
+                SOCKET_ADDRESS));
+
+        assertSame(user, later);
+    }
+
+    @Test
+    void removeRemoteUser_ReturnsFalse_IfUserBelongsToAnotherNode() {
+        userManager.addRemoteUser(new RemoteUser(USER_ID_1, "node2", 1, User.Status.ACTIVE, SOCKET_ADDRESS));
+
+        assertFalse(userManager.removeRemoteUser(USER_ID_1, "node3"));
+        assertTrue(userManager.removeRemoteUser(USER_ID_1, "node2"));
+        assertNull(userManager.getCoordinatorId());
+    }
 }
@@ -2,12 +2,16 @@ package server.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import common.model.Message;
+
 /**
  * Tests the User class by creating a user and checking its properties, PrintWriter is mocked as null as it is not used
  * in the tests
@@ -66,4 +70,53 @@ public class UserTest {
     void getWriter_ReturnsWriter_IfCalled() {
         assertSame(MOCK_WRITER, user.getWriter());
     }
+
+    @Test
+    void send_WritesFrameToWriter_IfCreatedWithWriter() {
+        StringWriter stringWriter = new StringWriter();
+        User writerUser = new User(USER_ID, SOCKET_ADDRESS, new PrintWriter(stringWriter, true));
+
+        writerUser.send(new Frame(Message.Type.MESSAGE, "Hello"));
+        assertEquals("Hello" + System.lineSeparator(), stringWriter.toString());
+        assertEquals(0, writerUser.getOutbound().getDepth());
+    }
+
+    @Test
+    void send_QueuesFrame_IfCreatedWithOutboundQueue() {
+        OutboundQueue outbound = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        boolean[] closed = { false };
+        User queuedUser = new User(USER_ID, SOCKET_ADDRESS, outbound, new UserConnection() {
+            @Override
+            public void onFramesQueued() {
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+
+        queuedUser.send(new Frame(Message.Type.MESSAGE, "Hello"));
+        assertEquals(1, outbound.getDepth());
+
+        queuedUser.send(new Frame(Message.Type.MESSAGE, "Hello again")); // Queue full, client too slow
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    void swapConnection_QueuesToNewConnection_IfSessionResumed() {
+        StringWriter oldOutput = new StringWriter();
+        StringWriter newOutput = new StringWriter();
+        User session = new User(USER_ID, SOCKET_ADDRESS, new PrintWriter(oldOutput, true));
+        session.promoteToCoordinator();
+        User resumed = new User(USER_ID, "127.0.0.1:1550", new PrintWriter(newOutput, true));
+
+        session.swapConnection(resumed).close();
+        session.send(new Frame(Message.Type.MESSAGE, "Hello"));
+
+        assertEquals("", oldOutput.toString());
+        assertEquals("Hello" + System.lineSeparator(), newOutput.toString());
+        assertEquals("127.0.0.1:1550", session.getSocketAddress());
+        assertEquals(User.Role.COORDINATOR, session.getRole());
+    }
 }